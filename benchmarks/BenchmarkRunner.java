@@ -0,0 +1,27 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of the hot numeric code (filters, odometry math, control step of the navigator) and reports, for each one, the throughput (operations per us),
+ * the latency (distribution of the time per operation, from sampling) and the allocation rate (bytes allocated per operation, from the GC profiler).
+ * The benchmarks call the code of the robot directly, without Main.get(), so they run on a computer or on the brick without any motor or sensor.
+ * The Maven module in this folder (pom.xml) compiles them with the JMH annotation processor, along with the code of the robot, and packages everything in a runnable jar:
+ * mvn package, then java -jar target/benchmarks.jar [regular expression of the benchmarks to run], for example "Filter" to only run the filter benchmarks
+ *
+ * @version 1.0
+ */
+public class BenchmarkRunner {
+	
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include("benchmarks\\..*" + ((args.length > 0)? args[0] : ""))
+				.addProfiler(GCProfiler.class)
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,103 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import filters.EdgeFilter;
+import filters.MeanFilter;
+import filters.MedianFilter;
+import main.SensorPoller;
+
+/**
+ * Benchmarks of the filters applied to the windows of the sensor poller. Each call puts the next sample of a trace in the window, the way the sensor poller does, then filters the window.
+ * The mean and median filters run on the ultrasonic trace, with the window of the ultrasonic sensor and the one of the floor sensors. The edge filter runs on the floor trace, with the window of the floor sensors.
+ *
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+	
+	private final MeanFilter meanFilter = new MeanFilter();
+	private final MedianFilter medianFilter = new MedianFilter();
+	private final EdgeFilter edgeFilter = new EdgeFilter();
+	
+	/**
+	 * Window of the ultrasonic sensor
+	 */
+	@State(Scope.Thread)
+	public static class Ultrasonic {
+		@Param({"" + SensorPoller.US_WINDOW, "" + SensorPoller.COLOR_WINDOW})
+		private int window;
+		private float[] trace;
+		private float[] data;
+		private int index = 0;
+		
+		@Setup
+		public void setup() {
+			trace = Traces.ultrasonic();
+			data = new float[window];
+			for(index = 0; index < window; index++) //Start with a full window
+				data[index] = trace[index];
+		}
+		
+		/**
+		 * Put the next sample of the trace in the window
+		 */
+		private void next() {
+			data[index % window] = trace[index++ % Traces.LENGTH];
+		}
+	}
+	
+	/**
+	 * Window of a floor sensor
+	 */
+	@State(Scope.Thread)
+	public static class Floor {
+		private float[] trace;
+		private float[] data;
+		private int index = 0;
+		
+		@Setup
+		public void setup() {
+			trace = Traces.floor();
+			data = new float[SensorPoller.COLOR_WINDOW];
+			for(index = 0; index < SensorPoller.COLOR_WINDOW; index++) //Start with a full window
+				data[index] = trace[index];
+		}
+	}
+	
+	@Benchmark
+	public float mean(Ultrasonic state) {
+		state.next();
+		return meanFilter.getFilteredData(state.data);
+	}
+	
+	@Benchmark
+	public float median(Ultrasonic state) {
+		state.next();
+		return medianFilter.getFilteredData(state.data);
+	}
+	
+	@Benchmark
+	public float edge(Floor state) {
+		int last = state.index % SensorPoller.COLOR_WINDOW;
+		state.data[last] = state.trace[state.index++ % Traces.LENGTH];
+		return edgeFilter.getFilteredData(state.data, last);
+	}
+}
@@ -0,0 +1,56 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import main.ControlParameters;
+import main.Main;
+import main.Navigator;
+
+/**
+ * Benchmark of the control step of the navigator: the heading to the target, the angle left to turn and the speed of the wheels, computed from the poses of the odometer trace.
+ * The motors are not driven: the speeds are returned instead.
+ *
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NavigatorBenchmark {
+	
+	private double[][] poses;
+	private final double[][] targets = { {5.5 * Main.TILE_LENGTH, 0.5 * Main.TILE_LENGTH}, {5.5 * Main.TILE_LENGTH, 8.5 * Main.TILE_LENGTH}, {0.5 * Main.TILE_LENGTH, 8.5 * Main.TILE_LENGTH} };
+	private int index = 0;
+	
+	@Setup
+	public void setup() {
+		poses = Traces.poses();
+	}
+	
+	@Benchmark
+	public int step() {
+		int i = index++ % Traces.LENGTH;
+		double x = poses[0][i], y = poses[1][i], theta = poses[2][i];
+		double[] target = targets[(i / 512) % targets.length];
+		boolean backwards = (i / 1024) % 2 == 1;
+		
+		ControlParameters parameters = ControlParameters.DEFAULT;
+		double thetaVar = theta - Navigator.getHeading(x, y, target[0], target[1], backwards);
+		if(Math.abs(thetaVar) > parameters.getAngleTolerance() && Math.abs(thetaVar) < 2*Math.PI - parameters.getAngleTolerance())
+			return Navigator.getRotationSpeed(parameters, thetaVar);
+		return Navigator.getMoveSpeed(parameters, Math.pow(x - target[0], 2) + Math.pow(y - target[1], 2));
+	}
+}
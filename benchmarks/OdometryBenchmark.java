@@ -0,0 +1,74 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import main.ControlParameters;
+import main.Odometer;
+import main.OdometryCorrection;
+
+/**
+ * Benchmarks of the odometry math: the update of the pose from the wheels done by the odometer every period (Odometer.advance()),
+ * and the correction of the pose from a line crossed by both floor sensors (OdometryCorrection.correct()).
+ *
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OdometryBenchmark {
+	
+	private int[][] tachos;
+	private double[][] poses;
+	private double[] offsets; //Distance between the crossings of the two sensors (in cm)
+	private final double[] pose = new double[3];
+	private int index = 0;
+	
+	@Setup
+	public void setup() {
+		tachos = Traces.tachos();
+		poses = Traces.poses();
+		offsets = new double[Traces.LENGTH];
+		for(int i = 0; i < Traces.LENGTH; i++)
+			offsets[i] = ((i * 37) % 61 - 30) / 10.0; //From -3 to 3 cm, below the threshold of the odometry correction
+		pose[0] = poses[0][0];
+		pose[1] = poses[1][0];
+		pose[2] = poses[2][0];
+	}
+	
+	@Benchmark
+	public double advance() {
+		int i = index++ % Traces.LENGTH;
+		if(i == 0) { //Start the path again, so the pose stays on the map
+			pose[0] = poses[0][0];
+			pose[1] = poses[1][0];
+			pose[2] = poses[2][0];
+		}
+		return Odometer.advance(pose, tachos[0][i], tachos[1][i]);
+	}
+	
+	@Benchmark
+	public double correct() {
+		int i = index++ % Traces.LENGTH;
+		pose[0] = poses[0][i];
+		pose[1] = poses[1][i];
+		pose[2] = poses[2][i];
+		boolean horizontal = Math.round(pose[2] / (Math.PI / 2)) % 2 == 0;
+		double distance = horizontal? pose[0] : pose[1];
+		OdometryCorrection.correct(ControlParameters.DEFAULT, pose, distance, distance + offsets[i], horizontal);
+		return pose[0] + pose[1] + pose[2];
+	}
+}
@@ -0,0 +1,88 @@
+package benchmarks;
+
+import java.util.Random;
+
+import main.Odometer;
+
+/**
+ * Input traces for the benchmarks, close to what the robot sees during a match. They are generated from a fixed seed, so every run of the benchmarks gets the same inputs.
+ * The traces are long enough that the branches taken by the code under test cannot be learned from a short repeating pattern.
+ *
+ * @version 1.0
+ */
+public abstract class Traces {
+	
+	/**
+	 * Number of samples of each trace
+	 */
+	public static final int LENGTH = 4096;
+	
+	private static final long SEED = 42;
+	private static final double SENSOR_PERIOD = 0.025; //Period of the sensor poller (in s)
+	
+	/**
+	 * get a trace of the top ultrasonic sensor: a wall coming closer and going away at 15 cm/s, with 1 cm of noise, and 5% of the samples lost (no echo: 2.55 m)
+	 * @return the samples (in m)
+	 */
+	public static float[] ultrasonic() {
+		Random random = new Random(SEED);
+		float[] trace = new float[LENGTH];
+		double distance = 1.2, speed = -0.15;
+		for(int i = 0; i < LENGTH; i++) {
+			distance += speed * SENSOR_PERIOD;
+			if(distance < 0.15 || distance > 1.2)
+				speed = -speed;
+			trace[i] = (random.nextDouble() < 0.05)? 2.55f : (float) (distance + random.nextGaussian() * 0.01);
+		}
+		return trace;
+	}
+	
+	/**
+	 * get a trace of a floor light sensor in red mode: the wood of the tiles, with a black line crossed every 5 seconds, each crossing lasting 8 samples
+	 * @return the samples (reflected light, from 0 to 1)
+	 */
+	public static float[] floor() {
+		Random random = new Random(SEED + 1);
+		float[] trace = new float[LENGTH];
+		for(int i = 0; i < LENGTH; i++) {
+			boolean line = i % 200 >= 100 && i % 200 < 108;
+			trace[i] = (float) ((line? 0.15 : 0.45) + random.nextGaussian() * 0.01);
+		}
+		return trace;
+	}
+	
+	/**
+	 * get the changes of the tacho counts of the wheels at each period of the odometer: legs of a tile at 300 deg/s and quarter turns on the spot at 110 deg/s,
+	 * with a degree of jitter from the regulation of the motors
+	 * @return the changes of the left tacho counts then the right tacho counts (in degrees)
+	 */
+	public static int[][] tachos() {
+		Random random = new Random(SEED + 2);
+		int[][] tachos = new int[2][LENGTH];
+		for(int i = 0; i < LENGTH; i++) {
+			boolean turning = i % 410 >= 200; //About a quarter turn after each leg of a tile
+			double left = turning? -1.65 : 4.5; //Degrees per 15 ms period
+			double right = turning? 1.65 : 4.5;
+			tachos[0][i] = (int) Math.round(left + random.nextGaussian() * 0.5);
+			tachos[1][i] = (int) Math.round(right + random.nextGaussian() * 0.5);
+		}
+		return tachos;
+	}
+	
+	/**
+	 * get the poses of the robot following the tacho trace from the center of the first tile
+	 * @return the x, y (in cm) and theta (in radians) of each pose
+	 */
+	public static double[][] poses() {
+		int[][] tachos = tachos();
+		double[][] poses = new double[3][LENGTH];
+		double[] pose = {15.24, 15.24, Math.PI / 2};
+		for(int i = 0; i < LENGTH; i++) {
+			Odometer.advance(pose, tachos[0][i], tachos[1][i]);
+			poses[0][i] = pose[0];
+			poses[1][i] = pose[1];
+			poses[2][i] = pose[2];
+		}
+		return poses;
+	}
+}
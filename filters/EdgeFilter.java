@@ -10,7 +10,10 @@ import main.SensorPoller;
  */
 public class EdgeFilter implements Filter{
 	private static final double THRESHOLD = 0.15;
-	private static final int WINDOW = 5; //window for how many of the last values to read, this should be calibrated
+	/**
+	 * Number of samples between the two values compared to detect an edge. An edge is reported up to this many samples after the sensor went over it
+	 */
+	public static final int WINDOW = 5; //window for how many of the last values to read, this should be calibrated
 	
 	/**
 	 * determines the presence of an edge within the data array
@@ -22,15 +25,21 @@ public class EdgeFilter implements Filter{
 	 */
 	@Override
 	public float getFilteredData(float[] data) {
-		float[] edgeData = new float[data.length];
-		int index = Main.get().getSensorPoller().getIndex() % SensorPoller.COLOR_WINDOW; //Get the index of the last data put in the window
-		
-		//Put the array in the order the data was put in, based on that index
-		System.arraycopy(data, index + 1, edgeData, 0, data.length - index - 1);
-		System.arraycopy(data, 0, edgeData, data.length - index - 1, index + 1);
+		return getFilteredData(data, Main.get().getSensorPoller().getIndex() % SensorPoller.COLOR_WINDOW); //Get the index of the last data put in the window
+	}
+	
+	/**
+	 * determines the presence of an edge within a circular window of data
+	 * @param data the array holding sensor data, used as a circular buffer
+	 * @param index the index of the last data put in the array
+	 * @return If an edge is detected return 1 otherwise return -1
+	 */
+	public float getFilteredData(float[] data, int index) {
+		//Read the last value and the one WINDOW samples before it straight from the circular buffer. Called on every period of the sensor poller, so nothing is copied or allocated
+		float previous = data[(index - WINDOW + data.length) % data.length];
 		
 		//Check if a line was detected by computing the derivative and comparing to the threshold
-		if(edgeData[edgeData.length - 1] - edgeData[edgeData.length - 1 - WINDOW] < THRESHOLD)
+		if(data[index] - previous < THRESHOLD)
 			return -1;
 		else
 			return 1;
@@ -0,0 +1,252 @@
+package main;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+
+/**
+ * The arm controller runs the actuation sequences of the throwing arm (motors throw1 and throw2) on its own thread, one after the other, so that the main thread does not have to wait for them.
+ * Every action returns a Future that completes when the action is done. Resetting the arm after a throw is queued as a separate action, so that the robot can already drive away while the arm goes back up.
+ * The arm is in one of the following states:
+ * -STOWED: straight up, ready to pick up a ball
+ * -LOADING: bringing a ball from the tray onto the launcher. Unsafe
+ * -LOADED: holding a ball, ready to throw
+ * -THROWING: winding up or releasing the ball. Unsafe
+ * -RESETTING: going back straight up after a throw. Safe, the robot may drive meanwhile
+ * While the arm is in an unsafe state, the robot must not drive or pivot: the navigator and the obstacle detector hold the wheels. Unsafe actions also wait for the wheels to be stopped before they start.
+ *
+ * @version 1.0
+ */
+public class ArmController {
+	
+	/**
+	 * States of the throwing arm
+	 */
+	public enum State {
+		STOWED(true),
+		LOADING(false),
+		LOADED(true),
+		THROWING(false),
+		RESETTING(true);
+		
+		private final boolean safe;
+		
+		private State(boolean safe) {
+			this.safe = safe;
+		}
+		
+		/**
+		 * check if the robot may drive or pivot while the arm is in this state
+		 * @return whether the state is safe
+		 */
+		public boolean isSafe() {
+			return safe;
+		}
+	}
+	
+	private static final int PICKUP_ANGLE = 205; //From a vertical starting position, the arm turns this many degrees to place the ball on the launcher
+	private static final int WIND_UP_ANGLE = 300;
+	private static final int RELEASE_OVERSHOOT = 60; //The arm turns this many degrees past its starting position when throwing
+	private static final int SLOW_SPEED = 40; //Speed of the arm when holding the ball or resetting, in deg/s
+	private static final int WIND_UP_SPEED = 90;
+	private static final int THROW_SPEED = 100000; //Max speed
+	private static final long WHEEL_CHECK_PERIOD = 10; //Time between two checks that the wheels have stopped (in ms)
+	
+	private ExecutorService executor;
+	private volatile State state = State.STOWED;
+	private Object stateLock = new Object();
+	
+	/**
+	 * constructs an arm controller, assuming the arm is stowed
+	 */
+	public ArmController() {
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ArmController");
+				thread.setDaemon(true); //Do not keep the program running once the main thread is done
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Pick up a ball. Assumes the ball is already positioned (between the ball holder and the rotating arm) to be picked up
+	 * @return the handle completing once the ball is on the launcher
+	 */
+	public Future<?> pickup() {
+		return executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				setState(State.LOADING);
+				if(!awaitWheelsStopped()) { //Interrupted before the arm moved
+					setState(State.STOWED);
+					return;
+				}
+				
+				EV3LargeRegulatedMotor motor1 = Main.get().getMotor("throw1");
+				EV3LargeRegulatedMotor motor2 = Main.get().getMotor("throw2");
+				motor1.setSpeed(SLOW_SPEED);
+				motor2.setSpeed(SLOW_SPEED);
+				motor1.rotate(PICKUP_ANGLE, true);
+				motor2.rotate(PICKUP_ANGLE);
+				
+				setState(State.LOADED);
+			}
+		});
+	}
+	
+	/**
+	 * Throw the ball with the default shot, then reset the arm. Assumes there is a ball on the launcher
+	 * @return the handle completing once the ball has been released. The arm is still resetting at that point, which does not prevent the robot from driving
+	 */
+	public Future<?> throwBall() {
+		return throwBall(WIND_UP_ANGLE, THROW_SPEED);
+	}
+	
+	/**
+	 * Throw the ball, then reset the arm. Assumes there is a ball on the launcher
+	 * @param windUp the angle to wind the arm back before throwing (in degrees)
+	 * @param speed the speed of the arm when releasing the ball (in deg/s)
+	 * @return the handle completing once the ball has been released. The arm is still resetting at that point, which does not prevent the robot from driving
+	 */
+	public Future<?> throwBall(final int windUp, final int speed) {
+		Future<?> result = executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				setState(State.THROWING);
+				if(!awaitWheelsStopped()) { //Interrupted before the arm moved
+					setState(State.LOADED);
+					return;
+				}
+				
+				EV3LargeRegulatedMotor motor1 = Main.get().getMotor("throw1");
+				EV3LargeRegulatedMotor motor2 = Main.get().getMotor("throw2");
+				motor1.setSpeed(WIND_UP_SPEED);
+				motor2.setSpeed(WIND_UP_SPEED);
+				motor1.rotate(-windUp, true);
+				motor2.rotate(-windUp);
+				
+				motor1.setSpeed(speed);
+				motor2.setSpeed(speed);
+				motor1.rotate(windUp + RELEASE_OVERSHOOT, true);
+				motor2.rotate(windUp + RELEASE_OVERSHOOT);
+				
+				setState(State.RESETTING);
+			}
+		});
+		reset();
+		return result;
+	}
+	
+	/**
+	 * Put the arm straight up again, rotating forward to the next full turn, in order for the next pickup to work
+	 * @return the handle completing once the arm is stowed
+	 */
+	public Future<?> reset() {
+		return executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				setState(State.RESETTING);
+				
+				EV3LargeRegulatedMotor motor1 = Main.get().getMotor("throw1");
+				EV3LargeRegulatedMotor motor2 = Main.get().getMotor("throw2");
+				int target = (int) Math.ceil(motor1.getTachoCount() / 360d) * 360;
+				motor1.setSpeed(SLOW_SPEED);
+				motor2.setSpeed(SLOW_SPEED);
+				motor1.rotateTo(target, true);
+				motor2.rotateTo(target);
+				
+				setState(State.STOWED);
+			}
+		});
+	}
+	
+	/**
+	 * Wait for an action of the arm to be done
+	 * @param action the handle returned when the action was requested
+	 * @throws InterruptedException if the waiting thread is interrupted. The action keeps running
+	 */
+	public static void await(Future<?> action) throws InterruptedException {
+		try {
+			action.get();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Wait until every action requested so far is done (ex: the arm is stowed again after a throw)
+	 * @throws InterruptedException if the waiting thread is interrupted. The actions keep running
+	 */
+	public void awaitIdle() throws InterruptedException {
+		try {
+			executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					//Runs after every action queued before it
+				}
+			}).get();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Wait until the robot is allowed to drive or pivot
+	 * @throws InterruptedException if the waiting thread is interrupted
+	 */
+	public void awaitSafe() throws InterruptedException {
+		synchronized(stateLock) {
+			while(!state.isSafe())
+				stateLock.wait();
+		}
+	}
+	
+	/**
+	 * Wait until both wheels have stopped moving. The navigator stops them at its next iteration once the arm is in an unsafe state
+	 * @return whether the wheels stopped, false if the arm's thread was interrupted first (ex: the program is ending). The interrupted status is kept
+	 */
+	private boolean awaitWheelsStopped() {
+		while(Main.get().getMotor("left").isMoving() || Main.get().getMotor("right").isMoving()) {
+			try {
+				Thread.sleep(WHEEL_CHECK_PERIOD);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Change the state of the arm and wake up the threads waiting for it to be safe
+	 */
+	private void setState(State state) {
+		synchronized(stateLock) {
+			this.state = state;
+			stateLock.notifyAll();
+		}
+		Main.get().getDisplay().addDisplayValue("Arm", state.ordinal());
+	}
+	
+	/**
+	 * get the state the arm is in
+	 * @return the state of the arm
+	 */
+	public State getState() {
+		return state;
+	}
+	
+	/**
+	 * check if the robot is allowed to drive or pivot
+	 * @return whether the arm is in a safe state
+	 */
+	public boolean isSafeToMove() {
+		return state.isSafe();
+	}
+}
@@ -0,0 +1,48 @@
+package main;
+
+/**
+ * Source of the time used by the code that the field simulator runs (see sim.Match): the obstacle map and the odometry correction.
+ * By default it is the time of the system. A thread can be given its own clock (ex: the virtual clock of a simulated match), which the code running on that thread then reads instead,
+ * so that several simulated matches can run at once on their own clocks and faster than real time.
+ *
+ * @version 1.0
+ */
+public abstract class Clock {
+	
+	private static final ThreadLocal<Clock> THREAD_CLOCK = new ThreadLocal<Clock>();
+	
+	/**
+	 * get the time of this clock
+	 * @return the time (in nanoseconds), only meaningful compared to another time of the same clock
+	 */
+	public abstract long nanoTime();
+	
+	/**
+	 * set the clock of the current thread
+	 * @param clock the clock, or null to use the time of the system again
+	 */
+	public static void setThreadClock(Clock clock) {
+		if(clock == null)
+			THREAD_CLOCK.remove();
+		else
+			THREAD_CLOCK.set(clock);
+	}
+	
+	/**
+	 * get the time of the clock of the current thread, as System.nanoTime() does
+	 * @return the time (in nanoseconds)
+	 */
+	public static long now() {
+		Clock clock = THREAD_CLOCK.get();
+		return (clock == null)? System.nanoTime() : clock.nanoTime();
+	}
+	
+	/**
+	 * get the time of the clock of the current thread in milliseconds, to replace System.currentTimeMillis() where only differences of times are used
+	 * @return the time (in milliseconds)
+	 */
+	public static long millis() {
+		Clock clock = THREAD_CLOCK.get();
+		return (clock == null)? System.currentTimeMillis() : clock.nanoTime() / 1000000;
+	}
+}
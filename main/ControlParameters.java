@@ -0,0 +1,282 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * The hand-tuned constants that decide how fast and how reliably the robot drives: the tolerances and speeds of the navigator, the odometry correction, and the time to collision at which the robot reacts to an obstacle and the distance kept from it while going around it.
+ * A set of parameters is immutable, and is given to the navigator, the odometry correction and the obstacle detector when they are created. The field simulator runs matches with other sets to tune them (see sim.Tuner).
+ * Main loads the set from a file on the brick, written by the tuner as "NAME=value" lines. Without the file, the robot uses the defaults.
+ *
+ * @version 1.0
+ */
+public final class ControlParameters {
+	
+	/**
+	 * Tolerance, in cm, from the target position of the navigator
+	 */
+	public static final int DIST_TOLERANCE = 0;
+	/**
+	 * Tolerance, in radians, from the target angle of the navigator
+	 */
+	public static final int ANGLE_TOLERANCE = 1;
+	/**
+	 * Speed of the wheels (in deg/s) when the navigator turns by a large angle
+	 */
+	public static final int MAX_ROTATION_SPEED = 2;
+	/**
+	 * Speed of the wheels (in deg/s) when the navigator is about to reach its target angle
+	 */
+	public static final int MIN_ROTATION_SPEED = 3;
+	/**
+	 * Speed of the wheels (in deg/s) when the navigator is far from its target position
+	 */
+	public static final int MAX_MOVE_SPEED = 4;
+	/**
+	 * Speed of the wheels (in deg/s) when the navigator is about to reach its target position
+	 */
+	public static final int MIN_MOVE_SPEED = 5;
+	/**
+	 * Percent/100 correction of the left wheel speed to account for the heavier weight on the left side
+	 */
+	public static final int LEFT_ADJUSTMENT = 6;
+	/**
+	 * Distance added by the odometry correction to make the robot end perfectly on lines when moving straight
+	 */
+	public static final int CORRECTION = 7;
+	/**
+	 * Distance added by the odometry correction to over-correct the angle
+	 */
+	public static final int OVERCORRECTION = 8;
+	/**
+	 * Maximum distance between the readings of the two floor sensors for the odometry correction to use them
+	 */
+	public static final int DISPLACEMENT_THRESHOLD = 9;
+	/**
+	 * Delay, in ms, between two corrections of the odometry correction
+	 */
+	public static final int COOLDOWN = 10;
+	/**
+	 * Distance, in cm, from an obstacle at which the obstacle detector turns away while following it
+	 */
+	public static final int WALL_DIST = 11;
+	/**
+	 * Time to collision, in seconds, under which the obstacle detector starts going around an obstacle.
+	 * The cone of the ultrasonic sensor (+-15 degrees) only sees a block in front of the edge of the robot (11 cm off its axis) from about 41 cm: at the maximum move speed (10.6 cm/s),
+	 * reaching the stop distance (10 cm) from there takes about 2.9 s, less the delay of the mean filter and of the period of the detector (about 0.14 s).
+	 * In the simulator, the collisions stop decreasing from 2.5 s on, while the detours keep growing
+	 */
+	public static final int COLLISION_HORIZON = 12;
+	
+	private static final String[] NAMES = {"DIST_TOLERANCE", "ANGLE_TOLERANCE", "MAX_ROTATION_SPEED", "MIN_ROTATION_SPEED", "MAX_MOVE_SPEED", "MIN_MOVE_SPEED",
+		"LEFT_ADJUSTMENT", "CORRECTION", "OVERCORRECTION", "DISPLACEMENT_THRESHOLD", "COOLDOWN", "WALL_DIST", "COLLISION_HORIZON"};
+	private static final boolean[] INTEGERS = {false, false, true, true, true, true, false, false, false, false, true, true, false}; //Parameters rounded to an integer
+	
+	/**
+	 * The values tuned by hand on the field
+	 */
+	public static final ControlParameters DEFAULT = new ControlParameters(new double[] {0.6, Math.PI / 60, 110, 60, 300, 115, 0.05, 3.5, 0.27, 6, 1000, 22, 2.5});
+	
+	private final double[] values;
+	
+	private ControlParameters(double[] values) {
+		this.values = values;
+	}
+	
+	/**
+	 * get the number of parameters of a set
+	 * @return the number of parameters
+	 */
+	public static int getCount() {
+		return NAMES.length;
+	}
+	
+	/**
+	 * get the name of a parameter, as written in the file
+	 * @param parameter the parameter (ex: DIST_TOLERANCE)
+	 * @return the name
+	 */
+	public static String getName(int parameter) {
+		return NAMES[parameter];
+	}
+	
+	/**
+	 * check if a parameter only takes integer values
+	 * @param parameter the parameter
+	 * @return whether the parameter is an integer (ex: a speed in deg/s)
+	 */
+	public static boolean isInteger(int parameter) {
+		return INTEGERS[parameter];
+	}
+	
+	/**
+	 * get the value of a parameter
+	 * @param parameter the parameter (ex: DIST_TOLERANCE)
+	 * @return the value
+	 */
+	public double get(int parameter) {
+		return values[parameter];
+	}
+	
+	/**
+	 * get a copy of this set with another value for one parameter
+	 * @param parameter the parameter
+	 * @param value the new value, rounded if the parameter is an integer
+	 * @return the new set
+	 */
+	public ControlParameters with(int parameter, double value) {
+		double[] copy = values.clone();
+		copy[parameter] = INTEGERS[parameter]? Math.round(value) : value;
+		return new ControlParameters(copy);
+	}
+	
+	/**
+	 * check if the parameters can drive the robot: positive values, and minimum speeds under the maximum speeds
+	 * @return whether the set is valid
+	 */
+	public boolean isValid() {
+		for(int i = 0; i < values.length; i++) {
+			if(values[i] < 0 || (values[i] == 0 && i != LEFT_ADJUSTMENT && i != OVERCORRECTION && i != CORRECTION))
+				return false;
+		}
+		return values[MIN_ROTATION_SPEED] <= values[MAX_ROTATION_SPEED] && values[MIN_MOVE_SPEED] <= values[MAX_MOVE_SPEED];
+	}
+	
+	public double getDistTolerance() {
+		return values[DIST_TOLERANCE];
+	}
+	
+	public double getAngleTolerance() {
+		return values[ANGLE_TOLERANCE];
+	}
+	
+	public int getMaxRotationSpeed() {
+		return (int) values[MAX_ROTATION_SPEED];
+	}
+	
+	public int getMinRotationSpeed() {
+		return (int) values[MIN_ROTATION_SPEED];
+	}
+	
+	public int getMaxMoveSpeed() {
+		return (int) values[MAX_MOVE_SPEED];
+	}
+	
+	public int getMinMoveSpeed() {
+		return (int) values[MIN_MOVE_SPEED];
+	}
+	
+	public double getLeftAdjustment() {
+		return values[LEFT_ADJUSTMENT];
+	}
+	
+	public double getCorrection() {
+		return values[CORRECTION];
+	}
+	
+	public double getOvercorrection() {
+		return values[OVERCORRECTION];
+	}
+	
+	public double getDisplacementThreshold() {
+		return values[DISPLACEMENT_THRESHOLD];
+	}
+	
+	public long getCooldown() {
+		return (long) values[COOLDOWN];
+	}
+	
+	public int getWallDist() {
+		return (int) values[WALL_DIST];
+	}
+	
+	public double getCollisionHorizon() {
+		return values[COLLISION_HORIZON];
+	}
+	
+	/**
+	 * Load a set from a file of "NAME=value" lines. The parameters missing from the file keep their default value, and the other lines are ignored
+	 * @param fileName the name of the file
+	 * @return the set, or DEFAULT if the file does not exist or cannot be read
+	 */
+	public static ControlParameters load(String fileName) {
+		if(!new File(fileName).exists()) //Not tuned, keep the defaults
+			return DEFAULT;
+		
+		ControlParameters parameters = DEFAULT;
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(fileName));
+			String line;
+			while((line = in.readLine()) != null) {
+				String[] pair = line.split("=");
+				int parameter = (pair.length == 2)? Arrays.asList(NAMES).indexOf(pair[0].trim()) : -1;
+				if(parameter < 0)
+					continue;
+				try {
+					parameters = parameters.with(parameter, Double.parseDouble(pair[1].trim()));
+				} catch (NumberFormatException e) {
+					//Not a value
+				}
+			}
+			in.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return DEFAULT;
+		}
+		return parameters;
+	}
+	
+	/**
+	 * Write the set to a file that load() reads
+	 * @param fileName the name of the file
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(String fileName) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(fileName));
+		for(int i = 0; i < values.length; i++)
+			out.println(NAMES[i] + "=" + format(i));
+		out.close();
+	}
+	
+	/**
+	 * get the value of a parameter as text, without decimals for the integers
+	 */
+	private String format(int parameter) {
+		return INTEGERS[parameter]? Long.toString((long) values[parameter]) : Double.toString(values[parameter]);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof ControlParameters && Arrays.equals(values, ((ControlParameters) other).values);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(values);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < values.length; i++) {
+			if(i > 0)
+				builder.append(' ');
+			builder.append(NAMES[i]).append('=').append(format(i));
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,428 @@
+package main;
+
+import java.io.PrintStream;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import mission.MissionListener;
+import mission.MissionNode;
+
+/**
+ * The CPU profiler samples the CPU time of every thread of the program (see ThreadMXBean) to know where the CPU of the brick goes.
+ * - The CPU time of each thread is attributed to a component: the periodic tasks and the arm controller by their name, the threads running the mission (and the startup) to "Mission", the rest to "Other".
+ * Every sample, the share of a core used by each component is logged (see Logger).
+ * - A thread that uses more than a share of a core (BUSY_SHARE by default) while it does no useful work is flagged as busy waiting: it is a paused periodic task,
+ * or a thread found at the same line of code for several samples in a row (ex: while(navigator.isTurning());). The accessors (is...(), get...()) are skipped to find that line,
+ * since the loop calls them. Each busy wait is printed and recorded in the flight recorder once, and its CPU time is counted until it stops.
+ * - The CPU time is also added up by phase of the match (localize, navigate, pick up, throw), as given by the nodes of the mission (see Missions.getPhase()), and compared to the budget of the phase:
+ * the share of a core the whole program should use during that phase. Each run of a phase is logged with its share, and recorded in the flight recorder if it is over budget.
+ * The profiler samples when the phase changes, so the CPU time is attributed to the right phase.
+ * print() prints the report of the match so far. The CPU time of the threads of the JVM itself (garbage collector, compiler) is not counted.
+ *
+ * @version 1.0
+ */
+public class CpuProfiler extends PeriodicTask implements MissionListener {
+	
+	private static final long ITERATION_TIME = 250;
+	private static final double BUSY_SHARE = 0.5; //Default share of a core above which a thread doing no useful work is busy waiting
+	private static final int BUSY_SAMPLES = 2; //Number of samples in a row a thread must be found at the same line to be busy waiting
+	private static final long MIN_WINDOW = 50000000; //Shortest time between two samples to look for busy waits (in ns), since a short window gives a noisy share
+	private static final String PAUSED = "paused";
+	
+	/**
+	 * Phases of the match
+	 */
+	public enum Phase {
+		LOCALIZE, NAVIGATE, PICKUP, THROW,
+		/**
+		 * Outside of the other phases (ex: waiting for the parameters, deciding where to shoot)
+		 */
+		OTHER
+	}
+	
+	/**
+	 * CPU time of a component, by phase
+	 */
+	private static final class Component {
+		private final String name;
+		private final long[] cpuTimes = new long[Phase.values().length]; //In ns
+		private long stepTime; //CPU time since the last iteration of the profiler, in ns
+		private Logger.Channel channel;
+		
+		private Component(String name) {
+			this.name = name;
+		}
+	}
+	
+	/**
+	 * What the profiler knows about a thread
+	 */
+	private static final class ThreadState {
+		private final Thread thread;
+		private Component component;
+		private long cpuTime; //At the last sample, in ns
+		private String site; //Line the thread was busy at, if any
+		private int busySamples; //Number of samples in a row it was busy at that line
+		private BusyWait busyWait; //Busy wait being measured, once flagged
+		private boolean alive;
+		
+		private ThreadState(Thread thread) {
+			this.thread = thread;
+		}
+	}
+	
+	/**
+	 * A busy wait found by the profiler
+	 */
+	private static final class BusyWait {
+		private final String thread, site;
+		private long cpuTime; //In ns
+		
+		private BusyWait(String thread, String site) {
+			this.thread = thread;
+			this.site = site;
+		}
+	}
+	
+	private final ThreadMXBean bean = PeriodicTask.getThreadMXBean();
+	private volatile double busyShare = BUSY_SHARE;
+	private final double[] budgets = new double[Phase.values().length]; //Share of a core, 0 for no budget
+	
+	//Accessed in the synchronized methods only
+	private final HashMap<Long, ThreadState> threads = new HashMap<Long, ThreadState>();
+	private final LinkedHashMap<String, Component> components = new LinkedHashMap<String, Component>();
+	private final LinkedHashMap<String, BusyWait> busyWaits = new LinkedHashMap<String, BusyWait>();
+	private Thread[] threadArray = new Thread[32];
+	private long lastSampleTime, lastStepTime;
+	
+	private final ArrayList<Phase> phases = new ArrayList<Phase>(); //Phases entered and not exited, the last one being the current phase
+	private final long[] phaseWallTimes = new long[Phase.values().length]; //In ns
+	private final long[] phaseCpuTimes = new long[Phase.values().length];
+	private final int[] phaseRuns = new int[Phase.values().length];
+	private final int[] phaseOverruns = new int[Phase.values().length]; //Runs over budget
+	private final Logger.Channel[] phaseChannels = new Logger.Channel[Phase.values().length];
+	private long runStartTime, runCpuTime; //Start of the run of the current phase, and CPU time used since
+	
+	private final ConcurrentHashMap<Long, Boolean> missionThreads = new ConcurrentHashMap<Long, Boolean>(); //Threads that ran a node of the mission
+	
+	/**
+	 * constructs the profiler. The CPU time used before it is constructed is not counted
+	 */
+	public CpuProfiler() {
+		super("CpuProfiler", ITERATION_TIME, TimingClass.BACKGROUND, true);
+		budgets[Phase.LOCALIZE.ordinal()] = 0.6;
+		budgets[Phase.NAVIGATE.ordinal()] = 0.6;
+		budgets[Phase.PICKUP.ordinal()] = 0.4;
+		budgets[Phase.THROW.ordinal()] = 0.4;
+		
+		lastSampleTime = lastStepTime = runStartTime = System.nanoTime();
+		if(bean == null)
+			System.out.println("CPU time not supported, no profiling");
+		else
+			sample(lastSampleTime); //Only sets the CPU time of the threads running
+	}
+	
+	/* (non-Javadoc)
+	 * @see main.PeriodicTask#step()
+	 */
+	@Override
+	protected void step() {
+		if(bean == null)
+			return;
+		synchronized(this) {
+			long now = System.nanoTime();
+			sample(now);
+			
+			//Share of a core used by each component since the last iteration
+			Logger logger = Main.get().getLogger();
+			for(Component component: components.values()) {
+				if(component.channel == null)
+					component.channel = logger.getChannel("CPU." + component.name, 0);
+				logger.record(component.channel, now, (float) component.stepTime / (now - lastStepTime));
+				component.stepTime = 0;
+			}
+			lastStepTime = now;
+		}
+	}
+	
+	/**
+	 * Measure the CPU time used by each thread since the last sample, attribute it to the components and the current phase, and look for busy waits
+	 */
+	private void sample(long now) {
+		long window = now - lastSampleTime;
+		int phase = getPhase().ordinal();
+		phaseWallTimes[phase] += window;
+		lastSampleTime = now;
+		
+		int count;
+		while((count = Thread.enumerate(threadArray)) == threadArray.length) //The array was too small
+			threadArray = new Thread[threadArray.length * 2];
+		
+		for(int i = 0; i < count; i++) {
+			Thread thread = threadArray[i];
+			threadArray[i] = null;
+			long cpuTime = bean.getThreadCpuTime(thread.getId());
+			if(cpuTime < 0) //Not started or dead
+				continue;
+			
+			ThreadState state = threads.get(thread.getId());
+			if(state == null) {
+				state = new ThreadState(thread);
+				threads.put(thread.getId(), state);
+				if(window == 0) //First sample, only the time used from now on counts
+					state.cpuTime = cpuTime;
+			}
+			state.alive = true;
+			if(state.component == null || state.component.name.equals("Other"))
+				state.component = getComponent(getComponentName(thread));
+			
+			long time = cpuTime - state.cpuTime;
+			state.cpuTime = cpuTime;
+			state.component.cpuTimes[phase] += time;
+			state.component.stepTime += time;
+			phaseCpuTimes[phase] += time;
+			runCpuTime += time;
+			
+			if(window >= MIN_WINDOW)
+				checkBusy(state, time, window);
+			else if(state.busyWait != null)
+				state.busyWait.cpuTime += time;
+		}
+		
+		//Forget the threads that ended
+		Iterator<ThreadState> iterator = threads.values().iterator();
+		while(iterator.hasNext()) {
+			ThreadState state = iterator.next();
+			if(!state.alive)
+				iterator.remove();
+			state.alive = false;
+		}
+	}
+	
+	/**
+	 * Check if a thread is busy waiting, given the CPU time it used in the last window
+	 */
+	private void checkBusy(ThreadState state, long time, long window) {
+		if(time < busyShare * window) {
+			state.site = null;
+			state.busySamples = 0;
+			state.busyWait = null;
+			return;
+		}
+		
+		String site = getBusySite(state.thread);
+		if(site == null || !site.equals(state.site)) { //Busy somewhere else: doing useful work, or moved to another wait
+			state.site = site;
+			state.busySamples = (site == null)? 0 : 1;
+			state.busyWait = null;
+		}
+		else
+			state.busySamples++;
+		
+		if(state.busySamples >= BUSY_SAMPLES || PAUSED.equals(site)) {
+			if(state.busyWait == null) {
+				String key = state.thread.getName() + " " + site;
+				state.busyWait = busyWaits.get(key);
+				if(state.busyWait == null) { //Found for the first time
+					state.busyWait = new BusyWait(state.thread.getName(), site);
+					busyWaits.put(key, state.busyWait);
+					System.out.println("Busy wait: " + key);
+					Main.get().getFlightRecorder().recordEvent("Busy " + site);
+				}
+			}
+			state.busyWait.cpuTime += time;
+		}
+	}
+	
+	/**
+	 * get the line a thread is busy at: the first line of the code of the robot in its stack, accessors skipped
+	 * @return the line (ex: "USLocalizer.localize:100"), PAUSED for a paused periodic task, or null if the thread is not in the code of the robot
+	 */
+	private static String getBusySite(Thread thread) {
+		if(thread instanceof PeriodicTask && !((PeriodicTask) thread).isRunning())
+			return PAUSED;
+		
+		for(StackTraceElement element: thread.getStackTrace()) {
+			String className = element.getClassName();
+			if(!className.startsWith("main.") && !className.startsWith("mission."))
+				continue;
+			String method = element.getMethodName();
+			if(method.startsWith("is") || method.startsWith("get"))
+				continue;
+			return className.substring(className.indexOf('.') + 1) + "." + method + ":" + element.getLineNumber();
+		}
+		return null;
+	}
+	
+	/**
+	 * get the component a thread belongs to
+	 */
+	private String getComponentName(Thread thread) {
+		if(thread instanceof PeriodicTask || thread.getName().equals("ArmController") || thread.getName().equals("ConfigClient"))
+			return thread.getName();
+		if(thread.getName().equals("main") || missionThreads.containsKey(thread.getId()))
+			return "Mission";
+		return "Other";
+	}
+	
+	private Component getComponent(String name) {
+		Component component = components.get(name);
+		if(component == null) {
+			component = new Component(name);
+			components.put(name, component);
+		}
+		return component;
+	}
+	
+	/**
+	 * get the current phase of the match
+	 * @return the phase
+	 */
+	public synchronized Phase getPhase() {
+		return phases.isEmpty()? Phase.OTHER : phases.get(phases.size() - 1);
+	}
+	
+	/**
+	 * Enter a phase of the match. Phases can be nested: the last one entered is the current phase until it is exited
+	 * @param phase the phase
+	 */
+	public synchronized void enterPhase(Phase phase) {
+		Phase previous = getPhase();
+		if(bean != null)
+			sample(System.nanoTime());
+		phases.add(phase);
+		if(phase != previous)
+			endRun(previous);
+	}
+	
+	/**
+	 * Exit a phase of the match
+	 * @param phase the phase, entered before
+	 */
+	public synchronized void exitPhase(Phase phase) {
+		Phase previous = getPhase();
+		if(bean != null)
+			sample(System.nanoTime());
+		phases.remove(phases.lastIndexOf(phase));
+		if(getPhase() != previous)
+			endRun(previous);
+	}
+	
+	/**
+	 * End the run of a phase: log the share of a core it used and check it against the budget. Everything was sampled just before
+	 */
+	private void endRun(Phase phase) {
+		long wallTime = lastSampleTime - runStartTime;
+		double share = (wallTime > 0)? (double) runCpuTime / wallTime : 0;
+		runStartTime = lastSampleTime;
+		runCpuTime = 0;
+		if(phase == Phase.OTHER || bean == null)
+			return;
+		
+		int index = phase.ordinal();
+		phaseRuns[index]++;
+		if(phaseChannels[index] == null)
+			phaseChannels[index] = Main.get().getLogger().getChannel("Budget." + phase, 0);
+		Main.get().getLogger().record(phaseChannels[index], lastSampleTime, (float) share);
+		if(budgets[index] > 0 && share > budgets[index]) {
+			phaseOverruns[index]++;
+			Main.get().getFlightRecorder().recordEvent("CPU " + phase + " " + Math.round(share * 100) + "%");
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see mission.MissionListener#nodeStarted(mission.MissionNode)
+	 */
+	@Override
+	public void nodeStarted(MissionNode node) {
+		if(!missionThreads.containsKey(Thread.currentThread().getId()))
+			missionThreads.put(Thread.currentThread().getId(), Boolean.TRUE);
+		Phase phase = Missions.getPhase(node);
+		if(phase != null)
+			enterPhase(phase);
+	}
+	
+	/* (non-Javadoc)
+	 * @see mission.MissionListener#nodeFinished(mission.MissionNode, boolean)
+	 */
+	@Override
+	public void nodeFinished(MissionNode node, boolean success) {
+		Phase phase = Missions.getPhase(node);
+		if(phase != null)
+			exitPhase(phase);
+	}
+	
+	/**
+	 * set the share of a core above which a thread doing no useful work is busy waiting
+	 * @param busyShare the share, between 0 and 1
+	 */
+	public void setBusyShare(double busyShare) {
+		this.busyShare = busyShare;
+	}
+	
+	/**
+	 * set the CPU budget of a phase: the share of a core the whole program should use during that phase
+	 * @param phase the phase
+	 * @param budget the share, between 0 and 1, or 0 for no budget
+	 */
+	public synchronized void setBudget(Phase phase, double budget) {
+		budgets[phase.ordinal()] = budget;
+	}
+	
+	/**
+	 * get the CPU time used during a phase so far, by every thread
+	 * @param phase the phase
+	 * @return the CPU time (in ns)
+	 */
+	public synchronized long getCpuTime(Phase phase) {
+		return phaseCpuTimes[phase.ordinal()];
+	}
+	
+	/**
+	 * get the time spent in a phase so far, as of the last sample
+	 * @param phase the phase
+	 * @return the time (in ns)
+	 */
+	public synchronized long getWallTime(Phase phase) {
+		return phaseWallTimes[phase.ordinal()];
+	}
+	
+	/**
+	 * get the number of busy waits found so far
+	 * @return the number of busy waits, a thread busy at the same line several times counting once
+	 */
+	public synchronized int getBusyWaitCount() {
+		return busyWaits.size();
+	}
+	
+	/**
+	 * Print the CPU report of the match so far.
+	 * For each phase: name, time (ms), CPU time (ms), share of a core (%), budget (%), runs, runs over budget, then the CPU time (ms) and share of a core (%) of each component during that phase.
+	 * Then each busy wait: thread, line, CPU time wasted (ms)
+	 * @param out the stream to print to
+	 */
+	public synchronized void print(PrintStream out) {
+		if(bean == null)
+			return;
+		sample(System.nanoTime());
+		for(Phase phase: Phase.values()) {
+			int index = phase.ordinal();
+			long wallTime = phaseWallTimes[index];
+			if(wallTime == 0)
+				continue;
+			out.println(phase + "\t" + wallTime / 1000000 + "\t" + phaseCpuTimes[index] / 1000000 + "\t" + phaseCpuTimes[index] * 100 / wallTime
+					+ "\t" + Math.round(budgets[index] * 100) + "\t" + phaseRuns[index] + "\t" + phaseOverruns[index]);
+			for(Component component: components.values()) {
+				long cpuTime = component.cpuTimes[index];
+				if(cpuTime > 0)
+					out.println(" " + component.name + "\t" + cpuTime / 1000000 + "\t" + cpuTime * 100 / wallTime);
+			}
+		}
+		for(BusyWait busyWait: busyWaits.values())
+			out.println("Busy\t" + busyWait.thread + "\t" + busyWait.site + "\t" + busyWait.cpuTime / 1000000);
+	}
+}
@@ -1,5 +1,8 @@
 package main;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import lejos.hardware.ev3.LocalEV3;
 import lejos.hardware.lcd.TextLCD;
@@ -7,152 +10,185 @@ import lejos.hardware.lcd.TextLCD;
 /**
  * Class that allows easy display of values along with their "key" (their name).
  * Useful for printing values from anywhere in the code in order to debug.
- * 
+ * Every value added is also published through the telemetry, to follow it on a computer.
+ * Each key gets a slot, registered once with addSlot(). Setting the value of a slot is a single volatile store (and a telemetry sample): writers never take a lock,
+ * so the odometer and the sensor poller can update the display from inside their loops. Values are shown in the order their slots were registered.
+ * The display thread formats the values into reused char arrays and only redraws the characters that changed since the last redraw, so a redraw creates no garbage.
+ *
  * @author Jerome
- * @version 1.1
+ * @version 1.2
  */
-public class Display extends Thread{
+public class Display extends PeriodicTask {
 	private static final long ITERATION_TIME = 250;
+	private static final int MAX_SLOTS = 32;
+	private static final int DECIMALS = 2;
+	private static final long SCALE = 100; //10 to the power of DECIMALS
+	
 	private TextLCD t;
-	private HashMap<String, Double> displayValues;
+	private final int rows, columns;
+	
+	//Slots. The values are stored as the bits of doubles, since an array element cannot be volatile
+	private final String[] keys = new String[MAX_SLOTS];
+	private final Telemetry.Channel[] channels = new Telemetry.Channel[MAX_SLOTS]; //Telemetry channel of each slot
+	private final AtomicLongArray values = new AtomicLongArray(MAX_SLOTS);
+	private final AtomicIntegerArray shown = new AtomicIntegerArray(MAX_SLOTS); //1 if the slot is displayed, 0 if it was removed
+	private final ConcurrentHashMap<String, Integer> slotIds = new ConcurrentHashMap<String, Integer>();
+	private volatile int slotCount = 0;
+	
+	//Only used by the display thread
+	private final char[][] screen; //What is on the screen
+	private final char[] line; //Line being formatted
+	private final char[] digits = new char[20];
 	
-	private Object lock;
-
 	/**
 	 * constructs a default display object
 	 */
 	public Display() {
+		super("Display", ITERATION_TIME, TimingClass.BACKGROUND, true);
 		t = LocalEV3.get().getTextLCD();
-		displayValues = new HashMap<String, Double>();
-		lock = new Object();
+		rows = t.getTextHeight();
+		columns = t.getTextWidth();
+		
+		t.clear();
+		screen = new char[rows][columns];
+		for(char[] row: screen)
+			Arrays.fill(row, ' ');
+		line = new char[columns];
 	}
-
-	// run method (required for Thread)
+	
 	/* (non-Javadoc)
-	 * @see java.lang.Thread#run()
+	 * @see main.PeriodicTask#step()
 	 */
 	@Override
-	public void run() {
-		long displayStart, displayEnd;
-
-		while (true) {
-			displayStart = System.currentTimeMillis();
-			
-			//Clear the display
-			t.clear();
-
-			// Display the information
-			synchronized(lock) {
-				int line = 0;
-				for(String key: displayValues.keySet()) {
-					if(line < 8) { //The screen only has 6 rows
-						t.drawString(key + ": " + formattedDoubleToString(displayValues.get(key), 2), 0, line);
-						line++;
-					}
-					else break;
-				}
-			}
-			
-			// throttle the OdometryDisplay
-			displayEnd = System.currentTimeMillis();
-			if (displayEnd - displayStart < ITERATION_TIME) {
-				try {
-					Thread.sleep(ITERATION_TIME - (displayEnd - displayStart));
-				} catch (InterruptedException e) {
-					// there is nothing to be done here because it is not
-					// expected that OdometryDisplay will be interrupted
-					// by another thread
-				}
-			}
+	protected void step() {
+		int row = 0;
+		int count = slotCount;
+		for(int slot = 0; slot < count && row < rows; slot++) { //The values that do not fit on the screen are only published
+			if(shown.get(slot) == 0)
+				continue;
+			int length = format(slot);
+			drawLine(row++, length);
 		}
+		for(; row < rows; row++) //Erase the lines of the slots removed
+			drawLine(row, 0);
 	}
 	
 	/**
-	 * set all display values. Note that only a maximum of 6 can be displayed on the EV3 LCD screen
-	 * @param values hashmap of the values to display. The keys are used as a name and are displayed before the value
+	 * Format a slot in the line buffer: "key: value"
+	 * @return the number of characters
 	 */
-	public void setDisplayValues(HashMap<String, Double> values) {
-		this.displayValues = values;
+	private int format(int slot) {
+		String key = keys[slot];
+		int length = Math.min(key.length(), columns);
+		key.getChars(0, length, line, 0);
+		length = put(line, length, ':');
+		length = put(line, length, ' ');
+		
+		double value = Double.longBitsToDouble(values.get(slot));
+		if(Double.isNaN(value) || Double.isInfinite(value))
+			return put(line, length, (value > 0)? "Inf" : (value < 0)? "-Inf" : "NaN");
+		
+		long scaled = Math.round(Math.abs(value) * SCALE);
+		if(value < 0 && scaled != 0)
+			length = put(line, length, '-');
+		
+		//Digits from the last one, with at least one before the point
+		int count = 0;
+		do {
+			if(count == DECIMALS)
+				digits[count++] = '.';
+			digits[count++] = (char) ('0' + scaled % 10);
+			scaled /= 10;
+		} while(scaled > 0 || count <= DECIMALS + 1);
+		while(count > 0)
+			length = put(line, length, digits[--count]);
+		return length;
+	}
+	
+	private int put(char[] line, int length, char c) {
+		if(length < line.length)
+			line[length++] = c;
+		return length;
 	}
 	
+	private int put(char[] line, int length, String text) {
+		for(int i = 0; i < text.length(); i++)
+			length = put(line, length, text.charAt(i));
+		return length;
+	}
 	
 	/**
-	 * get all display values
-	 * @return the hashmap containing the values along with their key (their name)
+	 * Draw the characters of the line buffer that differ from what is on the screen, and blank the rest of the row
 	 */
-	public HashMap<String, Double> getDisplayValues() {
-		return displayValues;
+	private void drawLine(int row, int length) {
+		for(int column = 0; column < columns; column++) {
+			char c = (column < length)? line[column] : ' ';
+			if(screen[row][column] != c) {
+				t.drawChar(c, column, row);
+				screen[row][column] = c;
+			}
+		}
 	}
 	
 	/**
-	 * add a value to display, along with its key (its name)
+	 * register a key to display. Should be called once, outside of the loop the value is set in. Note that only the first rows of slots fit on the EV3 LCD screen (8 rows)
 	 * @param key the name of the value. Will be displayed next to it
-	 * @param value the value corresponding to that key
+	 * @return the slot of the key, to pass to setValue(), or -1 if there are too many slots
 	 */
-	public void addDisplayValue(String key, double value) {
-		synchronized(lock) {
-			displayValues.put(key, value);
+	public int addSlot(String key) {
+		Integer id = slotIds.get(key);
+		if(id != null)
+			return id;
+		
+		synchronized(slotIds) {
+			id = slotIds.get(key);
+			if(id != null)
+				return id;
+			if(slotCount == MAX_SLOTS)
+				return -1;
+			int slot = slotCount;
+			keys[slot] = key;
+			channels[slot] = Main.get().getTelemetry().getChannel(key);
+			values.set(slot, Double.doubleToRawLongBits(0));
+			slotIds.put(key, slot);
+			slotCount = slot + 1; //Publishes the slot to the display thread
+			return slot;
 		}
 	}
 	
 	/**
-	 * remove a value from the display list
-	 * @param key the key of the value to remove
-	 * @return the value that was remove, or -1 if the key wasn't found
+	 * set the value of a slot. Never blocks
+	 * @param slot the slot, as returned by addSlot()
+	 * @param value the value to display
 	 */
-	public double removeDisplayValue(String key) {
-		synchronized(lock) {
-			if(displayValues.containsKey(key))
-				return displayValues.remove(key);
-			else
-				return -1;
-		}
+	public void setValue(int slot, double value) {
+		if(slot < 0)
+			return;
+		values.set(slot, Double.doubleToRawLongBits(value));
+		if(shown.get(slot) == 0)
+			shown.set(slot, 1);
+		Main.get().getTelemetry().publish(channels[slot], (float) value);
 	}
 	
 	/**
-	 * converts a double to a string and keeps only a specified number of decimal places
-	 * @param x the value to convert to string
-	 * @param places the number of decimal places to keep in the final string
-	 * @return
+	 * add a value to display, along with its key (its name). Looks the slot up by its key: use addSlot() and setValue() for values set in a loop
+	 * @param key the name of the value. Will be displayed next to it
+	 * @param value the value corresponding to that key
 	 */
-	private static String formattedDoubleToString(double x, int places) {
-		String result = "";
-		String stack = "";
-		long t;
-		
-		// put in a minus sign as needed
-		if (x < 0.0)
-			result += "-";
-		
-		// put in a leading 0
-		if (-1.0 < x && x < 1.0)
-			result += "0";
-		else {
-			t = (long)x;
-			if (t < 0)
-				t = -t;
-			
-			while (t > 0) {
-				stack = Long.toString(t % 10) + stack;
-				t /= 10;
-			}
-			
-			result += stack;
-		}
-		
-		// put the decimal, if needed
-		if (places > 0) {
-			result += ".";
-		
-			// put the appropriate number of decimals
-			for (int i = 0; i < places; i++) {
-				x = Math.abs(x);
-				x = x - Math.floor(x);
-				x *= 10.0;
-				result += Long.toString((long)x);
-			}
-		}
-		
-		return result;
+	public void addDisplayValue(String key, double value) {
+		setValue(addSlot(key), value);
+	}
+	
+	/**
+	 * remove a value from the display list. It is displayed again the next time it is set
+	 * @param key the key of the value to remove
+	 * @return the value that was remove, or -1 if the key wasn't found
+	 */
+	public double removeDisplayValue(String key) {
+		Integer slot = slotIds.get(key);
+		if(slot == null || shown.get(slot) == 0)
+			return -1;
+		shown.set(slot, 0);
+		return Double.longBitsToDouble(values.get(slot));
 	}
 }
@@ -0,0 +1,277 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mission.MissionListener;
+import mission.MissionNode;
+
+/**
+ * The flight recorder keeps the last seconds of the match in a file, to review what happened when something went wrong (see telemetry.FlightDump).
+ * It records the poses of the odometer, the raw sensor samples, the speeds of the wheel motors, the nodes of the mission starting and finishing, and events (localization, obstacles, ESC).
+ * The records are written in a circular buffer of fixed-size records, in a memory-mapped file: writing one is a few stores in memory, with no system call and no allocation.
+ * Since the operating system owns the mapped pages, what was written is in the file even if the program is killed by System.exit() or the JVM crashes.
+ * The pages are only forced to the SD card when the recorder is closed, so a power loss can lose the end of the recording.
+ * The recording of the previous run is kept in a second file, so that restarting the robot after a bad match does not overwrite it.
+ *
+ * File (big endian): header of HEADER_SIZE bytes: magic (int), version (int), record size (int), number of records (int), start of the recording (long, ms since the epoch).
+ * Then the records, each of RECORD_SIZE bytes: sequence number (int, starting at 1, 0 when the record is empty or being written), time (int, us since the start), type (byte), id (byte),
+ * number of values (short), then the values (up to 5 floats) or the characters of a text (up to 20 ASCII characters).
+ * Record i of the recording goes in slot (i % CAPACITY), so the records are put back in order with their sequence numbers.
+ *
+ * @version 1.0
+ */
+public class FlightRecorder implements MissionListener {
+	
+	/**
+	 * The file the recording goes to
+	 */
+	public static final String FILE_NAME = "flight.rec";
+	/**
+	 * The file the recording of the previous run is moved to
+	 */
+	public static final String PREVIOUS_FILE_NAME = "flight-prev.rec";
+	/**
+	 * First int of the file
+	 */
+	public static final int MAGIC = 0x46524543; //"FREC"
+	/**
+	 * Version of the format of the file
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * Size of the header of the file
+	 */
+	public static final int HEADER_SIZE = 32;
+	/**
+	 * Size of a record
+	 */
+	public static final int RECORD_SIZE = 32;
+	/**
+	 * Offset of the values in a record
+	 */
+	public static final int VALUES_OFFSET = 12;
+	/**
+	 * Number of records kept. About 45 seconds at the rates of the odometer and sensor poller
+	 */
+	public static final int CAPACITY = 8192;
+	
+	//Types of records
+	/**
+	 * Pose of the odometer: x, y (cm), theta (rad)
+	 */
+	public static final byte POSE = 1;
+	/**
+	 * Raw samples of the sensors: top ultrasonic (m), left, right and center floor (red mode)
+	 */
+	public static final byte SENSORS = 2;
+	/**
+	 * Wheel motors: set speed of the left and right motors, actual speed of the left and right motors (deg/s)
+	 */
+	public static final byte MOTORS = 3;
+	/**
+	 * A node of the mission started or finished, the id being one of the mission ids below. Text: the name of the node
+	 */
+	public static final byte MISSION = 4;
+	/**
+	 * Something happened. Text: what happened
+	 */
+	public static final byte EVENT = 5;
+	
+	//Ids of the MISSION records
+	public static final byte STARTED = 0;
+	public static final byte SUCCEEDED = 1;
+	public static final byte FAILED = 2;
+	
+	private static final int MAX_VALUES = (RECORD_SIZE - VALUES_OFFSET) / 4;
+	private static final long START_TIME = System.nanoTime();
+	
+	private volatile MappedByteBuffer buffer;
+	private final AtomicLong next = new AtomicLong(); //Number of records written, shared by the threads recording
+	
+	/**
+	 * constructs a flight recorder writing to the default file
+	 */
+	public FlightRecorder() {
+		this(FILE_NAME, PREVIOUS_FILE_NAME);
+	}
+	
+	/**
+	 * constructs a flight recorder. If the file cannot be mapped, nothing is recorded
+	 * @param fileName the file to record to
+	 * @param previousFileName the file to move the previous recording to
+	 */
+	public FlightRecorder(String fileName, String previousFileName) {
+		File file = new File(fileName);
+		if(file.exists()) {
+			File previous = new File(previousFileName);
+			previous.delete();
+			file.renameTo(previous);
+		}
+		
+		try {
+			RandomAccessFile out = new RandomAccessFile(file, "rw");
+			buffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) CAPACITY * RECORD_SIZE);
+			out.close(); //The mapping stays valid
+		} catch (IOException e) {
+			e.printStackTrace();
+			buffer = null;
+			return;
+		}
+		
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(8, RECORD_SIZE);
+		buffer.putInt(12, CAPACITY);
+		buffer.putLong(16, System.currentTimeMillis() - (System.nanoTime() - START_TIME) / 1000000);
+		
+		//Make sure the end of the recording is on the SD card whichever way the program exits
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				close();
+			}
+		});
+	}
+	
+	/**
+	 * Record the pose of the robot
+	 * @param time the time of the pose, from System.nanoTime()
+	 * @param x the x position (in cm)
+	 * @param y the y position (in cm)
+	 * @param theta the angle (in radians)
+	 */
+	public void recordPose(long time, double x, double y, double theta) {
+		MappedByteBuffer buffer = this.buffer;
+		if(buffer == null)
+			return;
+		long sequence = next.getAndIncrement();
+		int offset = begin(buffer, sequence, time, POSE, (byte) 0, 3);
+		buffer.putFloat(offset + VALUES_OFFSET, (float) x);
+		buffer.putFloat(offset + VALUES_OFFSET + 4, (float) y);
+		buffer.putFloat(offset + VALUES_OFFSET + 8, (float) theta);
+		end(buffer, offset, sequence);
+	}
+	
+	/**
+	 * Record the raw samples of the sensors
+	 * @param time the time of the samples, from System.nanoTime()
+	 * @param us the sample of the top ultrasonic sensor
+	 * @param leftFloor the sample of the left floor color sensor
+	 * @param rightFloor the sample of the right floor color sensor
+	 * @param centerFloor the sample of the center floor color sensor
+	 */
+	public void recordSensors(long time, float us, float leftFloor, float rightFloor, float centerFloor) {
+		MappedByteBuffer buffer = this.buffer;
+		if(buffer == null)
+			return;
+		long sequence = next.getAndIncrement();
+		int offset = begin(buffer, sequence, time, SENSORS, (byte) 0, 4);
+		buffer.putFloat(offset + VALUES_OFFSET, us);
+		buffer.putFloat(offset + VALUES_OFFSET + 4, leftFloor);
+		buffer.putFloat(offset + VALUES_OFFSET + 8, rightFloor);
+		buffer.putFloat(offset + VALUES_OFFSET + 12, centerFloor);
+		end(buffer, offset, sequence);
+	}
+	
+	/**
+	 * Record the speeds of the wheel motors
+	 * @param time the time of the speeds, from System.nanoTime()
+	 * @param leftSpeed the speed the left motor was set to (in deg/s)
+	 * @param rightSpeed the speed the right motor was set to (in deg/s)
+	 * @param leftRotation the actual speed of the left motor, negative when going backward (in deg/s)
+	 * @param rightRotation the actual speed of the right motor, negative when going backward (in deg/s)
+	 */
+	public void recordMotors(long time, int leftSpeed, int rightSpeed, int leftRotation, int rightRotation) {
+		MappedByteBuffer buffer = this.buffer;
+		if(buffer == null)
+			return;
+		long sequence = next.getAndIncrement();
+		int offset = begin(buffer, sequence, time, MOTORS, (byte) 0, 4);
+		buffer.putFloat(offset + VALUES_OFFSET, leftSpeed);
+		buffer.putFloat(offset + VALUES_OFFSET + 4, rightSpeed);
+		buffer.putFloat(offset + VALUES_OFFSET + 8, leftRotation);
+		buffer.putFloat(offset + VALUES_OFFSET + 12, rightRotation);
+		end(buffer, offset, sequence);
+	}
+	
+	/**
+	 * Record an event
+	 * @param text what happened, cut to 20 characters
+	 */
+	public void recordEvent(String text) {
+		recordText(EVENT, (byte) 0, text);
+	}
+	
+	/* (non-Javadoc)
+	 * @see mission.MissionListener#nodeStarted(mission.MissionNode)
+	 */
+	@Override
+	public void nodeStarted(MissionNode node) {
+		recordText(MISSION, STARTED, node.getName());
+	}
+	
+	/* (non-Javadoc)
+	 * @see mission.MissionListener#nodeFinished(mission.MissionNode, boolean)
+	 */
+	@Override
+	public void nodeFinished(MissionNode node, boolean success) {
+		recordText(MISSION, success? SUCCEEDED : FAILED, node.getName());
+	}
+	
+	private void recordText(byte type, byte id, String text) {
+		MappedByteBuffer buffer = this.buffer;
+		if(buffer == null)
+			return;
+		int length = Math.min(text.length(), MAX_VALUES * 4);
+		long sequence = next.getAndIncrement();
+		int offset = begin(buffer, sequence, System.nanoTime(), type, id, length);
+		for(int i = 0; i < length; i++)
+			buffer.put(offset + VALUES_OFFSET + i, (byte) text.charAt(i));
+		end(buffer, offset, sequence);
+	}
+	
+	/**
+	 * Write the header of a record. Its sequence number is cleared while it is being written, so that a half-written record is never read
+	 * @return the offset of the record in the file
+	 */
+	private static int begin(MappedByteBuffer buffer, long sequence, long time, byte type, byte id, int count) {
+		int offset = HEADER_SIZE + (int) (sequence % CAPACITY) * RECORD_SIZE;
+		buffer.putInt(offset, 0);
+		buffer.putInt(offset + 4, (int) ((time - START_TIME) / 1000));
+		buffer.put(offset + 8, type);
+		buffer.put(offset + 9, id);
+		buffer.putShort(offset + 10, (short) count);
+		return offset;
+	}
+	
+	/**
+	 * Mark a record as complete, once its values are written
+	 */
+	private static void end(MappedByteBuffer buffer, int offset, long sequence) {
+		buffer.putInt(offset, (int) (sequence + 1));
+	}
+	
+	/**
+	 * get the number of records written since the start
+	 * @return the number of records
+	 */
+	public long getRecordCount() {
+		return next.get();
+	}
+	
+	/**
+	 * Force the recording to the SD card and stop recording. Called by a shutdown hook when the program exits
+	 */
+	public synchronized void close() {
+		if(buffer == null)
+			return;
+		MappedByteBuffer closing = buffer;
+		buffer = null;
+		closing.force();
+	}
+}
@@ -0,0 +1,125 @@
+package main;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with fixed buckets whose width doubles: bucket 0 holds the durations under 1 us, bucket i the durations from 2^(i-1) to 2^i us,
+ * and the last bucket everything longer (over 4 seconds). Recording a duration does not allocate and does not take a lock.
+ * A histogram is written by a single thread (ex: the thread of a periodic task) and can be read from any other one, which sees the counts of the durations recorded so far.
+ *
+ * @version 1.0
+ */
+public class Histogram {
+	
+	/**
+	 * Number of buckets
+	 */
+	public static final int BUCKETS = 24;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private volatile long count = 0;
+	private volatile long total = 0; //In nanoseconds
+	private volatile long max = 0;
+	
+	/**
+	 * Record a duration. Must only be called by the thread writing the histogram
+	 * @param duration the duration (in nanoseconds)
+	 */
+	public void record(long duration) {
+		int bucket = getBucket(duration);
+		counts.lazySet(bucket, counts.get(bucket) + 1);
+		total += duration;
+		if(duration > max)
+			max = duration;
+		count++;
+	}
+	
+	/**
+	 * get the bucket a duration goes in
+	 * @param duration the duration (in nanoseconds)
+	 * @return the index of the bucket
+	 */
+	public static int getBucket(long duration) {
+		long us = Math.max(0, duration / 1000);
+		return Math.min(64 - Long.numberOfLeadingZeros(us), BUCKETS - 1);
+	}
+	
+	/**
+	 * get the longest duration that goes in a bucket
+	 * @param bucket the index of the bucket
+	 * @return the upper limit of the bucket (in microseconds), or Long.MAX_VALUE for the last bucket
+	 */
+	public static long getBucketLimit(int bucket) {
+		return (bucket == BUCKETS - 1)? Long.MAX_VALUE : 1L << bucket;
+	}
+	
+	/**
+	 * get the number of durations recorded in a bucket
+	 * @param bucket the index of the bucket
+	 * @return the number of durations
+	 */
+	public long getBucketCount(int bucket) {
+		return counts.get(bucket);
+	}
+	
+	/**
+	 * get the number of durations recorded
+	 * @return the number of durations
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * get the average of the durations recorded
+	 * @return the mean duration (in nanoseconds)
+	 */
+	public long getMean() {
+		long count = this.count;
+		return (count > 0)? total / count : 0;
+	}
+	
+	/**
+	 * get the longest duration recorded
+	 * @return the maximum duration (in nanoseconds)
+	 */
+	public long getMax() {
+		return max;
+	}
+	
+	/**
+	 * get an upper bound of a percentile of the durations: the upper limit of the bucket the percentile falls in, or the maximum if it is lower
+	 * @param percentile the percentile, between 0 and 100 (ex: 99)
+	 * @return the duration under which that percent of the durations are (in nanoseconds)
+	 */
+	public long getPercentile(double percentile) {
+		long total = 0;
+		for(int i = 0; i < BUCKETS; i++)
+			total += counts.get(i);
+		if(total == 0)
+			return 0;
+		
+		long rank = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if(seen >= rank && seen > 0)
+				return Math.min(getBucketLimit(i) * 1000, max);
+		}
+		return max;
+	}
+	
+	/**
+	 * get a copy of the histogram, that does not change as durations are recorded
+	 * @return the copy
+	 */
+	public Histogram copy() {
+		Histogram copy = new Histogram();
+		for(int i = 0; i < BUCKETS; i++)
+			copy.counts.set(i, counts.get(i));
+		copy.total = total;
+		copy.max = max;
+		copy.count = count;
+		return copy;
+	}
+}
@@ -1,106 +1,243 @@
 package main;
 
-import filters.Filter;
+import java.util.HashMap;
+
 import lejos.hardware.Sound;
 
 /**
- * Light Localizer. Performs localization of the robot anywhere on the field. Robot rotates on itself and color sensor values are retrieved to find at what angles lines were detected.
- * Calculates the angle as well as the position of the robot and updates the odometer accordingly.
+ * Light Localizer. Performs localization of the robot anywhere on the field. Robot rotates on itself and the times at which the three floor color sensors cross lines are recorded.
+ * The position of each sensor at those times is found from the history of the odometer and the offset of the sensor on the robot, and the pose solver finds by least squares the correction of x, y and theta that puts every crossing on a line.
+ * Since the three sensors are used, the rotation stops as soon as the solution is well conditioned, usually within half a turn. Crossings that do not fit (dark spots, cracks) are rejected.
+ * The robot comes back to the same spots many times (ex: next to the ball tray). The result of the first localization at a named spot is remembered, and later visits only do a short check
+ * that trusts the odometer unless the lines say otherwise. The rotation continues into a full localization only if the check does not fit.
  * @author Jerome, Jack
- * @version 1.0
+ * @version 2.0
  */
 public abstract class LightLocalizer {
 	
-	private static final int WAIT_TIME = 400; //Time to wait after a line has been detected to make sure it is not seen twice
-	private static final double COLOR_SENSOR_DIST = 16.3; //Distance of the color sensor from the center of the two wheels
+	private static final int ROTATION_SPEED = 200;
+	private static final int MIN_CROSSINGS = 5; //Minimum number of crossings used in a solution. One more than the pose solver needs, so that an outlier can be rejected
+	private static final double MAX_RESIDUAL = 1.5; //Maximum root mean square distance (in cm) between the crossings and their lines for the localization to succeed
+	private static final long SOLVE_PERIOD = 25; //Time between two attempts to solve while rotating (in ms)
+	private static final int MIN_CHECK_CROSSINGS = 3; //Minimum number of crossings for a short check at a known spot
+	private static final double CHECK_POSITION_PRIOR = 1; //Weight of the prior on the position during a short check, in number of crossings
+	private static final double CHECK_ANGLE_PRIOR = 100; //Weight of the prior on the angle during a short check (a crossing 10 cm away)
+	private static final double MAX_CHECK_SHIFT = 4; //Maximum correction of the position (in cm) accepted by a short check. Larger corrections need a full localization
+	private static final double MAX_CHECK_ROTATION = 0.1; //Maximum correction of the angle (in rad) accepted by a short check
+	private static final double MIN_CHECK_SWEEP = Math.PI / 4; //Minimum rotation allowed to the short check (in rad)
+	private static final double MAX_SPOT_DIST = 10; //Maximum distance (in cm) from a remembered spot for the robot to be considered back at it
+	
+	private static HashMap<String, double[]> spots = new HashMap<String, double[]>(); //Result of the first localization at each named spot: {x, y, theta, rotation needed}
+	
+	private static double lastResidual = Double.NaN;
+	private static double lastRotation = 0; //Rotation needed by the last localization (in rad)
+	private static double[] lastPosition = new double[3]; //Position found by the last localization, before moving to the corner
 	
 	/**
 	 * Localizes (calculates the angle as well as the position). Does not move after it is done localizing
+	 * @return the residual of the localization (in centimeters), or NaN if it failed and the odometer was not corrected
 	 */
-	public static void doLocalization() {
-		doLocalization(false);
+	public static double doLocalization() {
+		return doLocalization(false);
 	}
 	
 	/**
 	 * Localizes (calculates the angle as well as the position) and has the option to move to the nearest corner afterwards
+	 * Steps:
+	 * -Rotate counterclockwise while recording the line crossings of the three floor sensors
+	 * -Periodically solve for the correction, and stop rotating as soon as it is well conditioned and the residual is small enough
+	 * -Give up after a full turn. The odometer is then left as it is, the failure is shown on the display and returned to the caller
+	 * @param goToPoint whether or not to go to the nearest corner after localizing
+	 * @return the residual of the localization (in centimeters), or NaN if it failed and the odometer was not corrected
+	 */
+	public static double doLocalization(boolean goToPoint) {
+		return localize(0, goToPoint);
+	}
+	
+	/**
+	 * Localizes at a named spot the robot comes back to. The first time, a full localization is done and its result is remembered.
+	 * On later visits, a short check is done first: the odometer is assumed to be close to right, and the rotation stops as soon as a few crossings confirm it.
+	 * If the check does not fit after rotating as much as the first localization needed, the rotation continues into a full localization
+	 * @param spot the name of the spot (ex: "tray")
+	 * @param goToPoint whether or not to go to the nearest corner after localizing
+	 * @return the residual of the localization (in centimeters), or NaN if it failed and the odometer was not corrected
+	 */
+	public static double relocalize(String spot, boolean goToPoint) {
+		Odometer odometer = Main.get().getOdometer();
+		double[] cached = spots.get(spot);
+		
+		if(cached != null && Math.sqrt(Math.pow(odometer.getX() - cached[0], 2) + Math.pow(odometer.getY() - cached[1], 2)) < MAX_SPOT_DIST)
+			return localize(Math.max(cached[3], MIN_CHECK_SWEEP), goToPoint); //Back at a known spot
+		
+		double residual = localize(0, goToPoint);
+		if(!Double.isNaN(residual))
+			spots.put(spot, new double[] {lastPosition[0], lastPosition[1], lastPosition[2], lastRotation});
+		return residual;
+	}
+	
+	/**
+	 * Rotate on the spot and localize
+	 * @param checkRotation how much the robot may rotate while doing a short check that trusts the odometer (in rad). 0 to do a full localization only
 	 * @param goToPoint whether or not to go to the nearest corner after localizing
+	 * @return the residual of the localization (in centimeters), or NaN if it failed
 	 */
-	public static void doLocalization(boolean goToPoint) {
+	private static double localize(double checkRotation, boolean goToPoint) {
 		
 		Navigator navigator = Main.get().getNavigator();
 		Odometer odometer = Main.get().getOdometer();
 		
-		//Pause the odometry correction and the obstacle avoidance:
+		try {
+			Main.get().getArmController().awaitSafe(); //Do not spin while the arm is moving
+		} catch (InterruptedException e) { //Fail without moving. Keep the interrupted status for the caller
+			Thread.currentThread().interrupt();
+			lastResidual = Double.NaN;
+			return lastResidual;
+		}
+		
+		//Pause the odometry correction, the moving localizer and the obstacle avoidance:
 		Main.get().getObstacleDetector().setRunning(false);
 		Main.get().getOdometryCorrection().setRunning(false);
-		
-		double[] angles = new double[4]; //The 4 angles at which lines were found
-		int currentAngle = 0;
-		long lastTime = 0;
+		Main.get().getMovingLocalizer().setRunning(false);
 		
 		//Record the position of the nearest corner:
 		double cornerX = Math.round(odometer.getX() / Main.TILE_LENGTH) * Main.TILE_LENGTH;
 		double cornerY = Math.round(odometer.getY() / Main.TILE_LENGTH) * Main.TILE_LENGTH;
 		
-		//Turn to an angle of 45 degrees to make sur the 4 lines a properly detected
-		navigator.turnTo(Math.PI/4);
-		navigator.setRunning(true);
-		while(navigator.isNavigating());
-		navigator.setRunning(false);
+		CrossingRecorder recorder = new CrossingRecorder();
+		Main.get().getSensorPoller().subscribeLines(recorder);
 		
-		//Turn until 4 lines are detected
-		Main.get().getMotor("left").setSpeed(200);
-		Main.get().getMotor("right").setSpeed(200);
-		Main.get().getMotor("left").backward(); //Turn counterclockwise
+		//Turn counterclockwise until the position can be found
+		Main.get().getMotor("left").setSpeed(ROTATION_SPEED);
+		Main.get().getMotor("right").setSpeed(ROTATION_SPEED);
+		Main.get().getMotor("left").backward();
 		Main.get().getMotor("right").forward();
 		
-		//Get the first 4 lines detected and save the angle reported by the odometer at those time
-		while(currentAngle < 4) {
-			if(Main.get().getSensorPoller().getCenterFloorColorReading(Filter.EDGE) > 0 && System.currentTimeMillis() - lastTime > WAIT_TIME) {
-				lastTime = System.currentTimeMillis();
-				angles[currentAngle] = odometer.getTheta();
-				currentAngle++;
-				Sound.beep();
+		PoseSolver solver = new PoseSolver();
+		double[] position = new double[3];
+		double[] correction = null;
+		double previousTheta = odometer.getTheta();
+		double rotation = 0;
+		
+		while(rotation < 2*Math.PI) {
+			try {
+				Thread.sleep(SOLVE_PERIOD);
+			} catch (InterruptedException e) { //Stop rotating and fail. Keep the interrupted status for the caller
+				Thread.currentThread().interrupt();
+				break;
 			}
+			
+			//Keep track of how much the robot turned
+			double theta = odometer.getTheta();
+			rotation += ((theta - previousTheta) % (2*Math.PI) + 2*Math.PI) % (2*Math.PI);
+			previousTheta = theta;
+			
+			boolean check = rotation < checkRotation;
+			int minCrossings = check? MIN_CHECK_CROSSINGS : MIN_CROSSINGS;
+			if(recorder.getCount() < minCrossings)
+				continue;
+			
+			solver.clear();
+			if(check)
+				solver.setPrior(CHECK_POSITION_PRIOR, CHECK_ANGLE_PRIOR);
+			else
+				solver.setPrior(0, 0);
+			recorder.addTo(solver);
+			odometer.getPosition(position, new boolean[] {true, true, true});
+			correction = solver.solve(position[0], position[1]);
+			
+			if(correction != null && solver.getCrossingCount() >= minCrossings && solver.getResidual() <= MAX_RESIDUAL) {
+				if(!check || (Math.abs(correction[0]) <= MAX_CHECK_SHIFT && Math.abs(correction[1]) <= MAX_CHECK_SHIFT && Math.abs(correction[2]) <= MAX_CHECK_ROTATION))
+					break;
+			}
+			correction = null;
 		}
+		lastRotation = rotation;
 		
 		Main.get().getMotor("left").stop(true); //Stop moving
 		Main.get().getMotor("right").stop();
+		Main.get().getSensorPoller().unsubscribeLines(recorder);
 		
-		//Calculation of the position using trig
-		//Even-index angles are on the y axis, whereas odd-index angles are on the x axis
-		double thetaY = (angles[0] - angles[2])/2;
-		double thetaX = (angles[1] - angles[3])/2;
-		double x = cornerX - COLOR_SENSOR_DIST * Math.cos(thetaY); //X has to be flipped
-		double y = cornerY - COLOR_SENSOR_DIST * Math.cos(thetaX);
-		
-		//Calculation of the angle
-		double thetaCorrection = Math.PI - (angles[0] + angles[2])/2;
-		
-		//Prevent correcting if some lines were skipped or some dark spot was detected
-		if(Math.abs(thetaCorrection) > Math.PI) { //Expected to be 3pi/2 between the first and last line
-			//Resume the odometry correction and the obstacle avoidance:
-			Main.get().getObstacleDetector().setRunning(true);
-			Main.get().getOdometryCorrection().setRunning(true);
-			Sound.buzz();
-			return;
+		if(correction == null) { //Not enough lines were found or they did not fit together. Leave the odometer as it is and tell the caller
+			lastResidual = Double.NaN;
+			Main.get().getDisplay().addDisplayValue("LLRes", -1);
+			System.out.println("Light localization failed: " + recorder.getCount() + " crossings, " + solver.getRejectedCount() + " rejected");
+			Main.get().getFlightRecorder().recordEvent("LightLoc failed");
+		}
+		else {
+			//The robot rotated on itself, around the point the correction rotates around, so it only has to be shifted
+			odometer.getPosition(position, new boolean[] {true, true, true});
+			double theta = ((position[2] + correction[2]) % (2*Math.PI) + 2*Math.PI) % (2*Math.PI);
+			lastPosition = new double[] {position[0] + correction[0], position[1] + correction[1], theta};
+			odometer.setPosition(lastPosition, new boolean[] {true, true, true});
+			
+			lastResidual = solver.getResidual();
+			Main.get().getDisplay().addDisplayValue("LLRes", lastResidual);
+			Main.get().getFlightRecorder().recordEvent("LightLoc done");
+			Sound.beep();
+			
+			//Move to the nearest corner, if needed
+			if(goToPoint) {
+				navigator.travelTo(cornerX, cornerY);
+				navigator.setRunning(true);
+				try {
+					navigator.awaitNavigation();
+				} catch (InterruptedException e) { //Stop where the robot is. The localization itself is done, keep the interrupted status for the caller
+					Thread.currentThread().interrupt();
+				}
+				navigator.setRunning(false); //Stop the navigator to make sure it does not want to correct itself after turning
+			}
 		}
 		
-		double theta = odometer.getTheta() + thetaCorrection;
+		//Resume the odometry correction, the moving localizer and the obstacle avoidance:
+		Main.get().getObstacleDetector().setRunning(true);
+		Main.get().getOdometryCorrection().setRunning(true);
+		Main.get().getMovingLocalizer().setRunning(true);
+		
+		return lastResidual;
+	}
+	
+	/**
+	 * get the residual of the last localization
+	 * @return the root mean square distance (in centimeters) between the crossings and their lines, or NaN if the last localization failed
+	 */
+	public static double getLastResidual() {
+		return lastResidual;
+	}
+	
+	/**
+	 * Records the line crossings of the floor sensors during the rotation, with the position of the robot at the time of each crossing. Filled from the sensor poller's thread
+	 * The position is looked up as soon as the crossing is seen, since a full turn takes longer than the history of the odometer
+	 */
+	private static class CrossingRecorder implements LineListener {
+		private static final int CAPACITY = 24;
+		
+		private double[][] positions = new double[CAPACITY][3];
+		private int[] sensors = new int[CAPACITY];
+		private int count = 0;
 		
-		odometer.setPosition(new double[] {x, y, theta}, new boolean[] {true, true, true});
+		@Override
+		public synchronized void lineCrossed(int sensor, long timestamp) {
+			if(count < CAPACITY) {
+				Main.get().getOdometer().getPositionAt(timestamp, positions[count]);
+				sensors[count] = sensor;
+				count++;
+			}
+		}
 		
-		//Move to the nearest corner, if needed
-		if(goToPoint) {
-			navigator.travelTo(cornerX, cornerY);
-			navigator.setRunning(true);
-			while(navigator.isNavigating());
-			navigator.setRunning(false); //Stop the navigator to make sure it does not want to correct itself after turning
+		/**
+		 * get the number of crossings recorded
+		 */
+		private synchronized int getCount() {
+			return count;
 		}
 		
-		//Resume the odometry correction and the obstacle avoidance:
-		Main.get().getObstacleDetector().setRunning(true);
-		Main.get().getOdometryCorrection().setRunning(true);
+		/**
+		 * Add the crossings recorded to a solver, using the position of the robot at the time of each crossing
+		 */
+		private synchronized void addTo(PoseSolver solver) {
+			for(int i = 0; i < count; i++)
+				solver.addCrossing(sensors[i], positions[i]);
+		}
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
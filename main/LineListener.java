@@ -0,0 +1,18 @@
+package main;
+
+/**
+ * Listener notified by the sensor poller when one of the color sensors pointing the floor crosses a line.
+ * Used to collect timestamped line crossings while the robot keeps moving.
+ *
+ * @version 1.0
+ */
+public interface LineListener {
+
+	/**
+	 * called from the sensor poller's thread when a floor color sensor detects a line. Should return quickly
+	 * @param sensor the sensor that detected the line (SensorPoller.LEFT_FLOOR, SensorPoller.RIGHT_FLOOR or SensorPoller.CENTER_FLOOR)
+	 * @param timestamp the time (from System.nanoTime()) the sensor was over the line, taking into account the delay added by the edge filter
+	 */
+	public void lineCrossed(int sensor, long timestamp);
+
+}
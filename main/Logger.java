@@ -1,30 +1,315 @@
 package main;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class Logger {
+/**
+ * The logger records values to a file on the brick, to debug and do sensor characterization. It is cheap enough to be called inside the loops of the periodic tasks.
+ * Values are recorded on named channels. Recording a value only puts primitives in the lock-free queue of its channel (see SampleRing): no string is built and nothing is written on the caller's thread.
+ * The logger thread takes the values out of the queues, formats them into a large buffer and writes the buffer to the file when it is half full, so the file is written in large sequential blocks.
+ * Each channel can have a sampling rate: the values recorded faster than that are skipped on the caller's thread, before they reach the queue.
+ * If a queue is full because the logger thread could not keep up, the values are dropped and counted instead of blocking the caller.
+ * Everything that was recorded is written when the logger is closed, which a shutdown hook also does when the program exits.
+ *
+ * File format, one value per line:
+ * -named channels: time (ms since the start, to the us), name, value
+ * -values added with addValue() and addValues(): time (ms since the start), values, as they always were (ex: calibration shots of the throw planner)
+ * -when closed, the number of values dropped by each channel that lost some, after a #
+ *
+ * @version 1.0
+ */
+public class Logger extends PeriodicTask {
 	
-	private PrintWriter out;
+	private static final String FILE_NAME = "log.txt";
+	private static final long ITERATION_TIME = 100;
+	private static final int CAPACITY = 4096; //Size of the queue of each channel, must be a power of two. Over a minute of values at the rate of the odometer
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int LINE_SIZE = 64; //Room kept in the buffer for one line, without the name of the channel
+	private static final long MAX_WRITE_DELAY = 2000000000L; //Write at least every 2 seconds, even if the buffer is not half full (in ns)
+	private static final int SIGNIFICANT_DIGITS = 7; //Digits written for the values, about the precision of a float
+	private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000};
 	
-	private long startTime;
+	/**
+	 * A channel of the logger. Obtained from getChannel(), then passed to record()
+	 */
+	public static final class Channel {
+		private final String name;
+		private final byte[] nameBytes;
+		private final long minInterval; //Minimum time between two values recorded, in ns
+		private final SampleRing queue = new SampleRing(CAPACITY);
+		private final AtomicLong dropped = new AtomicLong();
+		private volatile long lastTime = Long.MIN_VALUE / 2; //Time of the last value recorded
+		
+		private Channel(String name, double rate) {
+			this.name = name;
+			this.nameBytes = name.getBytes(); //The names are ASCII
+			this.minInterval = (rate > 0)? (long) (1e9 / rate) : 0;
+		}
+		
+		/**
+		 * get the name of the channel
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+		
+		/**
+		 * get the number of values dropped because the queue of the channel was full
+		 * @return the number of values dropped
+		 */
+		public long getDroppedCount() {
+			return dropped.get();
+		}
+	}
+	
+	private volatile Channel[] channels = new Channel[0];
+	private final Channel values; //Lines added with addValue() and addValues(). The tag of each value is the number of values left in its line
+	
+	private final long startTime;
+	private FileChannel file;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private final byte[] digits = new byte[20];
+	private long lastWriteTime;
+	private boolean lineStart = true; //Whether the next value of the lines added with addValues() starts a line
+	private volatile boolean closed = false;
 	
+	/**
+	 * constructs a logger writing to the log file. The logger thread still has to be started. If the file cannot be opened, the values are taken out of the queues but never written
+	 */
 	public Logger() {
-		startTime = System.currentTimeMillis();
+		super("Logger", ITERATION_TIME, TimingClass.BACKGROUND, true);
+		startTime = System.nanoTime();
+		lastWriteTime = startTime;
+		values = new Channel("", 0);
 		try {
-			out = new PrintWriter(new File("log.txt"));
-		} catch (FileNotFoundException e) {
+			file = new FileOutputStream(FILE_NAME).getChannel();
+		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		
+		//Write what is left in the queues whichever way the program exits
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				Logger.this.close();
+			}
+		});
+	}
+	
+	/* (non-Javadoc)
+	 * @see main.PeriodicTask#step()
+	 */
+	@Override
+	protected void step() {
+		flush(false);
+	}
+	
+	/**
+	 * get a channel, adding it if it does not exist yet. Should be called once, outside of the loop the values are recorded in
+	 * @param name the name of the channel
+	 * @param rate the maximum number of values recorded per second, the others being skipped. 0 to record every value
+	 * @return the channel
+	 */
+	public synchronized Channel getChannel(String name, double rate) {
+		for(Channel channel: channels) {
+			if(channel.name.equals(name))
+				return channel;
+		}
+		Channel channel = new Channel(name, rate);
+		Channel[] newChannels = Arrays.copyOf(channels, channels.length + 1);
+		newChannels[channels.length] = channel;
+		channels = newChannels;
+		return channel;
 	}
 	
+	/**
+	 * Record a value. Never blocks and does not allocate: the value is skipped if it comes too soon after the previous one of the channel, and dropped if the queue of the channel is full
+	 * @param channel the channel, as returned by getChannel()
+	 * @param timestamp the time of the value, from System.nanoTime()
+	 * @param value the value
+	 */
+	public void record(Channel channel, long timestamp, float value) {
+		if(channel.minInterval > 0) {
+			if(timestamp - channel.lastTime < channel.minInterval)
+				return;
+			channel.lastTime = timestamp;
+		}
+		if(closed || !channel.queue.offer(0, timestamp, value))
+			channel.dropped.incrementAndGet();
+	}
+	
+	/**
+	 * Add a line made of one value
+	 * @param val the value
+	 */
 	public void addValue(float val) {
-		out.println((System.currentTimeMillis() - startTime) + "\t" + val);
+		addValues(val);
 	}
 	
-	public void close() {
-		out.close();
+	/**
+	 * Add a line made of several values. Meant for occasional events: use a channel for values recorded in a loop. The whole line is dropped if it does not fit in the queue
+	 * @param values the values
+	 */
+	public void addValues(float... values) {
+		long time = System.nanoTime();
+		synchronized(this.values) { //Keep the values of a line together in the queue
+			if(closed || this.values.queue.getFreeCount() < values.length) {
+				this.values.dropped.addAndGet(values.length);
+				return;
+			}
+			for(int i = 0; i < values.length; i++)
+				this.values.queue.offer(values.length - 1 - i, time, values[i]);
+		}
+	}
+	
+	/**
+	 * Take the values out of the queues and put them in the buffer, then write the buffer if it is half full or was not written for a while
+	 * @param force whether to write the buffer anyway
+	 */
+	private synchronized void flush(boolean force) {
+		Channel[] channels = this.channels;
+		for(Channel channel: channels) {
+			while(channel.queue.poll()) {
+				ensureRoom(LINE_SIZE + channel.nameBytes.length);
+				putFixed((channel.queue.getTime() - startTime) / 1000, 3);
+				buffer.put((byte) '\t');
+				buffer.put(channel.nameBytes);
+				buffer.put((byte) '\t');
+				putFloat(channel.queue.getValue());
+				buffer.put((byte) '\n');
+			}
+		}
+		
+		while(values.queue.poll()) {
+			ensureRoom(LINE_SIZE);
+			if(lineStart)
+				putFixed((values.queue.getTime() - startTime) / 1000000, 0);
+			buffer.put((byte) '\t');
+			putFloat(values.queue.getValue());
+			lineStart = values.queue.getTag() == 0;
+			if(lineStart)
+				buffer.put((byte) '\n');
+		}
+		
+		long now = System.nanoTime();
+		if(force || buffer.position() >= BUFFER_SIZE / 2 || (buffer.position() > 0 && now - lastWriteTime > MAX_WRITE_DELAY))
+			write();
+	}
+	
+	/**
+	 * Write the buffer to the file if it cannot take a line of the given size
+	 */
+	private void ensureRoom(int size) {
+		if(buffer.remaining() < size)
+			write();
+	}
+	
+	/**
+	 * Write the content of the buffer to the file and empty it
+	 */
+	private void write() {
+		buffer.flip();
+		try {
+			while(file != null && buffer.hasRemaining())
+				file.write(buffer);
+		} catch (IOException e) {
+			e.printStackTrace();
+			file = null;
+		}
+		buffer.clear();
+		lastWriteTime = System.nanoTime();
+	}
+	
+	/**
+	 * Put a float in the buffer, with SIGNIFICANT_DIGITS digits at most
+	 */
+	private void putFloat(float value) {
+		float abs = Math.abs(value);
+		if(Float.isNaN(value) || Float.isInfinite(value) || abs >= 1e9f || (abs < 1e-4f && value != 0)) { //Too large or too small for the fixed-point format, rare enough to allocate
+			buffer.put(Float.toString(value).getBytes());
+			return;
+		}
+		
+		int decimals = SIGNIFICANT_DIGITS;
+		for(long power = 10; power <= abs && decimals > 1; power *= 10)
+			decimals--;
+		long scaled = Math.round(value * (double) POWERS_OF_TEN[decimals]);
+		while(decimals > 1 && scaled % 10 == 0) { //Remove the trailing zeros, but keep one decimal like Float.toString()
+			scaled /= 10;
+			decimals--;
+		}
+		putFixed(scaled, decimals);
+	}
+	
+	/**
+	 * Put a fixed-point number in the buffer, without allocating
+	 * @param scaled the number multiplied by 10 to the power of decimals
+	 * @param decimals the number of decimals
+	 */
+	private void putFixed(long scaled, int decimals) {
+		if(scaled < 0) {
+			buffer.put((byte) '-');
+			scaled = -scaled;
+		}
+		
+		int count = 0;
+		do {
+			digits[count++] = (byte) ('0' + scaled % 10);
+			scaled /= 10;
+		} while(scaled > 0 || count <= decimals); //At least one digit before the point
+		
+		while(count > 0) {
+			if(count == decimals)
+				buffer.put((byte) '.');
+			buffer.put(digits[--count]);
+		}
+	}
+	
+	/**
+	 * Write everything that was recorded and close the file. Values recorded afterwards are dropped. Called by a shutdown hook when the program exits
+	 */
+	public synchronized void close() {
+		if(closed)
+			return;
+		closed = true;
+		flush(false);
+		
+		//Values lost
+		for(Channel channel: channels)
+			putDropped(channel);
+		putDropped(values);
+		write();
+		
+		try {
+			if(file != null)
+				file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		file = null;
+	}
+	
+	private void putDropped(Channel channel) {
+		if(channel.getDroppedCount() == 0)
+			return;
+		ensureRoom(LINE_SIZE + channel.nameBytes.length);
+		buffer.put((byte) '#');
+		buffer.put(channel.nameBytes);
+		buffer.put((byte) '\t');
+		putFixed(channel.getDroppedCount(), 0);
+		buffer.put((byte) '\n');
+	}
+	
+	/**
+	 * get the channels added so far
+	 * @return the channels
+	 */
+	public Channel[] getChannels() {
+		return channels.clone();
 	}
-
 }
@@ -0,0 +1,209 @@
+package main;
+
+import java.io.PrintStream;
+
+/**
+ * Reports the loop timings of the periodic tasks: the time their iterations take, how late they start, their overruns and how often they wait for the metered locks.
+ * Every second, it logs the 99th percentiles of each task (see Logger) and shows on the display the total number of overruns and the load of the busiest task
+ * (99th percentile of its iteration time, as a percentage of its period). Its iterations do not allocate once the channels are added.
+ * snapshot() gives a copy of the metrics of every task at once, and print() prints them (ex: when the program is stopped).
+ *
+ * @version 1.0
+ */
+public class LoopMetrics extends PeriodicTask {
+	
+	private static final long ITERATION_TIME = 1000;
+	
+	/**
+	 * The metrics of a periodic task at one point in time
+	 */
+	public static final class Snapshot {
+		private final String name;
+		private final TimingClass timingClass;
+		private final long period, iterations, overruns, cpuTime;
+		private final Histogram executionTimes, latenesses, lockWaitTimes;
+		
+		private Snapshot(PeriodicTask task) {
+			name = task.getName();
+			timingClass = task.getTimingClass();
+			period = task.getPeriod();
+			iterations = task.getIterationCount();
+			overruns = task.getOverrunCount();
+			cpuTime = task.getCpuTime();
+			executionTimes = task.getExecutionTimes().copy();
+			latenesses = task.getLatenesses().copy();
+			lockWaitTimes = task.getLockWaitTimes().copy();
+		}
+		
+		/**
+		 * get the name of the task
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+		
+		/**
+		 * get the timing class of the task
+		 * @return the timing class
+		 */
+		public TimingClass getTimingClass() {
+			return timingClass;
+		}
+		
+		/**
+		 * get the period of the task
+		 * @return the period (in ms)
+		 */
+		public long getPeriod() {
+			return period;
+		}
+		
+		/**
+		 * get the number of iterations performed
+		 * @return the number of iterations
+		 */
+		public long getIterationCount() {
+			return iterations;
+		}
+		
+		/**
+		 * get the number of iterations that missed their deadline
+		 * @return the number of overruns
+		 */
+		public long getOverrunCount() {
+			return overruns;
+		}
+		
+		/**
+		 * get the CPU time used by the task
+		 * @return the CPU time (in ns), or -1 if it cannot be measured
+		 */
+		public long getCpuTime() {
+			return cpuTime;
+		}
+		
+		/**
+		 * get the histogram of the time taken by the iterations
+		 * @return the histogram
+		 */
+		public Histogram getExecutionTimes() {
+			return executionTimes;
+		}
+		
+		/**
+		 * get the histogram of the delays between the scheduled and actual starts of the iterations
+		 * @return the histogram
+		 */
+		public Histogram getLatenesses() {
+			return latenesses;
+		}
+		
+		/**
+		 * get the histogram of the waits for metered locks
+		 * @return the histogram, whose count is the number of waits
+		 */
+		public Histogram getLockWaitTimes() {
+			return lockWaitTimes;
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			//Times in us, except the CPU time in ms
+			return name + "\t" + timingClass + "\t" + period + "\t" + iterations + "\t" + overruns
+					+ "\t" + executionTimes.getPercentile(50) / 1000 + "\t" + executionTimes.getPercentile(99) / 1000 + "\t" + executionTimes.getMax() / 1000
+					+ "\t" + latenesses.getPercentile(99) / 1000 + "\t" + latenesses.getMax() / 1000
+					+ "\t" + lockWaitTimes.getCount() + "\t" + lockWaitTimes.getMax() / 1000 + "\t" + cpuTime / 1000000;
+		}
+	}
+	
+	private PeriodicTask[] tasks;
+	private Logger.Channel[] executionChannels, latenessChannels, overrunChannels, lockWaitChannels;
+	private int overrunSlot, loadSlot; //Display slots
+	
+	/**
+	 * constructs the metrics reporter
+	 */
+	public LoopMetrics() {
+		super("LoopMetrics", ITERATION_TIME, TimingClass.BACKGROUND, true);
+		overrunSlot = Main.get().getDisplay().addSlot("Overruns");
+		loadSlot = Main.get().getDisplay().addSlot("Load");
+	}
+	
+	/* (non-Javadoc)
+	 * @see main.PeriodicTask#step()
+	 */
+	@Override
+	protected void step() {
+		if(tasks == null)
+			addChannels(Main.get().getPeriodicTasks());
+		
+		long time = System.nanoTime();
+		long overruns = 0;
+		double load = 0;
+		Logger logger = Main.get().getLogger();
+		for(int i = 0; i < tasks.length; i++) {
+			PeriodicTask task = tasks[i];
+			long executionTime = task.getExecutionTimes().getPercentile(99);
+			logger.record(executionChannels[i], time, executionTime / 1000f);
+			logger.record(latenessChannels[i], time, task.getLatenesses().getPercentile(99) / 1000f);
+			logger.record(overrunChannels[i], time, task.getOverrunCount());
+			logger.record(lockWaitChannels[i], time, task.getLockWaitTimes().getCount());
+			
+			overruns += task.getOverrunCount();
+			load = Math.max(load, executionTime / 1e6 / task.getPeriod() * 100);
+		}
+		
+		Display display = Main.get().getDisplay();
+		display.setValue(overrunSlot, overruns);
+		display.setValue(loadSlot, load);
+	}
+	
+	private void addChannels(PeriodicTask[] tasks) {
+		Logger logger = Main.get().getLogger();
+		executionChannels = new Logger.Channel[tasks.length];
+		latenessChannels = new Logger.Channel[tasks.length];
+		overrunChannels = new Logger.Channel[tasks.length];
+		lockWaitChannels = new Logger.Channel[tasks.length];
+		for(int i = 0; i < tasks.length; i++) {
+			executionChannels[i] = logger.getChannel(tasks[i].getName() + ".Exec99", 0);
+			latenessChannels[i] = logger.getChannel(tasks[i].getName() + ".Late99", 0);
+			overrunChannels[i] = logger.getChannel(tasks[i].getName() + ".Overruns", 0);
+			lockWaitChannels[i] = logger.getChannel(tasks[i].getName() + ".LockWaits", 0);
+		}
+		this.tasks = tasks;
+	}
+	
+	/**
+	 * get the metrics of periodic tasks
+	 * @param tasks the tasks
+	 * @return a snapshot of the metrics of each task, in the same order
+	 */
+	public static Snapshot[] snapshot(PeriodicTask... tasks) {
+		Snapshot[] snapshots = new Snapshot[tasks.length];
+		for(int i = 0; i < tasks.length; i++)
+			snapshots[i] = new Snapshot(tasks[i]);
+		return snapshots;
+	}
+	
+	/**
+	 * Print the metrics of periodic tasks, one task per line: name, timing class, period (ms), iterations, overruns, median, 99th percentile and max iteration time (us),
+	 * 99th percentile and max lateness (us), lock waits, longest lock wait (us) and CPU time (ms). Then the overruns of each timing class and the waits of each metered lock
+	 * @param out the stream to print to
+	 * @param tasks the tasks
+	 */
+	public static void print(PrintStream out, PeriodicTask... tasks) {
+		long[] classMisses = new long[TimingClass.values().length];
+		for(Snapshot snapshot: snapshot(tasks)) {
+			out.println(snapshot);
+			classMisses[snapshot.getTimingClass().ordinal()] += snapshot.getOverrunCount();
+		}
+		for(TimingClass timingClass: TimingClass.values())
+			out.println(timingClass + "\t" + classMisses[timingClass.ordinal()]);
+		for(MeteredLock lock: MeteredLock.getLocks())
+			out.println(lock.getName() + " lock\t" + lock.getWaitCount() + "\t" + lock.getWaitTime() / 1000000);
+	}
+}
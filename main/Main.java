@@ -1,11 +1,14 @@
 package main;
-import java.io.IOException;
 import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import lejos.hardware.Button;
 import lejos.hardware.ev3.LocalEV3;
 import lejos.hardware.motor.EV3LargeRegulatedMotor;
 
+import mission.MissionExecutor;
+import mission.MissionNode;
 import wifi.*;
 
 /**
@@ -33,25 +36,29 @@ public class Main {
 	private static final String IP_ADDRESS = "132.206.67.203";
 	private static final int TEAM_NUMBER = 5;
 	
-	//Static final variables of the specs of the ball tray
-	private static final double TRAY_WIDTH = 7.62; //3 inches
-	private static final double BALL_SPACING = 7.62; //3 inches
-	private static final double BALL_HOLE_RADIUS = 2.54; //1 inch
-	private static final double BALL_HOLE_MARGIN = 3.81; //1.5 inches
-	
-	private static final double X_DIST_BALL_HOLDER = 4.8; //Distance the ball should be from the center of rotation in order to be picked up
-	private static final double Y_DIST_BALL_HOLDER = 11.6; //Distance of the ball holder from the center of rotation
+	private static final boolean PARALLEL_STARTUP = true; //Scan the corner while waiting for the wifi. Set to false to compare the time from the button press to the first motion with a serial startup
+	private static final String THROW_CALIBRATION_FILE = "throws.txt"; //Calibration shots for the throw planner, copied from a log file
+	private static final String CONTROL_PARAMETERS_FILE = "control.txt"; //Tolerances and speeds found by the tuner of the field simulator
+	private static final int MAX_CONFIG_RESTARTS = 3; //Times the wifi client is started again after a transmission that could not be decoded
 	
 	private HashMap<String, EV3LargeRegulatedMotor> motors;
+	private Telemetry telemetry;
+	private Logger logger;
+	private FlightRecorder flightRecorder;
+	private ArmController armController;
+	private ThrowPlanner throwPlanner;
+	private ObstacleMap obstacleMap;
 	private SensorPoller sensorPoller;
 	private Odometer odometer;
 	private OdometryCorrection odometryCorrection;
+	private MovingLocalizer movingLocalizer;
 	private Navigator navigator;
 	private ObstacleDetector obstacleDetector;
 	private Display display;
-	private WifiConnection wifi;
-	
-	public Logger logger;
+	private LoopMetrics loopMetrics;
+	private CpuProfiler cpuProfiler;
+	private volatile StartConfig startConfig;
+	private volatile MissionExecutor missionExecutor;
 	
 	private boolean forward;
 
@@ -63,9 +70,9 @@ public class Main {
 	 * Steps:
 	 * -Initialize the objects, threads and EV3 objects
 	 * -Start the threads that need to run in the background
-	 * -Retrieve data from server
-	 * -Perform localization using the ultrasonic localizer
-	 * -The chain of actions now differs depending on whether the robot is playing as forward or as defender:
+	 * -Retrieve data from server, while scanning the corner with the ultrasonic sensor
+	 * -Perform localization using the ultrasonic localizer, once the starting corner is known
+	 * -The chain of actions now differs depending on whether the robot is playing as forward or as defender. It is built as a mission tree (see Missions) and run by the mission executor:
 	 * 
 	 * As forward:
 	 * -Navigate to the shooting zone (avoid obstacles on the path) without entering the blue zone
@@ -85,203 +92,171 @@ public class Main {
 	protected Main() {
 		instance = this;
 		
+		telemetry = new Telemetry(); //First, every other object may publish and log values
+		logger = new Logger(); //Used to debug and do sensor characterization
+		flightRecorder = new FlightRecorder(); //Keeps the last seconds of the match, to review what went wrong
+		MissionNode.addListener(flightRecorder);
+		display = new Display(); //Before the objects that register display slots
+		
 		motors = new HashMap<String, EV3LargeRegulatedMotor>();
 		motors.put("right", new EV3LargeRegulatedMotor(LocalEV3.get().getPort("C")));
 		motors.put("left", new EV3LargeRegulatedMotor(LocalEV3.get().getPort("D")));
 		motors.put("throw1", new EV3LargeRegulatedMotor(LocalEV3.get().getPort("A")));
 		motors.put("throw2", new EV3LargeRegulatedMotor(LocalEV3.get().getPort("B")));
+		armController = new ArmController();
+		throwPlanner = new ThrowPlanner();
+		throwPlanner.load(THROW_CALIBRATION_FILE);
 		
+		ControlParameters controlParameters = ControlParameters.load(CONTROL_PARAMETERS_FILE);
+		obstacleMap = new ObstacleMap();
 		sensorPoller = new SensorPoller();
 		odometer = new Odometer();
-		odometryCorrection = new OdometryCorrection();
-		navigator = new Navigator();
-		obstacleDetector = new ObstacleDetector();
-		display = new Display();
+		odometryCorrection = new OdometryCorrection(controlParameters);
+		movingLocalizer = new MovingLocalizer();
+		navigator = new Navigator(controlParameters);
+		obstacleDetector = new ObstacleDetector(controlParameters);
+		loopMetrics = new LoopMetrics();
+		cpuProfiler = new CpuProfiler(); //Counts the CPU time used from here on
+		MissionNode.addListener(cpuProfiler);
 		
-		logger = new Logger(); //Used to debug and do sensor characterization
+		telemetry.watch(getPeriodicTasks());
 		
 		//Start the threads
+		telemetry.start();
+		logger.start();
 		sensorPoller.start();
 		odometer.start();
 		odometryCorrection.start();
 		obstacleDetector.start();
 		navigator.start();
 		display.start();
+		loopMetrics.start();
+		cpuProfiler.start();
 		
 		//Add an exit thread to be able to stop the robot at any point
 		(new Thread() {
 			@Override
 			public void run() {
 				while(Button.waitForAnyPress() != Button.ID_ESCAPE);
+				flightRecorder.recordEvent("ESC");
+				
+				//Print how each background task performed: iteration times, lateness, overruns, lock waits and CPU time (see LoopMetrics.print())
+				LoopMetrics.print(System.out, getPeriodicTasks());
+				
+				//Print where the CPU went in each phase of the match, and the busy waits found (see CpuProfiler.print())
+				cpuProfiler.print(System.out);
+				
+				//Print how long each task of the mission took so far
+				if(missionExecutor != null && !missionExecutor.isDone())
+					missionExecutor.report(System.out);
+				
 				logger.close();
 				System.exit(0);
 			}
 		}).start();
 		
 		Button.waitForAnyPress(); //Wait before starting the program and getting the parameters via wifi
+		long pressTime = System.currentTimeMillis();
+		long firstMotionTime = 0; //Time from the button press to the start of the localization (in ms)
 
-		//Retrieve parameters by Wifi
+		//Retrieve parameters by Wifi. The handshake runs on its own thread while the robot scans the corner, which does not need the starting corner
 		//wifi = new WifiConnection();
-		try {
-			wifi = new WifiConnection(IP_ADDRESS, TEAM_NUMBER);
-		} catch (IOException e) {
-			e.printStackTrace();
+		ConfigClient configClient = new ConfigClient(IP_ADDRESS, TEAM_NUMBER);
+		configClient.setMaxAttempts(0); //The robot cannot play without the parameters, keep trying until the server answers
+		Future<StartConfig> startData = configClient.start();
+		
+		cpuProfiler.enterPhase(CpuProfiler.Phase.LOCALIZE); //The scan of the corner and the localization
+		double[] cornerFit = null;
+		if(PARALLEL_STARTUP) {
+			firstMotionTime = System.currentTimeMillis() - pressTime;
+			try {
+				cornerFit = USLocalizer.scanCorner();
+			} catch (InterruptedException e) {
+				abort("Loc stopped", 0);
+				return;
+			}
 		}
 		
-		//TODO remove the following once the wifi works
-		/*wifi.StartData = new HashMap<String, Integer>();
-		wifi.StartData.put("SC", 4);
-		wifi.StartData.put("ll-x", 5);
-		wifi.StartData.put("ll-y", 5);
-		wifi.StartData.put("ur-x", 6);
-		wifi.StartData.put("ur-y", 6);
-		wifi.StartData.put("Role", 0); //0 is forward, 1 is defense
-		wifi.StartData.put("d1", 3); //Distance of the defense zone from the front wall
-		wifi.StartData.put("d2", 3); //Distance of the forward zone from the back wall*/
+		//Wait for the parameters. The client retries until the server answers, but a transmission that cannot be decoded ends its attempts: start it again a few times
+		int restarts = 0;
+		while(startConfig == null) {
+			try {
+				startConfig = startData.get();
+			} catch (InterruptedException e) {
+				abort("Wifi stopped", configClient.getAttempts());
+				return;
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+				if(restarts == MAX_CONFIG_RESTARTS) {
+					abort("Wifi failed", configClient.getAttempts());
+					return;
+				}
+				restarts++;
+				display.addDisplayValue("Wifi restart", restarts);
+				startData = configClient.start();
+			}
+		}
 		
 		//DEMO PROCEDURE
 		//Check if the zone y position minus 1 is on a crack, if so, change the d1 or d2 in order to avoid light localizing on that crack
-		if((wifi.StartData.get("d1") - 1) % 4 == 0) {
-			wifi.StartData.put("d1", wifi.StartData.get("d1") - 1);
+		int d1 = startConfig.getD1(), d2 = startConfig.getD2();
+		if((d1 - 1) % 4 == 0) {
+			d1--;
 		}
-		if((wifi.StartData.get("d2") - 1) % 4 == 0) {
-			wifi.StartData.put("d2", wifi.StartData.get("d2") - 1);
+		if((d2 - 1) % 4 == 0) {
+			d2--;
 		}
+		startConfig = startConfig.withZones(d1, d2);
 		
-		//Fix the wifi arguments being different
-		if(wifi.StartData.get("DTN") == TEAM_NUMBER) {
-			wifi.StartData.put("Role", 1);
-			wifi.StartData.put("SC", wifi.StartData.get("DSC"));
-		}
-		else {
-			wifi.StartData.put("Role", 0);
-			wifi.StartData.put("SC", wifi.StartData.get("OSC"));
+		//Localize. The role and the starting corner were found by the decoder from the team number
+		try {
+			if(PARALLEL_STARTUP)
+				USLocalizer.finishScanLocalization(cornerFit, startConfig.getStartingCorner());
+			else {
+				firstMotionTime = System.currentTimeMillis() - pressTime;
+				USLocalizer.doScanLocalization(startConfig.getStartingCorner());
+			}
+		} catch (InterruptedException e) {
+			abort("Loc stopped", 0);
+			return;
 		}
-		
-		
-		USLocalizer.doLocalization(wifi.StartData.get("SC")); //Localize
+		cpuProfiler.exitPhase(CpuProfiler.Phase.LOCALIZE);
+		System.out.println("Sensors: " + sensorPoller.getStartupTime() + " ms, first motion: " + firstMotionTime + " ms, localized: " + (System.currentTimeMillis() - pressTime) + " ms");
+		System.out.println("Wifi: " + configClient.getAttempts() + " attempts, " + configClient.getLatency() + " ms");
 		
 		odometryCorrection.setRunning(true);
+		movingLocalizer.setRunning(true);
 		obstacleDetector.setRunning(true);
 		
-		if(wifi.StartData.get("Role") == 0) { //FORWARD
+		if(startConfig.getRole() == StartConfig.FORWARD) {
+			//The ball tray will be seen by the ultrasonic sensor when picking up balls, it is not an obstacle
+			obstacleMap.addExclusion((startConfig.getTrayLowerLeftX() - 0.5) * TILE_LENGTH, (startConfig.getTrayLowerLeftY() - 0.5) * TILE_LENGTH, (startConfig.getTrayUpperRightX() + 0.5) * TILE_LENGTH, (startConfig.getTrayUpperRightY() + 0.5) * TILE_LENGTH);
 			
-			//currentBall holds the number of the ball we are currently seeking or moving
-			for(int currentBall = 0; currentBall < 4; currentBall++) { //There are 4 balls on the tray
-				
-				//Navigate to the forward zone.
-				Actions.navigateToShooting(wifi.StartData.get("d2"));
-				
-				//Light localize only the first time here
-				//if(currentBall == 0)
-					//LightLocalizer.doLocalization(true);
-				
-				//Calculate the point to do the localization at, considering the ball tray can be rotated
-				int llx = wifi.StartData.get("ll-x"); //Create easy access variables
-				int lly = wifi.StartData.get("ll-y");
-				int urx = wifi.StartData.get("ur-x");
-				int ury = wifi.StartData.get("ur-y");
-				int[] localizationLocation = new int[2];
-				double[] ballLocation = new double[2];
-				boolean yFirst = false; //Approach the light localization point by navigating on the y or x axis first
-				double thetaBallX = TRAY_WIDTH/2 + X_DIST_BALL_HOLDER;
-				double thetaBallY = BALL_HOLE_RADIUS + BALL_HOLE_MARGIN - Y_DIST_BALL_HOLDER + BALL_SPACING * currentBall;
-				
-				if(llx < urx) {
-					if(lly < ury) { //ball tray on left of tile
-						ballLocation = new double[] {llx * TILE_LENGTH + thetaBallX, lly * TILE_LENGTH + thetaBallY};
-						localizationLocation = new int[] {llx, lly - 1};
-					}
-					else { //on top of tile
-						ballLocation = new double[] {(odometer.getX() < llx)? (llx * TILE_LENGTH + thetaBallY) : (urx * TILE_LENGTH - thetaBallY), lly * TILE_LENGTH - thetaBallX};
-						localizationLocation = new int[] {llx  + ((odometer.getX() < llx)? -1 : 2), lly};
-						yFirst = true;
-					}
-				}
-				else {
-					if(lly < ury) { //on bottom of tile
-						ballLocation = new double[] {(odometer.getX() < urx)? (urx * TILE_LENGTH + thetaBallY) : (llx * TILE_LENGTH - thetaBallY), lly * TILE_LENGTH + thetaBallX};
-						localizationLocation = new int[] {llx + ((odometer.getX() < urx)? -2 : 1), lly};
-						yFirst = true;
-					}
-					else { //on right of tile
-						ballLocation = new double[] {llx * TILE_LENGTH - thetaBallX, ury * TILE_LENGTH + thetaBallY};
-						localizationLocation = new int[] {llx, lly - 1};
-					}
-				}
-				
-				//Convert from tiles to centimeters
-				localizationLocation[0] *= TILE_LENGTH;
-				localizationLocation[1] *= TILE_LENGTH;
-				
-				//Go to a corner close by the ball tray first
-				navigator.travelToSquare(localizationLocation[0], localizationLocation[1], false, yFirst);
-				
-				double backupX = navigator.getTargetX(); //Save a point the robot can travel backwards to after it has picked up a ball
-				double backupY = navigator.getTargetY();
-				
-				navigator.setRunning(true);
-				while(navigator.isNavigating() || obstacleDetector.isAvoiding());
-				navigator.setRunning(false);
-				
-				//Localize here to make sure the ball approach will be smooth
-				LightLocalizer.doLocalization();
-				
-				navigator.travelToSquare(ballLocation[0], ballLocation[1]);
-				navigator.setRunning(true);
-				while(navigator.isNavigating() || obstacleDetector.isAvoiding());
-				
-				navigator.turnTo(Math.PI/2);
-				while(navigator.isTurning());
-				navigator.setRunning(false);
-				obstacleDetector.setRunning(false); //We got to the point we wanted we don't need to avoid obstacles anymore
-				
-				Actions.pickupBall();
-				
-				navigator.travelTo(backupX, backupY, true); //Travel backwards to leave the ball tray
-				navigator.setRunning(true);
-				while(navigator.isNavigating());
-				
-				//Navigate to shooting zone
-				Actions.navigateToShooting(wifi.StartData.get("d2"));
-				
-				//Light localize here? Turn off obstacleDetector after since the light localizer leaves it on at the end of its procedure
-				LightLocalizer.doLocalization(true);
-				obstacleDetector.setRunning(false);
-				
-				//Turn towards the goal
-				double targetTheta = Math.atan2(odometer.getY() - (Main.MAP_TILE_SIZE - 2) * Main.TILE_LENGTH, odometer.getX() - (Main.MAP_TILE_SIZE / 2 - 1) * Main.TILE_LENGTH) - Math.PI;
-				targetTheta += Math.PI / 2; //Robot has to be sideways to shoot
-				if(targetTheta < 0)
-					targetTheta += 2*Math.PI;
-				else if(targetTheta > 2*Math.PI)
-					targetTheta -= 2*Math.PI;
-				
-				navigator.turnTo(targetTheta);
-				navigator.setRunning(true);
-				while(navigator.isTurning());
-				navigator.setRunning(false);
-				
-				//Finally, throw the ball
-				Actions.throwBall();
-				
-				//Resume the obstacle avoidance and odometry correction for the next ball
-				obstacleDetector.setRunning(true);
-			}
+			missionExecutor = new MissionExecutor(Missions.forward(startConfig));
+			missionExecutor.run();
+			cpuProfiler.print(System.out);
 		}
 		else { //DEFENSE
-			//Navigate to the front of the net (use parameter d1)
-			Actions.navigateToDefense(wifi.StartData.get("d1"));
-			
-			//Stop the odometryCorrection and obstacleDetector (stop using the ultrasonic sensor)
-			odometryCorrection.setRunning(false);
-			obstacleDetector.setRunning(false);
+			missionExecutor = new MissionExecutor(Missions.defense(startConfig));
+			missionExecutor.run();
+			cpuProfiler.print(System.out);
 			
 			//Shut down. This will turn off the sensors (most importantly the Ultrasonic sensor) and will save the robot's battery. The robot is in position and does not need to move anymore
 			System.exit(0);
 		}
 	}
 	
+	/**
+	 * Stop before the match because the robot cannot play, and show why on the display. The background threads keep running, so that the message stays on the screen and the program can still be ended with the escape button
+	 * @param message the reason, shown as the key of a display value
+	 * @param value the value shown next to it (ex: the number of attempts)
+	 */
+	private void abort(String message, double value) {
+		System.out.println("Stopped: " + message);
+		flightRecorder.recordEvent(message);
+		display.addDisplayValue(message, value);
+	}
+	
 	/**
 	 * Starting point of the program. Where the static reference of the Main class is created
 	 * @param args command line arguments
@@ -306,6 +281,30 @@ public class Main {
 		return motors.get(key);
 	}
 	
+	/**
+	 * get the reference to the controller of the throwing arm
+	 * @return the arm controller
+	 */
+	public ArmController getArmController() {
+		return armController;
+	}
+	
+	/**
+	 * get the reference to the throw planner, giving the shot to use for a distance
+	 * @return the throw planner
+	 */
+	public ThrowPlanner getThrowPlanner() {
+		return throwPlanner;
+	}
+	
+	/**
+	 * get the reference to the map of the obstacles seen since the start of the match
+	 * @return the obstacle map
+	 */
+	public ObstacleMap getObstacleMap() {
+		return obstacleMap;
+	}
+	
 	/**
 	 * get the reference to the sensor poller
 	 * @return the sensor poller
@@ -330,6 +329,14 @@ public class Main {
 		return odometryCorrection;
 	}
 	
+	/**
+	 * get the reference to the moving localizer, correcting the odometer from the lines crossed while driving
+	 * @return the moving localizer
+	 */
+	public MovingLocalizer getMovingLocalizer() {
+		return movingLocalizer;
+	}
+	
 	/**
 	 * get the reference to the navigator object
 	 * @return the navigator
@@ -355,11 +362,51 @@ public class Main {
 	}
 	
 	/**
-	 * get the reference to the wifi connection object, containing the starting data
-	 * @return the wifi connection
+	 * get the background tasks that run periodically
+	 * @return the sensor poller, odometer, odometry correction, obstacle detector, navigator, display, telemetry, logger, loop metrics and CPU profiler
+	 */
+	public PeriodicTask[] getPeriodicTasks() {
+		return new PeriodicTask[] {sensorPoller, odometer, odometryCorrection, obstacleDetector, navigator, display, telemetry, logger, loopMetrics, cpuProfiler};
+	}
+	
+	/**
+	 * get the CPU profiler, which measures the CPU time used by each component and each phase of the match
+	 * @return the CPU profiler
+	 */
+	public CpuProfiler getCpuProfiler() {
+		return cpuProfiler;
+	}
+	
+	/**
+	 * get the flight recorder, which keeps the last seconds of the match
+	 * @return the flight recorder
+	 */
+	public FlightRecorder getFlightRecorder() {
+		return flightRecorder;
+	}
+	
+	/**
+	 * get the logger, to record values to a file on the brick
+	 * @return the logger
+	 */
+	public Logger getLogger() {
+		return logger;
+	}
+	
+	/**
+	 * get the telemetry publisher, to stream values to a computer
+	 * @return the telemetry publisher
+	 */
+	public Telemetry getTelemetry() {
+		return telemetry;
+	}
+	
+	/**
+	 * get the starting parameters retrieved via wifi
+	 * @return the starting parameters, or null if they were not received yet
 	 */
-	public WifiConnection getWifi() {
-		return wifi;
+	public StartConfig getStartConfig() {
+		return startConfig;
 	}
 	
 	/**
@@ -0,0 +1,80 @@
+package main;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lock that counts how often threads have to wait for it, and how long. Taking it when it is free costs the same as a ReentrantLock.
+ * The waits of the threads of periodic tasks are also recorded by their task (see PeriodicTask.getLockWaitTimes()), to know which loop is slowed down by the lock.
+ *
+ * @version 1.0
+ */
+@SuppressWarnings("serial")
+public class MeteredLock extends ReentrantLock {
+	
+	private static final CopyOnWriteArrayList<MeteredLock> LOCKS = new CopyOnWriteArrayList<MeteredLock>();
+	
+	private final String name;
+	private final AtomicLong waits = new AtomicLong();
+	private final AtomicLong waitTime = new AtomicLong(); //In nanoseconds
+	
+	/**
+	 * constructs a lock
+	 * @param name the name of the lock, for the reports
+	 */
+	public MeteredLock(String name) {
+		this.name = name;
+		LOCKS.add(this);
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.locks.ReentrantLock#lock()
+	 */
+	@Override
+	public void lock() {
+		if(tryLock()) //Free, nothing to record
+			return;
+		
+		long start = System.nanoTime();
+		super.lock();
+		long wait = System.nanoTime() - start;
+		waits.incrementAndGet();
+		waitTime.addAndGet(wait);
+		Thread thread = Thread.currentThread();
+		if(thread instanceof PeriodicTask)
+			((PeriodicTask) thread).recordLockWait(wait);
+	}
+	
+	/**
+	 * get every metered lock created so far
+	 * @return the locks
+	 */
+	public static MeteredLock[] getLocks() {
+		return LOCKS.toArray(new MeteredLock[0]);
+	}
+	
+	/**
+	 * get the name of the lock
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * get the number of times a thread had to wait for the lock
+	 * @return the number of waits
+	 */
+	public long getWaitCount() {
+		return waits.get();
+	}
+	
+	/**
+	 * get the total time threads waited for the lock
+	 * @return the time (in nanoseconds)
+	 */
+	public long getWaitTime() {
+		return waitTime.get();
+	}
+}
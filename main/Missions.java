@@ -0,0 +1,404 @@
+package main;
+
+import java.util.concurrent.ExecutionException;
+
+import mission.Fallback;
+import mission.MissionNode;
+import mission.Parallel;
+import mission.Retry;
+import mission.Sequence;
+import mission.Timeout;
+import wifi.StartConfig;
+
+/**
+ * This class contains only static methods used to build the mission trees of the match, run by the mission executor:
+ * - As forward: go to the shooting zone, then for each ball: drive back to the tray while the arm resets, localize, pick up the ball, go to the shooting spot if needed and throw
+ * - As defender: go to the front of the goal and stop
+ * Waits are done with the interruptible methods of the navigator and the arm controller, so that a timeout can stop a task that takes too long.
+ * Localizations are retried when they fail, and a ball whose cycle failed is skipped instead of ending the match.
+ *
+ * @version 1.0
+ */
+public abstract class Missions {
+	
+	/**
+	 * Number of balls on the tray
+	 */
+	public static final int BALL_COUNT = 4;
+	
+	//Static final variables of the specs of the ball tray
+	private static final double TRAY_WIDTH = 7.62; //3 inches
+	private static final double BALL_SPACING = 7.62; //3 inches
+	private static final double BALL_HOLE_RADIUS = 2.54; //1 inch
+	private static final double BALL_HOLE_MARGIN = 3.81; //1.5 inches
+	
+	private static final double X_DIST_BALL_HOLDER = 4.8; //Distance the ball should be from the center of rotation in order to be picked up
+	private static final double Y_DIST_BALL_HOLDER = 11.6; //Distance of the ball holder from the center of rotation
+	
+	private static final long FIX_MAX_AGE = 10000; //Maximum age, in ms, of a correction from the moving localizer for the robot to skip stopping to light localize
+	private static final boolean CACHED_RELOCALIZATION = true; //Only do a short check when light localizing again at the tray and shooting spots. Set to false to compare the cycle times with full localizations
+	/**
+	 * Number of times a light localization is tried before the robot carries on with the odometer as it is
+	 */
+	public static final int LOCALIZATION_ATTEMPTS = 2;
+	/**
+	 * Maximum time (in ms) for a leg of the path, obstacles included
+	 */
+	public static final long NAVIGATION_TIMEOUT = 60000;
+	
+	/**
+	 * Build the mission of the forward
+	 * @param startData the parameters of the match retrieved via wifi
+	 * @return the root of the mission tree
+	 */
+	public static MissionNode forward(StartConfig startData) {
+		MissionNode[] nodes = new MissionNode[BALL_COUNT + 1];
+		nodes[0] = navigateToShooting("ToShootingZone", startData.getD2());
+		for(int ball = 0; ball < BALL_COUNT; ball++) {
+			//Skip the ball if its cycle failed, the next one starts from wherever the robot is
+			nodes[ball + 1] = new Fallback("Ball" + ball, ballCycle(ball, startData), new MissionNode("Skip" + ball) {
+				@Override
+				protected boolean execute() {
+					Main.get().getNavigator().setRunning(false);
+					Main.get().getObstacleDetector().setRunning(false); //Cancel the detour of the leg that failed, if any
+					Main.get().getObstacleDetector().setRunning(true);
+					return true;
+				}
+			});
+		}
+		return new Sequence("Forward", nodes);
+	}
+	
+	/**
+	 * Build the mission of the defender
+	 * @param startData the parameters of the match retrieved via wifi
+	 * @return the root of the mission tree
+	 */
+	public static MissionNode defense(final StartConfig startData) {
+		return new Sequence("Defense",
+			new Timeout("ToDefenseZone", NAVIGATION_TIMEOUT, new MissionNode("Drive") {
+				@Override
+				protected boolean execute() throws InterruptedException {
+					//Navigate to the middle of the defense zone. Move in the y-axis first in order to avoid the blue and forward zone
+					Navigator navigator = Main.get().getNavigator();
+					navigator.travelToSquare((Main.MAP_TILE_SIZE / 2 - 1) * Main.TILE_LENGTH, (Main.MAP_TILE_SIZE - startData.getD1()) * Main.TILE_LENGTH, false, true);
+					return drive();
+				}
+			}),
+			new MissionNode("Stop") {
+				@Override
+				protected boolean execute() {
+					//Stop the obstacleDetector and odometryCorrection (stop using the ultrasonic sensor). The detector first, since cancelling a detour resumes the correction the detour paused
+					Main.get().getObstacleDetector().setRunning(false);
+					Main.get().getOdometryCorrection().setRunning(false);
+					Main.get().getMovingLocalizer().setRunning(false);
+					return true;
+				}
+			});
+	}
+	
+	/**
+	 * Build the cycle of one ball: from the shooting zone to the tray and back to a shot
+	 */
+	private static MissionNode ballCycle(final int ball, final StartConfig startData) {
+		final Cycle cycle = new Cycle();
+		
+		MissionNode toTray = new Timeout("ToTray" + ball, NAVIGATION_TIMEOUT, new MissionNode("Drive") {
+			@Override
+			protected boolean execute() throws InterruptedException {
+				cycle.plan(ball, startData, Main.get().getOdometer().getX());
+				
+				//Go to a corner close by the ball tray first
+				Navigator navigator = Main.get().getNavigator();
+				navigator.travelToSquare(cycle.localizationLocation[0], cycle.localizationLocation[1], false, cycle.yFirst);
+				cycle.backupX = navigator.getTargetX(); //Save a point the robot can travel backwards to after it has picked up a ball
+				cycle.backupY = navigator.getTargetY();
+				return drive();
+			}
+		});
+		
+		MissionNode armReset = new MissionNode("ArmReset" + ball) {
+			@Override
+			protected boolean execute() throws InterruptedException {
+				Main.get().getArmController().awaitIdle();
+				return true;
+			}
+		};
+		
+		MissionNode approach = new Timeout("Approach" + ball, NAVIGATION_TIMEOUT, new MissionNode("Drive") {
+			@Override
+			protected boolean execute() throws InterruptedException {
+				Navigator navigator = Main.get().getNavigator();
+				navigator.travelToSquare(cycle.ballLocation[0], cycle.ballLocation[1]);
+				navigator.setRunning(true);
+				try {
+					navigator.awaitNavigation();
+					navigator.turnTo(Math.PI/2);
+					navigator.awaitTurn();
+				} finally {
+					navigator.setRunning(false);
+				}
+				Main.get().getObstacleDetector().setRunning(false); //We got to the point we wanted we don't need to avoid obstacles anymore
+				return true;
+			}
+		});
+		
+		MissionNode pickup = new MissionNode("Pickup" + ball) {
+			@Override
+			protected boolean execute() throws InterruptedException {
+				Main.get().getArmController().pickup();
+				Main.get().getArmController().awaitIdle();
+				return true;
+			}
+		};
+		
+		MissionNode backup = new Timeout("Backup" + ball, NAVIGATION_TIMEOUT, new MissionNode("Drive") {
+			@Override
+			protected boolean execute() throws InterruptedException {
+				Main.get().getNavigator().travelTo(cycle.backupX, cycle.backupY, true); //Travel backwards to leave the ball tray
+				drive();
+				Main.get().getObstacleDetector().setRunning(true); //The ultrasonic sensor faces the way to the shooting zone again
+				return true;
+			}
+		});
+		
+		//Navigate to shooting zone, unless the throw planner can reach the goal from where the robot is and the robot is behind the forward line
+		MissionNode toShot = new Fallback("ToShot" + ball,
+			new MissionNode("ShootFromHere") {
+				@Override
+				protected boolean execute() {
+					return Main.get().getThrowPlanner().isInRange(getGoalDistance()) && Main.get().getOdometer().getY() <= (startData.getD2() - 1.5) * Main.TILE_LENGTH;
+				}
+			},
+			new Sequence("ShootingSpot", navigateToShooting("Drive", startData.getD2()), localize("Localize", "shot", true)));
+		
+		MissionNode shoot = new MissionNode("Throw" + ball) {
+			@Override
+			protected boolean execute() throws InterruptedException {
+				Navigator navigator = Main.get().getNavigator();
+				Odometer odometer = Main.get().getOdometer();
+				ArmController armController = Main.get().getArmController();
+				Main.get().getObstacleDetector().setRunning(false);
+				
+				//Turn towards the goal
+				navigator.turnTo(getThrowHeading(odometer.getX(), odometer.getY()));
+				navigator.setRunning(true);
+				try {
+					navigator.awaitTurn();
+				} finally {
+					navigator.setRunning(false);
+				}
+				
+				//Finally, throw the ball with the shot planned for the distance. Only wait for the release, the arm goes back up while the robot drives back to the tray
+				double goalDistance = getGoalDistance();
+				int[] shot = new int[2];
+				Main.get().getThrowPlanner().plan(goalDistance, shot);
+				try {
+					armController.throwBall(shot[0], shot[1]).get();
+				} catch (ExecutionException e) {
+					e.printStackTrace();
+				}
+				ThrowPlanner.recordShot(Main.get().getLogger(), goalDistance, shot[0], shot[1]);
+				
+				//Resume the obstacle avoidance for the next ball
+				Main.get().getObstacleDetector().setRunning(true);
+				return true;
+			}
+		};
+		
+		return new Sequence("Cycle" + ball,
+			new Parallel("Leave" + ball, armReset, toTray),
+			new Sequence("TrayToShot" + ball, localize("Localize", "tray", false), approach, pickup, backup, toShot, shoot));
+	}
+	
+	/**
+	 * get the phase of the match a node of the mission trees is, for the CPU profiler: the localizations, the drives (including the approach and backup around the tray), the pickups and the throws
+	 * @param node the node
+	 * @return the phase, or null if the node is not one of those, or contains several
+	 */
+	public static CpuProfiler.Phase getPhase(MissionNode node) {
+		String name = node.getName();
+		if(name.startsWith("Localize"))
+			return CpuProfiler.Phase.LOCALIZE;
+		if(name.equals("Drive"))
+			return CpuProfiler.Phase.NAVIGATE;
+		if(name.startsWith("Pickup"))
+			return CpuProfiler.Phase.PICKUP;
+		if(name.startsWith("Throw"))
+			return CpuProfiler.Phase.THROW;
+		return null;
+	}
+	
+	/**
+	 * Build a node navigating to the center of the shooting zone, 1 tile behind the forward line
+	 * @param d2 the distance of the forward line from the back wall
+	 */
+	private static MissionNode navigateToShooting(String name, final int d2) {
+		return new Timeout(name, NAVIGATION_TIMEOUT, new MissionNode("Drive") {
+			@Override
+			protected boolean execute() throws InterruptedException {
+				//Navigate to the forward zone. Move in the y-axis first in order to avoid the blue and defender zone
+				double[] spot = getShootingSpot(d2);
+				Main.get().getNavigator().travelToSquare(spot[0], spot[1], false, true);
+				return drive();
+			}
+		});
+	}
+	
+	/**
+	 * Build a node localizing at a named spot. Does not stop to light localize if the moving localizer corrected the position recently. Light localization is retried if it fails,
+	 * and the robot carries on with the odometer as it is if it keeps failing
+	 */
+	private static MissionNode localize(String name, final String spot, final boolean goToPoint) {
+		return new Fallback(name,
+			new MissionNode("MovingFix") {
+				@Override
+				protected boolean execute() {
+					return Main.get().getMovingLocalizer().hasRecentFix(FIX_MAX_AGE);
+				}
+			},
+			new Retry("Light", LOCALIZATION_ATTEMPTS, new MissionNode("Rotate") {
+				@Override
+				protected boolean execute() throws InterruptedException {
+					double residual = CACHED_RELOCALIZATION? LightLocalizer.relocalize(spot, goToPoint) : LightLocalizer.doLocalization(goToPoint);
+					if(Thread.interrupted())
+						throw new InterruptedException();
+					return !Double.isNaN(residual);
+				}
+			}),
+			new MissionNode("KeepOdometry") {
+				@Override
+				protected boolean execute() {
+					return true;
+				}
+			});
+	}
+	
+	/**
+	 * Run the navigator until it reaches its target, then pause it
+	 * @return true once the target is reached
+	 * @throws InterruptedException if the thread was interrupted. The navigator is paused
+	 */
+	private static boolean drive() throws InterruptedException {
+		Navigator navigator = Main.get().getNavigator();
+		navigator.setRunning(true);
+		try {
+			navigator.awaitNavigation();
+		} finally {
+			navigator.setRunning(false);
+		}
+		return true;
+	}
+	
+	/**
+	 * get the point the robot shoots from when it goes to the shooting zone: the center of the field, 1 tile behind the forward line
+	 * @param d2 the distance of the forward line from the back wall (in tiles)
+	 * @return the x and y of the point (in centimeters)
+	 */
+	public static double[] getShootingSpot(int d2) {
+		return new double[] {(Main.MAP_TILE_SIZE / 2 - 1) * Main.TILE_LENGTH, (d2 - 2) * Main.TILE_LENGTH};
+	}
+	
+	/**
+	 * get the angle the robot turns to before throwing: sideways to the goal
+	 * @param x the x position of the robot
+	 * @param y the y position of the robot
+	 * @return the angle (in radians from the positive x-axis, between 0 and 2 pi)
+	 */
+	public static double getThrowHeading(double x, double y) {
+		double heading = Math.atan2(y - (Main.MAP_TILE_SIZE - 2) * Main.TILE_LENGTH, x - (Main.MAP_TILE_SIZE / 2 - 1) * Main.TILE_LENGTH) - Math.PI;
+		heading += Math.PI / 2; //Robot has to be sideways to shoot
+		if(heading < 0)
+			heading += 2*Math.PI;
+		else if(heading > 2*Math.PI)
+			heading -= 2*Math.PI;
+		return heading;
+	}
+	
+	/**
+	 * get the distance between the robot and the goal
+	 * @return the distance to the goal (in centimeters)
+	 */
+	private static double getGoalDistance() {
+		Odometer odometer = Main.get().getOdometer();
+		return Math.sqrt(Math.pow(odometer.getX() - (Main.MAP_TILE_SIZE / 2 - 1) * Main.TILE_LENGTH, 2) + Math.pow(odometer.getY() - (Main.MAP_TILE_SIZE - 2) * Main.TILE_LENGTH, 2));
+	}
+	
+	/**
+	 * Points of the cycle of one ball. Computed when the robot leaves for the tray, since they depend on which side of the tray the robot comes from. Also used by the field simulator
+	 */
+	public static class Cycle {
+		private double[] localizationLocation = new double[2];
+		private double[] ballLocation = new double[2];
+		private boolean yFirst = false; //Approach the light localization point by navigating on the y or x axis first
+		private double backupX, backupY;
+		
+		/**
+		 * Calculate the point to do the localization at and the position to pick up the ball from, considering the ball tray can be rotated
+		 * @param ball the index of the ball on the tray
+		 * @param startData the parameters of the match, giving the position of the tray
+		 * @param x the x position of the robot when it leaves for the tray
+		 */
+		public void plan(int ball, StartConfig startData, double x) {
+			double t = Main.TILE_LENGTH;
+			int llx = startData.getTrayLowerLeftX(); //Create easy access variables
+			int lly = startData.getTrayLowerLeftY();
+			int urx = startData.getTrayUpperRightX();
+			int ury = startData.getTrayUpperRightY();
+			int[] location;
+			double thetaBallX = TRAY_WIDTH/2 + X_DIST_BALL_HOLDER;
+			double thetaBallY = BALL_HOLE_RADIUS + BALL_HOLE_MARGIN - Y_DIST_BALL_HOLDER + BALL_SPACING * ball;
+			yFirst = false;
+			
+			if(llx < urx) {
+				if(lly < ury) { //ball tray on left of tile
+					ballLocation = new double[] {llx * t + thetaBallX, lly * t + thetaBallY};
+					location = new int[] {llx, lly - 1};
+				}
+				else { //on top of tile
+					ballLocation = new double[] {(x < llx * t)? (llx * t + thetaBallY) : (urx * t - thetaBallY), lly * t - thetaBallX};
+					location = new int[] {llx  + ((x < llx * t)? -1 : 2), lly};
+					yFirst = true;
+				}
+			}
+			else {
+				if(lly < ury) { //on bottom of tile
+					ballLocation = new double[] {(x < urx * t)? (urx * t + thetaBallY) : (llx * t - thetaBallY), lly * t + thetaBallX};
+					location = new int[] {llx + ((x < urx * t)? -2 : 1), lly};
+					yFirst = true;
+				}
+				else { //on right of tile
+					ballLocation = new double[] {llx * t - thetaBallX, ury * t + thetaBallY};
+					location = new int[] {llx, lly - 1};
+				}
+			}
+			
+			//Convert from tiles to centimeters
+			localizationLocation = new double[] {location[0] * t, location[1] * t};
+		}
+		
+		/**
+		 * get the point to light localize at, close by the tray
+		 * @return the x and y of the point (in centimeters)
+		 */
+		public double[] getLocalizationLocation() {
+			return localizationLocation;
+		}
+		
+		/**
+		 * get the position the robot picks the ball up from
+		 * @return the x and y of the position (in centimeters)
+		 */
+		public double[] getBallLocation() {
+			return ballLocation;
+		}
+		
+		/**
+		 * check how to approach the localization point
+		 * @return whether to navigate on the y axis first, or on the x axis first
+		 */
+		public boolean isYFirst() {
+			return yFirst;
+		}
+	}
+}
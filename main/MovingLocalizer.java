@@ -0,0 +1,146 @@
+package main;
+
+/**
+ * Moving localizer. Corrects the x, y and theta position of the odometer from the lines crossed by the floor color sensors while the robot keeps driving, instead of stopping to spin on an intersection.
+ * Every time a floor sensor crosses a line, the time of the crossing is recorded. The position of the robot at that time is retrieved from the history of the odometer,
+ * and the position of the sensor from its offset on the robot. Once lines in both directions have been crossed (ex: driving through an intersection, or turning next to one),
+ * the pose solver finds the correction that puts every crossing on a line and the odometer is updated.
+ * Since the crossings are only converted to positions when solving, a correction of the odometer by another object moves them along with the history.
+ *
+ * @version 1.0
+ */
+public class MovingLocalizer implements LineListener {
+	
+	private static final int CAPACITY = 16; //Maximum number of crossings kept
+	private static final int MIN_CROSSINGS = 4; //One more crossing than unknowns, so that a wrong line gives a large residual
+	private static final long MAX_AGE = 3500000000L; //Crossings older than this (in ns) are dropped. Must be less than the length of the odometer's history
+	private static final double MAX_RESIDUAL = 1.5; //Maximum root mean square distance (in cm) between the crossings and their lines for a correction to be applied
+	private static final double MAX_SHIFT = 8; //Maximum correction of the position (in cm)
+	private static final double MAX_ROTATION = 0.2; //Maximum correction of the angle (in rad)
+	
+	private Object lock;
+	
+	private long[] times = new long[CAPACITY]; //Time of the crossings (from System.nanoTime()), oldest first
+	private int[] sensors = new int[CAPACITY]; //Sensor that detected each crossing
+	private int size = 0;
+	
+	private PoseSolver solver = new PoseSolver();
+	
+	private volatile boolean running = false;
+	private volatile long lastFixTime = 0; //Time of the last correction (from System.currentTimeMillis())
+	private volatile double lastResidual = Double.NaN;
+	private int fixCount = 0;
+	
+	/**
+	 * constructs a moving localizer and subscribes it to the line crossings of the sensor poller. It starts paused
+	 */
+	public MovingLocalizer() {
+		lock = new Object();
+		Main.get().getSensorPoller().subscribeLines(this);
+	}
+	
+	/* (non-Javadoc)
+	 * @see main.LineListener#lineCrossed(int, long)
+	 */
+	@Override
+	public void lineCrossed(int sensor, long timestamp) {
+		if(!running)
+			return;
+		
+		synchronized(lock) {
+			//Drop the crossings that are too old to be found in the odometer's history, or the oldest one if there is no room left
+			int dropped = 0;
+			while(dropped < size && (timestamp - times[dropped] > MAX_AGE || size - dropped == CAPACITY))
+				dropped++;
+			System.arraycopy(times, dropped, times, 0, size - dropped);
+			System.arraycopy(sensors, dropped, sensors, 0, size - dropped);
+			size -= dropped;
+			
+			times[size] = timestamp;
+			sensors[size] = sensor;
+			size++;
+			
+			if(size >= MIN_CROSSINGS)
+				localize();
+		}
+	}
+	
+	/**
+	 * Find the correction of the odometer from the crossings recorded and apply it if it is good enough
+	 * Must be called while holding the lock
+	 */
+	private void localize() {
+		Odometer odometer = Main.get().getOdometer();
+		double[] position = new double[3];
+		
+		//Find where each sensor was, according to the odometer, when it crossed a line
+		solver.clear();
+		for(int i = 0; i < size; i++) {
+			odometer.getPositionAt(times[i], position);
+			solver.addCrossing(sensors[i], position);
+		}
+		
+		if(solver.getCrossingCount() < MIN_CROSSINGS)
+			return;
+		
+		odometer.getPosition(position, new boolean[] {true, true, true});
+		double[] correction = solver.solve(position[0], position[1]);
+		
+		if(correction == null || solver.getResidual() > MAX_RESIDUAL || Math.abs(correction[0]) > MAX_SHIFT || Math.abs(correction[1]) > MAX_SHIFT || Math.abs(correction[2]) > MAX_ROTATION)
+			return;
+		
+		//The robot is at the point the correction rotates around, so it only has to be shifted
+		double theta = ((position[2] + correction[2]) % (2*Math.PI) + 2*Math.PI) % (2*Math.PI);
+		odometer.setPosition(new double[] {position[0] + correction[0], position[1] + correction[1], theta}, new boolean[] {true, true, true});
+		
+		size = 0; //The crossings have been used, start over
+		lastResidual = solver.getResidual();
+		lastFixTime = System.currentTimeMillis();
+		fixCount++;
+		Main.get().getDisplay().addDisplayValue("Fix", lastResidual);
+	}
+	
+	/**
+	 * pause or resume the moving localizer. The crossings recorded so far are forgotten
+	 * @param running whether to pause or resume the moving localizer
+	 */
+	public void setRunning(boolean running) {
+		synchronized(lock) {
+			this.running = running;
+			size = 0;
+		}
+	}
+	
+	/**
+	 * check if the moving localizer is running
+	 * @return whether the moving localizer is running or paused
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+	
+	/**
+	 * check if the odometer was corrected recently enough for its position to be trusted without localizing again
+	 * @param maxAge the maximum time since the last correction (in ms)
+	 * @return whether the last correction is more recent than that
+	 */
+	public boolean hasRecentFix(long maxAge) {
+		return lastFixTime > 0 && System.currentTimeMillis() - lastFixTime <= maxAge;
+	}
+	
+	/**
+	 * get the root mean square distance between the crossings and their lines for the last correction
+	 * @return the residual of the last correction (in centimeters), or NaN if the odometer was never corrected
+	 */
+	public double getLastResidual() {
+		return lastResidual;
+	}
+	
+	/**
+	 * get the number of corrections applied since the start of the program
+	 * @return the number of corrections
+	 */
+	public int getFixCount() {
+		return fixCount;
+	}
+}
@@ -1,137 +1,219 @@
 package main;
 
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+
 /**
  * Navigator is a thread that allows to easily get the robot to move to a specific point and/or to a specific angle.
  * It can be paused in order for the rest of the code to navigate the robot using different controllers
+ * Paths are planned around the obstacles remembered in the obstacle map
+ * The wheels are held while the throwing arm is in a state where the robot must not move
  * 
  * @author Jerome
  * @version 1.2
  */
-public class Navigator extends Thread {
+public class Navigator extends PeriodicTask {
 	private static final int RUN_PERIOD = 20; //Time between two iterations of the infinite loop in the thread
-	private static final double DIST_TOLERANCE = 0.6; //Tolerance, in cm, from the target position
-	private static final double ANGLE_TOLERANCE = Math.PI / 60; //Tolerance, in radians, from the target angle
-	private static final int MOTOR_MAX_ROTATION_SPEED = 110; //Motor constants
-	private static final int MOTOR_MIN_ROTATION_SPEED = 60;
-	private static final int MOTOR_MAX_MOVE_SPEED = 300;
-	private static final int MOTOR_MIN_MOVE_SPEED = 115;
-	private static final double LEFT_ADJUSTMENT = 0.05; //Percent/100 correction of the left wheel speed to account for the heavier weight on the left side
 	
-	private Object lock;
+	//Results of control()
+	/**
+	 * The robot is turning towards the target angle
+	 */
+	public static final int ROTATING = 0;
+	/**
+	 * The robot faces the target point and drives to it
+	 */
+	public static final int MOVING = 1;
+	/**
+	 * The robot reached the angle it was asked to turn to
+	 */
+	public static final int TURNED = 2;
+	/**
+	 * The robot reached the target point
+	 */
+	public static final int ARRIVED = 3;
 	
-	private volatile boolean running = false; //Whether the navigator is active or not
+	private Object lock;
+	private final ControlParameters parameters; //Tolerances and motor speeds
 	
-	private boolean navigating = false; //Whether the navigator is currently moving to a target point
+	private volatile boolean navigating = false; //Whether the navigator is currently moving to a target point
+	private boolean held = false; //Whether the navigator is paused by the obstacle detector for a detour, rather than by the rest of the code
 	private boolean backwards = false; // Whether to navigate while the robot is facing forward or backwards
-	private boolean turning = false;
+	private volatile boolean turning = false;
 	private double targetTheta; //Variables used to set a target position
 	
+	private Route route = Route.to(0, 0, false); //Last route given to the navigator
 	private double[][] targets = { {0, 0} };
 	private int targetIndex = 0; //Specify whether
+	private int targetXSlot, targetYSlot; //Display slots
+	private final int[] speeds = new int[2];
 
 	/**
 	 * construct a default navigator
+	 * @param parameters the tolerances and motor speeds to use
 	 */
-	public Navigator() {	
+	public Navigator(ControlParameters parameters) {
+		super("Navigator", RUN_PERIOD, TimingClass.SOFT, false);
 		lock = new Object();
+		this.parameters = parameters;
+		targetXSlot = Main.get().getDisplay().addSlot("TX");
+		targetYSlot = Main.get().getDisplay().addSlot("TY");
 	}
 	
 	/* (non-Javadoc)
-	 * @see java.lang.Thread#run()
+	 * @see main.PeriodicTask#step()
 	 */
 	@Override
-	public void run() {
-		long startTime, endTime;
-
-		while(true) {
-			if(running) {
-				startTime = System.currentTimeMillis();
-				
-				//First, calculate the target theta based on the current position compared to the target position
-				synchronized(lock) {
-					if(!turning) { //Only calculate the target theta if a specific theta has not been given
-						targetTheta = Math.atan2(Main.get().getOdometer().getY() - targets[targetIndex][1], Main.get().getOdometer().getX() - targets[targetIndex][0]) - Math.PI;
-						if(backwards) //Add 180 degrees in order to have the back of the robot facing forward
-							targetTheta += Math.PI;
-						if(targetTheta < 0)
-							targetTheta += 2*Math.PI;
-						else if(targetTheta > 2*Math.PI)
-							targetTheta -= 2*Math.PI;
-					}
-					
-					Main.get().getDisplay().addDisplayValue("TX", targets[targetIndex][0]);
-					Main.get().getDisplay().addDisplayValue("TY", targets[targetIndex][1]);
-				
-					double thetaVar = Main.get().getOdometer().getTheta() - targetTheta; //The difference between the current theta and the target one
-						
-					if(Math.abs(Main.get().getOdometer().getX() - targets[targetIndex][0]) > DIST_TOLERANCE || Math.abs(Main.get().getOdometer().getY() - targets[targetIndex][1]) > DIST_TOLERANCE || turning) { //Do not move if the target location has been reached
-						if(Math.abs(thetaVar) > ANGLE_TOLERANCE && Math.abs(thetaVar) < 2*Math.PI - ANGLE_TOLERANCE) { //Check if the angle is okay
-							//The angle is not okay, we need to adjust it
-							int speed = Math.min(MOTOR_MAX_ROTATION_SPEED, (int) (Math.abs(thetaVar) / (Math.PI / 3) * (MOTOR_MAX_ROTATION_SPEED - MOTOR_MIN_ROTATION_SPEED) + MOTOR_MIN_ROTATION_SPEED));
-							Main.get().getMotor("right").setSpeed(speed);
-							Main.get().getMotor("left").setSpeed(speed);
-							
-							//Find which direction to go to turn by a minimal amount
-							if(thetaVar > 0 && thetaVar < Math.PI || thetaVar < -Math.PI) { //Need to turn to the right
-								Main.get().getMotor("right").backward();
-								Main.get().getMotor("left").forward();
-							}
-							else { //Turn to the left
-								Main.get().getMotor("right").forward();
-								Main.get().getMotor("left").backward();
-							}
-							
-							//We rotated and thus the readings of the light sensors for the odometry correction are unusable. Reset them:
-							Main.get().getOdometryCorrection().reset();
-							
-						}
-						else { //The angle is fine, we can thus move forward to reach the target position
-							if(turning) { //Turning means we dont want to move anymore
-								turning = false;
-								targets[targetIndex] = new double[] {Main.get().getOdometer().getX(), Main.get().getOdometer().getY()}; //Prevent it from moving again
-							}
-							else {
-								double distance2 = Math.pow(Main.get().getOdometer().getX() - targets[targetIndex][0], 2) + Math.pow(Main.get().getOdometer().getY() - targets[targetIndex][1], 2);
-								int speed = Math.min(MOTOR_MAX_MOVE_SPEED, (int) (distance2 / 250 * (MOTOR_MAX_MOVE_SPEED - MOTOR_MIN_MOVE_SPEED) + MOTOR_MIN_MOVE_SPEED));
-								Main.get().getMotor("right").setSpeed(speed);
-								Main.get().getMotor("left").setSpeed((int) (speed + speed*LEFT_ADJUSTMENT));
-								
-								if(backwards) {
-									Main.get().getMotor("right").backward();
-									Main.get().getMotor("left").backward();
-								}
-								else {
-									Main.get().getMotor("right").forward();
-									Main.get().getMotor("left").forward();
-								}
-							}
-						}
-					}
-					else { //We have reached the target position!
-						
-						if(targetIndex + 1 < targets.length) {
-							targetIndex++;
-						}
-						else {
-							Main.get().getMotor("right").stop(true);
-							Main.get().getMotor("left").stop();
-							navigating = false;
-						}
-					}
+	protected void step() {
+		//First, calculate the target theta based on the current position compared to the target position
+		synchronized(lock) {
+			if(!isRunning()) //The navigator was paused while waiting for the lock
+				return;
+			
+			if(!Main.get().getArmController().isSafeToMove()) { //Hold the wheels until the arm is done moving
+				Main.get().getMotor("right").stop(true);
+				Main.get().getMotor("left").stop();
+				return;
+			}
+			
+			Odometer odometer = Main.get().getOdometer();
+			double x = odometer.getX(), y = odometer.getY();
+			if(!turning) //Only calculate the target theta if a specific theta has not been given
+				targetTheta = getHeading(x, y, targets[targetIndex][0], targets[targetIndex][1], backwards);
+			
+			Main.get().getDisplay().setValue(targetXSlot, targets[targetIndex][0]);
+			Main.get().getDisplay().setValue(targetYSlot, targets[targetIndex][1]);
+			
+			switch(control(parameters, x, y, odometer.getTheta(), targets[targetIndex][0], targets[targetIndex][1], targetTheta, turning, backwards, speeds)) {
+			case ROTATING:
+				setSpeeds(speeds);
+				//We rotated and thus the readings of the light sensors for the odometry correction are unusable. Reset them:
+				Main.get().getOdometryCorrection().reset();
+				break;
+			case MOVING:
+				setSpeeds(speeds);
+				break;
+			case TURNED: //Turning means we dont want to move anymore
+				turning = false;
+				targets[targetIndex] = new double[] {x, y}; //Prevent it from moving again
+				break;
+			case ARRIVED: //We have reached the target position!
+				if(targetIndex + 1 < targets.length) {
+					targetIndex++;
 				}
-				
-				//Wait if the code above was performed faster than the RUN_PERIOD
-				endTime = System.currentTimeMillis();
-				if (endTime - startTime < RUN_PERIOD) {
-					try {
-						Thread.sleep(RUN_PERIOD - (endTime - startTime));
-					} catch (InterruptedException e) {
-						//Nothing to do here
-					}
+				else {
+					Main.get().getMotor("right").stop(true);
+					Main.get().getMotor("left").stop();
+					navigating = false;
 				}
+				break;
 			}
 		}
+	}
+	
+	/**
+	 * Compute the speeds of the wheels for one iteration of the navigator. Used by every iteration, and by the field simulator
+	 * @param parameters the tolerances and motor speeds
+	 * @param x the x position of the robot
+	 * @param y the y position of the robot
+	 * @param theta the angle of the robot (in radians)
+	 * @param targetX the x position of the target point
+	 * @param targetY the y position of the target point
+	 * @param targetTheta the angle the robot must face (in radians), from getHeading() when driving to the point
+	 * @param turning whether the robot only has to turn to the target angle
+	 * @param backwards whether the robot drives to the point facing backwards
+	 * @param speeds filled with the speeds of the left and right motors (in deg/s, negative to go backward) when ROTATING or MOVING
+	 * @return ROTATING, MOVING, TURNED or ARRIVED
+	 */
+	public static int control(ControlParameters parameters, double x, double y, double theta, double targetX, double targetY, double targetTheta, boolean turning, boolean backwards, int[] speeds) {
+		double thetaVar = theta - targetTheta; //The difference between the current theta and the target one
+		double distTolerance = parameters.getDistTolerance(), angleTolerance = parameters.getAngleTolerance();
+		if(Math.abs(x - targetX) <= distTolerance && Math.abs(y - targetY) <= distTolerance && !turning) //Do not move if the target location has been reached
+			return ARRIVED;
 		
+		if(Math.abs(thetaVar) > angleTolerance && Math.abs(thetaVar) < 2*Math.PI - angleTolerance) { //Check if the angle is okay
+			//The angle is not okay, we need to adjust it
+			int speed = getRotationSpeed(parameters, thetaVar);
+			
+			//Find which direction to go to turn by a minimal amount
+			if(thetaVar > 0 && thetaVar < Math.PI || thetaVar < -Math.PI) { //Need to turn to the right
+				speeds[0] = speed;
+				speeds[1] = -speed;
+			}
+			else { //Turn to the left
+				speeds[0] = -speed;
+				speeds[1] = speed;
+			}
+			return ROTATING;
+		}
+		
+		//The angle is fine, we can thus move forward to reach the target position
+		if(turning)
+			return TURNED;
+		int speed = getMoveSpeed(parameters, Math.pow(x - targetX, 2) + Math.pow(y - targetY, 2));
+		int direction = backwards? -1 : 1;
+		speeds[0] = direction * (int) (speed + speed*parameters.getLeftAdjustment());
+		speeds[1] = direction * speed;
+		return MOVING;
+	}
+	
+	/**
+	 * Set the speeds and directions of the wheel motors
+	 * @param speeds the speeds of the left and right motors (in deg/s, negative to go backward)
+	 */
+	private void setSpeeds(int[] speeds) {
+		EV3LargeRegulatedMotor right = Main.get().getMotor("right"), left = Main.get().getMotor("left");
+		right.setSpeed(Math.abs(speeds[1]));
+		left.setSpeed(Math.abs(speeds[0]));
+		if(speeds[1] < 0)
+			right.backward();
+		else
+			right.forward();
+		if(speeds[0] < 0)
+			left.backward();
+		else
+			left.forward();
+	}
+	
+	/**
+	 * get the angle the robot must face to drive to a point
+	 * @param x the x position of the robot
+	 * @param y the y position of the robot
+	 * @param targetX the x position of the point
+	 * @param targetY the y position of the point
+	 * @param backwards whether the robot drives to the point facing backwards
+	 * @return the angle (in radians from the positive x-axis, between 0 and 2 pi)
+	 */
+	public static double getHeading(double x, double y, double targetX, double targetY, boolean backwards) {
+		double heading = Math.atan2(y - targetY, x - targetX) - Math.PI;
+		if(backwards) //Add 180 degrees in order to have the back of the robot facing forward
+			heading += Math.PI;
+		if(heading < 0)
+			heading += 2*Math.PI;
+		else if(heading > 2*Math.PI)
+			heading -= 2*Math.PI;
+		return heading;
+	}
+	
+	/**
+	 * get the speed of the wheels to turn by an angle: slower as the robot gets closer to the angle
+	 * @param parameters the motor speeds
+	 * @param thetaVar the angle left to turn (in radians)
+	 * @return the speed of the motors (in deg/s)
+	 */
+	public static int getRotationSpeed(ControlParameters parameters, double thetaVar) {
+		int max = parameters.getMaxRotationSpeed(), min = parameters.getMinRotationSpeed();
+		return Math.min(max, (int) (Math.abs(thetaVar) / (Math.PI / 3) * (max - min) + min));
+	}
+	
+	/**
+	 * get the speed of the wheels to drive to a point: slower as the robot gets closer to the point
+	 * @param parameters the motor speeds
+	 * @param distance2 the square of the distance left to the point (in cm^2)
+	 * @return the speed of the right motor (in deg/s)
+	 */
+	public static int getMoveSpeed(ControlParameters parameters, double distance2) {
+		int max = parameters.getMaxMoveSpeed(), min = parameters.getMinMoveSpeed();
+		return Math.min(max, (int) (distance2 / 250 * (max - min) + min));
 	}
 	
 	/**
@@ -140,12 +222,7 @@ public class Navigator extends Thread {
 	 * @param y the y position to navigate to
 	 */
 	public void travelTo(double x, double y) {
-		navigating = true;
-		synchronized(lock) {
-			targets = new double[][] { {x, y} };
-			targetIndex = 0;
-			backwards = false;
-		}
+		follow(Route.to(x, y, false));
 	}
 	/**
 	 * Set a point to move to, and specify whether to approach it forward or backwards. If the navigator is running it will directly start moving in the direction of the point
@@ -154,12 +231,7 @@ public class Navigator extends Thread {
 	 * @param backwards whether the robot should approach the point facing backwards or forward
 	 */
 	public void travelTo(double x, double y, boolean backwards) {
-		navigating = true;
-		synchronized(lock) {
-			targets = new double[][] { {x, y} };
-			targetIndex = 0;
-			this.backwards = backwards;
-		}
+		follow(Route.to(x, y, backwards));
 	}
 	
 	/**
@@ -168,12 +240,7 @@ public class Navigator extends Thread {
 	 * @param y the y position to navigate to
 	 */
 	public void travelToSquare(double x, double y) {
-		navigating = true;
-		synchronized(lock) {
-			targets = new double[][] { {x, Main.get().getOdometer().getY()}, {x, y} };
-			targetIndex = 0;
-			backwards = false;
-		}
+		follow(Route.square(x, y, false, false));
 	}
 	
 	/**
@@ -184,15 +251,7 @@ public class Navigator extends Thread {
 	 * @param yFirst whether to move on the y axis first or the x axis first
 	 */
 	public void travelToSquare(double x, double y, boolean backwards, boolean yFirst) {
-		navigating = true;
-		synchronized(lock) {
-			if(yFirst)
-				targets = new double[][] { {Main.get().getOdometer().getX(), y}, {x, y} };
-			else
-				targets = new double[][] { {x, Main.get().getOdometer().getY()}, {x, y} };	
-			targetIndex = 0;
-			this.backwards = backwards;
-		}
+		follow(Route.square(x, y, backwards, yFirst));
 	}
 	
 	/**
@@ -200,12 +259,23 @@ public class Navigator extends Thread {
 	 * @param theta the angle to rotate to (in radians from the positive x-axis)
 	 */
 	public void turnTo(double theta) {
-		turning = true;
+		follow(Route.turn(theta));
+	}
+	
+	/**
+	 * Set the route to follow, planned from the current position of the robot. Used by the travel methods, and by the obstacle detector to give the navigator its route back after a detour
+	 * @param route the destination, and how to get to it
+	 */
+	public void follow(Route route) {
 		navigating = true;
 		synchronized(lock) {
-			while(theta > 2*Math.PI)
-				theta -= 2*Math.PI;
-			targetTheta = theta;
+			targets = route.plan(Main.get().getObstacleMap(), Main.get().getOdometer().getX(), Main.get().getOdometer().getY());
+			targetIndex = 0;
+			backwards = route.isBackwards();
+			if(route.isTurn())
+				targetTheta = route.getTheta();
+			turning = route.isTurn();
+			this.route = route;
 		}
 	}
 	
@@ -226,6 +296,36 @@ public class Navigator extends Thread {
 		return turning;
 	}
 	
+	/**
+	 * Wait until the robot has reached its destination and is not avoiding an obstacle anymore. Unlike a loop on isNavigating(), the wait can be interrupted
+	 * @throws InterruptedException if the waiting thread is interrupted. The navigator keeps running
+	 */
+	public void awaitNavigation() throws InterruptedException {
+		while(navigating || Main.get().getObstacleDetector().isAvoiding())
+			Thread.sleep(RUN_PERIOD);
+	}
+	
+	/**
+	 * Wait until the robot has reached the angle specified in the turnTo() method. Unlike a loop on isTurning(), the wait can be interrupted
+	 * @throws InterruptedException if the waiting thread is interrupted. The navigator keeps running
+	 */
+	public void awaitTurn() throws InterruptedException {
+		while(turning)
+			Thread.sleep(RUN_PERIOD);
+	}
+	
+	/**
+	 * Get the route the navigator was last given, to follow it again later
+	 * @return the route
+	 */
+	public Route getRoute() {
+		Route result;
+		synchronized(lock) {
+			result = route;
+		}
+		return result;
+	}
+	
 	/**
 	 * Get the current target the robot is trying to reach
 	 * @param position array to be filled by the x, y and theta values of the target position
@@ -304,12 +404,14 @@ public class Navigator extends Thread {
 	}
 	
 	/**
-	 * pause or resume the navigator's thread
+	 * pause or resume the navigator's thread. The navigator is then no longer held for a detour (see hold())
 	 * @param running whether the navigator should pause or resume
 	 */
+	@Override
 	public void setRunning(boolean running) {
 		synchronized(lock) {
-			this.running = running;
+			held = false;
+			super.setRunning(running);
 			if(!running) { //Stop the motors if pausing the navigator
 				Main.get().getMotor("right").stop(true);
 				Main.get().getMotor("left").stop();
@@ -317,4 +419,133 @@ public class Navigator extends Thread {
 		}
 	}
 	
+	/**
+	 * Pause the navigator for a detour around an obstacle. Does nothing if it is already paused
+	 */
+	public void hold() {
+		synchronized(lock) {
+			if(isRunning()) {
+				setRunning(false);
+				held = true;
+			}
+		}
+	}
+	
+	/**
+	 * Resume the navigator after a detour, on a route planned again from where the robot is. Does nothing if the navigator was not paused by hold(),
+	 * or was paused again by setRunning(false) during the detour (ex: the leg was abandoned)
+	 * @param route the route to follow
+	 * @return whether the navigator was resumed
+	 */
+	public boolean release(Route route) {
+		synchronized(lock) {
+			if(!held)
+				return false;
+			follow(route);
+			setRunning(true);
+			return true;
+		}
+	}
+	
+	/**
+	 * A destination of the navigator and the way to get to it: straight to a point, on the axes one after the other, or a turn on the spot.
+	 * The points to go through are only computed when the route is planned, from the position of the robot at that time, so that a route can be followed again after a detour. Also used by the field simulator
+	 */
+	public static final class Route {
+		private final double x, y, theta;
+		private final boolean backwards, square, yFirst, turn;
+		
+		private Route(double x, double y, double theta, boolean backwards, boolean square, boolean yFirst, boolean turn) {
+			this.x = x;
+			this.y = y;
+			this.theta = theta;
+			this.backwards = backwards;
+			this.square = square;
+			this.yFirst = yFirst;
+			this.turn = turn;
+		}
+		
+		/**
+		 * get a route straight to a point
+		 * @param x the x position of the point
+		 * @param y the y position of the point
+		 * @param backwards whether the robot should approach the point facing backwards or forward
+		 * @return the route
+		 */
+		public static Route to(double x, double y, boolean backwards) {
+			return new Route(x, y, 0, backwards, false, false, false);
+		}
+		
+		/**
+		 * get a route to a point by moving on axes individually
+		 * @param x the x position of the point
+		 * @param y the y position of the point
+		 * @param backwards whether the robot should approach the point facing backwards or forward
+		 * @param yFirst whether to move on the y axis first or the x axis first
+		 * @return the route
+		 */
+		public static Route square(double x, double y, boolean backwards, boolean yFirst) {
+			return new Route(x, y, 0, backwards, true, yFirst, false);
+		}
+		
+		/**
+		 * get a turn on the spot
+		 * @param theta the angle to rotate to (in radians from the positive x-axis)
+		 * @return the route
+		 */
+		public static Route turn(double theta) {
+			while(theta > 2*Math.PI)
+				theta -= 2*Math.PI;
+			return new Route(0, 0, theta, false, false, false, true);
+		}
+		
+		/**
+		 * Compute the points to go through, around the known obstacles. A route on the axes goes on the other axis first if an obstacle is next to its corner, or between its corner and its destination,
+		 * and the other corner is clear: a waypoint cannot take the robot around an obstacle that is next to the end of a leg
+		 * @param map the obstacles to go around
+		 * @param fromX the x position of the robot
+		 * @param fromY the y position of the robot
+		 * @return the points, the last one being the destination. For a turn, the position of the robot
+		 */
+		public double[][] plan(ObstacleMap map, double fromX, double fromY) {
+			if(turn)
+				return new double[][] { {fromX, fromY} };
+			double[][] path;
+			if(!square)
+				path = new double[][] { {x, y} };
+			else {
+				double[] corner = yFirst? new double[] {fromX, y} : new double[] {x, fromY};
+				double[] other = yFirst? new double[] {x, fromY} : new double[] {fromX, y};
+				if(!map.isClear(corner[0], corner[1], x, y) && map.isClear(other[0], other[1], x, y))
+					corner = other;
+				path = new double[][] {corner, {x, y}};
+			}
+			return map.planAround(fromX, fromY, path);
+		}
+		
+		/**
+		 * check whether the robot drives facing backwards
+		 * @return whether the robot should approach the point facing backwards
+		 */
+		public boolean isBackwards() {
+			return backwards;
+		}
+		
+		/**
+		 * check whether the route is a turn on the spot
+		 * @return whether the robot only turns
+		 */
+		public boolean isTurn() {
+			return turn;
+		}
+		
+		/**
+		 * get the angle of a turn
+		 * @return the angle to rotate to (in radians from the positive x-axis)
+		 */
+		public double getTheta() {
+			return theta;
+		}
+	}
+	
 }
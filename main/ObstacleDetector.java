@@ -5,108 +5,455 @@ import lejos.hardware.motor.EV3LargeRegulatedMotor;
 
 /**
  * Obstacle detector is a thread that runs in the background while the navigator is running in order to detect obstacles (blocks) in the way. This class is also responsible for moving around the obstacle.
- * To do so, it pauses the navigator and uses a wall follower algorithm to move around the obstacle until the robot points in the direction of the target position of the navigator.
- * 
+ * Obstacles are detected using the time to collision, estimated from the rate at which the ultrasonic range decreases and from the wheel speed measured by the odometer.
+ * The range rate is not used while the robot turns, nor until the filtered reading only holds readings made at the new heading: the sensor sweeping across the field would look like an obstacle closing in.
+ * The faster the robot moves, the further away it reacts to an obstacle. A minimum distance still triggers the avoidance when the robot is (almost) not moving.
+ * To do so, it pauses the navigator and follows the contour of the obstacle (Bug2 style) using the live ultrasonic readings:
+ * -Turn away from the obstacle until the sensor sees free space and the whole width of the robot clears the obstacles of the map and the walls.
+ *  The robot turns to the side of the goal if it clears them within a quarter turn, otherwise to the side that needs the smallest rotation, so that it does not turn into a wall
+ * -Drive forward along the obstacle: steer to the heading turned the most towards the obstacle along which the robot keeps the wall distance from the obstacles of the map and the walls.
+ *  Obstacles next to each other, and walls, are followed as one, and the robot does not go into a gap too narrow for it.
+ *  Turn away again whenever the obstacle comes back in range or would be brushed by the side of the robot
+ * -As soon as the robot faces its goal and the path is clear, hand the control back to the navigator without stopping the motors
+ * An obstacle seen further than the goal does not start a detour.
+ * Every iteration is non-blocking: the state of the manoeuvre is kept between two iterations of the periodic loop.
+ * Every obstacle seen is also added to the obstacle map so that the navigator can plan around it on the next trips.
+ * The length and the duration of each detour are measured.
+ * The manoeuvre is held while the throwing arm is in a state where the robot must not move, and starts over by turning away once it is safe again.
+ * Pausing the obstacle detector cancels the manoeuvre: the robot stops, and the navigator resumes its route only if the detour is what paused it.
+ * The decision of each iteration (control()) does not use the hardware, so that the field simulator runs the same code.
+ *
  * @author Jerome
- * @version 1.0
+ * @version 2.0
  */
-public class ObstacleDetector extends Thread {
+public class ObstacleDetector extends PeriodicTask {
 	
 	private static final long ITERATION_TIME = 25;
-	private static final int WALL_DIST = 22; //distance from a wall at which robot will start moving around
+	private static final int MIN_WALL_DIST = 15; //distance from a wall at which robot will start moving around, whatever its speed
+	private static final int STOP_DIST = 10; //distance from the obstacle at which the robot should have stopped, used to compute the time to collision
+	private static final double RANGE_RATE_SMOOTHING = 0.3; //Weight of the newest value in the exponential average of the range rate
+	private static final double MAX_OBSTACLE_SPEED = 15; //Speed (cm/s) at which an obstacle may come towards the robot (the other robot), added to the wheel speed at most by the range rate
+	private static final double MAX_STEADY_TURN_RATE = 0.3; //Turn rate (rad/s) above which the range rate is not used. Driving straight and the corrections of the navigator stay well under it
+	private static final long SETTLE_TIME = SensorPoller.US_WINDOW * 25000000L; //Time for the mean filtered reading to only hold readings made at the new heading, once the robot stops turning (ns)
+	private static final float MAX_VALID_RANGE = 250; //Readings above this are the sensor not seeing anything
+	private static final float MAP_RANGE = 60; //Readings under this distance are added to the obstacle map
+	/**
+	 * Position of the ultrasonic sensor in front of the middle of the 2 wheels (in cm)
+	 */
+	public static final double US_SENSOR_DIST = 2.6;
+	private static final int CLEAR_DIST = 35; //distance at which the path in front of the robot is considered free while turning away from an obstacle
+	private static final double BODY_CLEARANCE = 18; //Distance between the center of the robot and an obstacle of the map under which they touch: half the width of the robot (11), half a block (5) and a margin
+	private static final double LOOK_AHEAD = 15; //Distance the robot must be able to drive straight, with its whole width, to keep following an obstacle. Twice this distance to start following it
+	private static final double SIDE_STEP = Math.PI / 18; //Step of the headings tried to choose the side to turn to, and the heading to follow the obstacle
+	private static final double LEAVE_ANGLE = Math.PI / 60; //Maximum angle between the robot's heading and the goal for the robot to leave the obstacle (same as the navigator's tolerance)
+	private static final long MAX_AVOID_TIME = 20000000000L; //Give the control back to the navigator if the obstacle could not be avoided in this time (ns)
+	private static final int ROTATION_SPEED = 110; //Motor constants
+	private static final double US_CONE = Math.PI * 15 / 180; //Half angle of the cone in which the ultrasonic sensor hears an echo
+	private static final double TURN_LAG = Math.toRadians(ROTATION_SPEED) * 2 * Odometer.WHEEL_RADIUS / Odometer.TRACK * (SensorPoller.US_WINDOW - 1) * 0.025 / 2; //Rotation while turning away during the delay of the mean filter (rad)
+	private static final int FOLLOW_SPEED = 200;
+	private static final double STEER_GAIN = 2.5; //Percent/100 of the follow speed per radian of heading error by which the inner wheel is slowed down
+	private static final boolean[] ALL = {true, true, true};
+	
+	//States of the avoidance manoeuvre
+	private static final int IDLE = 0;
+	private static final int TURNING_AWAY = 1;
+	private static final int FOLLOWING = 2;
+	
+	//Results of control()
+	/**
+	 * Nothing to change on the motors
+	 */
+	public static final int NONE = 0;
+	/**
+	 * An obstacle is in the way: pause the navigator and the odometry correction, and set the speeds
+	 */
+	public static final int AVOID = 1;
+	/**
+	 * Set the speeds to keep going around the obstacle
+	 */
+	public static final int STEER = 2;
+	/**
+	 * The obstacle is avoided, or could not be: give the control back to the navigator
+	 */
+	public static final int LEAVE = 3;
 	
-	private boolean avoiding = false;
+	private final ControlParameters parameters; //Collision horizon, and wall distance kept while following an obstacle
+	private final Object lock = new Object(); //Held by each iteration, so that pausing cancels the manoeuvre in between two iterations
+	private volatile boolean avoiding = false;
 	
-	private volatile boolean running = false;
+	private final Avoidance avoidance = new Avoidance();
+	private boolean held = false; //Whether the manoeuvre was stopped because of the arm
+	private Navigator.Route route; //Route of the navigator when the obstacle was detected, given back to it after the detour
+	private boolean pausedCorrection = false; //Whether the odometry correction was running when the detour paused it
+	private final double[] pose = new double[3];
+	private final int[] speeds = new int[2];
+	
+	private volatile double lastDetourLength = 0; //Measurements of the last detour
+	private volatile long lastDetourTime = 0;
+	private int detourCount = 0;
+	
+	private int frontSlot, timeToCollisionSlot; //Display slots
 	
 	/**
 	 * constructs a default obstacle detector
+	 * @param parameters the control parameters, which give the time to collision at which to react and the distance to keep from an obstacle while following it
 	 */
-	public ObstacleDetector() {
+	public ObstacleDetector(ControlParameters parameters) {
+		super("ObstacleDetector", ITERATION_TIME, TimingClass.SOFT, false);
+		this.parameters = parameters;
+		frontSlot = Main.get().getDisplay().addSlot("Front");
+		timeToCollisionSlot = Main.get().getDisplay().addSlot("TTC");
 	}
 	
 	/* (non-Javadoc)
-	 * @see java.lang.Thread#run()
+	 * @see main.PeriodicTask#step()
 	 */
 	@Override
-	public void run() {
-		long correctionStart, correctionEnd;
-
-		while (true) {
-			correctionStart = System.currentTimeMillis();
+	protected void step() {
+		float front = Main.get().getSensorPoller().getTopUsReading(Filter.MEAN);
+		Main.get().getDisplay().setValue(frontSlot, front);
+		
+		synchronized(lock) {
+			if(!isRunning()) //The detector was paused while waiting for the lock, the manoeuvre was cancelled
+				return;
 			
-			if(running) {
-				
-				Main.get().getDisplay().addDisplayValue("Front", Main.get().getSensorPoller().getTopUsReading(Filter.MEAN));
-				
-				if(Main.get().getSensorPoller().getTopUsReading(Filter.MEAN) < WALL_DIST) { //An obstacle was detected in range
-					
-					avoiding = true;
-					
-					Main.get().getOdometryCorrection().setRunning(false); //Pause the odometry correction
-					
-					EV3LargeRegulatedMotor rightM = Main.get().getMotor("right");
-					EV3LargeRegulatedMotor leftM  = Main.get().getMotor("left");
-					
-					Navigator n = Main.get().getNavigator();
-					
-					double targetX = n.getFinalTargetX(); //Save the target theta in order to tell the navigator to continue its previous course after the obstacle has been avoided
-					double targetY = n.getFinalTargetY();
-					
-					n.travelTo(Main.get().getOdometer().getX(), Main.get().getOdometer().getY());
-					
-					n.setRunning(false); //Pause the navigator
-					
-					n.turnTo(Main.get().getOdometer().getTheta() + 1.35);
-					n.setRunning(true);
-					while(n.isTurning());
-					n.setRunning(false);
-					
-					//Move forward a bit
-					rightM.setSpeed(200);
-					leftM.setSpeed(200);
-					rightM.rotate(850, true);
-					leftM.rotate(850);
-					
-					n.turnTo(Main.get().getOdometer().getTheta() - 0.45);
-					n.setRunning(true);
-					while(n.isTurning());
-					n.setRunning(false);
-					
-					//Move forward a bit
-					rightM.setSpeed(200);
-					leftM.setSpeed(200);
-					rightM.rotate(300, true);
-					leftM.rotate(300);
-					
-					n.travelToSquare(targetX, targetY);
-					n.setRunning(true); //Resume the navigator
-					Main.get().getOdometryCorrection().setRunning(true); //Resume the odometry correction
-					
-					avoiding = false;
+			if(!Main.get().getArmController().isSafeToMove()) { //Hold the wheels until the arm is done moving
+				if(avoidance.isAvoiding() && !held) {
+					stopMotors();
+					held = true;
 				}
+				return;
 			}
-
-			// this ensure the odometry correction occurs only once every period
-			correctionEnd = System.currentTimeMillis();
-			if (correctionEnd - correctionStart < ITERATION_TIME) {
-				try {
-					Thread.sleep(ITERATION_TIME - (correctionEnd - correctionStart));
-				} catch (InterruptedException e) {
-					// there is nothing to be done here because it is not
-					// expected that the odometry correction will be
-					// interrupted by another thread
+			if(held) { //Start the manoeuvre over from where the robot stopped
+				held = false;
+				if(avoidance.isAvoiding()) {
+					turnAway(avoidance, speeds);
+					setSpeeds(speeds);
 				}
 			}
+			
+			Odometer odometer = Main.get().getOdometer();
+			odometer.getPosition(pose, ALL);
+			if(!avoidance.isAvoiding()) { //Where a detour would go, to choose its side
+				Navigator n = Main.get().getNavigator();
+				avoidance.setGoal(n.getFinalTargetX(), n.getFinalTargetY());
+			}
+			int result = control(parameters, Main.get().getObstacleMap(), pose, odometer.getSpeed(), front, System.nanoTime(), avoidance, speeds);
+			if(!Double.isInfinite(avoidance.getTimeToCollision()))
+				Main.get().getDisplay().setValue(timeToCollisionSlot, Math.min(avoidance.getTimeToCollision(), 99));
+			
+			switch(result) {
+			case AVOID:
+				startAvoiding();
+				setSpeeds(speeds);
+				break;
+			case STEER:
+				setSpeeds(speeds);
+				break;
+			case LEAVE:
+				stopAvoiding();
+				break;
+			}
 		}
 	}
-
+	
 	/**
-	 * Pause or resume the obstacle detector
-	 * @param running whether to pause or resume the detector
+	 * pause or resume the obstacle detector. Pausing it during a detour cancels the detour: the robot stops, the route of the navigator is dropped,
+	 * and the navigator resumes that route only if the detour is what paused it (it was not paused since, ex: by the mission abandoning the leg)
+	 * @param running whether the detector should pause or resume
 	 */
+	@Override
 	public void setRunning(boolean running) {
-		this.running = running;
+		synchronized(lock) {
+			super.setRunning(running);
+			if(!running && avoidance.isAvoiding()) {
+				avoidance.reset();
+				held = false;
+				stopMotors();
+				Main.get().getFlightRecorder().recordEvent("Detour cancelled");
+				
+				Main.get().getNavigator().release(route); //Go on without the detour, from where the robot is
+				route = null;
+				if(pausedCorrection)
+					Main.get().getOdometryCorrection().setRunning(true);
+				pausedCorrection = false;
+				avoiding = false;
+			}
+		}
+	}
+	
+	/**
+	 * Decide what to do in one iteration of the obstacle detector: remember what the ultrasonic sensor sees, detect an obstacle from the time to collision, and go around it.
+	 * Used by every iteration, and by the field simulator
+	 * @param parameters the collision horizon and the distance to keep from an obstacle while following it
+	 * @param map the obstacle map the readings are added to
+	 * @param pose the x and y position (in cm) and the angle (in radians) of the robot
+	 * @param speed the forward speed of the robot measured from the wheels (in cm/s)
+	 * @param front the filtered reading of the ultrasonic sensor (in cm)
+	 * @param time the time of the reading (in ns)
+	 * @param avoidance the state of the manoeuvre, kept from one iteration to the next
+	 * @param speeds filled with the speeds of the left and right motors (in deg/s, negative to go backward) when AVOID or STEER
+	 * @return NONE, AVOID, STEER or LEAVE
+	 */
+	public static int control(ControlParameters parameters, ObstacleMap map, double[] pose, double speed, float front, long time, Avoidance avoidance, int[] speeds) {
+		double timeToCollision = updateTimeToCollision(avoidance, front, time, speed, pose[2]);
+		
+		if(front < ((avoidance.state == TURNING_AWAY)? CLEAR_DIST : MAP_RANGE)) { //Remember the obstacle
+			double range = front + US_SENSOR_DIST;
+			double angle = pose[2];
+			//While turning away, the obstacle is known to be in the cone until its edge on the side of the turn leaves it: put it on the edge of the cone that sweeps it last, at the angle the filtered reading lags at.
+			//Readings further than the clear distance are averages of the obstacle and of what is behind it
+			if(avoidance.state == TURNING_AWAY)
+				angle -= avoidance.side * (US_CONE + TURN_LAG);
+			map.addDetection(pose[0] + range * Math.cos(angle), pose[1] + range * Math.sin(angle));
+		}
+		
+		int result = NONE;
+		switch(avoidance.state) {
+		case IDLE:
+			//An obstacle will be hit soon, before the robot gets to its goal
+			if((front < MIN_WALL_DIST || timeToCollision < parameters.getCollisionHorizon()) && front + US_SENSOR_DIST < distanceToGoal(avoidance, pose)) {
+				avoidance.lastX = pose[0];
+				avoidance.lastY = pose[1];
+				avoidance.detourLength = 0;
+				avoidance.detourStart = time;
+				avoidance.side = chooseSide(map, avoidance, pose);
+				turnAway(avoidance, speeds);
+				return AVOID;
+			}
+			break;
+		case TURNING_AWAY:
+			if(canLeave(map, pose, front, avoidance)) { //Turned towards the goal before the obstacle was out of the way
+				avoidance.state = IDLE;
+				return LEAVE;
+			}
+			//The obstacle is out of the sensor's view, and the side of the robot clears it: drive along it. The cone of the sensor is narrower than the robot up close
+			if(front > CLEAR_DIST && map.getFreeDistance(pose[0], pose[1], pose[2], BODY_CLEARANCE) > 2 * LOOK_AHEAD) {
+				avoidance.state = FOLLOWING;
+				follow(map, pose, parameters.getWallDist(), avoidance, speeds);
+				result = STEER;
+			}
+			break;
+		case FOLLOWING:
+			if(front < parameters.getWallDist() || map.getFreeDistance(pose[0], pose[1], pose[2], BODY_CLEARANCE) < LOOK_AHEAD) { //Obstacle in range again, or in the way of the side of the robot, keep turning around it
+				turnAway(avoidance, speeds);
+				result = STEER;
+			}
+			else if(canLeave(map, pose, front, avoidance)) { //The line to the goal is clear
+				avoidance.state = IDLE;
+				return LEAVE;
+			}
+			else if(follow(map, pose, parameters.getWallDist(), avoidance, speeds)) { //Keep the wall distance from the obstacle
+				result = STEER;
+			}
+			break;
+		}
+		
+		if(avoidance.state != IDLE) {
+			double d = Math.sqrt(Math.pow(pose[0] - avoidance.lastX, 2) + Math.pow(pose[1] - avoidance.lastY, 2));
+			avoidance.detourLength += d;
+			avoidance.lastX = pose[0];
+			avoidance.lastY = pose[1];
+			
+			if(time - avoidance.detourStart > MAX_AVOID_TIME) {
+				avoidance.state = IDLE;
+				return LEAVE;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Update the range rate with a new ultrasonic reading and estimate the time before the robot hits what is in front of it
+	 * @return the time to collision in seconds, or infinity if the robot is not getting closer to anything
+	 */
+	private static double updateTimeToCollision(Avoidance avoidance, float front, long time, double speed, double theta) {
+		//Wait for the heading to be steady since the window of the filter was filled
+		if(!Double.isNaN(avoidance.previousTheta)) {
+			double turn = theta - avoidance.previousTheta;
+			turn = Math.abs(turn - 2*Math.PI * Math.round(turn / (2*Math.PI)));
+			if(turn > MAX_STEADY_TURN_RATE * (time - avoidance.previousFrontTime) / 1e9)
+				avoidance.steadySince = time;
+		}
+		avoidance.previousTheta = theta;
+		boolean steady = time - avoidance.steadySince >= SETTLE_TIME;
+		
+		if(steady && front < MAX_VALID_RANGE && avoidance.previousFront < MAX_VALID_RANGE) { //Ignore the readings where nothing is seen (also false when previousFront is NaN)
+			double rate = (front - avoidance.previousFront) / ((time - avoidance.previousFrontTime) / 1e9);
+			avoidance.rangeRate += RANGE_RATE_SMOOTHING * (rate - avoidance.rangeRate);
+		}
+		else {
+			avoidance.rangeRate = 0;
+		}
+		avoidance.previousFront = front;
+		avoidance.previousFrontTime = time;
+		
+		//The ultrasonic readings lag behind, so use the wheel speed if it tells the robot is closing in faster. The range can only close in faster than the wheels drive if the obstacle moves:
+		//a faster change is the cone of the sensor sweeping a new object into view, which is no faster than the wheels
+		double closingSpeed = Math.max(speed, Math.min(-avoidance.rangeRate, Math.max(0, speed) + MAX_OBSTACLE_SPEED));
+		if(front >= MAX_VALID_RANGE || closingSpeed <= 0)
+			avoidance.timeToCollision = Double.POSITIVE_INFINITY;
+		else
+			avoidance.timeToCollision = Math.max(0, front - STOP_DIST) / closingSpeed;
+		return avoidance.timeToCollision;
+	}
+	
+	/**
+	 * Choose the side to go around the obstacle: the side of the goal if a heading along which the whole width of the robot clears the obstacles of the map and the walls is within a quarter turn,
+	 * otherwise the side where the smallest rotation gives such a heading
+	 * @return 1 to turn counterclockwise (the obstacle is then followed on the right), -1 to turn clockwise
+	 */
+	private static int chooseSide(ObstacleMap map, Avoidance avoidance, double[] pose) {
+		int goalSide = (normalize(Math.atan2(avoidance.goalY - pose[1], avoidance.goalX - pose[0]) - pose[2]) < 0)? -1 : 1;
+		for(double angle = SIDE_STEP; angle < Math.PI; angle += SIDE_STEP) {
+			if(map.getFreeDistance(pose[0], pose[1], pose[2] + goalSide * angle, BODY_CLEARANCE) > LOOK_AHEAD)
+				return goalSide;
+			if(angle > Math.PI / 2 && map.getFreeDistance(pose[0], pose[1], pose[2] - goalSide * angle, BODY_CLEARANCE) > LOOK_AHEAD)
+				return -goalSide;
+		}
+		return goalSide;
+	}
+	
+	/**
+	 * Rotate on the spot, away from the obstacle, to the side chosen for the detour
+	 */
+	private static void turnAway(Avoidance avoidance, int[] speeds) {
+		avoidance.state = TURNING_AWAY;
+		speeds[0] = -avoidance.side * ROTATION_SPEED;
+		speeds[1] = avoidance.side * ROTATION_SPEED;
+	}
+	
+	/**
+	 * Drive forward along the obstacle, towards the heading turned the most towards it (up to a quarter turn) along which the robot keeps the wall distance from the obstacles of the map and the walls
+	 * @param wallDist the distance to keep (in cm)
+	 * @return whether the speeds changed
+	 */
+	private static boolean follow(ObstacleMap map, double[] pose, double wallDist, Avoidance avoidance, int[] speeds) {
+		double error = avoidance.side * Math.PI / 2; //Angle to turn, positive counterclockwise. Away from the obstacle if every heading is too close to it
+		for(double angle = -Math.PI / 2; angle < Math.PI / 2; angle += SIDE_STEP) {
+			if(map.getFreeDistance(pose[0], pose[1], pose[2] + avoidance.side * angle, wallDist) > LOOK_AHEAD) {
+				error = avoidance.side * angle;
+				break;
+			}
+		}
+		
+		int slow = (int) Math.round(FOLLOW_SPEED * Math.max(0, 1 - STEER_GAIN * Math.abs(error)));
+		int left = (error > 0)? slow : FOLLOW_SPEED;
+		int right = (error > 0)? FOLLOW_SPEED : slow;
+		boolean changed = speeds[0] != left || speeds[1] != right;
+		speeds[0] = left;
+		speeds[1] = right;
+		return changed;
+	}
+	
+	/**
+	 * Keep an angle between -pi and pi
+	 */
+	private static double normalize(double angle) {
+		angle %= 2*Math.PI;
+		if(angle > Math.PI)
+			angle -= 2*Math.PI;
+		else if(angle < -Math.PI)
+			angle += 2*Math.PI;
+		return angle;
+	}
+	
+	/**
+	 * Check if the robot can leave the obstacle: it faces the goal, the sensor sees no obstacle before it, and the whole width of the robot clears the obstacles of the map on the way
+	 */
+	private static boolean canLeave(ObstacleMap map, double[] pose, float front, Avoidance avoidance) {
+		double distance = distanceToGoal(avoidance, pose);
+		return isGoalAhead(avoidance, pose) && front > Math.min(CLEAR_DIST, distance) && map.getFreeDistance(pose[0], pose[1], pose[2], BODY_CLEARANCE) > Math.min(LOOK_AHEAD, distance);
+	}
+	
+	/**
+	 * Check if the robot is facing the goal
+	 * @return whether the angle between the robot's heading and the direction of the goal is within the tolerance
+	 */
+	private static boolean isGoalAhead(Avoidance avoidance, double[] pose) {
+		double error = normalize(Math.atan2(avoidance.goalY - pose[1], avoidance.goalX - pose[0]) - pose[2]);
+		return Math.abs(error) < LEAVE_ANGLE;
+	}
+	
+	/**
+	 * Get the distance between the robot and the goal it was navigating to before the obstacle was detected
+	 * @return the distance to the goal, in centimeters
+	 */
+	private static double distanceToGoal(Avoidance avoidance, double[] pose) {
+		return Math.sqrt(Math.pow(avoidance.goalX - pose[0], 2) + Math.pow(avoidance.goalY - pose[1], 2));
+	}
+	
+	/**
+	 * Pause the navigator and the odometry correction, and save the route of the navigator
+	 */
+	private void startAvoiding() {
+		avoiding = true;
+		Main.get().getFlightRecorder().recordEvent("Avoiding");
+		
+		pausedCorrection = Main.get().getOdometryCorrection().isRunning();
+		Main.get().getOdometryCorrection().setRunning(false); //Pause the odometry correction
+		
+		Navigator n = Main.get().getNavigator();
+		route = n.getRoute(); //Save the route in order to tell the navigator to continue its previous course after the obstacle has been avoided
+		n.hold(); //Pause the navigator. Stops the motors, the speeds of the manoeuvre are set afterwards
+	}
+	
+	/**
+	 * Stop the wheel motors
+	 */
+	private void stopMotors() {
+		Main.get().getMotor("right").stop(true);
+		Main.get().getMotor("left").stop();
+	}
+	
+	/**
+	 * Set the speeds and directions of the wheel motors
+	 * @param speeds the speeds of the left and right motors (in deg/s, negative to go backward)
+	 */
+	private void setSpeeds(int[] speeds) {
+		EV3LargeRegulatedMotor right = Main.get().getMotor("right"), left = Main.get().getMotor("left");
+		right.setSpeed(Math.abs(speeds[1]));
+		left.setSpeed(Math.abs(speeds[0]));
+		if(speeds[1] < 0)
+			right.backward();
+		else
+			right.forward();
+		if(speeds[0] < 0)
+			left.backward();
+		else
+			left.forward();
+	}
+	
+	/**
+	 * Give the control back to the navigator, without stopping the motors, and record the measurements of the detour.
+	 * If the navigator was paused since the detour started, the robot stops instead
+	 */
+	private void stopAvoiding() {
+		held = false;
+		Main.get().getFlightRecorder().recordEvent("Avoided");
+		
+		//Resume the navigator on its route, planned again from where the detour ended, on the same axes and facing the same way, and around the obstacle that was just seen
+		if(!Main.get().getNavigator().release(route))
+			stopMotors();
+		route = null;
+		if(pausedCorrection) //Resume the odometry correction
+			Main.get().getOdometryCorrection().setRunning(true);
+		pausedCorrection = false;
+		
+		lastDetourLength = avoidance.getDetourLength();
+		lastDetourTime = (System.nanoTime() - avoidance.getDetourStart()) / 1000000;
+		detourCount++;
+		Main.get().getDisplay().addDisplayValue("Detour", lastDetourLength);
+		
+		avoiding = false;
+	}
+	
+	/**
+	 * Get the time to collision under which the robot starts moving around an obstacle
+	 * @return the time to collision, in seconds
+	 */
+	public double getCollisionHorizon() {
+		return parameters.getCollisionHorizon();
 	}
 	
 	/**
@@ -116,4 +463,96 @@ public class ObstacleDetector extends Thread {
 	public boolean isAvoiding() {
 		return avoiding;
 	}
+	
+	/**
+	 * Get the distance traveled during the last detour around an obstacle
+	 * @return the length of the last detour, in centimeters
+	 */
+	public double getLastDetourLength() {
+		return lastDetourLength;
+	}
+	
+	/**
+	 * Get the time taken by the last detour around an obstacle
+	 * @return the duration of the last detour, in milliseconds
+	 */
+	public long getLastDetourTime() {
+		return lastDetourTime;
+	}
+	
+	/**
+	 * Get the number of obstacles avoided since the start of the program
+	 * @return the number of detours
+	 */
+	public int getDetourCount() {
+		return detourCount;
+	}
+	
+	/**
+	 * State of the detection and of the avoidance manoeuvre, kept between two iterations of control(). Also used by the field simulator
+	 */
+	public static final class Avoidance {
+		private int state = IDLE;
+		private float previousFront = Float.NaN; //Previous ultrasonic reading and its time, used to compute the range rate
+		private long previousFrontTime;
+		private double previousTheta = Double.NaN; //Heading at the previous reading
+		private long steadySince = Long.MIN_VALUE / 2; //Time the heading was last seen changing
+		private double rangeRate = 0; //Rate at which the distance to the obstacle in front changes, in cm/s
+		private double timeToCollision = Double.POSITIVE_INFINITY;
+		private double goalX, goalY; //Final target of the navigator when the obstacle was detected
+		private double lastX, lastY; //Position at the previous iteration, used to measure the length of the detour
+		private int side = 1; //Side the robot turns to, away from the obstacle: 1 for counterclockwise, -1 for clockwise
+		private double detourLength;
+		private long detourStart;
+		
+		/**
+		 * Set the point the robot is going to, before each iteration where no manoeuvre is in progress. The detour goes around the obstacle on the side of that point if it can,
+		 * and the robot leaves the obstacle once it faces that point and the way to it is clear
+		 * @param goalX the x position of the goal (in cm)
+		 * @param goalY the y position of the goal (in cm)
+		 */
+		public void setGoal(double goalX, double goalY) {
+			this.goalX = goalX;
+			this.goalY = goalY;
+		}
+		
+		/**
+		 * Drop the manoeuvre, when the navigation it was part of is abandoned
+		 */
+		public void reset() {
+			state = IDLE;
+		}
+		
+		/**
+		 * check if a manoeuvre is in progress
+		 * @return whether the robot is going around an obstacle
+		 */
+		public boolean isAvoiding() {
+			return state != IDLE;
+		}
+		
+		/**
+		 * get the time to collision estimated at the last iteration
+		 * @return the time (in seconds), or infinity if the robot is not getting closer to anything
+		 */
+		public double getTimeToCollision() {
+			return timeToCollision;
+		}
+		
+		/**
+		 * get the distance traveled since the start of the current or last detour
+		 * @return the length (in cm)
+		 */
+		public double getDetourLength() {
+			return detourLength;
+		}
+		
+		/**
+		 * get the time the current or last detour started at
+		 * @return the time (in ns), as given to control()
+		 */
+		public long getDetourStart() {
+			return detourStart;
+		}
+	}
 }
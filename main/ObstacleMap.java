@@ -0,0 +1,255 @@
+package main;
+
+/**
+ * Persistent map of the obstacles seen on the field, in field coordinates. Kept for the whole match so that the robot does not have to rediscover the same blocks on every trip.
+ * Obstacles are added from the ultrasonic readings projected through the robot's position. Each obstacle has a confidence that grows every time it is seen again and decays with time,
+ * so that a false reading or an obstacle that moved (ex: the other robot) is eventually forgotten.
+ * The navigator uses this map to plan its path around known obstacles before reaching them.
+ *
+ * @version 1.0
+ */
+public class ObstacleMap {
+	
+	private static final int CAPACITY = 32; //Maximum number of obstacles remembered
+	private static final double MERGE_RADIUS = 12; //Detections closer than this (in cm) to a known obstacle are considered to be that obstacle
+	private static final double CLEARANCE = 22; //Minimum distance (in cm) between the path of the robot and the center of an obstacle
+	private static final double WALL_MARGIN = 12; //Detections closer than this (in cm) to the walls are the walls themselves
+	private static final float INITIAL_CONFIDENCE = 0.2f;
+	private static final float HIT_CONFIDENCE = 0.1f; //Confidence added every time an obstacle is seen again
+	private static final float MIN_CONFIDENCE = 0.5f; //Obstacles with a lower confidence are not used for planning
+	private static final double DECAY_TIME = 120000; //Time constant, in ms, of the exponential decay of the confidence
+	
+	private double[] xs = new double[CAPACITY], ys = new double[CAPACITY]; //Position of the obstacles
+	private float[] confidences = new float[CAPACITY]; //Confidence of the obstacles at the time they were last seen
+	private long[] lastSeen = new long[CAPACITY];
+	private int size = 0;
+	
+	private double[][] exclusions = new double[0][]; //Areas where detections are ignored, as {x1, y1, x2, y2}
+	
+	/**
+	 * Add a detection to the map. Either reinforces a known obstacle or adds a new one
+	 * @param x the x position of the detection (in centimeters)
+	 * @param y the y position of the detection (in centimeters)
+	 */
+	public synchronized void addDetection(double x, double y) {
+		//Ignore the walls and the excluded areas
+		if(!isInField(x, y, WALL_MARGIN))
+			return;
+		for(double[] area: exclusions) {
+			if(x >= area[0] && x <= area[2] && y >= area[1] && y <= area[3])
+				return;
+		}
+		
+		long now = Clock.millis();
+		
+		//Find the closest known obstacle
+		int closest = -1;
+		double closestDist = MERGE_RADIUS;
+		for(int i = 0; i < size; i++) {
+			double d = Math.sqrt(Math.pow(xs[i] - x, 2) + Math.pow(ys[i] - y, 2));
+			if(d < closestDist) {
+				closest = i;
+				closestDist = d;
+			}
+		}
+		
+		if(closest >= 0) { //Seen again: move it towards the new detection, weighted by how sure we are of its position
+			float confidence = getConfidence(closest, now);
+			double weight = HIT_CONFIDENCE / (confidence + HIT_CONFIDENCE);
+			xs[closest] += (x - xs[closest]) * weight;
+			ys[closest] += (y - ys[closest]) * weight;
+			confidences[closest] = Math.min(1, confidence + HIT_CONFIDENCE);
+			lastSeen[closest] = now;
+		}
+		else { //New obstacle. If the map is full, replace the one with the lowest confidence
+			int index = size;
+			if(size < CAPACITY) {
+				size++;
+			}
+			else {
+				index = 0;
+				for(int i = 1; i < size; i++) {
+					if(getConfidence(i, now) < getConfidence(index, now))
+						index = i;
+				}
+			}
+			xs[index] = x;
+			ys[index] = y;
+			confidences[index] = INITIAL_CONFIDENCE;
+			lastSeen[index] = now;
+		}
+	}
+	
+	/**
+	 * Ignore any detection in a rectangular area from now on (ex: the ball tray, which is expected to be seen)
+	 * @param x1 the lowest x of the area
+	 * @param y1 the lowest y of the area
+	 * @param x2 the highest x of the area
+	 * @param y2 the highest y of the area
+	 */
+	public synchronized void addExclusion(double x1, double y1, double x2, double y2) {
+		double[][] newExclusions = new double[exclusions.length + 1][];
+		System.arraycopy(exclusions, 0, newExclusions, 0, exclusions.length);
+		newExclusions[exclusions.length] = new double[] {Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2)};
+		exclusions = newExclusions;
+	}
+	
+	/**
+	 * Change a path so that it goes around the known obstacles. For each leg of the path that passes too close to an obstacle, a waypoint is inserted on the side of the obstacle where both new legs are clear.
+	 * Legs that cannot be cleared that way are kept as they are and left to the obstacle detector
+	 * @param x the x position the path starts from (usually the current position of the robot)
+	 * @param y the y position the path starts from
+	 * @param path the points of the path, as {x, y} pairs
+	 * @return the path going around the obstacles (the same array if no obstacle is in the way)
+	 */
+	public synchronized double[][] planAround(double x, double y, double[][] path) {
+		long now = Clock.millis();
+		double[][] result = path;
+		double startX = x, startY = y;
+		
+		for(int i = 0; i < result.length; i++) {
+			double endX = result[i][0], endY = result[i][1];
+			int obstacle = findBlocking(startX, startY, endX, endY, now);
+			
+			if(obstacle >= 0) {
+				//Try a waypoint on each side of the obstacle, perpendicular to the leg
+				double length = Math.sqrt(Math.pow(endX - startX, 2) + Math.pow(endY - startY, 2));
+				double normalX = -(endY - startY) / length;
+				double normalY = (endX - startX) / length;
+				
+				for(int side = 1; side >= -1; side -= 2) {
+					double wx = xs[obstacle] + side * normalX * CLEARANCE * 1.5;
+					double wy = ys[obstacle] + side * normalY * CLEARANCE * 1.5;
+					if(isInField(wx, wy, CLEARANCE) && findBlocking(startX, startY, wx, wy, now) < 0 && findBlocking(wx, wy, endX, endY, now) < 0) {
+						double[][] newResult = new double[result.length + 1][];
+						System.arraycopy(result, 0, newResult, 0, i);
+						newResult[i] = new double[] {wx, wy};
+						System.arraycopy(result, i, newResult, i + 1, result.length - i);
+						result = newResult;
+						i++; //The leg from the waypoint to the end is clear
+						break;
+					}
+				}
+			}
+			
+			startX = endX;
+			startY = endY;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Check if a straight leg keeps the clearance from the obstacles the path is planned around
+	 * @param x1 the x position of the start of the leg (in centimeters)
+	 * @param y1 the y position of the start of the leg
+	 * @param x2 the x position of the end of the leg
+	 * @param y2 the y position of the end of the leg
+	 * @return whether no obstacle the map is confident about is too close to the leg
+	 */
+	public synchronized boolean isClear(double x1, double y1, double x2, double y2) {
+		return findBlocking(x1, y1, x2, y2, Clock.millis()) < 0;
+	}
+	
+	/**
+	 * Find the closest obstacle to the start of a straight leg that lies too close to it
+	 * @return the index of the obstacle, or -1 if the leg is clear
+	 */
+	private int findBlocking(double x1, double y1, double x2, double y2, long now) {
+		double dx = x2 - x1, dy = y2 - y1;
+		double length2 = dx*dx + dy*dy;
+		int closest = -1;
+		double closestT = Double.POSITIVE_INFINITY;
+		
+		for(int i = 0; i < size; i++) {
+			if(getConfidence(i, now) < MIN_CONFIDENCE)
+				continue;
+			
+			//Project the obstacle on the leg to find the closest point of the leg
+			double t = (length2 > 0)? ((xs[i] - x1) * dx + (ys[i] - y1) * dy) / length2 : 0;
+			t = Math.max(0, Math.min(1, t));
+			double d = Math.sqrt(Math.pow(x1 + t*dx - xs[i], 2) + Math.pow(y1 + t*dy - ys[i], 2));
+			
+			if(d < CLEARANCE && t < closestT) {
+				closest = i;
+				closestT = t;
+			}
+		}
+		
+		return closest;
+	}
+	
+	/**
+	 * get the distance the robot can drive straight ahead before it comes closer than a clearance to an obstacle or a wall.
+	 * Every obstacle counts, whatever its confidence: unlike the ultrasonic sensor, whose cone is narrower than the robot up close, this covers the whole width of the robot
+	 * @param x the x position of the robot (in centimeters)
+	 * @param y the y position of the robot
+	 * @param theta the heading of the robot (in radians)
+	 * @param clearance the distance to keep between the center of the robot and an obstacle or a wall (in centimeters)
+	 * @return the free distance (in centimeters), 0 if the robot is already too close, infinity if nothing is ahead
+	 */
+	public synchronized double getFreeDistance(double x, double y, double theta, double clearance) {
+		double dx = Math.cos(theta), dy = Math.sin(theta);
+		double min = -Main.TILE_LENGTH + clearance;
+		double max = (Main.MAP_TILE_SIZE - 1) * Main.TILE_LENGTH - clearance;
+		double free = Double.POSITIVE_INFINITY;
+		
+		//Walls, from the inside
+		if(dx > 0)
+			free = Math.min(free, (max - x) / dx);
+		else if(dx < 0)
+			free = Math.min(free, (min - x) / dx);
+		if(dy > 0)
+			free = Math.min(free, (max - y) / dy);
+		else if(dy < 0)
+			free = Math.min(free, (min - y) / dy);
+		
+		//Obstacles whose distance to the line of travel is under the clearance
+		for(int i = 0; i < size; i++) {
+			double along = (xs[i] - x) * dx + (ys[i] - y) * dy;
+			double across = (ys[i] - y) * dx - (xs[i] - x) * dy;
+			if(along > 0 && Math.abs(across) < clearance)
+				free = Math.min(free, along - Math.sqrt(clearance*clearance - across*across));
+		}
+		
+		return Math.max(0, free);
+	}
+	
+	/**
+	 * Check if a point is inside the walls of the field
+	 * @param margin the minimum distance (in cm) between the point and the walls
+	 */
+	private static boolean isInField(double x, double y, double margin) {
+		double min = -Main.TILE_LENGTH + margin;
+		double max = (Main.MAP_TILE_SIZE - 1) * Main.TILE_LENGTH - margin;
+		return x >= min && x <= max && y >= min && y <= max;
+	}
+	
+	/**
+	 * get the confidence of an obstacle after the decay since it was last seen
+	 */
+	private float getConfidence(int index, long now) {
+		return (float) (confidences[index] * Math.exp(-(now - lastSeen[index]) / DECAY_TIME));
+	}
+	
+	/**
+	 * get the number of obstacles the robot is confident about
+	 * @return the number of known obstacles
+	 */
+	public synchronized int getObstacleCount() {
+		long now = Clock.millis();
+		int count = 0;
+		for(int i = 0; i < size; i++) {
+			if(getConfidence(i, now) >= MIN_CONFIDENCE)
+				count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * forget all obstacles
+	 */
+	public synchronized void clear() {
+		size = 0;
+	}
+}
@@ -1,90 +1,148 @@
 package main;
 
+import lejos.hardware.motor.EV3LargeRegulatedMotor;
+
 /**
  * The odometer is a thread that, once started, keeps track of the robot's position by continuously calculating the distance traveled and the change in angle
  *
  * @author Jerome
  * @version 1.0
  */
-public class Odometer extends Thread {
+public class Odometer extends PeriodicTask {
 
 	// odometer update period, in ms
 	private static final long ITERATION_TIME = 15;
-	private static final double WHEEL_RADIUS = 2.02; //Used to be 2.01
-	private static final double TRACK = 15.56;
+	/**
+	 * Radius of the wheels (in cm). Used to be 2.01
+	 */
+	public static final double WHEEL_RADIUS = 2.02;
+	/**
+	 * Distance between the wheels (in cm)
+	 */
+	public static final double TRACK = 15.56;
+	private static final double LOG_RATE = 20; //Positions logged per second, enough to plot the path
 	
 	// robot position
 	private double x, y, theta;
+	
+	private volatile double speed; //Forward speed of the center of the robot, in cm/s
+	
+	// history of the positions of the robot, used to know where the robot was at the time a sensor value was read
+	private static final int HISTORY_SIZE = 256; //About 3.8 seconds of positions, enough for the oldest crossing kept by the moving localizer (3.5 s)
+	private long[] historyTimes = new long[HISTORY_SIZE];
+	private double[] historyX = new double[HISTORY_SIZE], historyY = new double[HISTORY_SIZE], historyTheta = new double[HISTORY_SIZE];
+	private int historyCount = 0; //Number of positions recorded since the start. The newest one is at index (historyCount - 1) % HISTORY_SIZE
+	private long previousTime; //Time of the previous iteration, in nanoseconds
+	private final double[] pose = new double[3]; //Used by the odometer thread to move the position
 
-	// lock object for mutual exclusion
-	private Object lock;
+	// lock object for mutual exclusion. Metered to know how often the other threads wait for the odometer
+	private final MeteredLock lock = new MeteredLock("Odometer");
 	
 	private int previousRightTacho, previousLeftTacho; //Need to store the previous tacho counts to calculate the variation in the tacho values
+	
+	private Logger.Channel xChannel, yChannel, thetaChannel;
+	private int xSlot, ySlot, thetaSlot; //Display slots
 
 	/**
 	 * construct a default odometer
 	 */
 	public Odometer() {
+		super("Odometer", ITERATION_TIME, TimingClass.HARD_PERIODIC, true);
 		x = 0.0;
 		y = 0.0;
 		theta = Math.PI / 2;
-		lock = new Object();
 		
 		previousRightTacho = Main.get().getMotor("right").getTachoCount(); //Get the initial tacho values
 		previousLeftTacho = Main.get().getMotor("left").getTachoCount();
+		previousTime = System.nanoTime();
+		
+		Logger logger = Main.get().getLogger();
+		xChannel = logger.getChannel("X", LOG_RATE);
+		yChannel = logger.getChannel("Y", LOG_RATE);
+		thetaChannel = logger.getChannel("Theta", LOG_RATE);
+		
+		Display display = Main.get().getDisplay();
+		xSlot = display.addSlot("X");
+		ySlot = display.addSlot("Y");
+		thetaSlot = display.addSlot("Theta");
 	}
 
 	/* (non-Javadoc)
-	 * @see java.lang.Thread#run()
+	 * @see main.PeriodicTask#step()
 	 */
 	@Override
-	public void run() {
-		long updateStart, updateEnd;
+	protected void step() {
+		//Retrieve the wheel readings
+		EV3LargeRegulatedMotor leftMotor = Main.get().getMotor("left"), rightMotor = Main.get().getMotor("right");
+		int rightTacho = rightMotor.getTachoCount();
+		int leftTacho = leftMotor.getTachoCount();
+		int dRightTacho = rightTacho - previousRightTacho; //Change in the wheels' angle
+		int dLeftTacho = leftTacho - previousLeftTacho;
+		previousRightTacho = rightTacho;
+		previousLeftTacho = leftTacho;
+		long time = System.nanoTime();
 
-		while (true) {
-			updateStart = System.currentTimeMillis();
+		lock.lock();
+		try {
+			// don't use the variables x, y, or theta anywhere but here!
+			pose[0] = x;
+			pose[1] = y;
+			pose[2] = theta;
+			double distance = advance(pose, dLeftTacho, dRightTacho);
+			x = pose[0];
+			y = pose[1];
+			theta = pose[2];
+			speed = distance / ((time - previousTime) / 1e9);
+			previousTime = time;
 			
-			//Retrieve the wheel readings
-			int rightTacho = Main.get().getMotor("right").getTachoCount();
-			int leftTacho = Main.get().getMotor("left").getTachoCount();
-			int dRightTacho = rightTacho - previousRightTacho; //Change in the wheels' angle
-			int dLeftTacho = leftTacho - previousLeftTacho;
-			previousRightTacho = rightTacho;
-			previousLeftTacho = leftTacho;
+			//Record the new position in the history
+			int index = historyCount % HISTORY_SIZE;
+			historyTimes[index] = time;
+			historyX[index] = x;
+			historyY[index] = y;
+			historyTheta[index] = theta;
+			historyCount++;
 			
-			double leftDistance = dLeftTacho/360d * 2 * Math.PI * WHEEL_RADIUS; //Distance traveled by each wheels
-			double rightDistance = dRightTacho/360d * 2 * Math.PI * WHEEL_RADIUS;
-			double distance = (rightDistance + leftDistance) / 2; //Distance traveled by the center of the robot
-			double deltaTheta = (rightDistance - leftDistance) / TRACK; //Angle by which the robot turned in the last time interval
-
-			synchronized (lock) {
-				// don't use the variables x, y, or theta anywhere but here!
-				x += distance * Math.cos(theta + deltaTheta/2); //Update the x and y coordinate values of the odometer
-				y += distance * Math.sin(theta + deltaTheta/2);
-				theta += deltaTheta; //The total angle also changes
-				
-				//Keep theta between 0 and 2 pi
-				theta %= 2*Math.PI;
-				if(theta < 0)
-					theta += 2*Math.PI;
-				
-				Main.get().getDisplay().addDisplayValue("X", x);
-				Main.get().getDisplay().addDisplayValue("Y", y);
-				Main.get().getDisplay().addDisplayValue("Theta", theta / (2*Math.PI) * 360);
-			}
-
-			// this ensures that the odometer only runs once every period
-			updateEnd = System.currentTimeMillis();
-			if (updateEnd - updateStart < ITERATION_TIME) {
-				try {
-					Thread.sleep(ITERATION_TIME - (updateEnd - updateStart));
-				} catch (InterruptedException e) {
-					// there is nothing to be done here because it is not
-					// expected that the odometer will be interrupted by
-					// another thread
-				}
-			}
+			Display display = Main.get().getDisplay();
+			display.setValue(xSlot, x);
+			display.setValue(ySlot, y);
+			display.setValue(thetaSlot, theta / (2*Math.PI) * 360);
+			
+			Logger logger = Main.get().getLogger();
+			logger.record(xChannel, time, (float) x);
+			logger.record(yChannel, time, (float) y);
+			logger.record(thetaChannel, time, (float) theta);
+			Main.get().getFlightRecorder().recordPose(time, x, y, theta);
+		} finally {
+			lock.unlock();
 		}
+		
+		Main.get().getFlightRecorder().recordMotors(time, leftMotor.getSpeed(), rightMotor.getSpeed(), leftMotor.getRotationSpeed(), rightMotor.getRotationSpeed());
+	}
+
+	/**
+	 * Move a pose by the rotation of the wheels during one period, the robot going forward by the distance traveled by its center at the mean of the angles before and after turning
+	 * @param pose the x and y position (in centimeters) and the angle (in radians, between 0 and 2 pi) of the robot. Updated with the new position
+	 * @param dLeftTacho the change of the tacho count of the left wheel (in degrees)
+	 * @param dRightTacho the change of the tacho count of the right wheel (in degrees)
+	 * @return the distance traveled by the center of the robot (in centimeters). Negative when moving backwards
+	 */
+	public static double advance(double[] pose, int dLeftTacho, int dRightTacho) {
+		double leftDistance = dLeftTacho/360d * 2 * Math.PI * WHEEL_RADIUS; //Distance traveled by each wheels
+		double rightDistance = dRightTacho/360d * 2 * Math.PI * WHEEL_RADIUS;
+		double distance = (rightDistance + leftDistance) / 2; //Distance traveled by the center of the robot
+		double deltaTheta = (rightDistance - leftDistance) / TRACK; //Angle by which the robot turned in the last time interval
+		
+		pose[0] += distance * Math.cos(pose[2] + deltaTheta/2); //Update the x and y coordinate values
+		pose[1] += distance * Math.sin(pose[2] + deltaTheta/2);
+		double theta = pose[2] + deltaTheta; //The total angle also changes
+		
+		//Keep theta between 0 and 2 pi
+		theta %= 2*Math.PI;
+		if(theta < 0)
+			theta += 2*Math.PI;
+		pose[2] = theta;
+		return distance;
 	}
 
 	// accessors
@@ -95,13 +153,16 @@ public class Odometer extends Thread {
 	 */
 	public void getPosition(double[] position, boolean[] update) {
 		// ensure that the values don't change while the odometer is running
-		synchronized (lock) {
+		lock.lock();
+		try {
 			if (update[0])
 				position[0] = x;
 			if (update[1])
 				position[1] = y;
 			if (update[2])
 				position[2] = theta;
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -112,8 +173,11 @@ public class Odometer extends Thread {
 	public double getX() {
 		double result;
 
-		synchronized (lock) {
+		lock.lock();
+		try {
 			result = x;
+		} finally {
+			lock.unlock();
 		}
 
 		return result;
@@ -126,8 +190,11 @@ public class Odometer extends Thread {
 	public double getY() {
 		double result;
 
-		synchronized (lock) {
+		lock.lock();
+		try {
 			result = y;
+		} finally {
+			lock.unlock();
 		}
 
 		return result;
@@ -140,13 +207,99 @@ public class Odometer extends Thread {
 	public double getTheta() {
 		double result;
 
-		synchronized (lock) {
+		lock.lock();
+		try {
 			result = theta;
+		} finally {
+			lock.unlock();
 		}
 
 		return result;
 	}
 
+	/**
+	 * get the position of the robot at a given time in the last few seconds, interpolated from the history of positions
+	 * @param time the time (from System.nanoTime())
+	 * @param position the array to be filled with the values of x, y and theta at that time. Filled with the oldest position known if the time is too far in the past
+	 */
+	public void getPositionAt(long time, double[] position) {
+		lock.lock();
+		try {
+			position[0] = x;
+			position[1] = y;
+			position[2] = theta;
+			if(historyCount == 0 || time >= historyTimes[(historyCount - 1) % HISTORY_SIZE])
+				return;
+			
+			int oldest = historyCount - Math.min(historyCount, HISTORY_SIZE); //Count of the oldest position kept
+			if(time < historyTimes[oldest % HISTORY_SIZE]) { //Older than the whole history
+				position[0] = historyX[oldest % HISTORY_SIZE];
+				position[1] = historyY[oldest % HISTORY_SIZE];
+				position[2] = historyTheta[oldest % HISTORY_SIZE];
+				return;
+			}
+			
+			//Binary search for the last position recorded before that time. The times are in order from the oldest position kept to the newest
+			int low = oldest, high = historyCount - 1;
+			while(low < high) {
+				int middle = (low + high + 1) >>> 1;
+				if(historyTimes[middle % HISTORY_SIZE] <= time)
+					low = middle;
+				else
+					high = middle - 1;
+			}
+			int index = low % HISTORY_SIZE, next = (low + 1) % HISTORY_SIZE;
+			
+			double fraction = (double) (time - historyTimes[index]) / (historyTimes[next] - historyTimes[index]);
+			double deltaTheta = historyTheta[next] - historyTheta[index];
+			if(deltaTheta > Math.PI) //The angle went through 0
+				deltaTheta -= 2*Math.PI;
+			else if(deltaTheta < -Math.PI)
+				deltaTheta += 2*Math.PI;
+			
+			position[0] = historyX[index] + (historyX[next] - historyX[index]) * fraction;
+			position[1] = historyY[index] + (historyY[next] - historyY[index]) * fraction;
+			position[2] = (historyTheta[index] + deltaTheta * fraction + 2*Math.PI) % (2*Math.PI);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * get the angle of the robot at a given time in the last few seconds, interpolated from the history of positions
+	 * @param time the time (from System.nanoTime())
+	 * @return the orientation of the robot at that time (in radians from the positive x-axis)
+	 */
+	public double getThetaAt(long time) {
+		double[] position = new double[3];
+		getPositionAt(time, position);
+		return position[2];
+	}
+	
+	/**
+	 * Move the whole history of positions when the position is set, so that positions from the history are consistent with the new position.
+	 * The path is moved as a rigid body: rotated around the old position by the change in angle, then translated to the new position
+	 * Must be called while holding the lock, after the position has been changed
+	 */
+	private void shiftHistory(double oldX, double oldY, double oldTheta) {
+		double dTheta = theta - oldTheta;
+		double cos = Math.cos(dTheta), sin = Math.sin(dTheta);
+		for(int i = 0; i < Math.min(historyCount, HISTORY_SIZE); i++) {
+			double hx = historyX[i] - oldX, hy = historyY[i] - oldY;
+			historyX[i] = x + hx * cos - hy * sin;
+			historyY[i] = y + hx * sin + hy * cos;
+			historyTheta[i] = ((historyTheta[i] + dTheta) % (2*Math.PI) + 2*Math.PI) % (2*Math.PI);
+		}
+	}
+	
+	/**
+	 * get the speed at which the robot is moving, as measured from the wheels during the last period
+	 * @return the forward speed of the center of the robot (in centimeters per second). Negative when moving backwards
+	 */
+	public double getSpeed() {
+		return speed;
+	}
+
 	// mutators
 	/**
 	 * set the current x and y position (in centimeters) of the robot, as well as the angle in radians (from the positive x-axis)
@@ -155,13 +308,18 @@ public class Odometer extends Thread {
 	 */
 	public void setPosition(double[] position, boolean[] update) {
 		// ensure that the values don't change while the odometer is running
-		synchronized (lock) {
+		lock.lock();
+		try {
+			double oldX = x, oldY = y, oldTheta = theta;
 			if (update[0] && !Double.isNaN(position[0]))
 				x = position[0];
 			if (update[1] && !Double.isNaN(position[1]))
 				y = position[1];
 			if (update[2] && !Double.isNaN(position[2]))
 				theta = position[2];
+			shiftHistory(oldX, oldY, oldTheta);
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -170,9 +328,15 @@ public class Odometer extends Thread {
 	 * @param x the position of the robot in the x-axis (in centimeters)
 	 */
 	public void setX(double x) {
-		synchronized (lock) {
-			if(!Double.isNaN(x))
+		lock.lock();
+		try {
+			if(!Double.isNaN(x)) {
+				double oldX = this.x;
 				this.x = x;
+				shiftHistory(oldX, y, theta);
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -181,9 +345,15 @@ public class Odometer extends Thread {
 	 * @param y the position of the robot in the y-axis (in centimeters)
 	 */
 	public void setY(double y) {
-		synchronized (lock) {
-			if(!Double.isNaN(y))
+		lock.lock();
+		try {
+			if(!Double.isNaN(y)) {
+				double oldY = this.y;
 				this.y = y;
+				shiftHistory(x, oldY, theta);
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -194,9 +364,15 @@ public class Odometer extends Thread {
 	public void setTheta(double theta) {
 		if(theta >= Math.PI * 2)
 			theta -= Math.PI * 2;
-		synchronized (lock) {
-			if(!Double.isNaN(theta))
+		lock.lock();
+		try {
+			if(!Double.isNaN(theta)) {
+				double oldTheta = this.theta;
 				this.theta = theta;
+				shiftHistory(x, y, oldTheta);
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 		
@@ -0,0 +1,240 @@
+package main;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Base class of the background threads that run one iteration of their loop at a fixed rate (odometer, sensor poller, navigator, odometry correction, obstacle detector and display).
+ * Iterations are scheduled on absolute deadlines taken from System.nanoTime() so the period does not drift with the time the iteration took.
+ * While paused, the thread is parked on a monitor and uses no CPU. It resumes as soon as setRunning(true) is called.
+ * Every task belongs to a timing class which sets the priority of its thread.
+ * The number of iterations that missed their deadline (did not complete within their period), how late iterations started compared to their schedule (jitter) as well as the CPU time used by the thread are recorded.
+ * The time each iteration took and its lateness also go in histograms, as well as the time the thread waited for the metered locks (see MeteredLock). Recording them does not allocate.
+ *
+ * @version 1.0
+ */
+public abstract class PeriodicTask extends Thread {
+
+	private static final ThreadMXBean THREAD_MX_BEAN = createThreadMXBean();
+
+	private final long period; //Time between two iterations, in nanoseconds
+	private final TimingClass timingClass;
+	private final Object pauseLock = new Object();
+
+	private volatile boolean running;
+
+	private volatile long iterations = 0;
+	private volatile long overruns = 0; //Number of iterations that missed their deadline (took longer than the period)
+	private volatile long totalLateness = 0; //Sum of the delays between the scheduled start of an iteration and its actual start, in nanoseconds
+	private volatile long maxLateness = 0;
+	private final Histogram executionTimes = new Histogram(); //Time taken by each iteration
+	private final Histogram latenesses = new Histogram();
+	private final Histogram lockWaitTimes = new Histogram(); //Time waited for a metered lock, each time the thread had to wait
+
+	/**
+	 * construct a periodic task
+	 * @param name the name of the thread
+	 * @param period the time between two iterations, in milliseconds
+	 * @param timingClass the timing class of the task, which sets the priority of its thread
+	 * @param running whether the task runs as soon as it is started, or waits for setRunning(true) first
+	 */
+	protected PeriodicTask(String name, long period, TimingClass timingClass, boolean running) {
+		super(name);
+		this.period = period * 1000000;
+		this.timingClass = timingClass;
+		this.running = running;
+		setPriority(timingClass.getPriority());
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Thread#run()
+	 */
+	@Override
+	public final void run() {
+		long deadline = System.nanoTime();
+
+		while(true) {
+			//Park the thread while it is paused. The schedule restarts from the moment it is resumed
+			if(!running) {
+				synchronized(pauseLock) {
+					while(!running) {
+						try {
+							pauseLock.wait();
+						} catch (InterruptedException e) {
+							// there is nothing to be done here because it is not
+							// expected that a task will be interrupted by another thread
+						}
+					}
+				}
+				deadline = System.nanoTime();
+			}
+			
+			//Record how late this iteration starts compared to its schedule
+			long start = System.nanoTime();
+			long lateness = start - deadline;
+			totalLateness += lateness;
+			if(lateness > maxLateness)
+				maxLateness = lateness;
+			latenesses.record(lateness);
+
+			step();
+			executionTimes.record(System.nanoTime() - start);
+			iterations++;
+
+			//Sleep until the next deadline. If it is already passed, count the overrun and start a new schedule instead of trying to catch up
+			deadline += period;
+			long remaining = deadline - System.nanoTime();
+			if(remaining > 0) {
+				try {
+					Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+				} catch (InterruptedException e) {
+					// there is nothing to be done here because it is not
+					// expected that a task will be interrupted by another thread
+				}
+			}
+			else {
+				overruns++;
+				deadline = System.nanoTime();
+			}
+		}
+	}
+
+	/**
+	 * perform one iteration of the task. Called once every period while the task is running
+	 */
+	protected abstract void step();
+
+	/**
+	 * pause or resume the task. A paused task is parked until it is resumed
+	 * @param running whether to pause or resume the task
+	 */
+	public void setRunning(boolean running) {
+		synchronized(pauseLock) {
+			this.running = running;
+			pauseLock.notifyAll();
+		}
+	}
+
+	/**
+	 * check if the task is running or paused
+	 * @return whether the task is running
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * get the time between two iterations of the task
+	 * @return the period, in milliseconds
+	 */
+	public long getPeriod() {
+		return period / 1000000;
+	}
+
+	/**
+	 * get the timing class of the task
+	 * @return the timing class
+	 */
+	public TimingClass getTimingClass() {
+		return timingClass;
+	}
+
+	/**
+	 * get the number of iterations performed since the task was started
+	 * @return the number of iterations
+	 */
+	public long getIterationCount() {
+		return iterations;
+	}
+
+	/**
+	 * get the number of iterations that missed their deadline, i.e. took longer than the period of the task
+	 * @return the number of overruns
+	 */
+	public long getOverrunCount() {
+		return overruns;
+	}
+
+	/**
+	 * get the average delay between the scheduled start of an iteration and its actual start
+	 * @return the mean lateness, in nanoseconds
+	 */
+	public long getMeanLateness() {
+		long count = iterations;
+		return (count > 0)? totalLateness / count : 0;
+	}
+
+	/**
+	 * get the largest delay between the scheduled start of an iteration and its actual start
+	 * @return the maximum lateness, in nanoseconds
+	 */
+	public long getMaxLateness() {
+		return maxLateness;
+	}
+
+	/**
+	 * get the histogram of the time taken by the iterations of the task
+	 * @return the histogram, updated as the task runs
+	 */
+	public Histogram getExecutionTimes() {
+		return executionTimes;
+	}
+	
+	/**
+	 * get the histogram of the delays between the scheduled start of the iterations and their actual start
+	 * @return the histogram, updated as the task runs
+	 */
+	public Histogram getLatenesses() {
+		return latenesses;
+	}
+	
+	/**
+	 * get the histogram of the time the thread of this task waited for metered locks held by other threads
+	 * @return the histogram, updated as the task runs. Its count is the number of times the thread had to wait
+	 */
+	public Histogram getLockWaitTimes() {
+		return lockWaitTimes;
+	}
+	
+	/**
+	 * Record a wait for a metered lock. Called by the lock, from the thread of this task
+	 * @param time the time waited (in nanoseconds)
+	 */
+	void recordLockWait(long time) {
+		lockWaitTimes.record(time);
+	}
+	
+	/**
+	 * get the CPU time used by the thread of this task
+	 * @return the CPU time in nanoseconds, or -1 if the JVM does not support measuring it
+	 */
+	public long getCpuTime() {
+		if(THREAD_MX_BEAN == null)
+			return -1;
+		return THREAD_MX_BEAN.getThreadCpuTime(getId());
+	}
+
+	/**
+	 * get the thread management bean used to measure the CPU time of threads (ex: by the CPU profiler)
+	 * @return the bean, with CPU time measurement enabled, or null if CPU time measurement is not supported by the JVM
+	 */
+	static ThreadMXBean getThreadMXBean() {
+		return THREAD_MX_BEAN;
+	}
+	
+	/**
+	 * get the thread management bean used to measure CPU time, and enable CPU time measurement
+	 * @return the bean, or null if CPU time measurement is not supported by the JVM
+	 */
+	private static ThreadMXBean createThreadMXBean() {
+		try {
+			ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if(!bean.isThreadCpuTimeSupported())
+				return null;
+			bean.setThreadCpuTimeEnabled(true);
+			return bean;
+		} catch (Throwable e) { //The management classes are not available on every embedded JVM
+			return null;
+		}
+	}
+}
@@ -0,0 +1,223 @@
+package main;
+
+/**
+ * Least squares solver finding the error of the odometer from the positions, as told by the odometer, at which the floor color sensors crossed lines.
+ * Every crossing has to lie on a grid line: either a vertical line (x is a multiple of the tile length) or a horizontal one (y is a multiple of the tile length).
+ * Each crossing is matched with the closest line, and the solver finds the small rigid correction (dx, dy, dTheta) of the odometer that brings all the crossings onto their lines.
+ * The rotation is done around a reference point, usually the current position of the robot, so that the correction can be applied to the odometer directly.
+ * The problem is linearized (dTheta is small), which leaves a 3x3 system. Since a vertical line does not tell anything about y and a horizontal one about x, the system is solved in closed form.
+ * Crossings that do not fit with the others (ex: dark spots, cracks between the boards) are rejected one at a time, starting with the worst, and the system is solved again.
+ * When the odometer is already known to be close to right (ex: back at a spot where the robot localized before), a prior pulling the correction towards zero can be given.
+ * The solver can then find a correction from only a few crossings, the components they do not tell anything about staying close to zero.
+ *
+ * @version 1.0
+ */
+public class PoseSolver {
+	
+	private static final int CAPACITY = 24; //Maximum number of crossings used in one solution
+	private static final double MAX_LINE_DIST = 7; //Crossings further than this (in cm) from a line are not matched with any line
+	private static final double AMBIGUITY = 3; //Crossings that are this close (in cm) to being as far from a vertical line as from a horizontal one are not used (ex: next to an intersection)
+	private static final double MIN_LEVER_SPREAD = 40; //Minimum spread (in cm^2) of the crossings around the reference point needed to solve for the angle
+	private static final double MIN_OUTLIER_DIST = 1.5; //Crossings further than this (in cm) from their line after the correction, and further than twice the residual, are outliers
+	private static final int MIN_INLIERS = 4; //Stop rejecting outliers when only this many crossings are left
+	
+	//Position of the floor sensors from the center of the two wheels: {forward, left}, in the order of the constants of the sensor poller
+	private static final double[][] SENSOR_OFFSETS = { {-11.9, 8.6}, {-11.9, -8.6}, {-16.3, 0} };
+	
+	private double[] xs = new double[CAPACITY], ys = new double[CAPACITY]; //Position of the sensor, as told by the odometer, when it crossed a line
+	private boolean[] vertical = new boolean[CAPACITY]; //Whether each crossing is on a vertical line (x = constant) or on a horizontal one (y = constant)
+	private double[] lines = new double[CAPACITY]; //Position of the line each crossing is matched with
+	private int size = 0;
+	
+	private double positionPrior = 0, anglePrior = 0; //Weight of the prior on the correction of the position and of the angle
+	
+	private double residual = Double.NaN;
+	private int rejected = 0; //Number of crossings that could not be matched with a line or were rejected as outliers
+	
+	/**
+	 * Add a line crossing detected by one of the floor sensors, matching it with the closest grid line
+	 * @param sensor the sensor that crossed the line (SensorPoller.LEFT_FLOOR, SensorPoller.RIGHT_FLOOR or SensorPoller.CENTER_FLOOR)
+	 * @param position the position {x, y, theta} of the robot, as told by the odometer, when the sensor crossed the line
+	 * @return whether the crossing could be matched with a line
+	 */
+	public boolean addCrossing(int sensor, double[] position) {
+		double[] offset = SENSOR_OFFSETS[sensor];
+		double cos = Math.cos(position[2]), sin = Math.sin(position[2]);
+		return addCrossing(position[0] + offset[0] * cos - offset[1] * sin, position[1] + offset[0] * sin + offset[1] * cos);
+	}
+	
+	/**
+	 * Add a line crossing, matching it with the closest grid line
+	 * @param sensorX the x position of the sensor when it crossed the line (in centimeters)
+	 * @param sensorY the y position of the sensor when it crossed the line (in centimeters)
+	 * @return whether the crossing could be matched with a line
+	 */
+	public boolean addCrossing(double sensorX, double sensorY) {
+		if(size == CAPACITY)
+			return false;
+		
+		double lineX = Math.round(sensorX / Main.TILE_LENGTH) * Main.TILE_LENGTH;
+		double lineY = Math.round(sensorY / Main.TILE_LENGTH) * Main.TILE_LENGTH;
+		double errorX = Math.abs(sensorX - lineX), errorY = Math.abs(sensorY - lineY);
+		
+		if(Math.min(errorX, errorY) > MAX_LINE_DIST || Math.abs(errorX - errorY) < AMBIGUITY) {
+			rejected++;
+			return false;
+		}
+		
+		xs[size] = sensorX;
+		ys[size] = sensorY;
+		vertical[size] = errorX < errorY;
+		lines[size] = vertical[size]? lineX : lineY;
+		size++;
+		return true;
+	}
+	
+	/**
+	 * Solve for the correction of the odometer, rotating around a reference point. The crossings rejected as outliers are removed
+	 * @param refX the x position of the point to rotate around
+	 * @param refY the y position of the point to rotate around
+	 * @return the correction {dx, dy, dTheta}, or null if the crossings do not have lines in both directions, or are too close to each other to find the angle
+	 */
+	public double[] solve(double refX, double refY) {
+		double[] correction = fit(refX, refY);
+		
+		while(correction != null && size > MIN_INLIERS) {
+			//Find the crossing the furthest from its line
+			int worst = 0;
+			double worstError = 0;
+			for(int i = 0; i < size; i++) {
+				double error = Math.abs(getError(i, refX, refY, correction));
+				if(error > worstError) {
+					worst = i;
+					worstError = error;
+				}
+			}
+			
+			if(worstError < Math.max(2 * residual, MIN_OUTLIER_DIST))
+				break;
+			
+			//Replace the outlier with the last crossing and solve again
+			size--;
+			xs[worst] = xs[size];
+			ys[worst] = ys[size];
+			vertical[worst] = vertical[size];
+			lines[worst] = lines[size];
+			rejected++;
+			correction = fit(refX, refY);
+		}
+		
+		return correction;
+	}
+	
+	/**
+	 * Solve for the correction using all the crossings
+	 * Each crossing on a vertical line gives: dx - dTheta * (y - refY) = line - x
+	 * Each crossing on a horizontal line gives: dy + dTheta * (x - refX) = line - y
+	 * @return the correction {dx, dy, dTheta}, or null if it cannot be found
+	 */
+	private double[] fit(double refX, double refY) {
+		//Normal equations. There are no cross terms between dx and dy
+		double nxx = 0, nyy = 0, nxt = 0, nyt = 0, ntt = 0;
+		double bx = 0, by = 0, bt = 0;
+		for(int i = 0; i < size; i++) {
+			if(vertical[i]) {
+				double lever = -(ys[i] - refY);
+				double error = lines[i] - xs[i];
+				nxx += 1;
+				nxt += lever;
+				ntt += lever * lever;
+				bx += error;
+				bt += lever * error;
+			}
+			else {
+				double lever = xs[i] - refX;
+				double error = lines[i] - ys[i];
+				nyy += 1;
+				nyt += lever;
+				ntt += lever * lever;
+				by += error;
+				bt += lever * error;
+			}
+		}
+		
+		//The prior acts as crossings that are exactly on their line
+		nxx += positionPrior;
+		nyy += positionPrior;
+		ntt += anglePrior;
+		
+		if(nxx == 0 || nyy == 0)
+			return null;
+		
+		//Eliminate dx and dy. What is left is the spread of the crossings around their mean, for each direction
+		double spread = ntt - nxt * nxt / nxx - nyt * nyt / nyy;
+		if(spread < MIN_LEVER_SPREAD)
+			return null;
+		
+		double dTheta = (bt - nxt * bx / nxx - nyt * by / nyy) / spread;
+		double dx = (bx - nxt * dTheta) / nxx;
+		double dy = (by - nyt * dTheta) / nyy;
+		double[] correction = new double[] {dx, dy, dTheta};
+		
+		//Root mean square distance between the corrected crossings and their lines
+		double sum = 0;
+		for(int i = 0; i < size; i++)
+			sum += Math.pow(getError(i, refX, refY, correction), 2);
+		residual = Math.sqrt(sum / size);
+		
+		return correction;
+	}
+	
+	/**
+	 * get the distance between a crossing and its line once the correction is applied
+	 */
+	private double getError(int i, double refX, double refY, double[] correction) {
+		if(vertical[i])
+			return xs[i] + correction[0] - correction[2] * (ys[i] - refY) - lines[i];
+		else
+			return ys[i] + correction[1] + correction[2] * (xs[i] - refX) - lines[i];
+	}
+	
+	/**
+	 * Pull the correction towards zero, as if the odometer was already right, so that a solution can be found with crossings in only one direction or close to each other
+	 * @param positionWeight the weight of the prior on dx and dy, in number of crossings
+	 * @param angleWeight the weight of the prior on dTheta, in cm^2 (a crossing at a distance r from the reference point weighs r^2)
+	 */
+	public void setPrior(double positionWeight, double angleWeight) {
+		positionPrior = positionWeight;
+		anglePrior = angleWeight;
+	}
+	
+	/**
+	 * get the root mean square distance between the crossings and their lines after the last correction found
+	 * @return the residual (in centimeters), or NaN if no correction was found yet
+	 */
+	public double getResidual() {
+		return residual;
+	}
+	
+	/**
+	 * get the number of crossings matched with a line and not rejected as outliers
+	 * @return the number of crossings
+	 */
+	public int getCrossingCount() {
+		return size;
+	}
+	
+	/**
+	 * get the number of crossings that could not be matched with a line or were rejected as outliers
+	 * @return the number of rejected crossings
+	 */
+	public int getRejectedCount() {
+		return rejected;
+	}
+	
+	/**
+	 * forget all crossings. The prior is kept
+	 */
+	public void clear() {
+		size = 0;
+		rejected = 0;
+		residual = Double.NaN;
+	}
+}
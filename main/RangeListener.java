@@ -0,0 +1,18 @@
+package main;
+
+/**
+ * Listener notified by the sensor poller every time the ultrasonic sensor placed on the top of the robot is read.
+ * Used to record a scan of the surroundings without polling the sensor poller in a loop.
+ *
+ * @version 1.0
+ */
+public interface RangeListener {
+
+	/**
+	 * called from the sensor poller's thread after each reading of the ultrasonic sensor. Should return quickly
+	 * @param range the reading, without any filtering (in centimeters)
+	 * @param timestamp the time (from System.nanoTime()) the reading was made
+	 */
+	public void rangeRead(float range, long timestamp);
+
+}
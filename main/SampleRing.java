@@ -0,0 +1,119 @@
+package main;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue of samples, each made of a tag (ex: the id of a channel), a time and a float value. Used by the telemetry and the logger.
+ * Any number of threads can offer samples at the same time, but only one thread may take them out. Offering never blocks and never allocates: when the queue is full, the sample is refused.
+ * The samples are stored in preallocated arrays of primitives. Each slot has a sequence number telling whether it is free to be written (sequence == position) or holds a sample to be read (sequence == position + 1),
+ * so that a producer only needs one compare-and-set to claim a slot and the consumer never reads a sample that is not completely written.
+ *
+ * @version 1.0
+ */
+public class SampleRing {
+	
+	private final int mask;
+	private final AtomicLongArray sequences;
+	private final int[] tags;
+	private final long[] times;
+	private final float[] values;
+	private final AtomicLong tail = new AtomicLong(); //Next position to write, shared by the producers
+	private volatile long head = 0; //Next position to read, only moved by the consumer
+	
+	//Sample taken out by the last call to poll()
+	private int tag;
+	private long time;
+	private float value;
+	
+	/**
+	 * constructs an empty queue
+	 * @param capacity the number of samples the queue holds, must be a power of two
+	 */
+	public SampleRing(int capacity) {
+		if(Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("The capacity must be a power of two");
+		mask = capacity - 1;
+		sequences = new AtomicLongArray(capacity);
+		tags = new int[capacity];
+		times = new long[capacity];
+		values = new float[capacity];
+		for(int i = 0; i < capacity; i++)
+			sequences.set(i, i);
+	}
+	
+	/**
+	 * Put a sample in the queue. Never blocks
+	 * @param tag the tag of the sample
+	 * @param time the time of the sample
+	 * @param value the value of the sample
+	 * @return false if the queue is full, in which case the sample was not added
+	 */
+	public boolean offer(int tag, long time, float value) {
+		while(true) {
+			long position = tail.get();
+			int index = (int) position & mask;
+			long sequence = sequences.get(index);
+			if(sequence < position) //The slot still holds a sample from the previous turn: the queue is full
+				return false;
+			if(sequence == position && tail.compareAndSet(position, position + 1)) {
+				tags[index] = tag;
+				times[index] = time;
+				values[index] = value;
+				sequences.lazySet(index, position + 1); //Publish the sample to the consumer
+				return true;
+			}
+			//Another producer took that slot, try the next one
+		}
+	}
+	
+	/**
+	 * Take the oldest sample out of the queue. Its content is then available through getTag(), getTime() and getValue() until the next call. Must only be called by the consumer thread
+	 * @return false if the queue is empty, or the oldest sample is not completely written yet
+	 */
+	public boolean poll() {
+		int index = (int) head & mask;
+		if(sequences.get(index) != head + 1)
+			return false;
+		
+		tag = tags[index];
+		time = times[index];
+		value = values[index];
+		sequences.lazySet(index, head + mask + 1); //Free the slot for the next turn
+		head++;
+		return true;
+	}
+	
+	/**
+	 * get the number of samples that can still be offered before the queue is full. If no other thread offers samples in the meantime, that many samples are sure to be accepted
+	 * (the consumer can only free more slots)
+	 * @return the number of free slots
+	 */
+	public int getFreeCount() {
+		return mask + 1 - (int) (tail.get() - head);
+	}
+	
+	/**
+	 * get the tag of the sample taken out by the last call to poll()
+	 * @return the tag
+	 */
+	public int getTag() {
+		return tag;
+	}
+	
+	/**
+	 * get the time of the sample taken out by the last call to poll()
+	 * @return the time
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	/**
+	 * get the value of the sample taken out by the last call to poll()
+	 * @return the value
+	 */
+	public float getValue() {
+		return value;
+	}
+}
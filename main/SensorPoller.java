@@ -1,5 +1,8 @@
 package main;
 
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import lejos.hardware.ev3.LocalEV3;
 import lejos.hardware.sensor.EV3ColorSensor;
 import lejos.hardware.sensor.EV3UltrasonicSensor;
@@ -11,92 +14,268 @@ import filters.MedianFilter;
 /**
  * The sensor poller is a thread that continuously polls data from the sensors and stores them in an array of limited size called a window.
  * Filters can then be applied to that data to retrieve more accurate values.
- * Doesn't need to have a lock since no other thread can modify this object's fields.
+ * Doesn't need to have a lock since no other thread can modify this object's fields (the list of subscriptions is a thread-safe list).
+ * Other threads can subscribe to be notified when the filtered ultrasonic value crosses a threshold, instead of polling it in a loop.
+ * The same way, they can subscribe to be notified with a timestamp every time a floor color sensor crosses a line, or every time the ultrasonic sensor is read.
  * Uses the red mode for the color sensor for more accurate line detection
+ * The sensors are opened in parallel, since each one takes about a second to be detected and set up. The windows are not filled with readings at startup:
+ * they are filled with the first reading of each sensor, and the following readings replace it as the poller runs
  * 
  * @author Jerome
  * @version 1.0
  */
-public class SensorPoller extends Thread {
+public class SensorPoller extends PeriodicTask {
 
 	private static final int ITERATION_TIME = 25; //Time for this thread to run one iteration of the loop
 	public static final int US_WINDOW = 10;
-	public static final int COLOR_WINDOW = 50; //Allow initial time on startup to establish environment color
+	public static final int COLOR_WINDOW = 50;
+	
+	/**
+	 * Constant to specify the color sensor on the left side of the robot pointing on the floor
+	 */
+	public static final int LEFT_FLOOR = 0;
+	/**
+	 * Constant to specify the color sensor on the right side of the robot pointing on the floor
+	 */
+	public static final int RIGHT_FLOOR = 1;
+	/**
+	 * Constant to specify the color sensor in the center of the robot pointing on the floor
+	 */
+	public static final int CENTER_FLOOR = 2;
 	
 	private Filter meanFilter, medianFilter, edgeFilter;
 	
 	private float[] topUsData, leftFloorColorData, rightFloorColorData, centerFloorColorData;
 	private int index; //Used to fill the windows
+	private volatile long usSampleTime; //Time the latest ultrasonic sample was read (from System.nanoTime())
+	
+	private CopyOnWriteArrayList<UsSubscription> usSubscriptions = new CopyOnWriteArrayList<UsSubscription>();
+	private CopyOnWriteArrayList<LineListener> lineListeners = new CopyOnWriteArrayList<LineListener>();
+	private CopyOnWriteArrayList<RangeListener> rangeListeners = new CopyOnWriteArrayList<RangeListener>();
+	private boolean[] onLine = new boolean[3]; //Whether each floor sensor was detecting a line at the previous sample
 	
 	private EV3UltrasonicSensor topUsSensor;
 	private EV3ColorSensor leftFloorColorSensor, rightFloorColorSensor, centerFloorColorSensor;
 	
+	private long startupTime; //Time taken to open the sensors (in ms)
+	
+	private Telemetry.Channel usMeanChannel; //Telemetry channels
+	private Telemetry.Channel[] floorChannels;
+	private int usSlot; //Display slot
+	
 	/**
-	 * Constructs a default sensor poller and fills the windows with the initial value of each sensor
+	 * Constructs a default sensor poller, opening the sensors in parallel and filling each window with the first value of its sensor
+	 * @throws RuntimeException the exception thrown while opening a sensor, if any (the first one if several sensors failed)
 	 */
 	public SensorPoller() {
+		super("SensorPoller", ITERATION_TIME, TimingClass.HARD_PERIODIC, true);
+		
 		//Initialize the filters
 		meanFilter = new MeanFilter();
 		medianFilter = new MedianFilter();
 		edgeFilter = new EdgeFilter();
 		
-		//Initialize the sensors
-		topUsSensor = new EV3UltrasonicSensor(LocalEV3.get().getPort("S3"));
-		leftFloorColorSensor = new EV3ColorSensor(LocalEV3.get().getPort("S2"));
-		rightFloorColorSensor = new EV3ColorSensor(LocalEV3.get().getPort("S1"));
-		centerFloorColorSensor = new EV3ColorSensor(LocalEV3.get().getPort("S4"));
-		
 		//Initialize the windows
 		topUsData = new float[US_WINDOW];
 		leftFloorColorData = new float[COLOR_WINDOW];
 		rightFloorColorData = new float[COLOR_WINDOW];
 		centerFloorColorData = new float[COLOR_WINDOW];
 		
-		//Fill the arrays with initial value
-		for(int i = 0; i < US_WINDOW; i++) {
-			topUsSensor.fetchSample(topUsData, i);
+		//Initialize the sensors, each one on its own thread
+		long startTime = System.currentTimeMillis();
+		final String[] colorPorts = {"S2", "S1", "S4"}; //In the order of the floor sensor constants
+		final float[][] colorData = {leftFloorColorData, rightFloorColorData, centerFloorColorData};
+		final EV3ColorSensor[] colorSensors = new EV3ColorSensor[colorPorts.length];
+		
+		//An exception in an opener ends its thread only: keep the first one to throw it here, as if the sensors were opened on this thread
+		final Throwable[] failure = new Throwable[1];
+		Thread.UncaughtExceptionHandler handler = new Thread.UncaughtExceptionHandler() {
+			@Override
+			public void uncaughtException(Thread thread, Throwable exception) {
+				synchronized(failure) {
+					if(failure[0] == null)
+						failure[0] = exception;
+				}
+			}
+		};
+		
+		Thread[] openers = new Thread[colorPorts.length + 1];
+		for(int i = 0; i < colorPorts.length; i++) {
+			final int sensor = i;
+			openers[i] = new Thread() {
+				@Override
+				public void run() {
+					colorSensors[sensor] = new EV3ColorSensor(LocalEV3.get().getPort(colorPorts[sensor]));
+					//The first sample switches the sensor to the red mode, which takes time as well
+					colorSensors[sensor].getRedMode().fetchSample(colorData[sensor], 0);
+					Arrays.fill(colorData[sensor], colorData[sensor][0]);
+				}
+			};
 		}
+		openers[colorPorts.length] = new Thread() {
+			@Override
+			public void run() {
+				topUsSensor = new EV3UltrasonicSensor(LocalEV3.get().getPort("S3"));
+				topUsSensor.fetchSample(topUsData, 0);
+				Arrays.fill(topUsData, topUsData[0]);
+			}
+		};
 		
-		for(int i = 0; i < COLOR_WINDOW; i++) {
-			leftFloorColorSensor.getRedMode().fetchSample(leftFloorColorData, i);
-			rightFloorColorSensor.getRedMode().fetchSample(rightFloorColorData, i);
-			centerFloorColorSensor.getRedMode().fetchSample(centerFloorColorData, i);
+		for(Thread opener: openers) {
+			opener.setUncaughtExceptionHandler(handler);
+			opener.start();
+		}
+		//The openers take a few seconds at most: wait for all of them even if interrupted, so that no sensor is left unopened, and keep the interrupt for the caller
+		boolean interrupted = false;
+		for(Thread opener: openers) {
+			while(opener.isAlive()) {
+				try {
+					opener.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
 		}
+		if(interrupted)
+			Thread.currentThread().interrupt();
+		synchronized(failure) {
+			if(failure[0] instanceof Error)
+				throw (Error) failure[0];
+			if(failure[0] != null)
+				throw (RuntimeException) failure[0]; //Only unchecked exceptions can end a thread
+		}
+		
+		leftFloorColorSensor = colorSensors[LEFT_FLOOR];
+		rightFloorColorSensor = colorSensors[RIGHT_FLOOR];
+		centerFloorColorSensor = colorSensors[CENTER_FLOOR];
+		startupTime = System.currentTimeMillis() - startTime;
+		
+		Telemetry telemetry = Main.get().getTelemetry();
+		usMeanChannel = telemetry.getChannel("USMean");
+		floorChannels = new Telemetry.Channel[] {telemetry.getChannel("LeftFloor"), telemetry.getChannel("RightFloor"), telemetry.getChannel("CenterFloor")};
+		usSlot = Main.get().getDisplay().addSlot("US");
 	}
 	
 	/* (non-Javadoc)
-	 * @see java.lang.Thread#run()
+	 * @see main.PeriodicTask#step()
 	 */
 	@Override
-	public void run() {
-		long startTime, endTime;
+	protected void step() {
+		//Get the sensor values
+		topUsSensor.fetchSample(topUsData, index % US_WINDOW);
+		usSampleTime = System.nanoTime();
+		leftFloorColorSensor.getRedMode().fetchSample(leftFloorColorData, index % COLOR_WINDOW);
+		rightFloorColorSensor.getRedMode().fetchSample(rightFloorColorData, index % COLOR_WINDOW);
+		centerFloorColorSensor.getRedMode().fetchSample(centerFloorColorData, index % COLOR_WINDOW);
+		index++;
 		
-		while(true) {
-			startTime = System.currentTimeMillis();
-			
-			//Get the sensor values
-			topUsSensor.fetchSample(topUsData, index % US_WINDOW);
-			leftFloorColorSensor.getRedMode().fetchSample(leftFloorColorData, index % COLOR_WINDOW);
-			rightFloorColorSensor.getRedMode().fetchSample(rightFloorColorData, index % COLOR_WINDOW);
-			centerFloorColorSensor.getRedMode().fetchSample(centerFloorColorData, index % COLOR_WINDOW);
-			index++;
-			
-			Main.get().getDisplay().addDisplayValue("US", topUsData[(index - 1) % US_WINDOW]);
-			
-			//This ensures that this loop is ran only once per period
-			endTime = System.currentTimeMillis();
-			if (endTime - startTime < ITERATION_TIME) {
-				try {
-					Thread.sleep(ITERATION_TIME - (endTime - startTime));
-				} catch (InterruptedException e) {
-					// there is nothing to be done here because it is not
-					// expected that the odometer will be interrupted by
-					// another thread
+		Main.get().getDisplay().setValue(usSlot, topUsData[(index - 1) % US_WINDOW]);
+		
+		//Stream the filtered ultrasonic value and the latest floor values, to see the lines on a computer
+		Telemetry telemetry = Main.get().getTelemetry();
+		telemetry.publish(usMeanChannel, getTopUsReading(Filter.MEAN));
+		telemetry.publish(floorChannels[LEFT_FLOOR], leftFloorColorData[(index - 1) % COLOR_WINDOW]);
+		telemetry.publish(floorChannels[RIGHT_FLOOR], rightFloorColorData[(index - 1) % COLOR_WINDOW]);
+		telemetry.publish(floorChannels[CENTER_FLOOR], centerFloorColorData[(index - 1) % COLOR_WINDOW]);
+		Main.get().getFlightRecorder().recordSensors(usSampleTime, topUsData[(index - 1) % US_WINDOW], leftFloorColorData[(index - 1) % COLOR_WINDOW], rightFloorColorData[(index - 1) % COLOR_WINDOW], centerFloorColorData[(index - 1) % COLOR_WINDOW]);
+		
+		//Give the new sample to the listeners of every reading
+		for(RangeListener listener: rangeListeners)
+			listener.rangeRead(topUsData[(index - 1) % US_WINDOW] * 100, usSampleTime);
+		
+		//Notify the subscribers whose threshold was crossed by the new sample
+		for(UsSubscription subscription: usSubscriptions) {
+			float value = getTopUsReading(subscription.filter);
+			boolean onTargetSide = subscription.rising? value >= subscription.threshold : value <= subscription.threshold;
+			if(onTargetSide && !subscription.onTargetSide)
+				subscription.listener.thresholdCrossed(value, usSampleTime - getUsFilterDelay(subscription.filter));
+			subscription.onTargetSide = onTargetSide;
+		}
+		
+		//Notify the line listeners when a floor sensor starts detecting a line. The edge was crossed about half an edge window earlier
+		if(!lineListeners.isEmpty()) {
+			long lineTime = System.nanoTime() - EdgeFilter.WINDOW * ITERATION_TIME * 1000000L / 2;
+			for(int sensor = LEFT_FLOOR; sensor <= CENTER_FLOOR; sensor++) {
+				boolean line = getFloorColorReading(sensor, Filter.EDGE) > 0;
+				if(line && !onLine[sensor]) {
+					for(LineListener listener: lineListeners)
+						listener.lineCrossed(sensor, lineTime);
 				}
+				onLine[sensor] = line;
 			}
 		}
 	}
 	
+	/**
+	 * subscribe to be notified each time the filtered value of the ultrasonic sensor placed on the top of the robot crosses a threshold.
+	 * If the value is already past the threshold when subscribing, the listener is notified at the next sample
+	 * @param filter the filter to use (Use the constants specified in the Filter class)
+	 * @param threshold the threshold (in centimeters)
+	 * @param rising true to be notified when the value goes above the threshold, false when it goes below
+	 * @param listener the listener to notify. Called from the sensor poller's thread
+	 */
+	public void subscribeTopUs(int filter, float threshold, boolean rising, ThresholdListener listener) {
+		usSubscriptions.add(new UsSubscription(filter, threshold, rising, listener));
+	}
+	
+	/**
+	 * stop notifying a listener subscribed with subscribeTopUs()
+	 * @param listener the listener to remove
+	 */
+	public void unsubscribeTopUs(ThresholdListener listener) {
+		for(UsSubscription subscription: usSubscriptions) {
+			if(subscription.listener == listener)
+				usSubscriptions.remove(subscription);
+		}
+	}
+	
+	/**
+	 * subscribe to be notified every time one of the color sensors pointing on the floor crosses a line
+	 * @param listener the listener to notify. Called from the sensor poller's thread
+	 */
+	public void subscribeLines(LineListener listener) {
+		lineListeners.add(listener);
+	}
+	
+	/**
+	 * stop notifying a listener subscribed with subscribeLines()
+	 * @param listener the listener to remove
+	 */
+	public void unsubscribeLines(LineListener listener) {
+		lineListeners.remove(listener);
+	}
+	
+	/**
+	 * subscribe to be notified of every reading of the ultrasonic sensor placed on the top of the robot
+	 * @param listener the listener to notify. Called from the sensor poller's thread
+	 */
+	public void subscribeRanges(RangeListener listener) {
+		rangeListeners.add(listener);
+	}
+	
+	/**
+	 * stop notifying a listener subscribed with subscribeRanges()
+	 * @param listener the listener to remove
+	 */
+	public void unsubscribeRanges(RangeListener listener) {
+		rangeListeners.remove(listener);
+	}
+	
+	/**
+	 * get the delay a filter adds to the ultrasonic readings. The mean and the median of the window correspond to the sample in the middle of the window
+	 * @param filter the filter used (Use the constants specified in the Filter class)
+	 * @return the delay in nanoseconds
+	 */
+	private static long getUsFilterDelay(int filter) {
+		switch(filter) {
+		case Filter.MEAN:
+		case Filter.MEDIAN:
+			return (US_WINDOW - 1) * ITERATION_TIME * 1000000L / 2;
+		default:
+			return 0;
+		}
+	}
+	
 	/**
 	 * get the data from the ultrasonic sensor placed on the top of the robot after it has been filtered using a specific filter
 	 * @param filter the filter to use (Use the constants specified in the Filter class)
@@ -115,6 +294,22 @@ public class SensorPoller extends Thread {
 		}
 	}
 	
+	/**
+	 * get the latest value read by the ultrasonic sensor placed on the top of the robot, without any filtering. Used when the value has to match the angle of the robot at the time it was read
+	 * @return the latest reading (in centimeters)
+	 */
+	public float getLatestTopUsReading() {
+		return topUsData[(index + US_WINDOW - 1) % US_WINDOW] * 100;
+	}
+	
+	/**
+	 * get the time the latest value of the ultrasonic sensor placed on the top of the robot was read
+	 * @return the time of the latest reading (from System.nanoTime())
+	 */
+	public long getLatestTopUsTime() {
+		return usSampleTime;
+	}
+	
 	/**
 	 * get the data from the color sensor on the left side of the robot pointing on the floor after it has been filtered using a specific filter
 	 * @param filter the filter to use (Use the constants specified in the Filter class)
@@ -169,6 +364,33 @@ public class SensorPoller extends Thread {
 		}
 	}
 	
+	/**
+	 * get the data from one of the color sensors pointing on the floor after it has been filtered using a specific filter
+	 * @param sensor the sensor to read (LEFT_FLOOR, RIGHT_FLOOR or CENTER_FLOOR)
+	 * @param filter the filter to use (Use the constants specified in the Filter class)
+	 * @return the filtered value
+	 */
+	public float getFloorColorReading(int sensor, int filter) {
+		switch(sensor) {
+		case LEFT_FLOOR:
+			return getLeftFloorColorReading(filter);
+		case RIGHT_FLOOR:
+			return getRightFloorColorReading(filter);
+		case CENTER_FLOOR:
+			return getCenterFloorColorReading(filter);
+		default: //Sensor not supported
+			return -1;
+		}
+	}
+	
+	/**
+	 * get the time it took to open the sensors and read their first values
+	 * @return the startup time (in milliseconds)
+	 */
+	public long getStartupTime() {
+		return startupTime;
+	}
+	
 	/**
 	 * get the index of the latest value that was put in an array
 	 * @return the index of the last recorded value
@@ -208,4 +430,22 @@ public class SensorPoller extends Thread {
 	public EV3ColorSensor getCenterFloorColorSensor() {
 		return centerFloorColorSensor;
 	}
+	
+	/**
+	 * A subscription to the crossings of a threshold by the ultrasonic sensor values
+	 */
+	private static class UsSubscription {
+		private int filter;
+		private float threshold;
+		private boolean rising;
+		private ThresholdListener listener;
+		private boolean onTargetSide = false; //Whether the previous value was past the threshold
+		
+		private UsSubscription(int filter, float threshold, boolean rising, ThresholdListener listener) {
+			this.filter = filter;
+			this.threshold = threshold;
+			this.rising = rising;
+			this.listener = listener;
+		}
+	}
 }
@@ -0,0 +1,342 @@
+package main;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The telemetry publisher streams values from the robot to a computer (see telemetry.TelemetryClient) while it runs.
+ * Any thread can publish a sample (a float value on a named channel, see getChannel()) without blocking: samples go in a bounded lock-free queue (see SampleRing), and are dropped if the queue is full.
+ * Every period, the telemetry thread takes the samples out of the queue and sends them in one binary frame over a socket. The robot listens and the computer connects to it.
+ * The socket is non-blocking: while a frame is still being sent because the link is slow, the new samples are dropped instead of piling up, so that the values received are always recent.
+ * Every value put on the display is also published, and the loop timings of the periodic tasks are published at each frame.
+ *
+ * Frames (big endian): magic (short, 0x5446), type (byte), length of the payload (short), payload.
+ * -CHANNELS frame: number of channels (short), then for each: id (byte), name (UTF)
+ * -SAMPLES frame: time of the first sample (long, us since the start), number of samples dropped so far (int), number of samples (short), then for each: channel id (byte), time after the first sample (int, us), value (float)
+ * A CHANNELS frame is sent when a computer connects and every time a channel is added.
+ *
+ * @version 1.0
+ */
+public class Telemetry extends PeriodicTask {
+	
+	/**
+	 * Port the robot listens on
+	 */
+	public static final int PORT = 2600;
+	/**
+	 * First two bytes of every frame
+	 */
+	public static final short MAGIC = 0x5446;
+	/**
+	 * Type of the frame listing the names of the channels
+	 */
+	public static final byte CHANNELS = 1;
+	/**
+	 * Type of the frame holding samples
+	 */
+	public static final byte SAMPLES = 2;
+	/**
+	 * Size of the header of a frame
+	 */
+	public static final int HEADER_SIZE = 5;
+	/**
+	 * Size of a sample in a SAMPLES frame
+	 */
+	public static final int SAMPLE_SIZE = 9;
+	
+	private static final long ITERATION_TIME = 50;
+	private static final int CAPACITY = 1024; //Size of the queue, must be a power of two. About 2 seconds of samples
+	private static final int MAX_CHANNELS = 256; //The id of a channel is sent as a byte
+	private static final int FRAME_SIZE = 8192;
+	
+	/**
+	 * A channel of the telemetry. Obtained from getChannel(), then passed to publish()
+	 */
+	public static final class Channel {
+		private final int id; //Sent with each sample, -1 if the channel could not be added
+		private final String name;
+		
+		private Channel(int id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+		
+		/**
+		 * get the name of the channel
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+	}
+	
+	private final SampleRing queue = new SampleRing(CAPACITY);
+	private final AtomicLong dropped = new AtomicLong();
+	
+	private final ConcurrentHashMap<String, Channel> channelsByName = new ConcurrentHashMap<String, Channel>();
+	private final Channel[] channels = new Channel[MAX_CHANNELS];
+	private volatile int channelCount = 0;
+	private int sentChannelCount = 0; //Number of channels the connected computer knows about
+	
+	private final long startTime = System.nanoTime();
+	private ServerSocketChannel server;
+	private volatile SocketChannel client;
+	private final ByteBuffer frame = ByteBuffer.allocate(FRAME_SIZE);
+	
+	private volatile PeriodicTask[] tasks = new PeriodicTask[0];
+	private Channel[] latenessChannels, overrunChannels; //Written before tasks, so they match the tasks read
+	
+	/**
+	 * constructs a telemetry publisher listening on the default port
+	 */
+	public Telemetry() {
+		this(PORT);
+	}
+	
+	/**
+	 * constructs a telemetry publisher. If the port cannot be opened, the samples are still taken out of the queue but never sent
+	 * @param port the port to listen on
+	 */
+	public Telemetry(int port) {
+		super("Telemetry", ITERATION_TIME, TimingClass.BACKGROUND, true);
+		frame.flip(); //Nothing to send
+		
+		try {
+			server = ServerSocketChannel.open();
+			server.configureBlocking(false);
+			server.socket().bind(new InetSocketAddress(port));
+		} catch (IOException e) {
+			e.printStackTrace();
+			server = null;
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see main.PeriodicTask#step()
+	 */
+	@Override
+	protected void step() {
+		//Loop timings of the periodic tasks
+		PeriodicTask[] watched = tasks;
+		for(int i = 0; i < watched.length; i++) {
+			publish(latenessChannels[i], watched[i].getMeanLateness() / 1000f);
+			publish(overrunChannels[i], watched[i].getOverrunCount());
+		}
+		
+		if(client == null)
+			accept();
+		
+		//Finish sending the previous frame first. If the link is too slow for that, the new samples are dropped
+		if(client != null && frame.hasRemaining() && !send()) {
+			dropped.addAndGet(drain(false));
+			return;
+		}
+		
+		if(client == null) {
+			drain(false); //Nobody to send to
+			return;
+		}
+		
+		if(sentChannelCount < channelCount) {
+			buildChannelsFrame();
+			if(!send()) {
+				dropped.addAndGet(drain(false));
+				return;
+			}
+		}
+		
+		dropped.addAndGet(drain(true));
+		send();
+	}
+	
+	/**
+	 * Accept a computer if one is trying to connect
+	 */
+	private void accept() {
+		if(server == null)
+			return;
+		try {
+			client = server.accept();
+			if(client != null) {
+				client.configureBlocking(false);
+				client.socket().setTcpNoDelay(true);
+				sentChannelCount = 0;
+				frame.clear();
+				frame.flip();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			client = null;
+		}
+	}
+	
+	/**
+	 * Send as much of the current frame as the socket takes without blocking
+	 * @return whether the whole frame was sent
+	 */
+	private boolean send() {
+		try {
+			client.write(frame);
+			return !frame.hasRemaining();
+		} catch (IOException e) { //The computer disconnected
+			try {
+				client.close();
+			} catch (IOException e1) {
+				e1.printStackTrace();
+			}
+			client = null;
+			return false;
+		}
+	}
+	
+	/**
+	 * Take the samples out of the queue
+	 * @param build whether to put them in a SAMPLES frame, or to discard them
+	 * @return the number of samples discarded
+	 */
+	private int drain(boolean build) {
+		if(build) {
+			frame.clear();
+			frame.position(HEADER_SIZE + 8 + 4 + 2);
+		}
+		
+		int count = 0, discarded = 0;
+		long baseTime = 0;
+		while(queue.poll()) {
+			if(build && frame.remaining() >= SAMPLE_SIZE) {
+				if(count == 0)
+					baseTime = queue.getTime();
+				frame.put((byte) queue.getTag());
+				frame.putInt((int) ((queue.getTime() - baseTime) / 1000));
+				frame.putFloat(queue.getValue());
+				count++;
+			}
+			else
+				discarded++;
+		}
+		
+		if(build) {
+			if(count == 0)
+				baseTime = System.nanoTime();
+			int end = frame.position();
+			frame.position(0);
+			putHeader(SAMPLES, end - HEADER_SIZE);
+			frame.putLong((baseTime - startTime) / 1000);
+			frame.putInt((int) (dropped.get() + discarded));
+			frame.putShort((short) count);
+			frame.position(end);
+			frame.flip();
+		}
+		return discarded;
+	}
+	
+	/**
+	 * Put the names of all channels in a CHANNELS frame
+	 */
+	private void buildChannelsFrame() {
+		int count = 0;
+		frame.clear();
+		frame.position(HEADER_SIZE + 2);
+		while(count < channelCount) {
+			byte[] name = channels[count].name.getBytes(); //The names are ASCII
+			if(frame.remaining() < 3 + name.length) //The other channels are sent in the next frame
+				break;
+			frame.put((byte) count);
+			frame.putShort((short) name.length);
+			frame.put(name);
+			count++;
+		}
+		int end = frame.position();
+		frame.position(0);
+		putHeader(CHANNELS, end - HEADER_SIZE);
+		frame.putShort((short) count);
+		frame.position(end);
+		frame.flip();
+		sentChannelCount = count;
+	}
+	
+	private void putHeader(byte type, int length) {
+		frame.putShort(MAGIC);
+		frame.put(type);
+		frame.putShort((short) length);
+	}
+	
+	/**
+	 * Publish a sample. Never blocks: the sample is dropped if the queue is full, or if the channel could not be added
+	 * @param channel the channel, as returned by getChannel()
+	 * @param value the value
+	 */
+	public void publish(Channel channel, float value) {
+		if(channel.id < 0 || !queue.offer(channel.id, System.nanoTime(), value))
+			dropped.incrementAndGet();
+	}
+	
+	/**
+	 * Publish a sample on a channel given by its name. Slower than publishing on a channel obtained once
+	 * @param name the name of the channel, added if it does not exist yet
+	 * @param value the value
+	 */
+	public void publish(String name, float value) {
+		publish(getChannel(name), value);
+	}
+	
+	/**
+	 * get a channel, adding it if it does not exist yet. Should be called once, outside of the loop the values are published in
+	 * @param name the name of the channel
+	 * @return the channel. If there are too many channels, its samples are dropped
+	 */
+	public Channel getChannel(String name) {
+		Channel channel = channelsByName.get(name);
+		if(channel != null)
+			return channel;
+		
+		synchronized(channelsByName) {
+			channel = channelsByName.get(name);
+			if(channel != null)
+				return channel;
+			if(channelCount == MAX_CHANNELS)
+				return new Channel(-1, name);
+			channel = new Channel(channelCount, name);
+			channels[channelCount] = channel;
+			channelsByName.put(name, channel);
+			channelCount++;
+			return channel;
+		}
+	}
+	
+	/**
+	 * set the periodic tasks whose loop timings are published (mean lateness in us and number of overruns)
+	 * @param tasks the tasks to watch
+	 */
+	public void watch(PeriodicTask... tasks) {
+		Channel[] lateness = new Channel[tasks.length], overruns = new Channel[tasks.length];
+		for(int i = 0; i < tasks.length; i++) {
+			lateness[i] = getChannel(tasks[i].getName() + ".Late");
+			overruns[i] = getChannel(tasks[i].getName() + ".Overruns");
+		}
+		latenessChannels = lateness;
+		overrunChannels = overruns;
+		this.tasks = tasks;
+	}
+	
+	/**
+	 * get the number of samples dropped because the queue was full or the link too slow
+	 * @return the number of samples dropped
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+	
+	/**
+	 * check if a computer is connected
+	 * @return whether the samples are being sent
+	 */
+	public boolean isConnected() {
+		return client != null;
+	}
+}
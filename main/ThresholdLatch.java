@@ -0,0 +1,45 @@
+package main;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Threshold listener that lets a thread block until the threshold is crossed once, without using the CPU while it waits.
+ *
+ * @version 1.0
+ */
+public class ThresholdLatch implements ThresholdListener {
+
+	private CountDownLatch latch = new CountDownLatch(1);
+	private volatile long timestamp;
+	private volatile float value;
+
+	/* (non-Javadoc)
+	 * @see main.ThresholdListener#thresholdCrossed(float, long)
+	 */
+	@Override
+	public void thresholdCrossed(float value, long timestamp) {
+		if(latch.getCount() > 0) { //Only keep the first crossing
+			this.value = value;
+			this.timestamp = timestamp;
+			latch.countDown();
+		}
+	}
+
+	/**
+	 * block until the threshold is crossed
+	 * @return the time (from System.nanoTime()) the crossing value corresponds to
+	 * @throws InterruptedException if the waiting thread is interrupted before the threshold is crossed
+	 */
+	public long await() throws InterruptedException {
+		latch.await();
+		return timestamp;
+	}
+
+	/**
+	 * get the value that crossed the threshold
+	 * @return the filtered value
+	 */
+	public float getValue() {
+		return value;
+	}
+}
@@ -0,0 +1,18 @@
+package main;
+
+/**
+ * Listener notified by the sensor poller when a filtered sensor value crosses a threshold.
+ * Used instead of polling the sensor poller in a loop to wait for an edge.
+ *
+ * @version 1.0
+ */
+public interface ThresholdListener {
+
+	/**
+	 * called from the sensor poller's thread when the filtered value crosses the threshold in the direction the listener subscribed to. Should return quickly
+	 * @param value the filtered value that crossed the threshold
+	 * @param timestamp the time (from System.nanoTime()) the value corresponds to, taking into account the delay added by the filter
+	 */
+	public void thresholdCrossed(float value, long timestamp);
+
+}
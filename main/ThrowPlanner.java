@@ -0,0 +1,141 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The throw planner finds the wind-up angle and the release speed of the arm needed to throw the ball at a given distance.
+ * The table is built from calibration shots, recorded through the logger as "time distance windUp speed" lines and copied to a calibration file on the brick.
+ * The shots are sorted by distance and interpolated into a dense table with one entry per centimeter when the file is loaded, so that a lookup only reads two entries.
+ * Without a calibration file, the planner only knows the original shot (300 degrees of wind-up at full speed) and is not in range anywhere, so the robot keeps shooting from the fixed spot.
+ *
+ * @version 1.0
+ */
+public class ThrowPlanner {
+	
+	private static final double STEP = 1; //Distance between two entries of the table, in cm
+	private static final int DEFAULT_WIND_UP = 300;
+	private static final int DEFAULT_SPEED = 100000; //Max speed
+	
+	private double minDistance = 0; //Distance of the first entry of the table
+	private float[] windUps = {DEFAULT_WIND_UP};
+	private float[] speeds = {DEFAULT_SPEED};
+	private boolean calibrated = false;
+	
+	/**
+	 * Load the calibration shots from a file written by the logger. Lines that are not calibration shots are ignored
+	 * @param fileName the name of the calibration file
+	 * @return whether at least two calibration shots were found, in which case the table was replaced
+	 */
+	public boolean load(String fileName) {
+		if(!new File(fileName).exists()) //Not calibrated, keep the default shot
+			return false;
+		
+		double[][] shots = new double[16][];
+		int count = 0;
+		
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(fileName));
+			String line;
+			while((line = in.readLine()) != null) {
+				String[] values = line.split("\t");
+				if(values.length != 4)
+					continue;
+				try {
+					double[] shot = {Double.parseDouble(values[1]), Double.parseDouble(values[2]), Double.parseDouble(values[3])};
+					if(count == shots.length)
+						shots = Arrays.copyOf(shots, count * 2);
+					shots[count++] = shot;
+				} catch (NumberFormatException e) {
+					//Not a calibration shot
+				}
+			}
+			in.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		
+		if(count < 2)
+			return false;
+		
+		build(Arrays.copyOf(shots, count));
+		return true;
+	}
+	
+	/**
+	 * Build the dense table by interpolating linearly between the calibration shots
+	 * @param shots the calibration shots, as {distance, windUp, speed}
+	 */
+	private synchronized void build(double[][] shots) {
+		Arrays.sort(shots, new Comparator<double[]>() {
+			@Override
+			public int compare(double[] a, double[] b) {
+				return Double.compare(a[0], b[0]);
+			}
+		});
+		
+		minDistance = shots[0][0];
+		int size = (int) ((shots[shots.length - 1][0] - minDistance) / STEP) + 1;
+		windUps = new float[size];
+		speeds = new float[size];
+		
+		int segment = 0;
+		for(int i = 0; i < size; i++) {
+			double distance = minDistance + i * STEP;
+			while(segment < shots.length - 2 && distance > shots[segment + 1][0])
+				segment++;
+			double[] a = shots[segment], b = shots[segment + 1];
+			double fraction = (b[0] > a[0])? (distance - a[0]) / (b[0] - a[0]) : 0;
+			windUps[i] = (float) (a[1] + (b[1] - a[1]) * fraction);
+			speeds[i] = (float) (a[2] + (b[2] - a[2]) * fraction);
+		}
+		calibrated = true;
+	}
+	
+	/**
+	 * Find the shot for a distance. Distances out of the table get the closest shot known
+	 * @param distance the distance to the goal (in centimeters)
+	 * @param shot the array to be filled with the wind-up angle (in degrees) and the release speed (in deg/s)
+	 */
+	public synchronized void plan(double distance, int[] shot) {
+		double index = (distance - minDistance) / STEP;
+		int i = (int) Math.max(0, Math.min(windUps.length - 1, Math.floor(index)));
+		int j = Math.min(windUps.length - 1, i + 1);
+		double fraction = Math.max(0, Math.min(1, index - i));
+		shot[0] = Math.round(windUps[i] + (windUps[j] - windUps[i]) * (float) fraction);
+		shot[1] = Math.round(speeds[i] + (speeds[j] - speeds[i]) * (float) fraction);
+	}
+	
+	/**
+	 * Check if a distance is covered by the calibration shots
+	 * @param distance the distance to the goal (in centimeters)
+	 * @return whether the ball can be thrown at that distance
+	 */
+	public synchronized boolean isInRange(double distance) {
+		return calibrated && distance >= minDistance && distance <= minDistance + (windUps.length - 1) * STEP;
+	}
+	
+	/**
+	 * check if the table comes from calibration shots
+	 * @return whether a calibration file was loaded
+	 */
+	public synchronized boolean isCalibrated() {
+		return calibrated;
+	}
+	
+	/**
+	 * Record a shot through the logger, in the format of the calibration file. Keep the lines of the shots that scored to build the calibration file
+	 * @param logger the logger to write to
+	 * @param distance the distance to the goal (in centimeters)
+	 * @param windUp the wind-up angle used (in degrees)
+	 * @param speed the release speed used (in deg/s)
+	 */
+	public static void recordShot(Logger logger, double distance, int windUp, int speed) {
+		logger.addValues((float) distance, windUp, speed);
+	}
+}
@@ -0,0 +1,29 @@
+package main;
+
+/**
+ * Timing classes of the periodic tasks. Each class has its own thread priority so that a slow task (ex: redrawing the display) cannot delay a task the robot's control depends on (ex: odometry).
+ * -HARD_PERIODIC: odometry and sensor sampling. Missing a period directly degrades the position estimate
+ * -SOFT: navigation and odometry correction. A late iteration only delays a correction by one period
+ * -BACKGROUND: display and logging. Runs whenever nothing more important needs the CPU
+ *
+ * @version 1.0
+ */
+public enum TimingClass {
+	HARD_PERIODIC(Thread.MAX_PRIORITY),
+	SOFT(Thread.NORM_PRIORITY + 2),
+	BACKGROUND(Thread.MIN_PRIORITY + 1);
+
+	private final int priority;
+
+	private TimingClass(int priority) {
+		this.priority = priority;
+	}
+
+	/**
+	 * get the priority given to the threads of this timing class
+	 * @return the thread priority
+	 */
+	public int getPriority() {
+		return priority;
+	}
+}
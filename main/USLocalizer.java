@@ -1,21 +1,54 @@
 package main;
 
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import filters.Filter;
 import lejos.hardware.Sound;
 import lejos.hardware.motor.EV3LargeRegulatedMotor;
 
 /**
  * Ultrasonic Localizer. Performs localization of the robot if placed in a corner tile. Robot rotates on itself and ultrasonic sensor values are retrieved to find at what angles were walls detected (using the rising edge method).
+ * The edges are signaled by the sensor poller along with the time of the sample, and the angle is taken from the odometer's history at that time.
  * Once the angle has been calculated, robot rotates again to reach 180 degrees and 270 degrees from the positive x-axis and finds its x and y position that way. The odometer is updated with these values
+ * A faster method is also available: a single rotation is recorded and both walls of the corner are fitted with least squares to find the angle and the position at once
+ * The walls are fitted in the odometer's frame, so the scan can be done before the starting corner is known (ex: while waiting for the wifi) and the corner applied afterwards
  * 
  * @author Jerome
  * @version 1.0
  */
 public abstract class USLocalizer {
-	private static final double CORRECTION = 0.008;
-	private static final int COOLDOWN = 1000; //In milliseconds, time where it will not detect a wall after seeing one
-	private static final int WALL_DISTANCE = 40;
+	/**
+	 * In milliseconds, time where the rising edge method will not detect a wall after seeing one
+	 */
+	public static final int COOLDOWN = 1000;
+	/**
+	 * Filtered reading (in cm) under which the rising edge method sees a wall
+	 */
+	public static final int WALL_DISTANCE = 40;
+	/**
+	 * Motor speed while turning in the rising edge method
+	 */
+	public static final int EDGE_SPEED = 100;
 	private static final double US_SENSOR_DIST = 2.6; //the position of the sensor from the middle of the 2 wheels
+	private static final double US_CONE = Math.PI * 15 / 180; //Half angle of the cone in which the ultrasonic sensor hears an echo. A wall is read at its closest point in the cone
+	private static final int SCAN_BINS = 360; //Number of angles a scan is divided into
+	/**
+	 * Motor speed while scanning
+	 */
+	public static final int SCAN_SPEED = 150;
+	private static final long MAX_SCAN_TIME = 15000; //In milliseconds. A full turn takes about 9 seconds at the scan speed, a scan taking longer means the wheels or the sensor are stuck
+	private static final float MAX_FIT_RANGE = 70; //Readings further than this are not used to fit the walls
+	private static final double WALL_SPAN = Math.PI * 35 / 180; //Angle on each side of the closest point of a wall in which readings are used to fit that wall
+	private static final int MIN_WALL_POINTS = 8; //Minimum number of readings to fit a wall
+	private static final int FIT_PASSES = 3; //Number of times a wall is fitted, removing the readings far from the previous line each time
+	private static final double MIN_OUTLIER_DIST = 1.5; //Readings closer than this (cm) to the fitted line are never removed
+	private static final double MAX_FIT_ERROR = 2.5; //Maximum RMS difference (cm) between the readings and the ones the refined corner predicts for the fit to be trusted
+	private static final double REFINE_RANGE = Math.PI / 18; //Angle on each side of the closest wall fitted alone in which the corner is searched
+	private static final double REFINE_STEP = Math.PI / 1800; //Step of that search
+	
+	private static long scanStartTime; //Time the last scan was started (from System.currentTimeMillis())
 	
 	/**
 	 * Performs the ultrasonic localization (assumes the robot is on the diagonal of a corner tile)
@@ -28,8 +61,10 @@ public abstract class USLocalizer {
 	 * -Rotate to 180 degrees, use the ultrasonic sensor reading to find the x position of the robot
 	 * -Rotate to 270 degrees, use the same procedure to find the y position of the robot
 	 * -Update the odometer
+	 * @param startingCorner the corner the robot starts in (1 to 4, counterclockwise from the bottom left)
+	 * @throws InterruptedException if the thread is interrupted while turning, waiting for a wall or navigating. The motors and the navigator are stopped and the odometer may not be updated
 	 */
-	public static void doLocalization(int startingCorner) {
+	public static void doLocalization(int startingCorner) throws InterruptedException {
 		double angleA, angleB;
 		
 		EV3LargeRegulatedMotor leftMotor = Main.get().getMotor("left");
@@ -41,30 +76,30 @@ public abstract class USLocalizer {
 		//The filter to use:
 		int filter = Filter.MEAN;
 		
-		// rotate the robot until it sees no wall
-		leftMotor.setSpeed(100);
-		rightMotor.setSpeed(100);
-		leftMotor.backward(); //Turn counterclockwise
-		rightMotor.forward();
-		while(sensorPoller.getTopUsReading(filter) < WALL_DISTANCE);
-		
-		// keep rotating until the robot sees a wall, then latch the angle
-		while(sensorPoller.getTopUsReading(filter) > WALL_DISTANCE);
-		angleA = odometer.getTheta();
-		
-		// switch direction and wait until it sees no wall
-		leftMotor.forward(); //Turn clockwise
-		rightMotor.backward();
-		try{ Thread.sleep(COOLDOWN); } catch(Exception e) {} //Prevent detecting the same wall twice
-		while(sensorPoller.getTopUsReading(filter) < WALL_DISTANCE);
-		
-		// keep rotating until the robot sees a wall, then latch the angle
-		while(sensorPoller.getTopUsReading(filter) > WALL_DISTANCE);
-		angleB = odometer.getTheta();
-		
-		//Stop the motors
-		leftMotor.stop(true);
-		rightMotor.stop();
+		try {
+			// rotate the robot until it sees no wall
+			leftMotor.setSpeed(EDGE_SPEED);
+			rightMotor.setSpeed(EDGE_SPEED);
+			leftMotor.backward(); //Turn counterclockwise
+			rightMotor.forward();
+			awaitCrossing(filter, true);
+			
+			// keep rotating until the robot sees a wall, then latch the angle the robot had when the wall was seen
+			angleA = odometer.getThetaAt(awaitCrossing(filter, false));
+			
+			// switch direction and wait until it sees no wall
+			leftMotor.forward(); //Turn clockwise
+			rightMotor.backward();
+			Thread.sleep(COOLDOWN); //Prevent detecting the same wall twice
+			awaitCrossing(filter, true);
+			
+			// keep rotating until the robot sees a wall, then latch the angle the robot had when the wall was seen
+			angleB = odometer.getThetaAt(awaitCrossing(filter, false));
+		} finally {
+			//Stop the motors
+			leftMotor.stop(true);
+			rightMotor.stop();
+		}
 		
 		// angleA is clockwise from angleB, so assume the average of the
 		// angles to the right of angleB is 45 degrees past 'north'
@@ -75,71 +110,470 @@ public abstract class USLocalizer {
 			theta = 45d/180*Math.PI - (angleA + angleB) / 2;
 		
 		// update the odometer position
-		odometer.setTheta(theta + odometer.getTheta() + CORRECTION + (startingCorner-1) * Math.PI/2);
+		odometer.setTheta(theta + odometer.getTheta() + (startingCorner-1) * Math.PI/2);
 	
 		double x = 0, y = 0;
 		
-		switch(startingCorner) {
-		case 1:
-			//Get the y position (approximate)
-			navigator.turnTo(Math.PI * 3 / 2);
-			navigator.setRunning(true);
-			while(navigator.isTurning());
-			y = -(Main.TILE_LENGTH - (sensorPoller.getTopUsReading(filter) + US_SENSOR_DIST));
+		try {
+			switch(startingCorner) {
+			case 1:
+				//Get the y position (approximate)
+				navigator.turnTo(Math.PI * 3 / 2);
+				navigator.setRunning(true);
+				navigator.awaitTurn();
+				y = -(Main.TILE_LENGTH - (sensorPoller.getTopUsReading(filter) + US_SENSOR_DIST));
+				
+				//Get the x position (approximate)
+				navigator.turnTo(Math.PI);
+				navigator.awaitTurn();
+				x = -(Main.TILE_LENGTH - (sensorPoller.getTopUsReading(filter) + US_SENSOR_DIST));
+				
+				break;
+			case 2:
+				//Get the x position (approximate)
+				navigator.turnTo(0);
+				navigator.setRunning(true);
+				navigator.awaitTurn();
+				x = (Main.MAP_TILE_SIZE - 1) * Main.TILE_LENGTH - (sensorPoller.getTopUsReading(filter) + US_SENSOR_DIST);
+				
+				//Get the y position (approximate)
+				navigator.turnTo(Math.PI * 3 / 2);
+				navigator.awaitTurn();
+				y = -(Main.TILE_LENGTH - (sensorPoller.getTopUsReading(filter) + US_SENSOR_DIST));
+				
+				break;
+			case 3:
+				//Get the y position (approximate)
+				navigator.turnTo(Math.PI / 2);
+				navigator.setRunning(true);
+				navigator.awaitTurn();
+				y = (Main.MAP_TILE_SIZE - 1) * Main.TILE_LENGTH - (sensorPoller.getTopUsReading(filter) + US_SENSOR_DIST);
+				
+				//Get the x position (approximate)
+				navigator.turnTo(0);
+				navigator.awaitTurn();
+				x = (Main.MAP_TILE_SIZE - 1) * Main.TILE_LENGTH - (sensorPoller.getTopUsReading(filter) + US_SENSOR_DIST);
+				
+				break;
+			case 4:
+				//Get the x position (approximate)
+				navigator.turnTo(Math.PI);
+				navigator.setRunning(true);
+				navigator.awaitTurn();
+				x = -(Main.TILE_LENGTH - (sensorPoller.getTopUsReading(filter) + US_SENSOR_DIST));
+				
+				//Get the y position (approximate)
+				navigator.turnTo(Math.PI / 2);
+				navigator.awaitTurn();
+				y = (Main.MAP_TILE_SIZE - 1) * Main.TILE_LENGTH - (sensorPoller.getTopUsReading(filter) + US_SENSOR_DIST);
+				
+				break;
+			}
+		} finally {
+			navigator.setRunning(false); //Stop the navigator
+		}
+		
+		//Update the odometer position. Since navigator is already trying to be at 0, 0
+		odometer.setPosition(new double[] {x, y, 0},  new boolean[] {true, true, false});
+		
+		Sound.beep(); //Signal the localization is completed
+		
+		goToCorner(startingCorner);
+	}
+	
+	/**
+	 * Block until the filtered ultrasonic reading crosses the wall distance. Returns immediately if it is already past it
+	 * @param filter the filter to use (Use the constants specified in the Filter class)
+	 * @param rising true to wait until no wall is seen, false to wait until a wall is seen
+	 * @return the time (from System.nanoTime()) at which the crossing was read
+	 * @throws InterruptedException if the thread is interrupted before the crossing
+	 */
+	private static long awaitCrossing(int filter, boolean rising) throws InterruptedException {
+		SensorPoller sensorPoller = Main.get().getSensorPoller();
+		ThresholdLatch latch = new ThresholdLatch();
+		sensorPoller.subscribeTopUs(filter, WALL_DISTANCE, rising, latch);
+		try {
+			return latch.await();
+		} finally {
+			sensorPoller.unsubscribeTopUs(latch);
+		}
+	}
+	
+	/**
+	 * Performs the ultrasonic localization from a single scan (assumes the robot is in a corner tile)
+	 * Steps:
+	 * -Rotate the robot once on itself and record the range seen at each angle
+	 * -Fit a line to the readings of each of the two walls of the corner using least squares
+	 * -The directions of the walls give the angle of the robot and their distances give its x and y positions
+	 * -Update the odometer
+	 * Falls back to the rising edge method if the walls cannot be fitted reliably
+	 * @param startingCorner the corner the robot starts in (1 to 4, counterclockwise from the bottom left)
+	 * @throws InterruptedException if the thread is interrupted while turning or navigating
+	 */
+	public static void doScanLocalization(int startingCorner) throws InterruptedException {
+		finishScanLocalization(scanCorner(), startingCorner);
+	}
+	
+	/**
+	 * Performs the part of the scan localization that does not depend on the starting corner: scan and fit the walls of the corner in the odometer's frame.
+	 * Can run before the starting corner is known, the robot must then stay still until finishScanLocalization() is called
+	 * @return the walls, as returned by fitCorner(), or null if they could not be fitted reliably
+	 * @throws InterruptedException if the thread is interrupted during the scan. The motors are stopped
+	 */
+	public static double[] scanCorner() throws InterruptedException {
+		scanStartTime = System.currentTimeMillis();
+		return fitCorner(scan());
+	}
+	
+	/**
+	 * Finishes the scan localization once the starting corner is known: update the odometer from the walls and navigate to the closest intersection.
+	 * Falls back to the rising edge method if the walls could not be fitted
+	 * @param fit the walls, as returned by scanCorner()
+	 * @param startingCorner the corner the robot starts in (1 to 4, counterclockwise from the bottom left)
+	 * @throws InterruptedException if the thread is interrupted while turning or navigating
+	 */
+	public static void finishScanLocalization(double[] fit, int startingCorner) throws InterruptedException {
+		if(fit == null) { //The walls were not seen clearly, use the slower method instead
+			doLocalization(startingCorner);
+			return;
+		}
+		applyCorner(fit, startingCorner);
+		
+		Main.get().getDisplay().addDisplayValue("USLoc", (System.currentTimeMillis() - scanStartTime) / 1000d);
+		Sound.beep(); //Signal the localization is completed
+		
+		goToCorner(startingCorner);
+	}
+	
+	/**
+	 * Rotate the robot once on itself (counterclockwise) and record the distance read by the ultrasonic sensor at each angle.
+	 * The readings are given by the sensor poller as they are made. The scan stops after a full turn, or after MAX_SCAN_TIME if the sensor or the wheels are stuck
+	 * @return the ranges (in centimeters) indexed by angle in the odometer's frame: index i holds the range at i * 2pi / SCAN_BINS. NaN where no reading was recorded
+	 * @throws InterruptedException if the thread is interrupted during the scan. The motors are stopped
+	 */
+	public static float[] scan() throws InterruptedException {
+		EV3LargeRegulatedMotor leftMotor = Main.get().getMotor("left");
+		EV3LargeRegulatedMotor rightMotor = Main.get().getMotor("right");
+		SensorPoller sensorPoller = Main.get().getSensorPoller();
+		
+		ScanRecorder recorder = new ScanRecorder();
+		sensorPoller.subscribeRanges(recorder);
+		try {
+			leftMotor.setSpeed(SCAN_SPEED);
+			rightMotor.setSpeed(SCAN_SPEED);
+			leftMotor.backward(); //Turn counterclockwise
+			rightMotor.forward();
 			
-			//Get the x position (approximate)
-			navigator.turnTo(Math.PI);
-			while(navigator.isTurning());
-			x = -(Main.TILE_LENGTH - (sensorPoller.getTopUsReading(filter) + US_SENSOR_DIST));
+			if(!recorder.await(MAX_SCAN_TIME)) //Use what was recorded, the fit tells whether it is enough
+				Main.get().getDisplay().addDisplayValue("Scan stalled", Math.toDegrees(recorder.getRotation()));
+		} finally {
+			sensorPoller.unsubscribeRanges(recorder);
 			
-			break;
-		case 2:
-			//Get the x position (approximate)
-			navigator.turnTo(0);
-			navigator.setRunning(true);
-			while(navigator.isTurning());
-			x = (Main.MAP_TILE_SIZE - 1) * Main.TILE_LENGTH - (sensorPoller.getTopUsReading(filter) + US_SENSOR_DIST);
+			//Stop the motors
+			leftMotor.stop(true);
+			rightMotor.stop();
+		}
+		
+		return recorder.getRanges();
+	}
+	
+	/**
+	 * Find the two walls of the corner in a scan. The closest reading is on one of the walls, and a line is fitted to the readings around it using total least squares.
+	 * The corner is then refined from all its readings with the other wall 90 degrees away on each side of it (see refineCorner()), and the side that fits best is kept
+	 * @param ranges the scan, as returned by scan()
+	 * @return {angle of the normal of wall A, distance of wall A, distance of wall B, RMS error of the fit} where wall B is 90 degrees counterclockwise from wall A.
+	 * Angles are in radians in the odometer's frame, distances are in centimeters from the center of the robot. Returns null if the walls could not be fitted reliably
+	 */
+	public static double[] fitCorner(float[] ranges) {
+		//Find the closest reading
+		int closest = closestReading(ranges, 0, SCAN_BINS / 2);
+		if(closest < 0)
+			return null;
+		
+		double[] wall = fitWall(ranges, closest);
+		if(wall == null)
+			return null;
+		
+		//The other wall is 90 degrees away from the closest one, on the side that is not the open field. Refine the corner on both sides and keep the one that explains the readings best
+		double[] corner = null;
+		for(int side = 0; side < 2; side++) {
+			double[] candidate = refineCorner(ranges, wall[0] - side * Math.PI / 2, wall[1]); //The closest wall is wall A, then wall B
+			if(candidate != null && (corner == null || candidate[3] < corner[3]))
+				corner = candidate;
+		}
+		if(corner == null || corner[3] > MAX_FIT_ERROR)
+			return null;
+		return corner;
+	}
+	
+	/**
+	 * Refine the corner found by fitting the closest wall alone, with a model of the corner as the ultrasonic sensor reads it: each reading is the distance to the closest of the two walls within the cone of the sensor.
+	 * The angle of the corner is searched around the first estimate, and for each angle the distances of the walls are solved by least squares. The readings near the corner, which hear both walls, are used as well
+	 * @param ranges the scan
+	 * @param normal the first estimate of the angle of the normal of wall A
+	 * @param distance the first estimate of the distance of both walls
+	 * @return {angle of the normal of wall A, distance of wall A, distance of wall B, RMS error of the fit}, as returned by fitCorner(), or null if a wall has too few readings
+	 */
+	private static double[] refineCorner(float[] ranges, double normal, double distance) {
+		double[] best = null;
+		double[] corner = new double[4];
+		for(double angle = normal - REFINE_RANGE; angle <= normal + REFINE_RANGE; angle += REFINE_STEP) {
+			corner[0] = angle;
+			corner[1] = distance;
+			corner[2] = distance;
+			//Each reading belongs to the wall that is the closest for the current distances. Solve twice, the distances change which wall is the closest near the corner
+			if(!solveCorner(ranges, corner) || !solveCorner(ranges, corner))
+				continue;
+			if(best == null || corner[3] < best[3])
+				best = corner.clone();
+		}
+		if(best == null)
+			return null;
+		
+		best[0] %= 2*Math.PI;
+		if(best[0] < 0)
+			best[0] += 2*Math.PI;
+		return best;
+	}
+	
+	/**
+	 * Solve the distances of the two walls of a corner by least squares, for a given angle. A reading r made at the angle phi of a wall at the distance d, with its normal at the angle n, is
+	 * r = (d - US_SENSOR_DIST * cos(phi - n)) / cos(max(0, |phi - n| - US_CONE)), which is linear in d
+	 * @param ranges the scan
+	 * @param corner {angle of the normal of wall A, distance of wall A, distance of wall B, RMS error}: the angle and the distances are read, the distances and the error are written
+	 * @return whether each wall had enough readings
+	 */
+	private static boolean solveCorner(float[] ranges, double[] corner) {
+		double[] sumRG = new double[2], sumGG = new double[2];
+		int[] count = new int[2];
+		double sumRR = 0;
+		for(int i = 0; i < SCAN_BINS; i++) {
+			if(Float.isNaN(ranges[i]) || ranges[i] > MAX_FIT_RANGE)
+				continue;
+			double angle = (i + 0.5) * 2*Math.PI / SCAN_BINS;
+			double offset = angleDifference(angle, corner[0]);
+			if(offset < -WALL_SPAN || offset > Math.PI / 2 + WALL_SPAN) //Facing the open field
+				continue;
 			
-			//Get the y position (approximate)
-			navigator.turnTo(Math.PI * 3 / 2);
-			while(navigator.isTurning());
-			y = -(Main.TILE_LENGTH - (sensorPoller.getTopUsReading(filter) + US_SENSOR_DIST));
+			//Reading predicted for each wall, the closest one is heard
+			int wall = -1;
+			double prediction = Double.POSITIVE_INFINITY, gain = 0, shift = 0;
+			for(int w = 0; w < 2; w++) {
+				double wallOffset = Math.abs(offset - w * Math.PI / 2);
+				double cone = Math.cos(Math.max(0, wallOffset - US_CONE));
+				if(cone <= 0)
+					continue;
+				double p = (corner[1 + w] - US_SENSOR_DIST * Math.cos(wallOffset)) / cone;
+				if(p < prediction) {
+					prediction = p;
+					wall = w;
+					gain = 1 / cone;
+					shift = US_SENSOR_DIST * Math.cos(wallOffset) / cone;
+				}
+			}
+			if(wall < 0)
+				continue;
 			
+			//r + shift = d * gain
+			double r = ranges[i] + shift;
+			sumRG[wall] += r * gain;
+			sumGG[wall] += gain * gain;
+			sumRR += r * r;
+			count[wall]++;
+		}
+		if(count[0] < MIN_WALL_POINTS || count[1] < MIN_WALL_POINTS)
+			return false;
+		
+		corner[1] = sumRG[0] / sumGG[0];
+		corner[2] = sumRG[1] / sumGG[1];
+		double squares = sumRR - sumRG[0] * corner[1] - sumRG[1] * corner[2]; //Sum of the squared residuals at the least squares solution
+		corner[3] = Math.sqrt(Math.max(0, squares) / (count[0] + count[1]));
+		return true;
+	}
+	
+	/**
+	 * Update the odometer using the walls found by fitCorner(). The robot must not have moved since the scan
+	 * @param fit the walls, as returned by fitCorner()
+	 * @param startingCorner the corner the robot starts in (1 to 4, counterclockwise from the bottom left)
+	 */
+	public static void applyCorner(double[] fit, int startingCorner) {
+		Odometer odometer = Main.get().getOdometer();
+		
+		//In the bottom left corner, wall A is the left wall (its normal points at 180 degrees) and wall B the bottom wall. Each corner rotates that by 90 degrees
+		double normalA = Math.PI + (startingCorner - 1) * Math.PI / 2;
+		
+		double theta = odometer.getTheta() + angleDifference(normalA, fit[0]);
+		theta %= 2*Math.PI;
+		if(theta < 0)
+			theta += 2*Math.PI;
+		
+		double[] position = new double[] {Double.NaN, Double.NaN, theta};
+		boolean[] update = new boolean[] {false, false, true};
+		setWallPosition(normalA, fit[1], position, update);
+		setWallPosition(normalA + Math.PI / 2, fit[2], position, update);
+		odometer.setPosition(position, update);
+	}
+	
+	/**
+	 * Calculate the x or y position of the robot from its distance to a wall
+	 * @param normal the direction of the wall from the robot, in the field's frame (a multiple of 90 degrees)
+	 * @param distance the distance of the wall from the center of the robot
+	 * @param position the array to fill with the x or y position
+	 * @param update the array to mark the filled value in
+	 */
+	private static void setWallPosition(double normal, double distance, double[] position, boolean[] update) {
+		switch((int) Math.round(normal / (Math.PI / 2)) % 4) {
+		case 0: //Right wall
+			position[0] = (Main.MAP_TILE_SIZE - 1) * Main.TILE_LENGTH - distance;
+			update[0] = true;
 			break;
-		case 3:
-			//Get the y position (approximate)
-			navigator.turnTo(Math.PI / 2);
-			navigator.setRunning(true);
-			while(navigator.isTurning());
-			y = (Main.MAP_TILE_SIZE - 1) * Main.TILE_LENGTH - (sensorPoller.getTopUsReading(filter) + US_SENSOR_DIST);
+		case 1: //Top wall
+			position[1] = (Main.MAP_TILE_SIZE - 1) * Main.TILE_LENGTH - distance;
+			update[1] = true;
+			break;
+		case 2: //Left wall
+			position[0] = -Main.TILE_LENGTH + distance;
+			update[0] = true;
+			break;
+		case 3: //Bottom wall
+			position[1] = -Main.TILE_LENGTH + distance;
+			update[1] = true;
+			break;
+		}
+	}
+	
+	/**
+	 * Fit a line to the readings around a wall using total least squares. The fit is repeated without the readings too far from the line,
+	 * which removes the readings that hit the other wall
+	 * @param ranges the scan
+	 * @param center the index of the closest reading of the wall
+	 * @return {angle of the normal of the wall, distance of the wall, RMS distance of the readings from the line, number of readings used}, or null if there are not enough readings
+	 */
+	private static double[] fitWall(float[] ranges, int center) {
+		int span = (int) (WALL_SPAN / (2*Math.PI) * SCAN_BINS);
+		
+		//Keep the readings of the wall
+		double[] angles = new double[2*span + 1];
+		double[] distances = new double[2*span + 1];
+		int count = 0;
+		for(int k = -span; k <= span; k++) {
+			int i = (center + k + SCAN_BINS) % SCAN_BINS;
+			if(Float.isNaN(ranges[i]) || ranges[i] > MAX_FIT_RANGE)
+				continue;
+			angles[count] = (i + 0.5) * 2*Math.PI / SCAN_BINS;
+			distances[count] = ranges[i];
+			count++;
+		}
+		
+		double[] xs = new double[count];
+		double[] ys = new double[count];
+		boolean[] used = new boolean[count];
+		Arrays.fill(used, true);
+		double[] wall = null;
+		
+		for(int pass = 0; pass < FIT_PASSES; pass++) {
+			//Convert the readings to points. The echo comes from the direction of the cone closest to the normal of the wall, known from the previous pass
+			for(int i = 0; i < count; i++) {
+				double echo = angles[i];
+				if(wall != null) {
+					double offset = angleDifference(angles[i], wall[0]);
+					echo = wall[0] + Math.signum(offset) * Math.max(0, Math.abs(offset) - US_CONE);
+				}
+				xs[i] = US_SENSOR_DIST * Math.cos(angles[i]) + distances[i] * Math.cos(echo);
+				ys[i] = US_SENSOR_DIST * Math.sin(angles[i]) + distances[i] * Math.sin(echo);
+			}
 			
-			//Get the x position (approximate)
-			navigator.turnTo(0);
-			while(navigator.isTurning());
-			x = (Main.MAP_TILE_SIZE - 1) * Main.TILE_LENGTH - (sensorPoller.getTopUsReading(filter) + US_SENSOR_DIST);
+			//Centroid of the points used
+			int n = 0;
+			double meanX = 0, meanY = 0;
+			for(int i = 0; i < count; i++) {
+				if(used[i]) {
+					meanX += xs[i];
+					meanY += ys[i];
+					n++;
+				}
+			}
+			if(n < MIN_WALL_POINTS)
+				return null;
+			meanX /= n;
+			meanY /= n;
 			
-			break;
-		case 4:
-			//Get the x position (approximate)
-			navigator.turnTo(Math.PI);
-			navigator.setRunning(true);
-			while(navigator.isTurning());
-			x = -(Main.TILE_LENGTH - (sensorPoller.getTopUsReading(filter) + US_SENSOR_DIST));
+			//The wall follows the direction in which the points are the most spread
+			double sxx = 0, syy = 0, sxy = 0;
+			for(int i = 0; i < count; i++) {
+				if(used[i]) {
+					sxx += (xs[i] - meanX) * (xs[i] - meanX);
+					syy += (ys[i] - meanY) * (ys[i] - meanY);
+					sxy += (xs[i] - meanX) * (ys[i] - meanY);
+				}
+			}
+			double direction = 0.5 * Math.atan2(2*sxy, sxx - syy);
 			
-			//Get the y position (approximate)
-			navigator.turnTo(Math.PI / 2);
-			while(navigator.isTurning());
-			y = (Main.MAP_TILE_SIZE - 1) * Main.TILE_LENGTH - (sensorPoller.getTopUsReading(filter) + US_SENSOR_DIST);
+			//Normal of the wall, pointing from the robot towards the wall
+			double normalX = -Math.sin(direction);
+			double normalY = Math.cos(direction);
+			double distance = normalX * meanX + normalY * meanY;
+			if(distance < 0) {
+				normalX = -normalX;
+				normalY = -normalY;
+				distance = -distance;
+			}
 			
-			break;
+			double error = 0;
+			for(int i = 0; i < count; i++) {
+				if(used[i]) {
+					double e = normalX * xs[i] + normalY * ys[i] - distance;
+					error += e*e;
+				}
+			}
+			error = Math.sqrt(error / n);
+			wall = new double[] {Math.atan2(normalY, normalX), distance, error, n};
+			
+			//Only keep the points close to the line for the next pass
+			for(int i = 0; i < count; i++)
+				used[i] = Math.abs(normalX * xs[i] + normalY * ys[i] - distance) < Math.max(2 * error, MIN_OUTLIER_DIST);
 		}
 		
-		//Stop the navigator
-		navigator.setRunning(false);
-		//Update the odometer position. Since navigator is already trying to be at 0, 0
-		odometer.setPosition(new double[] {x, y, 0},  new boolean[] {true, true, false});
-		
-		Sound.beep(); //Signal the localization is completed
+		return wall;
+	}
+	
+	/**
+	 * Find the closest valid reading in a range of angles of a scan
+	 * @param ranges the scan
+	 * @param center the index of the center of the range of angles
+	 * @param span the number of indexes to search on each side of the center
+	 * @return the index of the closest reading, or -1 if there is no valid reading in that range
+	 */
+	private static int closestReading(float[] ranges, int center, int span) {
+		int closest = -1;
+		for(int k = -span; k <= span; k++) {
+			int i = ((center + k) % SCAN_BINS + SCAN_BINS) % SCAN_BINS;
+			if(!Float.isNaN(ranges[i]) && ranges[i] < MAX_FIT_RANGE && (closest < 0 || ranges[i] < ranges[closest]))
+				closest = i;
+		}
+		return closest;
+	}
+	
+	/**
+	 * Calculate the difference between two angles
+	 * @return a - b, between -pi and pi
+	 */
+	private static double angleDifference(double a, double b) {
+		double difference = (a - b) % (2*Math.PI);
+		if(difference > Math.PI)
+			difference -= 2*Math.PI;
+		else if(difference <= -Math.PI)
+			difference += 2*Math.PI;
+		return difference;
+	}
+	
+	/**
+	 * Navigate to the intersection of the lines closest to the starting corner
+	 * @param startingCorner the corner the robot starts in (1 to 4, counterclockwise from the bottom left)
+	 * @throws InterruptedException if the thread is interrupted before the robot got there. The navigator is stopped
+	 */
+	private static void goToCorner(int startingCorner) throws InterruptedException {
+		Navigator navigator = Main.get().getNavigator();
 		
 		//Navigate to the closest corner
 		switch(startingCorner) {
@@ -158,8 +592,60 @@ public abstract class USLocalizer {
 		}
 		
 		navigator.setRunning(true);
-		while(navigator.isNavigating());
-		navigator.setRunning(false);
+		try {
+			navigator.awaitNavigation();
+		} finally {
+			navigator.setRunning(false);
+		}
+	}
+	
+	/**
+	 * Records the readings of the ultrasonic sensor by angle, using the angle the robot had when each reading was made, until the robot made a full turn
+	 */
+	private static class ScanRecorder implements RangeListener {
+		private final float[] ranges = new float[SCAN_BINS];
+		private final CountDownLatch done = new CountDownLatch(1);
+		private double previousTheta = Double.NaN;
+		private double rotation = 0; //Total angle rotated since the first reading
+		
+		private ScanRecorder() {
+			Arrays.fill(ranges, Float.NaN);
+		}
+		
+		@Override
+		public synchronized void rangeRead(float range, long timestamp) {
+			double theta = Main.get().getOdometer().getThetaAt(timestamp);
+			if(!Double.isNaN(previousTheta))
+				rotation += angleDifference(theta, previousTheta);
+			previousTheta = theta;
+			
+			ranges[(int) (theta / (2*Math.PI) * SCAN_BINS) % SCAN_BINS] = range;
+			if(rotation >= 2*Math.PI)
+				done.countDown();
+		}
+		
+		/**
+		 * block until the robot made a full turn
+		 * @param timeout the maximum time to wait (in ms)
+		 * @return whether the turn was completed, false if the timeout expired
+		 */
+		private boolean await(long timeout) throws InterruptedException {
+			return done.await(timeout, TimeUnit.MILLISECONDS);
+		}
+		
+		/**
+		 * get the angle rotated so far
+		 */
+		private synchronized double getRotation() {
+			return rotation;
+		}
+		
+		/**
+		 * get a copy of the ranges recorded so far
+		 */
+		private synchronized float[] getRanges() {
+			return ranges.clone();
+		}
 	}
 
 }
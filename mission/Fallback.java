@@ -0,0 +1,30 @@
+package mission;
+
+/**
+ * Runs its children one after the other until one succeeds. Used to recover from a failure by trying another way (ex: localize with a full rotation if the short check failed)
+ *
+ * @version 1.0
+ */
+public class Fallback extends MissionNode {
+	
+	/**
+	 * constructs a fallback
+	 * @param name the name shown in the report
+	 * @param children the nodes to try, in order
+	 */
+	public Fallback(String name, MissionNode... children) {
+		super(name, children);
+	}
+	
+	/* (non-Javadoc)
+	 * @see mission.MissionNode#execute()
+	 */
+	@Override
+	protected boolean execute() throws InterruptedException {
+		for(MissionNode child: getChildren()) {
+			if(child.run())
+				return true;
+		}
+		return false;
+	}
+}
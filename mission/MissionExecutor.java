@@ -0,0 +1,62 @@
+package mission;
+
+import java.io.PrintStream;
+
+/**
+ * Runs a mission tree from the calling thread and reports the time taken by each of its nodes
+ *
+ * @version 1.0
+ */
+public class MissionExecutor {
+	
+	private final MissionNode root;
+	private volatile boolean done = false;
+	
+	/**
+	 * constructs an executor for a mission
+	 * @param root the root node of the mission tree
+	 */
+	public MissionExecutor(MissionNode root) {
+		this.root = root;
+	}
+	
+	/**
+	 * Run the whole mission and print the report once it is done
+	 * @return whether the mission succeeded
+	 */
+	public boolean run() {
+		boolean success = false;
+		try {
+			success = root.run();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		done = true;
+		report(System.out);
+		return success;
+	}
+	
+	/**
+	 * Print the time taken by each node of the mission: name, runs, failures, last, mean and max time (in ms). Can be called while the mission is running
+	 * @param out the stream to print to
+	 */
+	public void report(PrintStream out) {
+		root.report(out);
+	}
+	
+	/**
+	 * check if the mission is over
+	 * @return whether the mission ran to its end
+	 */
+	public boolean isDone() {
+		return done;
+	}
+	
+	/**
+	 * get the root node of the mission tree
+	 * @return the root node
+	 */
+	public MissionNode getRoot() {
+		return root;
+	}
+}
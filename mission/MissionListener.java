@@ -0,0 +1,22 @@
+package mission;
+
+/**
+ * Notified when the nodes of a mission tree start and finish running (ex: to record the mission in the flight recorder)
+ *
+ * @version 1.0
+ */
+public interface MissionListener {
+	
+	/**
+	 * called when a node starts running, from the thread that runs it
+	 * @param node the node
+	 */
+	void nodeStarted(MissionNode node);
+	
+	/**
+	 * called when a node is done running, from the thread that ran it
+	 * @param node the node
+	 * @param success whether it succeeded. False if it was interrupted
+	 */
+	void nodeFinished(MissionNode node, boolean success);
+}
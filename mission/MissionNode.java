@@ -0,0 +1,161 @@
+package mission;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * A node of the mission tree. The match is modeled as a tree of nodes: the leaves are the tasks of the robot (navigate, localize, pick up, throw...)
+ * and the other nodes decide in which order, how many times and for how long their children run (Sequence, Fallback, Parallel, Retry, Timeout).
+ * Every node succeeds or fails, which lets the tree recover from a failure (ex: localize again, or skip a ball).
+ * Each node measures the time it takes every time it runs, so that the report shows where the seconds of each cycle go.
+ * Nodes must stop and throw an InterruptedException when their thread is interrupted (ex: by a timeout), instead of busy waiting.
+ *
+ * @version 1.0
+ */
+public abstract class MissionNode {
+	
+	private static volatile MissionListener[] listeners = new MissionListener[0];
+	
+	private final String name;
+	private final MissionNode[] children;
+	
+	private int runCount = 0, failureCount = 0;
+	private long lastTime = 0, totalTime = 0, maxTime = 0; //In nanoseconds
+	
+	/**
+	 * constructs a node
+	 * @param name the name shown in the report
+	 * @param children the children of the node, if any
+	 */
+	protected MissionNode(String name, MissionNode... children) {
+		this.name = name;
+		this.children = children;
+	}
+	
+	/**
+	 * Run the node and record the time it took
+	 * @return whether the node succeeded
+	 * @throws InterruptedException if the thread was interrupted while the node was running
+	 */
+	public final boolean run() throws InterruptedException {
+		MissionListener[] listeners = MissionNode.listeners;
+		for(MissionListener listener: listeners)
+			listener.nodeStarted(this);
+		
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			success = execute();
+			return success;
+		} finally {
+			record(System.nanoTime() - start, success);
+			for(MissionListener listener: listeners)
+				listener.nodeFinished(this, success);
+		}
+	}
+	
+	/**
+	 * add a listener notified when any node starts and finishes running. The listeners are notified in the order they were added
+	 * @param listener the listener
+	 */
+	public static synchronized void addListener(MissionListener listener) {
+		MissionListener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+		newListeners[listeners.length] = listener;
+		listeners = newListeners;
+	}
+	
+	/**
+	 * remove a listener, so that it is not notified anymore
+	 * @param listener the listener
+	 */
+	public static synchronized void removeListener(MissionListener listener) {
+		for(int i = 0; i < listeners.length; i++) {
+			if(listeners[i] == listener) {
+				MissionListener[] newListeners = new MissionListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, newListeners, 0, i);
+				System.arraycopy(listeners, i + 1, newListeners, i, listeners.length - i - 1);
+				listeners = newListeners;
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Do the work of the node
+	 * @return whether the node succeeded
+	 * @throws InterruptedException if the thread was interrupted
+	 */
+	protected abstract boolean execute() throws InterruptedException;
+	
+	/**
+	 * Record the time taken by one run. Nodes under a Parallel node are run from other threads
+	 */
+	private synchronized void record(long time, boolean success) {
+		runCount++;
+		if(!success)
+			failureCount++;
+		lastTime = time;
+		totalTime += time;
+		maxTime = Math.max(maxTime, time);
+	}
+	
+	/**
+	 * Print the timing of this node and of its children, indented by depth: name, runs, failures, last, mean and max time (in ms)
+	 * @param out the stream to print to
+	 */
+	public void report(PrintStream out) {
+		report(out, 0);
+	}
+	
+	private void report(PrintStream out, int depth) {
+		StringBuilder line = new StringBuilder();
+		for(int i = 0; i < depth; i++)
+			line.append(' ');
+		synchronized(this) {
+			line.append(name).append('\t').append(runCount).append('\t').append(failureCount).append('\t').append(lastTime / 1000000).append('\t').append(runCount > 0? totalTime / runCount / 1000000 : 0).append('\t').append(maxTime / 1000000);
+		}
+		out.println(line);
+		for(MissionNode child: children)
+			child.report(out, depth + 1);
+	}
+	
+	/**
+	 * get the name of the node
+	 * @return the name of the node
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * get the children of the node
+	 * @return the children, in the order they were given
+	 */
+	protected MissionNode[] getChildren() {
+		return children;
+	}
+	
+	/**
+	 * get the time taken by the last run of the node
+	 * @return the time (in milliseconds)
+	 */
+	public synchronized long getLastTime() {
+		return lastTime / 1000000;
+	}
+	
+	/**
+	 * get the number of times the node ran
+	 * @return the number of runs
+	 */
+	public synchronized int getRunCount() {
+		return runCount;
+	}
+	
+	/**
+	 * get the number of times the node failed
+	 * @return the number of failures
+	 */
+	public synchronized int getFailureCount() {
+		return failureCount;
+	}
+}
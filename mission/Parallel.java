@@ -0,0 +1,49 @@
+package mission;
+
+/**
+ * Runs its children at the same time, each on its own thread (ex: drive to the next point while the arm resets). Succeeds once all children succeeded
+ *
+ * @version 1.0
+ */
+public class Parallel extends MissionNode {
+	
+	/**
+	 * constructs a parallel node
+	 * @param name the name shown in the report
+	 * @param children the nodes to run at the same time
+	 */
+	public Parallel(String name, MissionNode... children) {
+		super(name, children);
+	}
+	
+	/* (non-Javadoc)
+	 * @see mission.MissionNode#execute()
+	 */
+	@Override
+	protected boolean execute() throws InterruptedException {
+		MissionNode[] children = getChildren();
+		Timeout.ChildThread[] threads = new Timeout.ChildThread[children.length];
+		for(int i = 0; i < children.length; i++) {
+			threads[i] = new Timeout.ChildThread(children[i]);
+			threads[i].start();
+		}
+		
+		boolean success = true;
+		try {
+			for(Timeout.ChildThread thread: threads) {
+				thread.join();
+				success &= thread.success;
+			}
+		} finally {
+			//Stop the children still running if this thread was interrupted
+			for(Timeout.ChildThread thread: threads) {
+				if(thread.isAlive()) {
+					thread.interrupt();
+					thread.join();
+				}
+			}
+		}
+		
+		return success;
+	}
+}
@@ -0,0 +1,34 @@
+package mission;
+
+/**
+ * Runs its child again when it fails, up to a number of attempts
+ *
+ * @version 1.0
+ */
+public class Retry extends MissionNode {
+	
+	private final int attempts;
+	
+	/**
+	 * constructs a retry node
+	 * @param name the name shown in the report
+	 * @param attempts the maximum number of times the child is run
+	 * @param child the node to run
+	 */
+	public Retry(String name, int attempts, MissionNode child) {
+		super(name, child);
+		this.attempts = attempts;
+	}
+	
+	/* (non-Javadoc)
+	 * @see mission.MissionNode#execute()
+	 */
+	@Override
+	protected boolean execute() throws InterruptedException {
+		for(int i = 0; i < attempts; i++) {
+			if(getChildren()[0].run())
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,30 @@
+package mission;
+
+/**
+ * Runs its children one after the other. Fails as soon as one child fails
+ *
+ * @version 1.0
+ */
+public class Sequence extends MissionNode {
+	
+	/**
+	 * constructs a sequence
+	 * @param name the name shown in the report
+	 * @param children the nodes to run, in order
+	 */
+	public Sequence(String name, MissionNode... children) {
+		super(name, children);
+	}
+	
+	/* (non-Javadoc)
+	 * @see mission.MissionNode#execute()
+	 */
+	@Override
+	protected boolean execute() throws InterruptedException {
+		for(MissionNode child: getChildren()) {
+			if(!child.run())
+				return false;
+		}
+		return true;
+	}
+}
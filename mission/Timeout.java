@@ -0,0 +1,67 @@
+package mission;
+
+/**
+ * Runs its child on its own thread and interrupts it if it takes too long. The node fails if the child was interrupted or failed
+ *
+ * @version 1.0
+ */
+public class Timeout extends MissionNode {
+	
+	private final long timeout;
+	
+	/**
+	 * constructs a timeout node
+	 * @param name the name shown in the report
+	 * @param timeout the maximum time the child may run (in ms)
+	 * @param child the node to run
+	 */
+	public Timeout(String name, long timeout, MissionNode child) {
+		super(name, child);
+		this.timeout = timeout;
+	}
+	
+	/* (non-Javadoc)
+	 * @see mission.MissionNode#execute()
+	 */
+	@Override
+	protected boolean execute() throws InterruptedException {
+		ChildThread thread = new ChildThread(getChildren()[0]);
+		thread.start();
+		
+		try {
+			thread.join(timeout);
+		} finally {
+			if(thread.isAlive()) { //Timed out, or this thread was interrupted
+				thread.interrupt();
+				thread.join();
+			}
+		}
+		
+		return thread.success;
+	}
+	
+	/**
+	 * Thread running a node and keeping its result
+	 */
+	static class ChildThread extends Thread {
+		private final MissionNode node;
+		volatile boolean success = false;
+		
+		ChildThread(MissionNode node) {
+			super(node.getName());
+			this.node = node;
+		}
+		
+		@Override
+		public void run() {
+			try {
+				success = node.run();
+			} catch (InterruptedException e) {
+				success = false;
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				success = false;
+			}
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package sim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import filters.MeanFilter;
+import main.ControlParameters;
+import main.Main;
+import main.ObstacleDetector;
+import main.Odometer;
+import main.SensorPoller;
+import main.USLocalizer;
+
+/**
+ * Compares the accuracy of the two ultrasonic localizations of the starting corner: the single scan fitted with least squares (USLocalizer.scan() and fitCorner()),
+ * and the rising edge method (USLocalizer.doLocalization()), from random starting poses on the diagonal of the bottom left tile.
+ * The robot turns on the spot at the speed of each method, the ultrasonic sensor is read at the period of the sensor poller and is modeled by Field.range(),
+ * and the odometer sees the rotation with the noise of the wheels and the error of the track. The walls are fitted by the code of the robot, fitCorner().
+ * Prints the error of the heading and of the position found by each method, and the time each one takes.
+ * Usage: CornerScan [trials] [seed]
+ *
+ * @version 1.0
+ */
+public class CornerScan {
+
+	private static final long TICK = 5; //Time step of the simulation (in ms)
+	private static final int SENSOR_TICKS = 5; //Period of the sensor poller, in ticks
+	private static final double START_SPREAD = 3; //Standard deviation of the starting position around the center of the tile, along the diagonal and across it (in cm)
+	private static final double BUILD_ERROR = 0.002; //Relative error of the track from the value of the odometer (as in Match)
+	private static final double SLIP = 0.01; //Relative noise on the rotation at each tick (as in Match)
+
+	public static void main(String[] args) {
+		int trials = (args.length > 0)? Integer.parseInt(args[0]) : 1000;
+		long seed = (args.length > 1)? Long.parseLong(args[1]) : 0;
+
+		List<Double> scanHeading = new ArrayList<Double>(), scanPosition = new ArrayList<Double>(), scanTime = new ArrayList<Double>();
+		List<Double> edgeHeading = new ArrayList<Double>(), edgePosition = new ArrayList<Double>(), edgeTime = new ArrayList<Double>();
+		int scanFailures = 0;
+		for(int i = 0; i < trials; i++) {
+			double[] result = new CornerScan(seed + i).scan();
+			if(result == null) {
+				scanFailures++;
+			}
+			else {
+				scanHeading.add(result[0]);
+				scanPosition.add(result[1]);
+				scanTime.add(result[2]);
+			}
+			result = new CornerScan(seed + i).risingEdge();
+			edgeHeading.add(result[0]);
+			edgePosition.add(result[1]);
+			edgeTime.add(result[2]);
+		}
+
+		System.out.println(trials + " starting poses, mean / median / 90th / 99th percentile / max");
+		System.out.println("Single scan, fit rejected " + scanFailures + " times (the robot then uses the rising edge method)");
+		System.out.println("  heading error (deg): " + MonteCarlo.percentiles(scanHeading));
+		System.out.println("  position error (cm): " + MonteCarlo.percentiles(scanPosition));
+		System.out.println("  time (s): " + MonteCarlo.percentiles(scanTime));
+		System.out.println("Rising edge");
+		System.out.println("  heading error (deg): " + MonteCarlo.percentiles(edgeHeading));
+		System.out.println("  position error (cm): " + MonteCarlo.percentiles(edgePosition));
+		System.out.println("  time (s): " + MonteCarlo.percentiles(edgeTime));
+	}
+
+	private final Random random;
+	private final Field field = new Field(5, 9, 7, 9); //The tray is lower than the ultrasonic sensor, it is never seen
+	private final double x, y, trackError;
+	private double theta, odometerTheta = 0; //The odometer starts at 0 whatever the heading of the robot
+	private long time = 0; //In ms
+	private final float[] window = new float[SensorPoller.US_WINDOW]; //Readings of the sensor poller (in m), for the mean filter
+	private int index = 0;
+	private final MeanFilter meanFilter = new MeanFilter();
+
+	/**
+	 * constructs a random starting pose
+	 * @param seed the seed of the pose and of the noise
+	 */
+	private CornerScan(long seed) {
+		random = new Random(seed);
+		double along = random.nextGaussian() * START_SPREAD, across = random.nextGaussian() * START_SPREAD;
+		x = -Main.TILE_LENGTH / 2 + (along - across) / Math.sqrt(2);
+		y = -Main.TILE_LENGTH / 2 + (along + across) / Math.sqrt(2);
+		theta = random.nextDouble() * 2*Math.PI;
+		trackError = 1 + random.nextGaussian() * BUILD_ERROR;
+		Arrays.fill(window, read());
+	}
+
+	/**
+	 * Localize from a single scan, as USLocalizer.scanCorner() and applyCorner() in the bottom left corner
+	 * @return {heading error (deg), position error (cm), time (s)}, or null if the fit was rejected
+	 */
+	private double[] scan() {
+		float[] ranges = new float[360];
+		Arrays.fill(ranges, Float.NaN);
+		double rate = rotationRate(USLocalizer.SCAN_SPEED);
+		double rotation = 0, previous = odometerTheta;
+		while(rotation < 2*Math.PI) {
+			if(turn(rate)) {
+				ranges[(int) (odometerTheta / (2*Math.PI) * ranges.length) % ranges.length] = window[(index - 1) % window.length] * 100;
+				rotation += difference(odometerTheta, previous);
+				previous = odometerTheta;
+			}
+		}
+
+		double[] fit = USLocalizer.fitCorner(ranges);
+		if(fit == null)
+			return null;
+		double estimatedTheta = odometerTheta + difference(Math.PI, fit[0]); //Wall A is the left wall, its normal points at 180 degrees
+		double estimatedX = -Main.TILE_LENGTH + fit[1], estimatedY = -Main.TILE_LENGTH + fit[2];
+		return new double[] {Math.toDegrees(Math.abs(difference(estimatedTheta, theta))), Math.hypot(estimatedX - x, estimatedY - y), time / 1000.0};
+	}
+
+	/**
+	 * Localize with the rising edge method, as USLocalizer.doLocalization() in the bottom left corner: latch the angle of the falling edge of each wall, then turn to face each wall and read its distance
+	 * @return {heading error (deg), position error (cm), time (s)}
+	 */
+	private double[] risingEdge() {
+		double rate = rotationRate(USLocalizer.EDGE_SPEED);
+		awaitCrossing(rate, true);
+		double angleA = awaitCrossing(rate, false);
+		for(long end = time + USLocalizer.COOLDOWN; time < end;)
+			turn(-rate);
+		awaitCrossing(-rate, true);
+		double angleB = awaitCrossing(-rate, false);
+
+		double correction;
+		if(angleA < angleB)
+			correction = 225d/180*Math.PI - (angleA + angleB) / 2;
+		else
+			correction = 45d/180*Math.PI - (angleA + angleB) / 2;
+		odometerTheta = normalize(correction + odometerTheta);
+
+		double estimatedY = -Main.TILE_LENGTH + face(Math.PI * 3 / 2) + ObstacleDetector.US_SENSOR_DIST;
+		double estimatedX = -Main.TILE_LENGTH + face(Math.PI) + ObstacleDetector.US_SENSOR_DIST;
+		return new double[] {Math.toDegrees(Math.abs(difference(odometerTheta, theta))), Math.hypot(estimatedX - x, estimatedY - y), time / 1000.0};
+	}
+
+	/**
+	 * Turn until the mean filtered reading crosses the wall distance, as USLocalizer.awaitCrossing()
+	 * @param rate the rotation speed (in rad/s, positive counterclockwise)
+	 * @param rising true to wait until no wall is seen, false to wait until a wall is seen
+	 * @return the angle of the odometer at the time the crossing reading corresponds to
+	 */
+	private double awaitCrossing(double rate, boolean rising) {
+		double delay = (SensorPoller.US_WINDOW - 1) * SENSOR_TICKS * TICK / 1000.0 / 2; //Delay of the mean filter (in s)
+		while(true) {
+			if(turn(rate)) {
+				float value = meanFilter.getFilteredData(window) * 100;
+				if(rising? value >= USLocalizer.WALL_DISTANCE : value <= USLocalizer.WALL_DISTANCE) //Turning at a constant rate, the odometer's history gives back the angle the filter delay ago
+					return normalize(odometerTheta - rate * delay);
+			}
+		}
+	}
+
+	/**
+	 * Turn to an angle of the odometer, within the tolerance of the navigator, at the maximum rotation speed of the navigator, and read the distance of the wall in front
+	 * @return the mean filtered reading (in cm)
+	 */
+	private double face(double angle) {
+		ControlParameters parameters = ControlParameters.DEFAULT;
+		double target = normalize(angle + (random.nextDouble() * 2 - 1) * parameters.getAngleTolerance());
+		double rate = rotationRate(parameters.getMaxRotationSpeed()) * Math.signum(difference(target, odometerTheta));
+		while(Math.abs(difference(target, odometerTheta)) > Math.abs(rate) * TICK / 1000.0)
+			turn(rate);
+		for(int i = 0; i < SensorPoller.US_WINDOW * SENSOR_TICKS; i++) //Fill the window with readings at that angle
+			turn(0);
+		return meanFilter.getFilteredData(window) * 100;
+	}
+
+	/**
+	 * Turn on the spot for one tick, and read the sensor if the period of the sensor poller is over
+	 * @param rate the rotation speed seen by the odometer (in rad/s, positive counterclockwise)
+	 * @return whether the sensor was read
+	 */
+	private boolean turn(double rate) {
+		double step = rate * TICK / 1000.0;
+		odometerTheta = normalize(odometerTheta + step);
+		theta = normalize(theta + step / trackError * (1 + random.nextGaussian() * SLIP));
+		time += TICK;
+		if(time % (SENSOR_TICKS * TICK) != 0)
+			return false;
+		window[index++ % window.length] = read();
+		return true;
+	}
+
+	/**
+	 * get a reading of the ultrasonic sensor (in m)
+	 */
+	private float read() {
+		double cos = Math.cos(theta), sin = Math.sin(theta);
+		return field.range(x + ObstacleDetector.US_SENSOR_DIST * cos, y + ObstacleDetector.US_SENSOR_DIST * sin, theta, random) / 100;
+	}
+
+	/**
+	 * get the rotation speed of the robot turning on the spot
+	 * @param speed the speed of the wheels (in deg/s)
+	 * @return the rotation speed (in rad/s)
+	 */
+	private static double rotationRate(int speed) {
+		return Math.toRadians(speed) * 2 * Odometer.WHEEL_RADIUS / Odometer.TRACK;
+	}
+
+	/**
+	 * get an angle between 0 and 2 pi
+	 */
+	private static double normalize(double angle) {
+		angle %= 2*Math.PI;
+		return (angle < 0)? angle + 2*Math.PI : angle;
+	}
+
+	/**
+	 * get a - b, between -pi and pi
+	 */
+	private static double difference(double a, double b) {
+		double difference = normalize(a - b);
+		return (difference > Math.PI)? difference - 2*Math.PI : difference;
+	}
+}
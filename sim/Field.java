@@ -0,0 +1,237 @@
+package sim;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import main.Main;
+
+/**
+ * Model of the field for the simulator: the walls, the black grid lines, the seams between the boards, the obstacle blocks and the ball tray.
+ * It gives what the sensors of the robot would read at a pose, with their noise: the reflected light of the floor under a light sensor, and the range of the ultrasonic sensor.
+ * Coordinates are the ones of the robot: in centimeters, the walls being at -1 tile and (MAP_TILE_SIZE - 1) tiles, the grid lines at every multiple of a tile.
+ *
+ * @version 1.0
+ */
+public class Field {
+	
+	/**
+	 * Side of an obstacle block (in cm)
+	 */
+	public static final double BLOCK_SIZE = 10;
+	/**
+	 * Width of the ball tray (in cm), which lies along the edge of a tile
+	 */
+	public static final double TRAY_WIDTH = 7.62;
+	
+	//Floor, in red mode
+	private static final double WOOD = 0.45;
+	private static final double LINE = 0.12;
+	private static final double SEAM = 0.28; //Dark gap between two boards, next to the grid line
+	private static final double LINE_WIDTH = 0.8;
+	private static final double SEAM_WIDTH = 0.3;
+	private static final double SEAM_OFFSET = 1.2; //Distance of the seam from the center of its grid line
+	private static final double SPOT_RADIUS = 0.4; //Radius of the spot seen by a light sensor
+	private static final double FLOOR_NOISE = 0.008;
+	
+	//Ultrasonic sensor
+	private static final double MAX_RANGE = 255; //Reading when no echo comes back (in cm)
+	private static final double SMALL_RANGE = 100; //The blocks are too small to send an echo back from further than this (in cm)
+	private static final double CONE = Math.toRadians(15); //Half angle of the cone of the sensor
+	private static final double RANGE_NOISE = 0.7; //In cm
+	private static final double DROPOUT = 0.02; //Probability of a reading without echo
+	
+	private final double min = -Main.TILE_LENGTH, max = (Main.MAP_TILE_SIZE - 1) * Main.TILE_LENGTH;
+	private final ArrayList<double[]> blocks = new ArrayList<double[]>(); //As {x1, y1, x2, y2}
+	private final double[] tray; //As {x1, y1, x2, y2}
+	
+	/**
+	 * constructs a field without obstacles
+	 * @param llx the x of the lower left corner of the ball tray, as sent by the server (in tiles)
+	 * @param lly the y of the lower left corner of the ball tray
+	 * @param urx the x of the upper right corner of the ball tray
+	 * @param ury the y of the upper right corner of the ball tray
+	 */
+	public Field(int llx, int lly, int urx, int ury) {
+		double t = Main.TILE_LENGTH;
+		if((llx < urx) == (lly < ury)) //Along a vertical edge, at x = llx
+			tray = new double[] {llx * t - TRAY_WIDTH / 2, Math.min(lly, ury) * t, llx * t + TRAY_WIDTH / 2, Math.max(lly, ury) * t};
+		else //Along a horizontal edge, at y = lly
+			tray = new double[] {Math.min(llx, urx) * t, lly * t - TRAY_WIDTH / 2, Math.max(llx, urx) * t, lly * t + TRAY_WIDTH / 2};
+	}
+	
+	/**
+	 * Add an obstacle block
+	 * @param x the x of the center of the block
+	 * @param y the y of the center of the block
+	 */
+	public void addBlock(double x, double y) {
+		blocks.add(new double[] {x - BLOCK_SIZE / 2, y - BLOCK_SIZE / 2, x + BLOCK_SIZE / 2, y + BLOCK_SIZE / 2});
+	}
+	
+	/**
+	 * get the blocks of the field
+	 * @return the blocks, as {x1, y1, x2, y2}
+	 */
+	public double[][] getBlocks() {
+		return blocks.toArray(new double[0][]);
+	}
+	
+	/**
+	 * check if a point is clear of the walls, the blocks and the tray by a distance
+	 * @param x the x of the point
+	 * @param y the y of the point
+	 * @param clearance the distance (in cm)
+	 * @return whether nothing is within that distance of the point
+	 */
+	public boolean isClear(double x, double y, double clearance) {
+		if(x - clearance < min || x + clearance > max || y - clearance < min || y + clearance > max)
+			return false;
+		if(distance(tray, x, y) < clearance)
+			return false;
+		for(double[] block: blocks) {
+			if(distance(block, x, y) < clearance)
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * check if the body of the robot, seen as a disk, touches a wall or a block. The tray is not counted: the robot has to touch it to pick up a ball
+	 * @param x the x of the center of the robot
+	 * @param y the y of the center of the robot
+	 * @param radius the radius of the robot (in cm)
+	 * @return whether the robot collides
+	 */
+	public boolean collides(double x, double y, double radius) {
+		if(x - radius < min || x + radius > max || y - radius < min || y + radius > max)
+			return true;
+		for(double[] block: blocks) {
+			if(distance(block, x, y) < radius)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * get the reflected light read by a floor light sensor in red mode
+	 * @param x the x of the sensor
+	 * @param y the y of the sensor
+	 * @param random the source of the noise
+	 * @return the reading, from 0 to 1
+	 */
+	public float floor(double x, double y, Random random) {
+		double value = WOOD;
+		value -= (WOOD - LINE) * coverage(lineDistance(x), LINE_WIDTH);
+		value -= (WOOD - LINE) * coverage(lineDistance(y), LINE_WIDTH);
+		value -= (WOOD - SEAM) * coverage(seamDistance(x), SEAM_WIDTH);
+		value -= (WOOD - SEAM) * coverage(seamDistance(y), SEAM_WIDTH);
+		return (float) Math.max(LINE, value + random.nextGaussian() * FLOOR_NOISE);
+	}
+	
+	/**
+	 * get the distance from a coordinate to the closest grid line
+	 */
+	private static double lineDistance(double coordinate) {
+		return Math.abs(coordinate - Math.round(coordinate / Main.TILE_LENGTH) * Main.TILE_LENGTH);
+	}
+	
+	/**
+	 * get the distance from a coordinate to the closest seam between two boards, if it is next to the closest grid line. The boards start at the walls
+	 */
+	private static double seamDistance(double coordinate) {
+		long line = Math.round(coordinate / Main.TILE_LENGTH);
+		if(!isSeam(line))
+			return Double.POSITIVE_INFINITY;
+		return Math.abs(coordinate - (line * Main.TILE_LENGTH + SEAM_OFFSET));
+	}
+	
+	/**
+	 * check if a grid line has a seam between two boards next to it
+	 * @param line the index of the line (the coordinate of the line in tiles)
+	 * @return whether the line is on the edge of a board
+	 */
+	public static boolean isSeam(long line) {
+		return (line + 1) % Main.BOARD_TILE_SIZE == 0;
+	}
+	
+	/**
+	 * get the part of the spot of a light sensor covered by a dark stripe
+	 * @param distance the distance from the center of the spot to the center of the stripe
+	 * @param width the width of the stripe
+	 * @return the part covered, from 0 to 1
+	 */
+	private static double coverage(double distance, double width) {
+		double covered = (width / 2 + SPOT_RADIUS - distance) / (2 * SPOT_RADIUS);
+		return Math.max(0, Math.min(Math.min(1, width / (2 * SPOT_RADIUS)), covered));
+	}
+	
+	/**
+	 * get the range read by the ultrasonic sensor: the closest wall or block within its cone. The blocks are only seen when close enough, and the tray is lower than the sensor
+	 * @param x the x of the sensor
+	 * @param y the y of the sensor
+	 * @param angle the direction the sensor faces (in radians)
+	 * @param random the source of the noise
+	 * @return the reading (in cm), MAX_RANGE if no echo comes back
+	 */
+	public float range(double x, double y, double angle, Random random) {
+		if(random.nextDouble() < DROPOUT)
+			return (float) MAX_RANGE;
+		double range = MAX_RANGE;
+		for(int ray = -2; ray <= 2; ray++)
+			range = Math.min(range, cast(x, y, angle + ray * CONE / 2));
+		if(range >= MAX_RANGE)
+			return (float) MAX_RANGE;
+		return (float) Math.max(0, range + random.nextGaussian() * RANGE_NOISE);
+	}
+	
+	/**
+	 * get the distance to the first thing a ray hits
+	 */
+	private double cast(double x, double y, double angle) {
+		double dx = Math.cos(angle), dy = Math.sin(angle);
+		double distance = MAX_RANGE;
+		//Walls, from the inside
+		if(dx > 0)
+			distance = Math.min(distance, (max - x) / dx);
+		else if(dx < 0)
+			distance = Math.min(distance, (min - x) / dx);
+		if(dy > 0)
+			distance = Math.min(distance, (max - y) / dy);
+		else if(dy < 0)
+			distance = Math.min(distance, (min - y) / dy);
+		
+		double small = Double.POSITIVE_INFINITY;
+		for(double[] block: blocks)
+			small = Math.min(small, hit(block, x, y, dx, dy));
+		return (small < SMALL_RANGE)? Math.min(distance, small) : distance;
+	}
+	
+	/**
+	 * get the distance at which a ray enters a box (slab method), or infinity if it misses it
+	 */
+	private static double hit(double[] box, double x, double y, double dx, double dy) {
+		double near = 0, far = Double.POSITIVE_INFINITY;
+		double[] origin = {x, y}, direction = {dx, dy};
+		for(int axis = 0; axis < 2; axis++) {
+			if(Math.abs(direction[axis]) < 1e-12) {
+				if(origin[axis] < box[axis] || origin[axis] > box[axis + 2])
+					return Double.POSITIVE_INFINITY;
+				continue;
+			}
+			double t1 = (box[axis] - origin[axis]) / direction[axis];
+			double t2 = (box[axis + 2] - origin[axis]) / direction[axis];
+			near = Math.max(near, Math.min(t1, t2));
+			far = Math.min(far, Math.max(t1, t2));
+		}
+		return (near <= far)? near : Double.POSITIVE_INFINITY;
+	}
+	
+	/**
+	 * get the distance from a point to a box, 0 inside it
+	 */
+	private static double distance(double[] box, double x, double y) {
+		double dx = Math.max(0, Math.max(box[0] - x, x - box[2]));
+		double dy = Math.max(0, Math.max(box[1] - y, y - box[3]));
+		return Math.sqrt(dx*dx + dy*dy);
+	}
+}
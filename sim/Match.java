@@ -0,0 +1,617 @@
+package sim;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import filters.EdgeFilter;
+import filters.MeanFilter;
+import main.Clock;
+import main.ControlParameters;
+import main.Main;
+import main.Missions;
+import main.Navigator;
+import main.ObstacleDetector;
+import main.ObstacleMap;
+import main.Odometer;
+import main.OdometryCorrection;
+import main.SensorPoller;
+import wifi.StartConfig;
+
+/**
+ * One simulated match of the forward, on a random field: random position of the ball tray, forward line and obstacle blocks, and a robot built with small errors.
+ * The match runs on a virtual clock, on the thread that calls run(), as fast as the computer can go. The same seed always gives the same match.
+ *
+ * The tasks of the robot cannot run here since they drive the lejos motors and sensors. Their control code runs instead, at their periods:
+ * the odometer (Odometer.advance()), the floor and ultrasonic sensors read on the field and filtered by the filters of the robot, the odometry correction (OdometryCorrection.update()),
+ * the navigator (Navigator.control()), the obstacle map, and the obstacle detector (ObstacleDetector.control()). The mission follows Missions.forward().
+ * The light localization and the arm are modeled: they take a fixed time, and the localization fixes the odometer if the robot is close enough to the intersection it believes it is at.
+ *
+ * @version 1.0
+ */
+public class Match {
+	
+	private static final long TICK = 5; //Time step of the simulation (in ms)
+	private static final int ODOMETER_TICKS = 3; //Periods of the tasks of the robot, in ticks
+	private static final int SENSOR_TICKS = 5;
+	private static final int NAVIGATOR_TICKS = 4;
+	private static final int CORRECTION_TICKS = 5;
+	private static final int DETECTOR_TICKS = 5;
+	
+	//Robot
+	private static final double ROBOT_RADIUS = 11; //Radius of the body of the robot (in cm), for the collisions
+	private static final double BUILD_ERROR = 0.002; //Relative error of the wheel radii and the track from the values of the odometer, after calibration
+	private static final double LEFT_LOAD = 0.05; //Part of the speed lost by the left wheel, under the heavier side of the robot (see ControlParameters.LEFT_ADJUSTMENT)
+	private static final double SLIP = 0.01; //Relative noise on the rotation of the wheels at each tick
+	private static final double ACCELERATION = 6000; //Acceleration of the regulated motors (in deg/s^2)
+	private static final double START_ERROR = 1; //Error of the position (in cm) and of the angle (in degrees) after the localization at the start
+	private static final long PICKUP_TIME = 2500; //Time taken by the arm (in ms)
+	private static final long THROW_TIME = 1500;
+	
+	//Light localization
+	private static final long LOCALIZATION_TIME = 6000;
+	private static final double CAPTURE_DIST = OdometryCorrection.Y_SENSOR_DIST - 1; //The floor sensor must cross the two lines of the intersection on its circle
+	private static final double CAPTURE_ANGLE = Math.toRadians(20);
+	private static final double SEAM_FAILURE = 0.2; //Probability that a seam next to the intersection is taken for a line
+	private static final double FIX_ERROR = 0.5; //Error of the position (in cm) and of the angle (in degrees) after a light localization
+	private static final double SPIN_ERROR = Math.toRadians(1); //Error added to the angle by the full turn of a failed localization
+	
+	private final long seed;
+	private final ControlParameters parameters;
+	private final Random random;
+	private final StartConfig config;
+	private final Field field;
+	private final ObstacleMap obstacleMap = new ObstacleMap();
+	private final OdometryCorrection correction;
+	private final EdgeFilter edgeFilter = new EdgeFilter();
+	private final MeanFilter meanFilter = new MeanFilter();
+	private final Clock clock = new Clock() {
+		@Override
+		public long nanoTime() {
+			return time * 1000000;
+		}
+	};
+	
+	//True state of the robot
+	private long time = 0, ticks = 0; //Virtual time (in ms)
+	private double x, y, theta;
+	private final double leftRadius, rightRadius, track;
+	private double leftAngle, rightAngle; //Rotation of the wheels (in degrees)
+	private double leftSpeed, rightSpeed; //Speed of the wheels and the one set on the motors (in deg/s)
+	private int leftCommand, rightCommand;
+	
+	//State of the robot as its tasks see it
+	private final double[] pose = new double[3];
+	private int lastLeftTacho, lastRightTacho;
+	private double speed;
+	private final float[] leftFloor = new float[SensorPoller.COLOR_WINDOW], rightFloor = new float[SensorPoller.COLOR_WINDOW];
+	private final float[] us = new float[SensorPoller.US_WINDOW];
+	private int sensorIndex = 0;
+	private boolean correcting = false, detecting = false;
+	private boolean navigating = false, turning = false, backwards = false;
+	private Navigator.Route route = Navigator.Route.to(0, 0, false), detourRoute; //Route of the navigator, and the one it had when the detour started
+	private boolean held = false; //Whether the detour paused the navigator, as Navigator.hold()
+	private double[][] targets = { {0, 0} };
+	private int targetIndex = 0;
+	private double targetTheta;
+	private final int[] speeds = new int[2];
+	private final ObstacleDetector.Avoidance avoidance = new ObstacleDetector.Avoidance();
+	
+	//Results
+	private boolean collided = false;
+	private int timeouts = 0, localizations = 0, localizationFailures = 0, corrections = 0, detours = 0;
+	private final ArrayList<Long> cycleTimes = new ArrayList<Long>();
+	private final ArrayList<Double> pickupErrors = new ArrayList<Double>();
+	private final ArrayList<Double> localizationErrors = new ArrayList<Double>();
+	private double maxPoseError = 0;
+	
+	/**
+	 * constructs a random match, with the default control parameters
+	 * @param seed the seed of the match
+	 */
+	public Match(long seed) {
+		this(seed, ControlParameters.DEFAULT);
+	}
+	
+	/**
+	 * constructs a random match. The field and the errors of the robot only depend on the seed, so that sets of parameters can be compared on the same matches
+	 * @param seed the seed of the match
+	 * @param parameters the control parameters of the navigator, the odometry correction and the obstacle detector
+	 */
+	public Match(long seed, ControlParameters parameters) {
+		this.seed = seed;
+		this.parameters = parameters;
+		correction = new OdometryCorrection(parameters);
+		random = new Random(seed);
+		
+		//Forward line, moved off the seams as Main does
+		int d2 = 3 + random.nextInt(4);
+		if((d2 - 1) % Main.BOARD_TILE_SIZE == 0)
+			d2--;
+		
+		//Ball tray along one of the 4 edges of a tile beyond the shooting zone, with room for the localization points around it
+		int tileX = 2 + random.nextInt(Main.MAP_TILE_SIZE - 6);
+		int tileY = d2 + 1 + random.nextInt(Main.MAP_TILE_SIZE - 4 - d2);
+		int[][] corners = { {tileX, tileY, tileX + 1, tileY + 1}, {tileX, tileY + 1, tileX + 1, tileY}, {tileX + 1, tileY, tileX, tileY + 1}, {tileX + 1, tileY + 1, tileX, tileY} };
+		int[] tray = corners[random.nextInt(corners.length)];
+		
+		HashMap<String, Integer> map = new HashMap<String, Integer>();
+		map.put("OTN", 1);
+		map.put("DTN", 2);
+		map.put("OSC", 1);
+		map.put("DSC", 3);
+		map.put("ll-x", tray[0]);
+		map.put("ll-y", tray[1]);
+		map.put("ur-x", tray[2]);
+		map.put("ur-y", tray[3]);
+		map.put("d1", 3);
+		map.put("d2", d2);
+		try {
+			config = StartConfig.fromMap(map, 1);
+		} catch (IOException e) {
+			throw new IllegalStateException(e); //All the parameters are in the map
+		}
+		field = new Field(tray[0], tray[1], tray[2], tray[3]);
+		
+		//Up to 4 blocks, away from the start, the shooting spot and the tray
+		double t = Main.TILE_LENGTH;
+		double[] spot = Missions.getShootingSpot(d2);
+		int blocks = random.nextInt(5);
+		for(int i = 0; i < 50 && field.getBlocks().length < blocks; i++) {
+			double bx = (random.nextDouble() * (Main.MAP_TILE_SIZE - 2) + 0.5) * t - t, by = (random.nextDouble() * (Main.MAP_TILE_SIZE - 2) + 0.5) * t - t;
+			boolean nearTray = bx > (tileX - 1.5) * t && bx < (tileX + 2.5) * t && by > (tileY - 1.5) * t && by < (tileY + 2.5) * t;
+			if(!nearTray && Math.hypot(bx, by) > 2 * t && Math.hypot(bx - spot[0], by - spot[1]) > 1.5 * t && field.isClear(bx, by, t))
+				field.addBlock(bx, by);
+		}
+		
+		//Robot, built with small errors
+		leftRadius = Odometer.WHEEL_RADIUS * (1 + random.nextGaussian() * BUILD_ERROR);
+		rightRadius = Odometer.WHEEL_RADIUS * (1 + random.nextGaussian() * BUILD_ERROR);
+		track = Odometer.TRACK * (1 + random.nextGaussian() * BUILD_ERROR);
+	}
+	
+	/**
+	 * Run the match, from the end of the localization at the start to the last throw, or until the robot hits a wall or a block
+	 */
+	public void run() {
+		Clock.setThreadClock(clock);
+		try {
+			//Localized at the start, as Main does
+			x = random.nextGaussian() * START_ERROR;
+			y = random.nextGaussian() * START_ERROR;
+			theta = Math.PI / 2 + Math.toRadians(random.nextGaussian() * START_ERROR);
+			pose[0] = 0;
+			pose[1] = 0;
+			pose[2] = Math.PI / 2;
+			for(int i = 0; i < SensorPoller.COLOR_WINDOW; i++) //The sensor poller started before the localization
+				sensors();
+			correcting = true;
+			detecting = true;
+			obstacleMap.addExclusion((config.getTrayLowerLeftX() - 0.5) * Main.TILE_LENGTH, (config.getTrayLowerLeftY() - 0.5) * Main.TILE_LENGTH, (config.getTrayUpperRightX() + 0.5) * Main.TILE_LENGTH, (config.getTrayUpperRightY() + 0.5) * Main.TILE_LENGTH);
+			
+			double[] spot = Missions.getShootingSpot(config.getD2());
+			follow(Navigator.Route.square(spot[0], spot[1], false, true));
+			drive();
+			for(int ball = 0; ball < Missions.BALL_COUNT && !collided; ball++) {
+				if(!cycle(ball) && !collided) { //Skip the ball
+					stop();
+					detecting = true;
+				}
+			}
+		} finally {
+			Clock.setThreadClock(null);
+		}
+	}
+	
+	/**
+	 * Run the cycle of one ball, as Missions.ballCycle() builds it. The robot always goes back to the shooting spot, since the range of the throw planner is not modeled
+	 * @return whether the ball was thrown
+	 */
+	private boolean cycle(int ball) {
+		long start = time;
+		Missions.Cycle cycle = new Missions.Cycle();
+		cycle.plan(ball, config, pose[0]);
+		
+		double[] location = cycle.getLocalizationLocation();
+		follow(Navigator.Route.square(location[0], location[1], false, cycle.isYFirst()));
+		double backupX = targets[targetIndex][0], backupY = targets[targetIndex][1];
+		if(!drive())
+			return false;
+		localize();
+		
+		double[] ballLocation = cycle.getBallLocation();
+		follow(Navigator.Route.square(ballLocation[0], ballLocation[1], false, false));
+		if(!drive())
+			return false;
+		follow(Navigator.Route.turn(Math.PI / 2));
+		if(!drive())
+			return false;
+		detecting = false;
+		pickupErrors.add(Math.hypot(x - ballLocation[0], y - ballLocation[1]));
+		idle(PICKUP_TIME);
+		
+		follow(Navigator.Route.to(backupX, backupY, true));
+		if(!drive())
+			return false;
+		detecting = true;
+		double[] spot = Missions.getShootingSpot(config.getD2());
+		follow(Navigator.Route.square(spot[0], spot[1], false, true));
+		if(!drive())
+			return false;
+		localize();
+		
+		detecting = false;
+		follow(Navigator.Route.turn(Missions.getThrowHeading(pose[0], pose[1])));
+		if(!drive())
+			return false;
+		idle(THROW_TIME);
+		detecting = true;
+		cycleTimes.add(time - start);
+		return true;
+	}
+	
+	/**
+	 * Light localize at the intersection closest to the odometer, retried as the mission does. Keeps the odometer as it is if all the attempts fail
+	 */
+	private void localize() {
+		localizationErrors.add(getPoseError());
+		for(int attempt = 0; attempt < Missions.LOCALIZATION_ATTEMPTS; attempt++) {
+			localizations++;
+			idle(LOCALIZATION_TIME);
+			long lineX = Math.round(pose[0] / Main.TILE_LENGTH), lineY = Math.round(pose[1] / Main.TILE_LENGTH);
+			double dx = x - lineX * Main.TILE_LENGTH, dy = y - lineY * Main.TILE_LENGTH;
+			boolean captured = Math.abs(dx) < CAPTURE_DIST && Math.abs(dy) < CAPTURE_DIST && Math.abs(angleError()) < CAPTURE_ANGLE;
+			boolean seam = Field.isSeam(lineX) || Field.isSeam(lineY);
+			if(captured && !(seam && random.nextDouble() < SEAM_FAILURE)) {
+				pose[0] = x + random.nextGaussian() * FIX_ERROR;
+				pose[1] = y + random.nextGaussian() * FIX_ERROR;
+				pose[2] = normalize(theta + Math.toRadians(random.nextGaussian() * FIX_ERROR));
+				return;
+			}
+			localizationFailures++;
+			pose[2] = normalize(pose[2] + random.nextGaussian() * SPIN_ERROR);
+		}
+	}
+	
+	/**
+	 * Run the navigator until it stops
+	 * @return false if the robot collided or the leg took longer than the timeout of the mission
+	 */
+	private boolean drive() {
+		long deadline = time + Missions.NAVIGATION_TIMEOUT;
+		while(navigating) {
+			if(collided)
+				return false;
+			if(time >= deadline) {
+				timeouts++;
+				return false;
+			}
+			tick();
+		}
+		return !collided;
+	}
+	
+	/**
+	 * Let the time pass with the robot stopped
+	 */
+	private void idle(long duration) {
+		long end = time + duration;
+		while(time < end)
+			tick();
+	}
+	
+	/**
+	 * Stop the navigation and any detour, as the skip of a ball does
+	 */
+	private void stop() {
+		navigating = false;
+		avoidance.reset();
+		held = false;
+		correcting = true;
+		correction.reset();
+		setSpeeds(0, 0);
+	}
+	
+	/**
+	 * Advance the match by one tick: move the robot, then run the tasks whose period is over
+	 */
+	private void tick() {
+		move();
+		time += TICK;
+		ticks++;
+		if(field.collides(x, y, ROBOT_RADIUS))
+			collided = true;
+		
+		if(ticks % ODOMETER_TICKS == 0)
+			odometer();
+		if(ticks % SENSOR_TICKS == 0)
+			sensors();
+		if(ticks % CORRECTION_TICKS == 0 && correcting) {
+			int last = (sensorIndex - 1) % SensorPoller.COLOR_WINDOW;
+			if(correction.update(edgeFilter.getFilteredData(leftFloor, last) > 0, edgeFilter.getFilteredData(rightFloor, last) > 0, pose, Clock.millis()))
+				corrections++;
+		}
+		if(ticks % DETECTOR_TICKS == 0 && detecting) //Runs whenever the mission has it running, as on the robot, not only while the navigator drives
+			detector();
+		if(ticks % NAVIGATOR_TICKS == 0 && navigating && !avoidance.isAvoiding())
+			navigator();
+		maxPoseError = Math.max(maxPoseError, getPoseError());
+	}
+	
+	/**
+	 * Move the wheels towards the speeds set on the motors, and the robot with them
+	 */
+	private void move() {
+		double dt = TICK / 1000.0;
+		leftSpeed = accelerate(leftSpeed, leftCommand, ACCELERATION * dt);
+		rightSpeed = accelerate(rightSpeed, rightCommand, ACCELERATION * dt);
+		double left = leftSpeed * (1 - LEFT_LOAD) * dt * (1 + random.nextGaussian() * SLIP);
+		double right = rightSpeed * dt * (1 + random.nextGaussian() * SLIP);
+		leftAngle += left;
+		rightAngle += right;
+		
+		double leftDistance = Math.toRadians(left) * leftRadius, rightDistance = Math.toRadians(right) * rightRadius;
+		double distance = (leftDistance + rightDistance) / 2;
+		double deltaTheta = (rightDistance - leftDistance) / track;
+		x += distance * Math.cos(theta + deltaTheta / 2);
+		y += distance * Math.sin(theta + deltaTheta / 2);
+		theta = normalize(theta + deltaTheta);
+	}
+	
+	/**
+	 * get a speed changed towards a target by at most a step
+	 */
+	private static double accelerate(double speed, double target, double step) {
+		if(Math.abs(target - speed) <= step)
+			return target;
+		return speed + Math.signum(target - speed) * step;
+	}
+	
+	/**
+	 * One iteration of the odometer, on the tacho counts of the wheels
+	 */
+	private void odometer() {
+		int leftTacho = (int) Math.round(leftAngle), rightTacho = (int) Math.round(rightAngle);
+		double distance = Odometer.advance(pose, leftTacho - lastLeftTacho, rightTacho - lastRightTacho);
+		speed = distance / (ODOMETER_TICKS * TICK / 1000.0);
+		lastLeftTacho = leftTacho;
+		lastRightTacho = rightTacho;
+	}
+	
+	/**
+	 * One iteration of the sensor poller: the floor sensors behind the wheels on each side, and the ultrasonic sensor in front
+	 */
+	private void sensors() {
+		double cos = Math.cos(theta), sin = Math.sin(theta);
+		double backX = x - OdometryCorrection.Y_SENSOR_DIST * cos, backY = y - OdometryCorrection.Y_SENSOR_DIST * sin;
+		leftFloor[sensorIndex % SensorPoller.COLOR_WINDOW] = field.floor(backX - OdometryCorrection.X_SENSOR_DIST * sin, backY + OdometryCorrection.X_SENSOR_DIST * cos, random);
+		rightFloor[sensorIndex % SensorPoller.COLOR_WINDOW] = field.floor(backX + OdometryCorrection.X_SENSOR_DIST * sin, backY - OdometryCorrection.X_SENSOR_DIST * cos, random);
+		us[sensorIndex % SensorPoller.US_WINDOW] = field.range(x + ObstacleDetector.US_SENSOR_DIST * cos, y + ObstacleDetector.US_SENSOR_DIST * sin, theta, random) / 100;
+		sensorIndex++;
+	}
+	
+	/**
+	 * One iteration of the navigator, as Navigator.step()
+	 */
+	private void navigator() {
+		double[] target = targets[targetIndex];
+		if(!turning)
+			targetTheta = Navigator.getHeading(pose[0], pose[1], target[0], target[1], backwards);
+		
+		switch(Navigator.control(parameters, pose[0], pose[1], pose[2], target[0], target[1], targetTheta, turning, backwards, speeds)) {
+		case Navigator.ROTATING:
+			setSpeeds(speeds[0], speeds[1]);
+			correction.reset();
+			break;
+		case Navigator.MOVING:
+			setSpeeds(speeds[0], speeds[1]);
+			break;
+		case Navigator.TURNED:
+			turning = false;
+			targets[targetIndex] = new double[] {pose[0], pose[1]};
+			break;
+		case Navigator.ARRIVED:
+			if(targetIndex + 1 < targets.length) {
+				targetIndex++;
+			}
+			else {
+				setSpeeds(0, 0);
+				navigating = false;
+			}
+			break;
+		}
+	}
+	
+	/**
+	 * One iteration of the obstacle detector, as ObstacleDetector.step(): go around an obstacle by turning away from it and curving back along it
+	 */
+	private void detector() {
+		float front = meanFilter.getFilteredData(us) * 100;
+		if(!avoidance.isAvoiding())
+			avoidance.setGoal(targets[targets.length - 1][0], targets[targets.length - 1][1]);
+		
+		switch(ObstacleDetector.control(parameters, obstacleMap, pose, speed, front, clock.nanoTime(), avoidance, speeds)) {
+		case ObstacleDetector.AVOID: //Pause the navigator and the correction, and turn away
+			detours++;
+			correcting = false;
+			correction.reset();
+			detourRoute = route;
+			held = navigating; //The navigator is only held if it was driving
+			setSpeeds(speeds[0], speeds[1]);
+			break;
+		case ObstacleDetector.STEER:
+			setSpeeds(speeds[0], speeds[1]);
+			break;
+		case ObstacleDetector.LEAVE: //Give the control back to the navigator, on the route it had before the detour, or stop if the detour did not pause it
+			if(held)
+				follow(detourRoute);
+			else
+				setSpeeds(0, 0);
+			held = false;
+			correcting = true;
+			correction.reset();
+			break;
+		}
+	}
+	
+	/**
+	 * Set the speeds of the motors
+	 * @param left the speed of the left motor (in deg/s, negative to go backward)
+	 * @param right the speed of the right motor
+	 */
+	private void setSpeeds(int left, int right) {
+		leftCommand = left;
+		rightCommand = right;
+	}
+	
+	/**
+	 * Start following a route, planned from the position of the odometer around the known obstacles, as Navigator.follow()
+	 */
+	private void follow(Navigator.Route route) {
+		targets = route.plan(obstacleMap, pose[0], pose[1]);
+		targetIndex = 0;
+		backwards = route.isBackwards();
+		if(route.isTurn())
+			targetTheta = route.getTheta();
+		turning = route.isTurn();
+		this.route = route;
+		navigating = true;
+	}
+	
+	/**
+	 * get an angle between 0 and 2 pi
+	 */
+	private static double normalize(double angle) {
+		angle %= 2*Math.PI;
+		return (angle < 0)? angle + 2*Math.PI : angle;
+	}
+	
+	/**
+	 * get the error of the angle of the odometer, between -pi and pi
+	 */
+	private double angleError() {
+		double error = normalize(pose[2] - theta);
+		return (error > Math.PI)? error - 2*Math.PI : error;
+	}
+	
+	/**
+	 * get the distance between the position of the odometer and the true one
+	 * @return the error (in cm)
+	 */
+	public double getPoseError() {
+		return Math.hypot(pose[0] - x, pose[1] - y);
+	}
+	
+	/**
+	 * get the seed of the match, to run it again
+	 * @return the seed
+	 */
+	public long getSeed() {
+		return seed;
+	}
+	
+	/**
+	 * get the parameters of the match
+	 * @return the parameters, as the server would send them
+	 */
+	public StartConfig getConfig() {
+		return config;
+	}
+	
+	/**
+	 * check if the robot hit a wall or a block, which ended the match
+	 * @return whether the robot collided
+	 */
+	public boolean isCollided() {
+		return collided;
+	}
+	
+	/**
+	 * get the number of legs that took longer than the timeout of the mission. The ball of the leg was skipped
+	 * @return the number of timeouts
+	 */
+	public int getTimeouts() {
+		return timeouts;
+	}
+	
+	/**
+	 * get the number of light localizations tried, retries included
+	 * @return the number of attempts
+	 */
+	public int getLocalizations() {
+		return localizations;
+	}
+	
+	/**
+	 * get the number of light localizations that failed
+	 * @return the number of failures
+	 */
+	public int getLocalizationFailures() {
+		return localizationFailures;
+	}
+	
+	/**
+	 * get the number of corrections of the odometry correction
+	 * @return the number of corrections
+	 */
+	public int getCorrections() {
+		return corrections;
+	}
+	
+	/**
+	 * get the number of times the robot went around an obstacle
+	 * @return the number of detours
+	 */
+	public int getDetours() {
+		return detours;
+	}
+	
+	/**
+	 * get the time of each ball thrown, from leaving the shooting spot to the throw
+	 * @return the times (in ms)
+	 */
+	public ArrayList<Long> getCycleTimes() {
+		return cycleTimes;
+	}
+	
+	/**
+	 * get the distance between the robot and the ball when the arm picked it up, for each ball
+	 * @return the distances (in cm)
+	 */
+	public ArrayList<Double> getPickupErrors() {
+		return pickupErrors;
+	}
+	
+	/**
+	 * get the error of the odometer when the robot stopped to light localize
+	 * @return the errors (in cm)
+	 */
+	public ArrayList<Double> getLocalizationErrors() {
+		return localizationErrors;
+	}
+	
+	/**
+	 * get the largest error of the odometer during the match
+	 * @return the error (in cm)
+	 */
+	public double getMaxPoseError() {
+		return maxPoseError;
+	}
+	
+	/**
+	 * get the control parameters of the match
+	 * @return the parameters
+	 */
+	public ControlParameters getParameters() {
+		return parameters;
+	}
+	
+	/**
+	 * get the virtual time the match took
+	 * @return the time (in ms)
+	 */
+	public long getTime() {
+		return time;
+	}
+}
@@ -0,0 +1,132 @@
+package sim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import main.ControlParameters;
+import main.Missions;
+
+/**
+ * Runs many simulated matches (see Match) at once, one per thread of a pool sized to the cores of the computer, and prints the distribution of their results:
+ * how many matches ended early, the cycle time of a ball, the failures of the light localization, and the accuracy of the pickups.
+ * Match i uses the seed (seed + i), so a strange match can be run again on its own.
+ * The matches use the default control parameters, or the ones of a file written by the tuner (see Tuner).
+ * Usage: MonteCarlo [matches] [threads] [seed] [parameters file]
+ *
+ * @version 1.0
+ */
+public class MonteCarlo {
+	
+	public static void main(String[] args) throws Exception {
+		int matches = (args.length > 0)? Integer.parseInt(args[0]) : 1000;
+		int threads = (args.length > 1)? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		long seed = (args.length > 2)? Long.parseLong(args[2]) : 0;
+		ControlParameters parameters = (args.length > 3)? ControlParameters.load(args[3]) : ControlParameters.DEFAULT;
+		
+		long start = System.nanoTime();
+		List<Match> results = run(matches, threads, seed, parameters);
+		long wallTime = (System.nanoTime() - start) / 1000000;
+		print(results, wallTime, threads);
+	}
+	
+	/**
+	 * Run matches on a pool of threads
+	 * @param matches the number of matches
+	 * @param threads the number of threads
+	 * @param seed the seed of the first match
+	 * @param parameters the control parameters of the robot
+	 * @return the matches, run, in the order of their seeds
+	 * @throws Exception if a match threw an exception
+	 */
+	public static List<Match> run(int matches, int threads, long seed, final ControlParameters parameters) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Match>> futures = new ArrayList<Future<Match>>();
+			for(int i = 0; i < matches; i++) {
+				final long matchSeed = seed + i;
+				futures.add(pool.submit(new Callable<Match>() {
+					@Override
+					public Match call() {
+						Match match = new Match(matchSeed, parameters);
+						match.run();
+						return match;
+					}
+				}));
+			}
+			
+			List<Match> results = new ArrayList<Match>();
+			for(Future<Match> future: futures)
+				results.add(future.get());
+			return results;
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Print the distribution of the results of matches
+	 */
+	private static void print(List<Match> results, long wallTime, int threads) {
+		int collided = 0, timedOut = 0, localizations = 0, failures = 0, detours = 0;
+		long matchTime = 0;
+		int[] failuresPerMatch = new int[4]; //0, 1, 2 and 3 or more
+		List<Double> cycleTimes = new ArrayList<Double>(), pickupErrors = new ArrayList<Double>(), localizationErrors = new ArrayList<Double>();
+		List<Long> collidedSeeds = new ArrayList<Long>();
+		for(Match match: results) {
+			if(match.isCollided()) {
+				collided++;
+				if(collidedSeeds.size() < 10)
+					collidedSeeds.add(match.getSeed());
+			}
+			if(match.getTimeouts() > 0)
+				timedOut++;
+			localizations += match.getLocalizations();
+			failures += match.getLocalizationFailures();
+			failuresPerMatch[Math.min(3, match.getLocalizationFailures())]++;
+			detours += match.getDetours();
+			matchTime += match.getTime();
+			for(long time: match.getCycleTimes())
+				cycleTimes.add(time / 1000.0);
+			pickupErrors.addAll(match.getPickupErrors());
+			localizationErrors.addAll(match.getLocalizationErrors());
+		}
+		
+		int count = results.size();
+		System.out.println(count + " matches on " + threads + " threads in " + wallTime + " ms: " + String.format("%.0f", matchTime / (double) Math.max(1, wallTime)) + " times faster than real time");
+		System.out.println("Completed: " + (count - collided) + ", collided: " + collided + " " + collidedSeeds + ", with a timeout: " + timedOut);
+		System.out.println("Balls thrown: " + cycleTimes.size() + " of " + count * Missions.BALL_COUNT + ", detours: " + detours);
+		System.out.println("Cycle time (s): " + percentiles(cycleTimes));
+		System.out.println("Light localizations: " + localizations + ", failed: " + failures + String.format(" (%.1f%%)", 100.0 * failures / Math.max(1, localizations))
+			+ ", matches with 0/1/2/3+ failures: " + Arrays.toString(failuresPerMatch));
+		System.out.println("Odometer error before localizing (cm): " + percentiles(localizationErrors));
+		System.out.println("Pickup error (cm): " + percentiles(pickupErrors));
+	}
+	
+	/**
+	 * get the mean, median, 90th and 99th percentiles and maximum of values
+	 * @param values the values, sorted by this method
+	 * @return the statistics, as text
+	 */
+	static String percentiles(List<Double> values) {
+		if(values.isEmpty())
+			return "none";
+		Collections.sort(values);
+		double sum = 0;
+		for(double value: values)
+			sum += value;
+		return String.format("mean %.2f, p50 %.2f, p90 %.2f, p99 %.2f, max %.2f", sum / values.size(), percentile(values, 0.5), percentile(values, 0.9), percentile(values, 0.99), values.get(values.size() - 1));
+	}
+	
+	/**
+	 * get a percentile of sorted values, as the value of that rank
+	 */
+	private static double percentile(List<Double> values, double p) {
+		return values.get(Math.min(values.size() - 1, (int) (p * values.size())));
+	}
+}
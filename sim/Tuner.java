@@ -0,0 +1,295 @@
+package sim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import main.ControlParameters;
+import main.Missions;
+
+/**
+ * Searches the control parameters (see ControlParameters) that make the matches of the simulator shortest, while keeping the odometer accurate enough for the light localization.
+ * Each set of parameters plays the same matches (the seeds are shared), so the sets are compared on the same fields and the same robots.
+ * The search has two rounds:
+ * first every parameter is moved on its own from its default value, then random sets mix the values that made the matches shorter.
+ * The matches of every round run on a fork/join pool: the sets are split among the cores, and the matches of a set are split again, so that the cores stay busy until the end of the round.
+ *
+ * A set is scored by its mission time: the time of a match, plus a penalty for each ball that was not thrown (a timeout, a collision or a skipped ball ends the cycle early, which must not look fast).
+ * A set is feasible if the 90th percentile of the odometer error before a light localization stays under a bound, by default the error of the default set: the faster sets must not make the localization fail more often.
+ * The sets are printed ranked, the feasible ones first, and the best one is written to a file for Main (see ControlParameters.load()).
+ * Usage: Tuner [matches per set] [random sets] [error bound (cm), 0 for the error of the default set] [seed] [output file]
+ *
+ * @version 1.0
+ */
+public class Tuner {
+	
+	private static final double[] STEPS = {0.6, 0.8, 1.25, 1.5}; //Factors applied to each default value in the first round
+	private static final long MISSED_BALL_PENALTY = 60000; //Added to the mission time for each ball not thrown (in ms)
+	private static final double ERROR_PERCENTILE = 0.9;
+	private static final int MATCHES_PER_TASK = 4; //Matches run by a task of the pool without splitting it further
+	private static final int RANKED = 15; //Sets printed
+	
+	/**
+	 * The results of a set of parameters on all the matches
+	 */
+	public static class Score {
+		private final ControlParameters parameters;
+		private final double missionTime; //Mean, in s
+		private final double localizationError; //Percentile, in cm
+		private final int collisions;
+		private final int thrown;
+		
+		private Score(ControlParameters parameters, List<Match> matches) {
+			this.parameters = parameters;
+			long time = 0;
+			int collisions = 0, thrown = 0;
+			List<Double> errors = new ArrayList<Double>();
+			for(Match match: matches) {
+				int balls = match.getCycleTimes().size();
+				time += match.getTime() + (Missions.BALL_COUNT - balls) * MISSED_BALL_PENALTY;
+				thrown += balls;
+				if(match.isCollided())
+					collisions++;
+				errors.addAll(match.getLocalizationErrors());
+			}
+			Collections.sort(errors);
+			this.missionTime = time / 1000.0 / Math.max(1, matches.size());
+			this.localizationError = errors.isEmpty()? 0 : errors.get(Math.min(errors.size() - 1, (int) (ERROR_PERCENTILE * errors.size())));
+			this.collisions = collisions;
+			this.thrown = thrown;
+		}
+		
+		/**
+		 * get the set of parameters
+		 * @return the parameters
+		 */
+		public ControlParameters getParameters() {
+			return parameters;
+		}
+		
+		/**
+		 * get the mean mission time of the matches, with the penalties of the balls not thrown
+		 * @return the time (in s)
+		 */
+		public double getMissionTime() {
+			return missionTime;
+		}
+		
+		/**
+		 * get the 90th percentile of the odometer error before a light localization
+		 * @return the error (in cm)
+		 */
+		public double getLocalizationError() {
+			return localizationError;
+		}
+		
+		/**
+		 * check if the odometer stays accurate enough with this set
+		 * @param bound the largest error allowed (in cm)
+		 * @return whether the error is under the bound
+		 */
+		public boolean isFeasible(double bound) {
+			return localizationError <= bound;
+		}
+		
+		/**
+		 * get the number of balls thrown in all the matches
+		 * @return the number of balls
+		 */
+		public int getThrown() {
+			return thrown;
+		}
+		
+		/**
+		 * get the number of matches that ended on a collision
+		 * @return the number of matches
+		 */
+		public int getCollisions() {
+			return collisions;
+		}
+	}
+	
+	/**
+	 * Plays matches with a set of parameters, splitting them in halves until they are few enough
+	 */
+	private static class MatchTask extends RecursiveTask<List<Match>> {
+		private static final long serialVersionUID = 1L;
+		private final ControlParameters parameters;
+		private final long seed;
+		private final int count;
+		
+		MatchTask(ControlParameters parameters, long seed, int count) {
+			this.parameters = parameters;
+			this.seed = seed;
+			this.count = count;
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		@Override
+		protected List<Match> compute() {
+			if(count <= MATCHES_PER_TASK) {
+				List<Match> matches = new ArrayList<Match>();
+				for(int i = 0; i < count; i++) {
+					Match match = new Match(seed + i, parameters);
+					match.run();
+					matches.add(match);
+				}
+				return matches;
+			}
+			MatchTask first = new MatchTask(parameters, seed, count / 2);
+			MatchTask second = new MatchTask(parameters, seed + count / 2, count - count / 2);
+			first.fork();
+			List<Match> matches = new ArrayList<Match>(second.compute());
+			matches.addAll(0, first.join());
+			return matches;
+		}
+	}
+	
+	/**
+	 * Scores sets of parameters, splitting them in halves until a task has a single set, which then splits its matches
+	 */
+	private static class SetTask extends RecursiveTask<List<Score>> {
+		private static final long serialVersionUID = 1L;
+		private final List<ControlParameters> sets;
+		private final long seed;
+		private final int matches;
+		
+		SetTask(List<ControlParameters> sets, long seed, int matches) {
+			this.sets = sets;
+			this.seed = seed;
+			this.matches = matches;
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		@Override
+		protected List<Score> compute() {
+			List<Score> scores = new ArrayList<Score>();
+			if(sets.size() == 1) {
+				scores.add(new Score(sets.get(0), new MatchTask(sets.get(0), seed, matches).compute()));
+				return scores;
+			}
+			int half = sets.size() / 2;
+			SetTask first = new SetTask(sets.subList(0, half), seed, matches);
+			SetTask second = new SetTask(sets.subList(half, sets.size()), seed, matches);
+			first.fork();
+			List<Score> secondScores = second.compute();
+			scores.addAll(first.join());
+			scores.addAll(secondScores);
+			return scores;
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		int matches = (args.length > 0)? Integer.parseInt(args[0]) : 100;
+		int combinations = (args.length > 1)? Integer.parseInt(args[1]) : 40;
+		double errorBound = (args.length > 2)? Double.parseDouble(args[2]) : 0;
+		long seed = (args.length > 3)? Long.parseLong(args[3]) : 0;
+		String fileName = (args.length > 4)? args[4] : "control.txt";
+		
+		ForkJoinPool pool = new ForkJoinPool();
+		long start = System.nanoTime();
+		
+		//First round: each parameter on its own
+		List<ControlParameters> sets = new ArrayList<ControlParameters>();
+		sets.add(ControlParameters.DEFAULT);
+		for(int parameter = 0; parameter < ControlParameters.getCount(); parameter++) {
+			for(double step: STEPS) {
+				ControlParameters set = ControlParameters.DEFAULT.with(parameter, ControlParameters.DEFAULT.get(parameter) * step);
+				if(set.isValid() && !set.equals(ControlParameters.DEFAULT) && !sets.contains(set))
+					sets.add(set);
+			}
+		}
+		List<Score> scores = pool.invoke(new SetTask(sets, seed, matches));
+		Score reference = scores.get(0);
+		final double bound = (errorBound > 0)? errorBound : reference.getLocalizationError();
+		System.out.println(String.format("Round 1: %d sets of %d matches, default: %.1f s, error %.2f cm", sets.size(), matches, reference.getMissionTime(), reference.getLocalizationError()));
+		
+		//Second round: random mixes of the values that did better than the default on their own
+		List<List<Double>> better = new ArrayList<List<Double>>();
+		for(int parameter = 0; parameter < ControlParameters.getCount(); parameter++) {
+			List<Double> values = new ArrayList<Double>();
+			values.add(ControlParameters.DEFAULT.get(parameter));
+			better.add(values);
+		}
+		for(Score score: scores) {
+			if(score.isFeasible(bound) && score.getMissionTime() < reference.getMissionTime()) {
+				int parameter = changedParameter(score.getParameters());
+				better.get(parameter).add(score.getParameters().get(parameter));
+			}
+		}
+		Random random = new Random(seed);
+		LinkedHashSet<ControlParameters> mixes = new LinkedHashSet<ControlParameters>();
+		for(int i = 0; i < combinations * 10 && mixes.size() < combinations; i++) {
+			ControlParameters set = ControlParameters.DEFAULT;
+			for(int parameter = 0; parameter < ControlParameters.getCount(); parameter++) {
+				List<Double> values = better.get(parameter);
+				set = set.with(parameter, values.get(random.nextInt(values.size())));
+			}
+			if(set.isValid() && !sets.contains(set))
+				mixes.add(set);
+		}
+		if(!mixes.isEmpty()) {
+			scores.addAll(pool.invoke(new SetTask(new ArrayList<ControlParameters>(mixes), seed, matches)));
+			System.out.println("Round 2: " + mixes.size() + " mixes");
+		}
+		pool.shutdown();
+		long wallTime = (System.nanoTime() - start) / 1000000;
+		
+		//Rank: feasible first, then by mission time
+		Collections.sort(scores, new Comparator<Score>() {
+			@Override
+			public int compare(Score a, Score b) {
+				if(a.isFeasible(bound) != b.isFeasible(bound))
+					return a.isFeasible(bound)? -1 : 1;
+				return Double.compare(a.getMissionTime(), b.getMissionTime());
+			}
+		});
+		System.out.println(scores.size() * matches + " matches in " + wallTime + String.format(" ms, error bound %.2f cm", bound));
+		for(int i = 0; i < Math.min(RANKED, scores.size()); i++) {
+			Score score = scores.get(i);
+			System.out.println(String.format("%2d. %s %.1f s, error %.2f cm, thrown %d, collisions %d: %s", i + 1, score.isFeasible(bound)? " " : "!",
+				score.getMissionTime(), score.getLocalizationError(), score.getThrown(), score.getCollisions(), changes(score.getParameters())));
+		}
+		
+		Score best = scores.get(0);
+		if(best.isFeasible(bound)) {
+			best.getParameters().save(fileName);
+			System.out.println("Best set written to " + fileName);
+		}
+		else
+			System.out.println(String.format("No set keeps the error under %.2f cm", bound));
+	}
+	
+	/**
+	 * get the parameter a set of the first round changed from the defaults
+	 */
+	private static int changedParameter(ControlParameters parameters) {
+		for(int parameter = 0; parameter < ControlParameters.getCount(); parameter++) {
+			if(parameters.get(parameter) != ControlParameters.DEFAULT.get(parameter))
+				return parameter;
+		}
+		return 0;
+	}
+	
+	/**
+	 * get the parameters of a set that differ from the defaults, as text
+	 */
+	private static String changes(ControlParameters parameters) {
+		StringBuilder builder = new StringBuilder();
+		for(int parameter = 0; parameter < ControlParameters.getCount(); parameter++) {
+			double value = parameters.get(parameter);
+			if(value != ControlParameters.DEFAULT.get(parameter))
+				builder.append(ControlParameters.getName(parameter)).append('=').append(ControlParameters.isInteger(parameter)? Long.toString((long) value) : String.format("%.4g", value)).append(' ');
+		}
+		return (builder.length() == 0)? "default" : builder.toString().trim();
+	}
+}
@@ -0,0 +1,128 @@
+package telemetry;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+
+import main.FlightRecorder;
+
+/**
+ * Turns a file of the flight recorder of the robot, copied from the brick, into a timeline: one line per record, oldest first.
+ * Each line has the time of day, the time since the program started and the time before the last record (in s), the type of the record and its values.
+ * Missing sequence numbers (records that were being written when the program stopped) are reported.
+ * Usage: FlightDump [file] [seconds before the end to show]
+ *
+ * @version 1.0
+ */
+public class FlightDump {
+	
+	private static final String[] TYPES = {"?", "POSE", "SENSORS", "MOTORS", "MISSION", "EVENT"};
+	private static final String[] MISSION_STATES = {"started", "succeeded", "failed"};
+	
+	public static void main(String[] args) throws IOException {
+		String fileName = (args.length > 0)? args[0] : FlightRecorder.FILE_NAME;
+		double seconds = (args.length > 1)? Double.parseDouble(args[1]) : Double.POSITIVE_INFINITY;
+		
+		DataInputStream in = new DataInputStream(new FileInputStream(fileName));
+		if(in.readInt() != FlightRecorder.MAGIC) {
+			in.close();
+			throw new StreamCorruptedException("Not a flight recorder file");
+		}
+		int version = in.readInt();
+		int recordSize = in.readInt();
+		int capacity = in.readInt();
+		long startTime = in.readLong();
+		if(version != FlightRecorder.VERSION || recordSize != FlightRecorder.RECORD_SIZE) {
+			in.close();
+			throw new StreamCorruptedException("Unsupported version " + version);
+		}
+		in.skipBytes(FlightRecorder.HEADER_SIZE - 24);
+		
+		//Read the records that were completely written, then put them back in order
+		byte[][] records = new byte[capacity][];
+		int count = 0;
+		for(int i = 0; i < capacity; i++) {
+			byte[] record = new byte[recordSize];
+			in.readFully(record);
+			if(getInt(record, 0) != 0)
+				records[count++] = record;
+		}
+		in.close();
+		records = Arrays.copyOf(records, count);
+		Arrays.sort(records, new Comparator<byte[]>() {
+			@Override
+			public int compare(byte[] a, byte[] b) {
+				return Integer.compare(getInt(a, 0), getInt(b, 0));
+			}
+		});
+		if(count == 0) {
+			System.out.println("Empty recording");
+			return;
+		}
+		
+		long endTime = getInt(records[count - 1], 4) & 0xffffffffL;
+		SimpleDateFormat clock = new SimpleDateFormat("HH:mm:ss.SSS");
+		System.out.println("Recording started " + new Date(startTime) + ", " + count + " records, " + (getInt(records[count - 1], 0) - getInt(records[0], 0) + 1 - count) + " missing");
+		
+		int previousSequence = getInt(records[0], 0) - 1;
+		for(byte[] record: records) {
+			int sequence = getInt(record, 0);
+			long time = getInt(record, 4) & 0xffffffffL; //In us
+			if((endTime - time) / 1e6 > seconds) {
+				previousSequence = sequence;
+				continue;
+			}
+			if(sequence != previousSequence + 1)
+				System.out.println("   (" + (sequence - previousSequence - 1) + " records missing)");
+			previousSequence = sequence;
+			
+			StringBuilder line = new StringBuilder();
+			line.append(clock.format(new Date(startTime + time / 1000)));
+			line.append(String.format("  %10.6f  %9.3f  ", time / 1e6, (time - endTime) / 1e6));
+			int type = record[8];
+			line.append(String.format("%-8s", (type > 0 && type < TYPES.length)? TYPES[type] : TYPES[0]));
+			line.append(describe(record, type));
+			System.out.println(line);
+		}
+	}
+	
+	/**
+	 * Describe the values of a record
+	 */
+	private static String describe(byte[] record, int type) {
+		int id = record[9];
+		int length = ((record[10] & 0xff) << 8) | (record[11] & 0xff);
+		float[] values = new float[Math.min(length, (record.length - FlightRecorder.VALUES_OFFSET) / 4)];
+		for(int i = 0; i < values.length; i++)
+			values[i] = Float.intBitsToFloat(getInt(record, FlightRecorder.VALUES_OFFSET + 4 * i));
+		
+		switch(type) {
+		case FlightRecorder.POSE:
+			return String.format("x %.2f  y %.2f  theta %.1f", values[0], values[1], Math.toDegrees(values[2]));
+		case FlightRecorder.SENSORS:
+			return String.format("us %.3f  left %.3f  right %.3f  center %.3f", values[0], values[1], values[2], values[3]);
+		case FlightRecorder.MOTORS:
+			return String.format("set %.0f %.0f  actual %.0f %.0f", values[0], values[1], values[2], values[3]);
+		case FlightRecorder.MISSION:
+			return getText(record, length) + " " + ((id >= 0 && id < MISSION_STATES.length)? MISSION_STATES[id] : "?");
+		case FlightRecorder.EVENT:
+			return getText(record, length);
+		default:
+			return Arrays.toString(values);
+		}
+	}
+	
+	private static String getText(byte[] record, int length) {
+		length = Math.min(length, record.length - FlightRecorder.VALUES_OFFSET);
+		return new String(record, FlightRecorder.VALUES_OFFSET, length);
+	}
+	
+	private static int getInt(byte[] bytes, int offset) {
+		return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16) | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+	}
+}
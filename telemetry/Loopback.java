@@ -0,0 +1,115 @@
+package telemetry;
+
+import java.io.BufferedInputStream;
+import java.net.Socket;
+import java.util.Arrays;
+
+import main.Telemetry;
+
+/**
+ * Runs the telemetry publisher and a receiver on the same computer, over the loopback interface, to check the stream without the robot.
+ * Publisher threads push increasing values on their own channels as fast as the given rate allows. The receiver checks that every channel only receives increasing values
+ * (samples are neither corrupted nor reordered), and counts the samples received and dropped. A slow receiver can be simulated, in which case the publisher has to drop samples instead of blocking:
+ * the longest time a publish() call took is reported.
+ * Usage: Loopback [publishers] [samples per second per publisher] [duration in s] [receiver delay per frame in ms]
+ *
+ * @version 1.0
+ */
+public class Loopback {
+	
+	private static final int PORT = Telemetry.PORT + 1;
+	
+	public static void main(String[] args) throws Exception {
+		final int publishers = (args.length > 0)? Integer.parseInt(args[0]) : 4;
+		final int rate = (args.length > 1)? Integer.parseInt(args[1]) : 1000;
+		final long duration = (args.length > 2)? Long.parseLong(args[2]) * 1000 : 5000;
+		final long readDelay = (args.length > 3)? Long.parseLong(args[3]) : 0;
+		
+		final Telemetry telemetry = new Telemetry(PORT);
+		telemetry.start();
+		
+		final long[] published = new long[publishers];
+		final long[] maxPublishTime = new long[publishers];
+		final long end = System.currentTimeMillis() + duration;
+		for(int p = 0; p < publishers; p++) {
+			final int publisher = p;
+			new Thread() {
+				@Override
+				public void run() {
+					Telemetry.Channel channel = telemetry.getChannel("Publisher" + publisher);
+					long period = 1000000000L / rate;
+					long next = System.nanoTime();
+					while(System.currentTimeMillis() < end) {
+						long start = System.nanoTime();
+						telemetry.publish(channel, published[publisher]++);
+						maxPublishTime[publisher] = Math.max(maxPublishTime[publisher], System.nanoTime() - start);
+						next += period;
+						long remaining = next - System.nanoTime();
+						if(remaining > 0) {
+							try {
+								Thread.sleep(remaining / 1000000, (int) (remaining % 1000000));
+							} catch (InterruptedException e) {
+								return;
+							}
+						}
+					}
+				}
+			}.start();
+		}
+		
+		Socket socket = new Socket("127.0.0.1", PORT);
+		socket.setSoTimeout(2000);
+		TelemetryDecoder decoder = new TelemetryDecoder(new BufferedInputStream(socket.getInputStream()));
+		final float[] lastValues = new float[256];
+		final long[] received = new long[256];
+		final long[] errors = new long[1], dropped = new long[1];
+		Arrays.fill(lastValues, -1);
+		
+		TelemetryDecoder.Listener listener = new TelemetryDecoder.Listener() {
+			private String[] names = new String[0];
+			
+			@Override
+			public void channelsChanged(String[] names) {
+				this.names = names;
+			}
+			
+			@Override
+			public void sample(int channel, long time, float value) {
+				if(channel >= names.length || names[channel] == null) {
+					errors[0]++; //Sample on a channel whose name was not received
+					return;
+				}
+				if(!names[channel].startsWith("Publisher"))
+					return; //Loop timings of the publisher
+				if(value <= lastValues[channel])
+					errors[0]++;
+				lastValues[channel] = value;
+				received[channel]++;
+			}
+			
+			@Override
+			public void frameEnd(long droppedCount) {
+				dropped[0] = droppedCount;
+			}
+		};
+		
+		while(System.currentTimeMillis() < end + 500 && decoder.readFrame(listener)) {
+			if(readDelay > 0)
+				Thread.sleep(readDelay);
+		}
+		socket.close();
+		
+		long totalPublished = 0, totalReceived = 0, maxTime = 0;
+		for(int p = 0; p < publishers; p++) {
+			totalPublished += published[p];
+			maxTime = Math.max(maxTime, maxPublishTime[p]);
+		}
+		for(long count: received)
+			totalReceived += count;
+		
+		System.out.println("Published " + totalPublished + ", received " + totalReceived + ", dropped " + telemetry.getDroppedCount() + " (" + dropped[0] + " reported in the frames), errors " + errors[0]);
+		System.out.println(decoder.getFrameCount() + " frames, " + decoder.getByteCount() + " bytes, " + (double) decoder.getByteCount() / Math.max(1, decoder.getSampleCount()) + " bytes per sample");
+		System.out.println("Longest publish: " + maxTime / 1000 + " us");
+		System.exit(errors[0] == 0? 0 : 1);
+	}
+}
@@ -0,0 +1,213 @@
+package telemetry;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.DefaultListModel;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import main.Telemetry;
+
+/**
+ * Desktop client of the telemetry of the robot. Connects to the robot, decodes the frames and plots the channels selected in the list, each one in its own strip with its own scale.
+ * The last WINDOW seconds of every channel are kept. The status bar shows the rate of samples received and the number of samples the robot dropped.
+ * Usage: TelemetryClient [robot IP] [port]
+ *
+ * @version 1.0
+ */
+@SuppressWarnings("serial")
+public class TelemetryClient extends JPanel implements TelemetryDecoder.Listener {
+	
+	private static final double WINDOW = 10; //Time shown, in seconds
+	private static final int HISTORY = 4096; //Samples kept per channel
+	private static final int REFRESH_TIME = 50; //In ms
+	private static final Color[] COLORS = {Color.BLUE, Color.RED, new Color(0, 128, 0), Color.MAGENTA, Color.ORANGE, Color.CYAN.darker(), Color.BLACK};
+	
+	private Object lock = new Object();
+	private String[] names = new String[0];
+	private long[][] times = new long[0][]; //Ring of the times of the samples of each channel (in us)
+	private float[][] values = new float[0][];
+	private int[] counts = new int[0]; //Number of samples received on each channel
+	private long latestTime = 0;
+	private volatile long dropped = 0;
+	
+	private DefaultListModel<String> channelModel = new DefaultListModel<String>();
+	private JList<String> channelList = new JList<String>(channelModel);
+	private JLabel status = new JLabel(" ");
+	
+	/**
+	 * constructs the plot panel
+	 */
+	public TelemetryClient() {
+		setPreferredSize(new Dimension(900, 600));
+		setBackground(Color.WHITE);
+	}
+	
+	/* (non-Javadoc)
+	 * @see telemetry.TelemetryDecoder.Listener#channelsChanged(java.lang.String[])
+	 */
+	@Override
+	public void channelsChanged(final String[] newNames) {
+		synchronized(lock) {
+			int old = names.length;
+			names = newNames;
+			times = Arrays.copyOf(times, names.length);
+			values = Arrays.copyOf(values, names.length);
+			counts = Arrays.copyOf(counts, names.length);
+			for(int i = old; i < names.length; i++) {
+				times[i] = new long[HISTORY];
+				values[i] = new float[HISTORY];
+			}
+		}
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				for(int i = channelModel.size(); i < newNames.length; i++)
+					channelModel.addElement(newNames[i]);
+			}
+		});
+	}
+	
+	/* (non-Javadoc)
+	 * @see telemetry.TelemetryDecoder.Listener#sample(int, long, float)
+	 */
+	@Override
+	public void sample(int channel, long time, float value) {
+		synchronized(lock) {
+			if(channel >= counts.length)
+				return; //Name not received yet
+			int index = counts[channel] % HISTORY;
+			times[channel][index] = time;
+			values[channel][index] = value;
+			counts[channel]++;
+			latestTime = Math.max(latestTime, time);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see telemetry.TelemetryDecoder.Listener#frameEnd(long)
+	 */
+	@Override
+	public void frameEnd(long dropped) {
+		this.dropped = dropped;
+	}
+	
+	/* (non-Javadoc)
+	 * @see javax.swing.JComponent#paintComponent(java.awt.Graphics)
+	 */
+	@Override
+	protected void paintComponent(Graphics g) {
+		super.paintComponent(g);
+		List<String> selected = channelList.getSelectedValuesList();
+		if(selected.isEmpty()) {
+			g.drawString("Select channels in the list", 20, 20);
+			return;
+		}
+		
+		int stripHeight = getHeight() / selected.size();
+		synchronized(lock) {
+			long start = latestTime - (long) (WINDOW * 1e6);
+			for(int s = 0; s < selected.size(); s++) {
+				int channel = channelModel.indexOf(selected.get(s));
+				int top = s * stripHeight;
+				g.setColor(Color.LIGHT_GRAY);
+				g.drawLine(0, top, getWidth(), top);
+				
+				//Scale the strip to the values shown
+				int count = Math.min(counts[channel], HISTORY);
+				float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+				for(int i = 0; i < count; i++) {
+					int index = (counts[channel] - 1 - i) % HISTORY;
+					if(times[channel][index] < start)
+						break;
+					min = Math.min(min, values[channel][index]);
+					max = Math.max(max, values[channel][index]);
+				}
+				if(min > max)
+					continue;
+				float range = (max > min)? max - min : 1;
+				
+				g.setColor(COLORS[s % COLORS.length]);
+				int previousX = -1, previousY = 0;
+				for(int i = count - 1; i >= 0; i--) {
+					int index = (counts[channel] - 1 - i) % HISTORY;
+					if(times[channel][index] < start)
+						continue;
+					int x = (int) ((times[channel][index] - start) / (WINDOW * 1e6) * getWidth());
+					int y = top + stripHeight - 5 - (int) ((values[channel][index] - min) / range * (stripHeight - 20));
+					if(previousX >= 0)
+						g.drawLine(previousX, previousY, x, y);
+					previousX = x;
+					previousY = y;
+				}
+				g.drawString(names[channel] + "  [" + min + ", " + max + "]  " + values[channel][(counts[channel] - 1) % HISTORY], 5, top + 12);
+			}
+		}
+	}
+	
+	/**
+	 * Connect to the robot and show the window
+	 * @param args the IP address of the robot and the port
+	 */
+	public static void main(String[] args) throws IOException {
+		String host = (args.length > 0)? args[0] : "10.0.1.1";
+		int port = (args.length > 1)? Integer.parseInt(args[1]) : Telemetry.PORT;
+		
+		final TelemetryClient plot = new TelemetryClient();
+		final Socket socket = new Socket(host, port);
+		final TelemetryDecoder decoder = new TelemetryDecoder(new BufferedInputStream(socket.getInputStream()));
+		
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				JFrame frame = new JFrame("Telemetry");
+				frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+				frame.add(new JScrollPane(plot.channelList), BorderLayout.WEST);
+				frame.add(plot, BorderLayout.CENTER);
+				frame.add(plot.status, BorderLayout.SOUTH);
+				frame.pack();
+				frame.setVisible(true);
+				
+				new Timer(REFRESH_TIME, new ActionListener() {
+					private long lastSamples = 0, lastTime = System.currentTimeMillis();
+					
+					@Override
+					public void actionPerformed(ActionEvent e) {
+						long now = System.currentTimeMillis();
+						if(now - lastTime >= 1000) {
+							long samples = decoder.getSampleCount();
+							plot.status.setText((samples - lastSamples) * 1000 / (now - lastTime) + " samples/s, " + decoder.getByteCount() / 1024 + " kB, " + plot.dropped + " dropped by the robot");
+							lastSamples = samples;
+							lastTime = now;
+						}
+						plot.repaint();
+					}
+				}).start();
+			}
+		});
+		
+		while(decoder.readFrame(plot));
+		socket.close();
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				plot.status.setText("Disconnected");
+			}
+		});
+	}
+}
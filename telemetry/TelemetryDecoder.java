@@ -0,0 +1,139 @@
+package telemetry;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+
+import main.Telemetry;
+
+/**
+ * Reads the frames sent by the telemetry publisher of the robot (see main.Telemetry for the format) and passes the samples to a listener.
+ *
+ * @version 1.0
+ */
+public class TelemetryDecoder {
+	
+	/**
+	 * Receives what the decoder reads
+	 */
+	public interface Listener {
+		/**
+		 * called when the robot sent the names of its channels
+		 * @param names the name of each channel, indexed by id
+		 */
+		void channelsChanged(String[] names);
+		
+		/**
+		 * called for every sample received
+		 * @param channel the id of the channel
+		 * @param time the time of the sample (in us since the publisher started)
+		 * @param value the value
+		 */
+		void sample(int channel, long time, float value);
+		
+		/**
+		 * called after every SAMPLES frame
+		 * @param dropped the number of samples the robot dropped so far
+		 */
+		void frameEnd(long dropped);
+	}
+	
+	private DataInputStream in;
+	private String[] names = new String[0];
+	private long frames = 0, samples = 0, bytes = 0;
+	
+	/**
+	 * constructs a decoder
+	 * @param in the stream to read from (ex: the stream of a socket connected to the robot)
+	 */
+	public TelemetryDecoder(InputStream in) {
+		this.in = new DataInputStream(in);
+	}
+	
+	/**
+	 * Read one frame. Blocks until it is received
+	 * @param listener the listener to pass the content of the frame to
+	 * @return false if the stream ended
+	 * @throws IOException if the stream is not made of telemetry frames
+	 */
+	public boolean readFrame(Listener listener) throws IOException {
+		short magic;
+		try {
+			magic = in.readShort();
+		} catch (EOFException e) {
+			return false;
+		}
+		if(magic != Telemetry.MAGIC)
+			throw new StreamCorruptedException("Invalid frame");
+		byte type = in.readByte();
+		int length = in.readShort() & 0xffff;
+		
+		switch(type) {
+		case Telemetry.CHANNELS:
+			int count = in.readShort();
+			for(int i = 0; i < count; i++) {
+				int id = in.readByte() & 0xff;
+				String name = in.readUTF();
+				if(id >= names.length)
+					names = Arrays.copyOf(names, id + 1);
+				names[id] = name;
+			}
+			listener.channelsChanged(names.clone());
+			break;
+		case Telemetry.SAMPLES:
+			long baseTime = in.readLong();
+			long dropped = in.readInt() & 0xffffffffL;
+			int sampleCount = in.readShort() & 0xffff;
+			for(int i = 0; i < sampleCount; i++) {
+				int channel = in.readByte() & 0xff;
+				long time = baseTime + in.readInt();
+				float value = in.readFloat();
+				listener.sample(channel, time, value);
+			}
+			samples += sampleCount;
+			listener.frameEnd(dropped);
+			break;
+		default: //Unknown frame, skip it
+			in.skipBytes(length);
+		}
+		
+		frames++;
+		bytes += Telemetry.HEADER_SIZE + length;
+		return true;
+	}
+	
+	/**
+	 * get the names of the channels received so far
+	 * @return the name of each channel, indexed by id
+	 */
+	public String[] getNames() {
+		return names.clone();
+	}
+	
+	/**
+	 * get the number of frames read
+	 * @return the number of frames
+	 */
+	public long getFrameCount() {
+		return frames;
+	}
+	
+	/**
+	 * get the number of samples read
+	 * @return the number of samples
+	 */
+	public long getSampleCount() {
+		return samples;
+	}
+	
+	/**
+	 * get the number of bytes read
+	 * @return the number of bytes
+	 */
+	public long getByteCount() {
+		return bytes;
+	}
+}
@@ -0,0 +1,245 @@
+package wifi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Non-blocking client retrieving the starting parameters from the competition server.
+ * The connection and the reads are done with a selector, so that every wait is bounded: connecting, waiting for the transmission and receiving the rest of it once it started each have their own timeout.
+ * The transmission is decoded into a StartConfig as it arrives.
+ * A failed attempt (server not reachable, connection dropped, transmission not complete) is retried after a delay that doubles every time, up to a maximum.
+ * A whole transmission that cannot be decoded is not retried: the server would send the same one again, so it ends the attempts with an InvalidTransmissionException.
+ * start() runs the handshake on its own thread and returns a handle to wait for the result, so that the robot can do other things meanwhile. call() runs it on the calling thread.
+ * Does not use the screen of the brick, so that it can run on any computer (ex: against the StandInServer).
+ *
+ * @version 1.0
+ */
+public class ConfigClient implements Callable<StartConfig> {
+	
+	/**
+	 * The port of team 0. Each team connects to this port plus its team number
+	 */
+	public static final int BASE_PORT = 2000;
+	
+	private static final int BUFFER_SIZE = 1024;
+	private static final long INITIAL_BACKOFF = 250; //Delay before the first retry (in ms)
+	private static final long MAX_BACKOFF = 4000;
+	
+	private String serverIP;
+	private int teamNumber;
+	private int port;
+	
+	private long connectTimeout = 2000; //In ms
+	private long transmissionTimeout = 0; //Maximum wait for the first byte of the transmission once connected (in ms). 0 waits until the server sends it
+	private long readTimeout = 2000; //Maximum wait for the rest of the transmission once it started (in ms)
+	private int maxAttempts = 5; //0 retries forever
+	
+	private volatile int attempts = 0;
+	private volatile long connectTime = -1, latency = -1; //Durations of the last successful attempt (in ms)
+	private volatile byte[] transmission; //Bytes received in the last successful attempt
+	
+	/**
+	 * constructs a client for a team. Nothing is sent until start() or call() is called
+	 * @param serverIP the IP address of the server
+	 * @param teamNumber the team number, which gives the port to connect to
+	 */
+	public ConfigClient(String serverIP, int teamNumber) {
+		this.serverIP = serverIP;
+		this.teamNumber = teamNumber;
+		this.port = BASE_PORT + teamNumber;
+	}
+	
+	/**
+	 * Run the handshake on its own thread
+	 * @return the handle completing with the starting parameters, or with the error of the last attempt if every attempt failed
+	 */
+	public Future<StartConfig> start() {
+		FutureTask<StartConfig> task = new FutureTask<StartConfig>(this);
+		Thread thread = new Thread(task, "ConfigClient");
+		thread.setDaemon(true); //Do not keep the program running if it ends before the server answers
+		thread.start();
+		return task;
+	}
+	
+	/**
+	 * Run the handshake on the calling thread, retrying until it succeeds or the maximum number of attempts is reached
+	 * @return the starting parameters
+	 * @throws InvalidTransmissionException if the transmission was received but cannot be decoded
+	 * @throws IOException the error of the last attempt if every attempt failed
+	 * @throws InterruptedException if the thread is interrupted while waiting for the server or before a retry
+	 */
+	@Override
+	public StartConfig call() throws IOException, InterruptedException {
+		long backoff = INITIAL_BACKOFF;
+		attempts = 0;
+		while(true) {
+			attempts++;
+			try {
+				return receive();
+			} catch (InvalidTransmissionException e) {
+				throw e;
+			} catch (IOException e) {
+				if(maxAttempts > 0 && attempts >= maxAttempts)
+					throw e;
+			}
+			
+			Thread.sleep(backoff);
+			backoff = Math.min(backoff * 2, MAX_BACKOFF);
+		}
+	}
+	
+	/**
+	 * Connect to the server and read the transmission once
+	 * @return the starting parameters
+	 * @throws InvalidTransmissionException if the transmission cannot be decoded
+	 */
+	private StartConfig receive() throws IOException, InterruptedException {
+		long startTime = System.currentTimeMillis();
+		SocketChannel channel = SocketChannel.open();
+		Selector selector = Selector.open();
+		
+		try {
+			channel.configureBlocking(false);
+			if(!channel.connect(new InetSocketAddress(serverIP, port))) {
+				channel.register(selector, SelectionKey.OP_CONNECT);
+				if(!select(selector, connectTimeout))
+					throw new SocketTimeoutException("Connection to " + serverIP + ":" + port + " timed out");
+				channel.finishConnect();
+			}
+			long connectedTime = System.currentTimeMillis();
+			
+			//Read until a whole map was received. The transmission is small, so it is decoded again from the start every time more of it arrives
+			channel.register(selector, SelectionKey.OP_READ);
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+			long timeout = transmissionTimeout;
+			while(true) {
+				if(!select(selector, timeout))
+					throw new SocketTimeoutException(buffer.position() == 0? "No transmission received" : "Transmission interrupted after " + buffer.position() + " bytes");
+				
+				if(!buffer.hasRemaining()) { //Make room for more
+					ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+					buffer.flip();
+					larger.put(buffer);
+					buffer = larger;
+				}
+				int count = channel.read(buffer);
+				if(count > 0)
+					timeout = readTimeout;
+				
+				try {
+					StartConfig config = StartConfig.decode(buffer.array(), buffer.position(), teamNumber);
+					connectTime = connectedTime - startTime;
+					latency = System.currentTimeMillis() - startTime;
+					transmission = Arrays.copyOf(buffer.array(), buffer.position());
+					return config;
+				} catch (EOFException e) {
+					//Not all received yet
+				} catch (IOException e) {
+					throw new InvalidTransmissionException(e);
+				}
+				if(count < 0)
+					throw new EOFException("Connection closed after " + buffer.position() + " bytes");
+			}
+		} finally {
+			selector.close();
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Wait until one of the channels registered with a selector is ready
+	 * @param timeout the maximum time to wait (in ms), 0 to wait forever
+	 * @return whether a channel is ready, false if the timeout expired
+	 */
+	private static boolean select(Selector selector, long timeout) throws IOException, InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while(true) {
+			long remaining = deadline - System.currentTimeMillis();
+			if(timeout > 0 && remaining <= 0)
+				return false;
+			if(selector.select(timeout > 0? remaining : 0) > 0) {
+				selector.selectedKeys().clear();
+				return true;
+			}
+			//The selector also wakes up when the thread is interrupted
+			if(Thread.interrupted())
+				throw new InterruptedException();
+		}
+	}
+	
+	/**
+	 * set the timeouts of an attempt
+	 * @param connectTimeout the maximum time to connect to the server (in ms)
+	 * @param transmissionTimeout the maximum time to wait for the server to start sending once connected (in ms), 0 to wait until it does
+	 * @param readTimeout the maximum time between two parts of the transmission (in ms)
+	 */
+	public void setTimeouts(long connectTimeout, long transmissionTimeout, long readTimeout) {
+		this.connectTimeout = connectTimeout;
+		this.transmissionTimeout = transmissionTimeout;
+		this.readTimeout = readTimeout;
+	}
+	
+	/**
+	 * set the number of attempts before giving up
+	 * @param maxAttempts the maximum number of attempts, 0 to retry until the server answers
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+	
+	/**
+	 * get the number of attempts made so far, including the one in progress
+	 * @return the number of attempts
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+	
+	/**
+	 * get the time it took to connect to the server in the successful attempt
+	 * @return the connection time (in ms), or -1 if no attempt succeeded yet
+	 */
+	public long getConnectTime() {
+		return connectTime;
+	}
+	
+	/**
+	 * get the bytes received in the successful attempt, to capture a transmission of the server (ex: for the StartConfigBenchmark)
+	 * @return the transmission, or null if no attempt succeeded yet
+	 */
+	public byte[] getTransmission() {
+		return transmission;
+	}
+	
+	/**
+	 * get the time from the start of the successful attempt until the whole transmission was received
+	 * @return the latency (in ms), or -1 if no attempt succeeded yet
+	 */
+	public long getLatency() {
+		return latency;
+	}
+	
+	/**
+	 * Thrown when the server sent a transmission that cannot be decoded into a StartConfig
+	 */
+	public static class InvalidTransmissionException extends IOException {
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * @param cause the error of the decoder
+		 */
+		public InvalidTransmissionException(IOException cause) {
+			super("Invalid transmission: " + cause.getMessage(), cause);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package wifi;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.concurrent.Future;
+
+/**
+ * Stand-in for the competition server, to test the handshake of the ConfigClient on a computer.
+ * Listens on the port of a team and sends the same transmission as the real server (a serialized HashMap<String, Integer>) to every client that connects, then closes the connection.
+ * The transmission can be delayed, like the real server does until the round is started.
+ * The main method starts a server on the local machine and measures the latency of a number of handshakes. Usage: StandInServer [teamNumber] [handshakes] [startDelay]
+ * where startDelay (in ms) delays the start of the server to check that the client retries.
+ *
+ * @version 1.0
+ */
+public class StandInServer implements Runnable {
+	
+	private int port;
+	private HashMap<String, Integer> data;
+	private long sendDelay = 0; //Time between a client connecting and the transmission (in ms)
+	
+	private ServerSocket serverSocket;
+	private volatile int served = 0;
+	
+	/**
+	 * constructs a server for a team. It does not listen until start() is called
+	 * @param teamNumber the team number, which gives the port to listen on
+	 * @param data the starting parameters to send
+	 */
+	public StandInServer(int teamNumber, HashMap<String, Integer> data) {
+		this.port = ConfigClient.BASE_PORT + teamNumber;
+		this.data = data;
+	}
+	
+	/**
+	 * Start listening, and answer the clients on a background thread
+	 * @throws IOException if the port cannot be opened
+	 */
+	public void start() throws IOException {
+		serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(new InetSocketAddress(port));
+		Thread thread = new Thread(this, "StandInServer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		while(!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				try {
+					if(sendDelay > 0)
+						Thread.sleep(sendDelay);
+					ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+					out.writeObject(data);
+					out.flush();
+					served++;
+				} catch (InterruptedException e) {
+					return;
+				} finally {
+					socket.close();
+				}
+			} catch (IOException e) {
+				if(!serverSocket.isClosed())
+					e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Stop listening
+	 */
+	public void close() {
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * set the time between a client connecting and the transmission
+	 * @param sendDelay the delay (in ms)
+	 */
+	public void setSendDelay(long sendDelay) {
+		this.sendDelay = sendDelay;
+	}
+	
+	/**
+	 * get the number of transmissions sent
+	 * @return the number of clients served
+	 */
+	public int getServed() {
+		return served;
+	}
+	
+	/**
+	 * get starting parameters like the ones of a round, with the given team playing forward
+	 * @param teamNumber the team number of the forward
+	 * @return the starting parameters
+	 */
+	public static HashMap<String, Integer> sampleData(int teamNumber) {
+		HashMap<String, Integer> data = new HashMap<String, Integer>();
+		data.put("OTN", teamNumber); //Forward team number
+		data.put("DTN", teamNumber + 1); //Defense team number
+		data.put("OSC", 1); //Forward starting corner
+		data.put("DSC", 3); //Defense starting corner
+		data.put("ll-x", 5); //Ball tray
+		data.put("ll-y", 5);
+		data.put("ur-x", 6);
+		data.put("ur-y", 6);
+		data.put("BC", 0); //Ball color
+		data.put("d1", 3); //Distance of the defense zone from the front wall
+		data.put("d2", 3); //Distance of the forward zone from the back wall
+		data.put("w1", 4); //Width of the defense zone
+		return data;
+	}
+	
+	/**
+	 * Measure the latency of handshakes with a server on the local machine
+	 * @param args the team number, the number of handshakes and the delay before the server starts (in ms)
+	 */
+	public static void main(String[] args) throws Exception {
+		int teamNumber = args.length > 0? Integer.parseInt(args[0]) : 5;
+		int handshakes = args.length > 1? Integer.parseInt(args[1]) : 20;
+		long startDelay = args.length > 2? Long.parseLong(args[2]) : 0;
+		
+		final StandInServer server = new StandInServer(teamNumber, sampleData(teamNumber));
+		ConfigClient client = new ConfigClient("127.0.0.1", teamNumber);
+		
+		//The first handshake starts before the server when there is a start delay, so it has to retry
+		long startTime = System.currentTimeMillis();
+		Future<StartConfig> result = client.start();
+		Thread.sleep(startDelay);
+		server.start();
+		StartConfig config = result.get();
+		System.out.println("First handshake: " + (System.currentTimeMillis() - startTime) + " ms, " + client.getAttempts() + " attempts, " + config);
+		HashMap<String, Integer> sent = sampleData(teamNumber);
+		for(String key: config.toMap().keySet()) {
+			if(!config.toMap().get(key).equals(sent.get(key)))
+				System.out.println("Transmission does not match: " + key);
+		}
+		
+		long min = Long.MAX_VALUE, max = 0, sum = 0;
+		for(int i = 0; i < handshakes; i++) {
+			client.call();
+			min = Math.min(min, client.getLatency());
+			max = Math.max(max, client.getLatency());
+			sum += client.getLatency();
+		}
+		if(handshakes > 0)
+			System.out.println(handshakes + " handshakes: min " + min + " ms, mean " + (double) sum / handshakes + " ms, max " + max + " ms");
+		
+		server.close();
+	}
+}
@@ -0,0 +1,461 @@
+package wifi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The starting parameters of a round, as read from the transmission of the server.
+ * The server sends a serialized HashMap<String, Integer>. Instead of deserializing it with an ObjectInputStream (slow to load and to run on the brick, and able to instantiate any class),
+ * decode() reads the serialization stream directly: it only accepts a HashMap of Strings to Integers, and copies the values it knows into primitive fields.
+ * Back references (the stream writes an object or a class only once and refers to it afterwards, ex: the small Integers that are cached) are tracked with a table of handles.
+ * The role and the starting corner of the robot depend on whether its team number is the one of the defender.
+ * Immutable: withZones() returns a copy.
+ *
+ * @version 1.0
+ */
+public final class StartConfig {
+	
+	/**
+	 * Role of the robot that plays forward
+	 */
+	public static final int FORWARD = 0;
+	/**
+	 * Role of the robot that plays defense
+	 */
+	public static final int DEFENSE = 1;
+	
+	//Keys of the parameters read from the transmission, and their index in the array filled by the decoder
+	private static final String[] KEYS = {"OTN", "DTN", "OSC", "DSC", "ll-x", "ll-y", "ur-x", "ur-y", "d1", "d2"};
+	private static final int OTN = 0, DTN = 1, OSC = 2, DSC = 3, LLX = 4, LLY = 5, URX = 6, URY = 7, D1 = 8, D2 = 9;
+	private static final int MISSING = Integer.MIN_VALUE;
+	
+	private final int role;
+	private final int startingCorner;
+	private final int forwardTeam, defenseTeam;
+	private final int forwardCorner, defenseCorner;
+	private final int trayLowerLeftX, trayLowerLeftY, trayUpperRightX, trayUpperRightY;
+	private final int d1, d2;
+	
+	private StartConfig(int role, int forwardTeam, int defenseTeam, int forwardCorner, int defenseCorner, int trayLowerLeftX, int trayLowerLeftY, int trayUpperRightX, int trayUpperRightY, int d1, int d2) {
+		this.forwardTeam = forwardTeam;
+		this.defenseTeam = defenseTeam;
+		this.forwardCorner = forwardCorner;
+		this.defenseCorner = defenseCorner;
+		this.trayLowerLeftX = trayLowerLeftX;
+		this.trayLowerLeftY = trayLowerLeftY;
+		this.trayUpperRightX = trayUpperRightX;
+		this.trayUpperRightY = trayUpperRightY;
+		this.d1 = d1;
+		this.d2 = d2;
+		
+		this.role = role;
+		startingCorner = (role == DEFENSE)? defenseCorner : forwardCorner;
+	}
+	
+	/**
+	 * Decode the transmission of the server
+	 * @param bytes the bytes received
+	 * @param length the number of bytes received
+	 * @param teamNumber the team number of the robot, which gives its role
+	 * @return the starting parameters
+	 * @throws EOFException if the transmission is not complete yet
+	 * @throws IOException if the transmission is not a map of Strings to Integers, or a parameter is missing
+	 */
+	public static StartConfig decode(byte[] bytes, int length, int teamNumber) throws IOException {
+		return fromValues(new Decoder(bytes, length).readMap(), teamNumber);
+	}
+	
+	/**
+	 * get the parameters from a map like the one sent by the server (ex: StandInServer.sampleData(), or a simulated match)
+	 * @param map the parameters, by key
+	 * @param teamNumber the team number of the robot, which gives its role
+	 * @return the starting parameters
+	 * @throws IOException if a parameter is missing
+	 */
+	public static StartConfig fromMap(Map<String, Integer> map, int teamNumber) throws IOException {
+		int[] values = new int[KEYS.length];
+		for(int i = 0; i < KEYS.length; i++) {
+			Integer value = map.get(KEYS[i]);
+			values[i] = (value == null)? MISSING : value;
+		}
+		return fromValues(values, teamNumber);
+	}
+	
+	/**
+	 * get the parameters from their values, in the order of KEYS
+	 */
+	private static StartConfig fromValues(int[] values, int teamNumber) throws IOException {
+		for(int i = 0; i < KEYS.length; i++) {
+			if(values[i] == MISSING && i != OTN)
+				throw new IOException("Missing parameter " + KEYS[i] + " in the transmission");
+		}
+		int role = (values[DTN] == teamNumber)? DEFENSE : FORWARD;
+		return new StartConfig(role, values[OTN], values[DTN], values[OSC], values[DSC], values[LLX], values[LLY], values[URX], values[URY], values[D1], values[D2]);
+	}
+	
+	/**
+	 * get a copy of the parameters with other zone distances (ex: to avoid localizing on a crack between two boards)
+	 * @param d1 the distance of the defense zone from the front wall (in tiles)
+	 * @param d2 the distance of the forward zone from the back wall (in tiles)
+	 * @return the new parameters
+	 */
+	public StartConfig withZones(int d1, int d2) {
+		return new StartConfig(role, forwardTeam, defenseTeam, forwardCorner, defenseCorner, trayLowerLeftX, trayLowerLeftY, trayUpperRightX, trayUpperRightY, d1, d2);
+	}
+	
+	/**
+	 * get the parameters as the map sent by the server, as used by WifiConnection.StartData
+	 * @return a new map holding the parameters
+	 */
+	public HashMap<String, Integer> toMap() {
+		HashMap<String, Integer> map = new HashMap<String, Integer>();
+		if(forwardTeam != MISSING)
+			map.put("OTN", forwardTeam);
+		map.put("DTN", defenseTeam);
+		map.put("OSC", forwardCorner);
+		map.put("DSC", defenseCorner);
+		map.put("ll-x", trayLowerLeftX);
+		map.put("ll-y", trayLowerLeftY);
+		map.put("ur-x", trayUpperRightX);
+		map.put("ur-y", trayUpperRightY);
+		map.put("d1", d1);
+		map.put("d2", d2);
+		return map;
+	}
+	
+	/**
+	 * get the role of the robot
+	 * @return FORWARD or DEFENSE
+	 */
+	public int getRole() {
+		return role;
+	}
+	
+	/**
+	 * get the corner the robot starts in, depending on its role
+	 * @return the starting corner (1 to 4, counterclockwise from the bottom left)
+	 */
+	public int getStartingCorner() {
+		return startingCorner;
+	}
+	
+	/**
+	 * get the team number of the forward
+	 * @return the team number, or Integer.MIN_VALUE if the server did not send it
+	 */
+	public int getForwardTeam() {
+		return forwardTeam;
+	}
+	
+	/**
+	 * get the team number of the defender
+	 * @return the team number
+	 */
+	public int getDefenseTeam() {
+		return defenseTeam;
+	}
+	
+	/**
+	 * get the corner the forward starts in
+	 * @return the starting corner of the forward
+	 */
+	public int getForwardCorner() {
+		return forwardCorner;
+	}
+	
+	/**
+	 * get the corner the defender starts in
+	 * @return the starting corner of the defender
+	 */
+	public int getDefenseCorner() {
+		return defenseCorner;
+	}
+	
+	/**
+	 * get the x position of the lower left corner of the ball tray
+	 * @return the position (in tiles)
+	 */
+	public int getTrayLowerLeftX() {
+		return trayLowerLeftX;
+	}
+	
+	/**
+	 * get the y position of the lower left corner of the ball tray
+	 * @return the position (in tiles)
+	 */
+	public int getTrayLowerLeftY() {
+		return trayLowerLeftY;
+	}
+	
+	/**
+	 * get the x position of the upper right corner of the ball tray
+	 * @return the position (in tiles)
+	 */
+	public int getTrayUpperRightX() {
+		return trayUpperRightX;
+	}
+	
+	/**
+	 * get the y position of the upper right corner of the ball tray
+	 * @return the position (in tiles)
+	 */
+	public int getTrayUpperRightY() {
+		return trayUpperRightY;
+	}
+	
+	/**
+	 * get the distance of the defense zone from the front wall
+	 * @return the distance (in tiles)
+	 */
+	public int getD1() {
+		return d1;
+	}
+	
+	/**
+	 * get the distance of the forward zone from the back wall
+	 * @return the distance (in tiles)
+	 */
+	public int getD2() {
+		return d2;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "StartConfig" + toMap() + " role=" + role + " SC=" + startingCorner;
+	}
+	
+	/**
+	 * Reader of the Java serialization stream, limited to what a HashMap<String, Integer> is made of: class descriptions, Strings, Integers and back references.
+	 * See the Java Object Serialization Specification, chapter 6
+	 */
+	private static class Decoder {
+		
+		private static final short STREAM_MAGIC = (short) 0xaced;
+		private static final short STREAM_VERSION = 5;
+		private static final byte TC_NULL = 0x70, TC_REFERENCE = 0x71, TC_CLASSDESC = 0x72, TC_OBJECT = 0x73, TC_STRING = 0x74, TC_BLOCKDATA = 0x77, TC_ENDBLOCKDATA = 0x78;
+		private static final int BASE_HANDLE = 0x7e0000;
+		private static final byte SC_WRITE_METHOD = 0x01;
+		
+		private byte[] bytes;
+		private int length;
+		private int position = 0;
+		private ArrayList<Object> handles = new ArrayList<Object>(); //Object of each handle: a ClassDesc, a String, an Integer, or null for the map
+		
+		private Decoder(byte[] bytes, int length) {
+			this.bytes = bytes;
+			this.length = length;
+		}
+		
+		/**
+		 * Read the map of the stream
+		 * @return the value of each key in KEYS, MISSING for the keys that are not in the map. Other keys are ignored
+		 */
+		private int[] readMap() throws IOException {
+			if(readShort() != STREAM_MAGIC || readShort() != STREAM_VERSION)
+				throw new StreamCorruptedException("Invalid stream header");
+			if(readByte() != TC_OBJECT)
+				throw new StreamCorruptedException("The transmission is not an object");
+			ClassDesc desc = readClassDesc();
+			if(desc == null || !desc.name.equals("java.util.HashMap"))
+				throw new StreamCorruptedException("The transmission is not a HashMap");
+			handles.add(null);
+			
+			//Fields of the HashMap (loadFactor and threshold), then the data of its writeObject method: the number of buckets and of entries, then the keys and values
+			skipFields(desc);
+			if(readByte() != TC_BLOCKDATA)
+				throw new StreamCorruptedException("Missing the size of the HashMap");
+			int blockEnd = (readByte() & 0xff) + position;
+			if(blockEnd - position < 8)
+				throw new StreamCorruptedException("Missing the size of the HashMap");
+			readInt(); //Number of buckets
+			int size = readInt();
+			position = blockEnd;
+			
+			int[] values = new int[KEYS.length];
+			for(int i = 0; i < values.length; i++)
+				values[i] = MISSING;
+			for(int i = 0; i < size; i++) {
+				Object key = readContent();
+				Object value = readContent();
+				if(!(key instanceof String) || !(value instanceof Integer))
+					throw new StreamCorruptedException("The HashMap does not map Strings to Integers");
+				for(int k = 0; k < KEYS.length; k++) {
+					if(KEYS[k].equals(key))
+						values[k] = (Integer) value;
+				}
+			}
+			
+			if(readByte() != TC_ENDBLOCKDATA)
+				throw new StreamCorruptedException("Unexpected data after the HashMap");
+			return values;
+		}
+		
+		/**
+		 * Read a String, an Integer, null or a reference to one of them
+		 */
+		private Object readContent() throws IOException {
+			byte type = readByte();
+			switch(type) {
+			case TC_NULL:
+				return null;
+			case TC_REFERENCE:
+				return readHandle();
+			case TC_STRING:
+				String string = readUTF();
+				handles.add(string);
+				return string;
+			case TC_OBJECT:
+				ClassDesc desc = readClassDesc();
+				if(desc == null || !desc.name.equals("java.lang.Integer") || (desc.flags & SC_WRITE_METHOD) != 0 || desc.types.length != 1 || desc.types[0] != 'I')
+					throw new StreamCorruptedException("Unexpected object in the HashMap: " + (desc == null? null : desc.name));
+				int handle = handles.size();
+				handles.add(null);
+				//The fields of the superclasses come first (Number has none), then the value
+				skipFields(desc.superDesc);
+				Integer value = readInt();
+				handles.set(handle, value);
+				return value;
+			default:
+				throw new StreamCorruptedException("Unexpected type code " + type);
+			}
+		}
+		
+		/**
+		 * Read a class description, or a reference to one
+		 * @return the class description, or null for TC_NULL
+		 */
+		private ClassDesc readClassDesc() throws IOException {
+			byte type = readByte();
+			switch(type) {
+			case TC_NULL:
+				return null;
+			case TC_REFERENCE:
+				Object desc = readHandle();
+				if(!(desc instanceof ClassDesc))
+					throw new StreamCorruptedException("Reference to a class expected");
+				return (ClassDesc) desc;
+			case TC_CLASSDESC:
+				ClassDesc newDesc = new ClassDesc();
+				newDesc.name = readUTF();
+				readLong(); //serialVersionUID
+				handles.add(newDesc);
+				newDesc.flags = readByte();
+				int fieldCount = readShort();
+				newDesc.types = new char[fieldCount];
+				for(int i = 0; i < fieldCount; i++) {
+					newDesc.types[i] = (char) readByte();
+					readUTF(); //Name of the field
+					if(newDesc.types[i] == 'L' || newDesc.types[i] == '[')
+						readContent(); //Class name of the field
+				}
+				if(readByte() != TC_ENDBLOCKDATA) //No class annotations
+					throw new StreamCorruptedException("Unexpected class annotation");
+				newDesc.superDesc = readClassDesc();
+				return newDesc;
+			default:
+				throw new StreamCorruptedException("Unexpected type code " + type + " for a class");
+			}
+		}
+		
+		/**
+		 * Skip the primitive fields of an object, from its first superclass down to its class. Object fields are not expected
+		 */
+		private void skipFields(ClassDesc desc) throws IOException {
+			if(desc == null)
+				return;
+			skipFields(desc.superDesc);
+			for(char type: desc.types) {
+				switch(type) {
+				case 'B': case 'Z': position += 1; break;
+				case 'C': case 'S': position += 2; break;
+				case 'I': case 'F': position += 4; break;
+				case 'J': case 'D': position += 8; break;
+				default: throw new StreamCorruptedException("Unexpected field type " + type);
+				}
+			}
+			if(position > length)
+				throw new EOFException();
+		}
+		
+		private Object readHandle() throws IOException {
+			int handle = readInt() - BASE_HANDLE;
+			if(handle < 0 || handle >= handles.size())
+				throw new StreamCorruptedException("Invalid handle");
+			return handles.get(handle);
+		}
+		
+		private byte readByte() throws IOException {
+			require(1);
+			return bytes[position++];
+		}
+		
+		private short readShort() throws IOException {
+			require(2);
+			short value = (short) (((bytes[position] & 0xff) << 8) | (bytes[position + 1] & 0xff));
+			position += 2;
+			return value;
+		}
+		
+		private int readInt() throws IOException {
+			require(4);
+			int value = ((bytes[position] & 0xff) << 24) | ((bytes[position + 1] & 0xff) << 16) | ((bytes[position + 2] & 0xff) << 8) | (bytes[position + 3] & 0xff);
+			position += 4;
+			return value;
+		}
+		
+		private long readLong() throws IOException {
+			return ((long) readInt() << 32) | (readInt() & 0xffffffffL);
+		}
+		
+		/**
+		 * Read a String in modified UTF-8. The keys are ASCII, other characters are decoded up to 3 bytes
+		 */
+		private String readUTF() throws IOException {
+			int utfLength = readShort() & 0xffff;
+			require(utfLength);
+			char[] chars = new char[utfLength];
+			int count = 0;
+			int end = position + utfLength;
+			while(position < end) {
+				int c = bytes[position++] & 0xff;
+				if(c < 0x80)
+					chars[count++] = (char) c;
+				else if((c & 0xe0) == 0xc0 && position < end)
+					chars[count++] = (char) (((c & 0x1f) << 6) | (bytes[position++] & 0x3f));
+				else if((c & 0xf0) == 0xe0 && position + 1 < end) {
+					chars[count++] = (char) (((c & 0x0f) << 12) | ((bytes[position] & 0x3f) << 6) | (bytes[position + 1] & 0x3f));
+					position += 2;
+				}
+				else
+					throw new StreamCorruptedException("Invalid UTF-8 string");
+			}
+			return new String(chars, 0, count);
+		}
+		
+		/**
+		 * Check that enough bytes were received
+		 * @throws EOFException if the transmission stops before
+		 */
+		private void require(int count) throws EOFException {
+			if(position + count > length)
+				throw new EOFException();
+		}
+	}
+	
+	/**
+	 * Description of a class in the serialization stream: what is needed to skip the fields of its objects
+	 */
+	private static class ClassDesc {
+		private String name;
+		private byte flags;
+		private char[] types; //Type code of each field
+		private ClassDesc superDesc;
+	}
+}
@@ -0,0 +1,113 @@
+package wifi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+
+/**
+ * Microbenchmark comparing StartConfig.decode() with an ObjectInputStream deserializing the same transmission, as ParseTransmission does.
+ * The transmission is read from a file captured from the server if one is given, otherwise it is the one of the StandInServer.
+ * The first call of each method is timed on its own, since it includes loading the classes it uses, then both are warmed up and timed over many calls.
+ * Usage: StartConfigBenchmark [transmission file] [iterations]
+ * To capture a transmission from a server into a file: StartConfigBenchmark -capture serverIP teamNumber file
+ *
+ * @version 1.0
+ */
+public class StartConfigBenchmark {
+	
+	private static final int TEAM_NUMBER = 5;
+	private static final int WARM_UP = 20000;
+	
+	private static int sink; //Keeps the results used so that the calls are not optimized away
+	
+	public static void main(String[] args) throws Exception {
+		if(args.length == 4 && args[0].equals("-capture")) {
+			ConfigClient client = new ConfigClient(args[1], Integer.parseInt(args[2]));
+			System.out.println("Received " + client.call());
+			FileOutputStream out = new FileOutputStream(args[3]);
+			out.write(client.getTransmission());
+			out.close();
+			return;
+		}
+		
+		byte[] transmission = (args.length > 0)? readFile(args[0]) : capture(StandInServer.sampleData(TEAM_NUMBER));
+		int iterations = (args.length > 1)? Integer.parseInt(args[1]) : 200000;
+		System.out.println("Transmission: " + transmission.length + " bytes");
+		
+		//Cold calls, including class loading
+		long start = System.nanoTime();
+		StartConfig config = StartConfig.decode(transmission, transmission.length, TEAM_NUMBER);
+		System.out.println("First decode: " + (System.nanoTime() - start) / 1000 + " us");
+		start = System.nanoTime();
+		HashMap<String, Integer> map = deserialize(transmission);
+		System.out.println("First ObjectInputStream: " + (System.nanoTime() - start) / 1000 + " us");
+		
+		if(!config.toMap().equals(subset(map, config.toMap())))
+			System.out.println("The results differ: " + config.toMap() + " " + map);
+		
+		for(int i = 0; i < WARM_UP; i++) {
+			sink += StartConfig.decode(transmission, transmission.length, TEAM_NUMBER).getD1();
+			sink += deserialize(transmission).size();
+		}
+		
+		start = System.nanoTime();
+		for(int i = 0; i < iterations; i++)
+			sink += StartConfig.decode(transmission, transmission.length, TEAM_NUMBER).getD1();
+		double decodeTime = (double) (System.nanoTime() - start) / iterations;
+		
+		start = System.nanoTime();
+		for(int i = 0; i < iterations; i++)
+			sink += deserialize(transmission).get("d1");
+		double deserializeTime = (double) (System.nanoTime() - start) / iterations;
+		
+		System.out.println("decode: " + Math.round(decodeTime) + " ns/op, ObjectInputStream: " + Math.round(deserializeTime) + " ns/op (" + Math.round(deserializeTime / decodeTime) + "x)");
+		System.out.println("Checksum: " + sink);
+	}
+	
+	/**
+	 * Deserialize the transmission like ParseTransmission does
+	 */
+	@SuppressWarnings("unchecked")
+	private static HashMap<String, Integer> deserialize(byte[] transmission) throws IOException, ClassNotFoundException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(transmission));
+		return (HashMap<String, Integer>) in.readObject();
+	}
+	
+	/**
+	 * Serialize a map like the server does
+	 */
+	private static byte[] capture(HashMap<String, Integer> data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(data);
+		out.close();
+		return bytes.toByteArray();
+	}
+	
+	private static byte[] readFile(String fileName) throws IOException {
+		InputStream in = new FileInputStream(fileName);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int count;
+		while((count = in.read(buffer)) > 0)
+			bytes.write(buffer, 0, count);
+		in.close();
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * get the entries of a map whose keys are in another map
+	 */
+	private static HashMap<String, Integer> subset(HashMap<String, Integer> map, HashMap<String, Integer> keys) {
+		HashMap<String, Integer> subset = new HashMap<String, Integer>();
+		for(String key: keys.keySet())
+			subset.put(key, map.get(key));
+		return subset;
+	}
+}
@@ -15,7 +15,6 @@
 package wifi;
 
 import java.io.*;
-import java.net.Socket;
 import java.util.HashMap;
 
 import lejos.hardware.ev3.LocalEV3;
@@ -26,7 +25,8 @@ import lejos.hardware.lcd.TextLCD;
  * and then allows access to the data after closing the wifi socket.
  * 
  * It should be used by calling the constructor which will automatically wait for
- * data without any further user command
+ * data without any further user command. To wait in the background instead, or to get the
+ * parameters as a StartConfig, use a ConfigClient
  * 
  * Once completed, the HashMap<String,Integer> with the start values is accessible from the field StartData
  */
@@ -41,34 +41,23 @@ public class WifiConnection {
 	}
 	
 	
+	/*
+	 * Retrieve the starting data with a ConfigClient: the connection and the reads have timeouts, and failed attempts are retried.
+	 * Throws the error of the last attempt instead of leaving StartData null
+	 */
 	public WifiConnection(String serverIP, int teamNumber) throws IOException {
 		LCD.clear();
 		LCD.drawString("WC called", 0, 2);
 		
-		// Open connection to the server and data streams
-		int port = 2000 + teamNumber; //semi-abritrary port number"
 		LCD.drawString("Opening wifi connection to server at IP: " + serverIP, 0, 3);
-	    Socket socketClient = new Socket(serverIP, port);
-	    LCD.drawString("Connected to server", 0, 1);
-		DataOutputStream dos = new DataOutputStream(socketClient.getOutputStream());
-		DataInputStream dis = new DataInputStream(socketClient.getInputStream());
-
-		// Wait for the server transmission to arrive
-		LCD.drawString("Waiting for transmission...", 0, 2);
-		while(dis.available() <= 0)
-			try {Thread.sleep(10);} catch (InterruptedException e) {}
-		LCD.drawString("Receiving transmission", 0, 3);		
-		
-		// Parse transmission
-		this.StartData = ParseTransmission.parseData(dis);
-		LCD.drawString("Finished parsing", 0, 4);
-		
-		// End the wifi connection
-		dis.close();
-		dos.close();
-		socketClient.close();
+		ConfigClient client = new ConfigClient(serverIP, teamNumber);
+		try {
+			this.StartData = client.call().toMap();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted while waiting for the transmission");
+		}
+		LCD.drawString("Received after " + client.getAttempts() + " attempts", 0, 4);
 		LCD.drawString("Connection terminated", 0, 5);
-		
 	}
 	
 }